@@ -24,6 +24,7 @@ package net.onrc.openvirtex.core;
 
 import net.onrc.openvirtex.core.cmd.CmdLineSettings;
 import net.onrc.openvirtex.exceptions.OpenVirteXException;
+import net.onrc.openvirtex.messages.PacketInBucket;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -48,9 +49,14 @@ public class OpenVirteX {
 			System.exit(1);
 		}
 
+		PacketInBucket.configure(settings.getPortPacketInRate(),
+				settings.getTenantPacketInRate(),
+				settings.getCtrlPacketInRate(),
+				settings.getPacketInSuppress());
 		OpenVirteXController ctrl = new OpenVirteXController(
 				settings.getConfigFile(), settings.getOFHost(),
-				settings.getOFPort(), settings.getNumberOfVirtualNets());
+				settings.getOFPort(), settings.getNumberOfVirtualNets(),
+				settings.getAffinity());
 		log.info("Starting OpenVirtex...");
 		ctrl.run();
 	}
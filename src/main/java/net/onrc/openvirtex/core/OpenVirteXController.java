@@ -23,7 +23,9 @@
 package net.onrc.openvirtex.core;
 
 import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import net.onrc.openvirtex.api.APIServer;
 import net.onrc.openvirtex.core.io.ClientChannelPipeline;
@@ -43,6 +45,9 @@ import org.jboss.netty.channel.group.ChannelGroup;
 import org.jboss.netty.channel.group.DefaultChannelGroup;
 import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
 import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.execution.ExecutionHandler;
+import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
+import org.jboss.netty.util.HashedWheelTimer;
 
 
 public class OpenVirteXController implements Runnable {
@@ -50,6 +55,18 @@ public class OpenVirteXController implements Runnable {
     Logger log = LogManager.getLogger(OpenVirteXController.class.getName());
 
     private static final int SEND_BUFFER_SIZE = 1024 * 1024;
+    
+    /*
+     * The I/O and worker model is shared by every physical and tenant
+     * channel, so the number of threads only depends on the number of cores
+     * and not on the number of virtual switches.
+     */
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+    private static final int IO_WORKERS = CORES * 2;
+    private static final int PIPELINE_WORKERS = CORES * 2;
+    private static final long MAX_CHANNEL_MEMORY = 1048576;
+    private static final long MAX_TOTAL_MEMORY = MAX_CHANNEL_MEMORY * PIPELINE_WORKERS;
+    
     private static OpenVirteXController instance = null;
     
     
@@ -59,9 +76,24 @@ public class OpenVirteXController implements Runnable {
     APIServer server;
 
 
-    private NioClientSocketChannelFactory clientSockets = new NioClientSocketChannelFactory(
-	    Executors.newCachedThreadPool(), 
-	    Executors.newCachedThreadPool());
+    private final ExecutorService bossPool = Executors.newCachedThreadPool();
+    private final ExecutorService workerPool = Executors.newCachedThreadPool();
+
+    private final NioClientSocketChannelFactory clientSockets = new NioClientSocketChannelFactory(
+	    bossPool, workerPool, IO_WORKERS);
+    private final NioServerSocketChannelFactory serverSockets = new NioServerSocketChannelFactory(
+	    bossPool, workerPool, IO_WORKERS);
+
+    /** Timer wheel used by all channels for idle, read and handshake timeouts */
+    private final HashedWheelTimer timer = new HashedWheelTimer();
+    
+    /*
+     * Ordered executor used by all channels to run the OpenFlow handlers.
+     * Left null in affinity mode, where each channel is served entirely by
+     * the I/O worker it is bound to.
+     */
+    private final ThreadPoolExecutor pipelineExecutor;
+    private final ExecutionHandler executionHandler;
 
     private final ChannelGroup sg = new DefaultChannelGroup();
     private final ChannelGroup cg = new DefaultChannelGroup();
@@ -72,10 +104,29 @@ public class OpenVirteXController implements Runnable {
     private int maxVirtual = 0;
 
     public OpenVirteXController(String configFile, String ofHost, Integer ofPort, int maxVirtual) {
+	this(configFile, ofHost, ofPort, maxVirtual, false);
+    }
+
+    /**
+     * @param affinity if true, messages of a switch are decoded, virtualized
+     * and written by the single I/O worker its channel is pinned to, instead
+     * of being handed off to the shared pipeline executor. Per-switch
+     * ordering is preserved because a channel never changes worker.
+     */
+    public OpenVirteXController(String configFile, String ofHost, Integer ofPort, 
+	    int maxVirtual, boolean affinity) {
 	this.configFile = configFile;
 	this.ofHost = ofHost;
 	this.ofPort = ofPort;
 	this.maxVirtual  = maxVirtual;
+	if (affinity) {
+	    this.pipelineExecutor = null;
+	    this.executionHandler = null;
+	} else {
+	    this.pipelineExecutor = new OrderedMemoryAwareThreadPoolExecutor(
+		    PIPELINE_WORKERS, MAX_CHANNEL_MEMORY, MAX_TOTAL_MEMORY);
+	    this.executionHandler = new ExecutionHandler(pipelineExecutor);
+	}
 	instance = this;
     }
 
@@ -94,7 +145,7 @@ public class OpenVirteXController implements Runnable {
 
 	    setServerBootStrapParams(switchServerBootStrap);
 
-	    pfact = new SwitchChannelPipeline(this, null);
+	    pfact = new SwitchChannelPipeline(this, executionHandler, timer);
 	    switchServerBootStrap.setPipelineFactory(pfact);
 	    InetSocketAddress sa = (ofHost == null) ? new InetSocketAddress(
 		    ofPort) : new InetSocketAddress(ofHost, ofPort);
@@ -116,7 +167,7 @@ public class OpenVirteXController implements Runnable {
 	final InetSocketAddress remoteAddr = new InetSocketAddress(host, port);
 	clientBootStrap.setOption("remoteAddress", remoteAddr);
 
-	cfact = new ClientChannelPipeline(this, cg, null,
+	cfact = new ClientChannelPipeline(this, cg, executionHandler, timer,
 		clientBootStrap, sw);
 	clientBootStrap.setPipelineFactory(cfact);
 
@@ -160,9 +211,7 @@ public class OpenVirteXController implements Runnable {
     }
 
     private ServerBootstrap createServerBootStrap() {
-	return new ServerBootstrap(new NioServerSocketChannelFactory(
-		Executors.newCachedThreadPool(),
-		Executors.newCachedThreadPool()));
+	return new ServerBootstrap(serverSockets);
     }
     
     private void startServer() {
@@ -192,6 +241,17 @@ public class OpenVirteXController implements Runnable {
 	if (cfact != null)
 	    cfact.releaseExternalResources();
 	
+	/*
+	 * The timer, executor and socket factories are shared by all
+	 * pipelines so they are only released once here.
+	 */
+	PhysicalNetwork.getInstance().shutdown();
+	timer.stop();
+	if (executionHandler != null)
+	    executionHandler.releaseExternalResources();
+	clientSockets.releaseExternalResources();
+	serverSockets.releaseExternalResources();
+	
 	stopServer();
     }
     
@@ -44,6 +44,21 @@ public class CmdLineSettings {
     @Option(name = "-n", aliases = "--numVirtual", metaVar = "INT", usage = "The number of virtual networks")
     private Integer numVirtual = DEFAULT_NUMBER_VIRT_NETS;
 
+    @Option(name = "-a", aliases = "--affinity", usage = "Run each switch on the I/O worker of its channel, without executor hand-off")
+    private boolean affinity = false;
+
+    @Option(name = "--portPacketInRate", metaVar = "INT", usage = "Packet ins per second accepted from each physical port, 0 for no limit")
+    private Long portPacketInRate = 0L;
+
+    @Option(name = "--tenantPacketInRate", metaVar = "INT", usage = "Packet ins per second sent to each virtual network, 0 for no limit")
+    private Long tenantPacketInRate = 0L;
+
+    @Option(name = "--ctrlPacketInRate", metaVar = "INT", usage = "Packet ins per second sent to the controller of each virtual switch, 0 for no limit")
+    private Long ctrlPacketInRate = 0L;
+
+    @Option(name = "--packetInSuppress", metaVar = "INT", usage = "Seconds for which a host over a packet in limit is dropped by its switch, 0 to never install such rules")
+    private Short packetInSuppress = 0;
+
     public String getConfigFile() {
 	return configFile;
     }
@@ -60,4 +75,24 @@ public class CmdLineSettings {
 	return OVXUtil.NUMBITSNEEDED(numVirtual);
     }
 
+    public boolean getAffinity() {
+	return affinity;
+    }
+
+    public Long getPortPacketInRate() {
+	return portPacketInRate;
+    }
+
+    public Long getTenantPacketInRate() {
+	return tenantPacketInRate;
+    }
+
+    public Long getCtrlPacketInRate() {
+	return ctrlPacketInRate;
+    }
+
+    public Short getPacketInSuppress() {
+	return packetInSuppress;
+    }
+
 }
@@ -0,0 +1,194 @@
+/**
+ *  Copyright (c) 2013 Open Networking Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.onrc.openvirtex.core.io;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.openflow.protocol.OFMessage;
+
+/**
+ * Outbound message queue of a channel. Messages sent while an inbound batch
+ * is being processed on the current thread (see {@link #beginBatch()} and
+ * {@link #endBatch()}) are collected and written to the channel as a single
+ * list, which the {@link OVXMessageEncoder} turns into a single buffer and a
+ * single write. Outside of a batch, messages are written immediately.
+ *
+ * A queue is flushed early if it holds more than MAX_BATCH_BYTES or if its
+ * oldest message has been waiting for more than MAX_BATCH_DELAY. The delay
+ * is checked as messages are written and between the inbound messages of a
+ * batch (see {@link #flushDue()}), so a long batch does not hold back the
+ * output to a channel it wrote to once.
+ *
+ * A channel has a single queue (see {@link #forChannel(Channel)}), shared by
+ * the switch and the channel handler, so all messages go out in the order
+ * they were sent.
+ */
+public class ChannelWriteQueue {
+
+    private static final int MAX_BATCH_BYTES = 64 * 1024;
+    private static final long MAX_BATCH_DELAY = 2 * 1000 * 1000; // ns
+
+    /*
+     * Queues that received messages during the batch open on this thread, in
+     * the order they were first written to.
+     */
+    private static final ThreadLocal<Batch> batches = new ThreadLocal<Batch>() {
+	@Override
+	protected Batch initialValue() {
+	    return new Batch();
+	}
+    };
+
+    private static class Batch {
+	private int depth = 0;
+	private final Set<ChannelWriteQueue> dirty = new LinkedHashSet<ChannelWriteQueue>();
+    }
+
+    /* the queue of each open channel, by channel id */
+    private static final ConcurrentHashMap<Integer, ChannelWriteQueue> queues = new ConcurrentHashMap<Integer, ChannelWriteQueue>();
+
+    private final Channel channel;
+    private List<OFMessage> pending = new ArrayList<OFMessage>();
+    private int pendingBytes = 0;
+    private long oldest = 0;
+
+    private ChannelWriteQueue(Channel channel) {
+	this.channel = channel;
+    }
+
+    /**
+     * @return the queue of the channel, created on first use and dropped
+     *         when the channel closes
+     */
+    public static ChannelWriteQueue forChannel(final Channel channel) {
+	ChannelWriteQueue queue = queues.get(channel.getId());
+	if (queue != null)
+	    return queue;
+	queue = new ChannelWriteQueue(channel);
+	final ChannelWriteQueue raced = queues.putIfAbsent(channel.getId(),
+		queue);
+	if (raced != null)
+	    return raced;
+	channel.getCloseFuture().addListener(new ChannelFutureListener() {
+	    @Override
+	    public void operationComplete(ChannelFuture future) {
+		queues.remove(channel.getId());
+	    }
+	});
+	return queue;
+    }
+
+    /**
+     * Opens a batch on the current thread. Batches nest; only the outermost
+     * {@link #endBatch()} flushes.
+     */
+    public static void beginBatch() {
+	batches.get().depth++;
+    }
+
+    /**
+     * Closes the batch opened on the current thread and flushes every queue
+     * written to during it.
+     */
+    public static void endBatch() {
+	Batch batch = batches.get();
+	if (--batch.depth > 0)
+	    return;
+	batch.depth = 0;
+	for (ChannelWriteQueue queue : batch.dirty)
+	    queue.flush();
+	batch.dirty.clear();
+    }
+
+    /**
+     * Flushes the queues written to during the batch open on this thread
+     * whose oldest message has waited for MAX_BATCH_DELAY.
+     */
+    public static void flushDue() {
+	Batch batch = batches.get();
+	if (batch.dirty.isEmpty())
+	    return;
+	long now = System.nanoTime();
+	for (ChannelWriteQueue queue : batch.dirty)
+	    queue.flushIfOlder(now - MAX_BATCH_DELAY);
+    }
+
+    public void write(OFMessage msg) {
+	Batch batch = batches.get();
+	if (batch.depth == 0) {
+	    // behind the messages another thread's batch left pending, if any
+	    synchronized (this) {
+		if (this.pending.isEmpty()) {
+		    this.channel.write(Collections.singletonList(msg));
+		    return;
+		}
+		this.pending.add(msg);
+		this.pendingBytes += msg.getLengthU();
+	    }
+	    this.flush();
+	    return;
+	}
+	batch.dirty.add(this);
+	boolean full;
+	synchronized (this) {
+	    if (this.pending.isEmpty())
+		this.oldest = System.nanoTime();
+	    this.pending.add(msg);
+	    this.pendingBytes += msg.getLengthU();
+	    full = this.pendingBytes >= MAX_BATCH_BYTES
+		    || System.nanoTime() - this.oldest >= MAX_BATCH_DELAY;
+	}
+	if (full)
+	    this.flush();
+    }
+
+    /**
+     * Writes out all pending messages as a single list. The write happens
+     * under the queue lock so concurrent flushes cannot reorder messages.
+     */
+    public synchronized void flush() {
+	if (this.pending.isEmpty())
+	    return;
+	List<OFMessage> msgs = this.pending;
+	this.pending = new ArrayList<OFMessage>(msgs.size());
+	this.pendingBytes = 0;
+	this.channel.write(msgs);
+    }
+
+    private synchronized void flushIfOlder(long time) {
+	if (!this.pending.isEmpty() && this.oldest - time <= 0)
+	    this.flush();
+    }
+
+    public Channel getChannel() {
+	return this.channel;
+    }
+}
@@ -1,7 +1,5 @@
 package net.onrc.openvirtex.core.io;
 
-import java.util.concurrent.ThreadPoolExecutor;
-
 import net.onrc.openvirtex.core.OpenVirteXController;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 
@@ -10,10 +8,9 @@ import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.group.ChannelGroup;
 import org.jboss.netty.handler.execution.ExecutionHandler;
-import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
 import org.jboss.netty.handler.timeout.IdleStateHandler;
 import org.jboss.netty.handler.timeout.ReadTimeoutHandler;
-import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
 
 public class ClientChannelPipeline  extends OpenflowChannelPipeline{
 
@@ -23,11 +20,12 @@ public class ClientChannelPipeline  extends OpenflowChannelPipeline{
     
 
     public ClientChannelPipeline(OpenVirteXController openVirteXController, ChannelGroup cg,
-	    ThreadPoolExecutor pipelineExecutor, ClientBootstrap bootstrap, OVXSwitch sw) {
+	    ExecutionHandler pipelineExecutor, Timer timer, ClientBootstrap bootstrap, 
+	    OVXSwitch sw) {
 	super();
 	this.ctrl = openVirteXController;
 	this.pipelineExecutor = pipelineExecutor;
-	this.timer = new HashedWheelTimer();
+	this.timer = timer;
 	this.idleHandler = new IdleStateHandler(timer, 20, 25, 0);
 	this.readTimeoutHandler = new ReadTimeoutHandler(timer, 30);
 	this.bootstrap  = bootstrap;
@@ -47,10 +45,8 @@ public class ClientChannelPipeline  extends OpenflowChannelPipeline{
 	pipeline.addLast("timeout", readTimeoutHandler);
 	pipeline.addLast("handshaketimeout", new HandshakeTimeoutHandler(
 		handler, timer, 15));
-	if (pipelineExecutor == null)
-	    pipelineExecutor = new OrderedMemoryAwareThreadPoolExecutor(16, 1048576, 1048576);
-	pipeline.addLast("pipelineExecutor", new ExecutionHandler(
-		pipelineExecutor));
+	if (pipelineExecutor != null)
+	    pipeline.addLast("pipelineExecutor", pipelineExecutor);
 	pipeline.addLast("handler", handler);
 	return pipeline;
     }
@@ -12,6 +12,7 @@ import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 import net.onrc.openvirtex.exceptions.ControllerStateException;
 import net.onrc.openvirtex.exceptions.HandshakeTimeoutException;
 import net.onrc.openvirtex.exceptions.SwitchStateException;
+import net.onrc.openvirtex.messages.OVXRawMessage;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -124,6 +125,17 @@ public class ControllerChannelHandler extends OFChannelHandler {
 	},
 	ACTIVE(true) {
 
+	    /*
+	     * Once active, barrier requests are relayed to the physical network.
+	     */
+	    @Override
+	    void processRawMessage(ControllerChannelHandler h, OVXRawMessage m) {
+		if (m.getType() == OFType.BARRIER_REQUEST)
+		    h.sw.handleIO(m);
+		else
+		    super.processRawMessage(h, m);
+	    }
+
 	    @Override
 	    void processOFError(ControllerChannelHandler h, OFError m)
 		    throws IOException {
@@ -348,6 +360,24 @@ public class ControllerChannelHandler extends OFChannelHandler {
 	 * that are only valid in a single state (e.g., HELLO, GET_CONFIG_REPLY
 	     -----------------------------------------------------------------*/
 
+	/**
+	 * Handles a message that was left as a raw frame by the decoder. Echo
+	 * requests are answered by turning the frame itself into the reply.
+	 */
+	void processRawMessage(ControllerChannelHandler h, OVXRawMessage m) {
+	    switch (m.getType()) {
+		case ECHO_REQUEST:
+		    m.setType(OFType.ECHO_REPLY);
+		    ChannelWriteQueue.forChannel(h.channel).write(m);
+		    break;
+		case ECHO_REPLY:
+		    break;
+		default:
+		    illegalMessageReceived(h, m);
+		    break;
+	    }
+	}
+
 	void processOFHello(ControllerChannelHandler h, OFHello m)
 		throws IOException {
 	    // we only expect hello in the WAIT_HELLO state
@@ -365,7 +395,7 @@ public class ControllerChannelHandler extends OFChannelHandler {
 	    reply.setXid(m.getXid());
 	    reply.setPayload(m.getPayload());
 	    reply.setLengthU(m.getLengthU());
-	    h.channel.write(Collections.singletonList(reply));
+	    ChannelWriteQueue.forChannel(h.channel).write(reply);
 	}
 
 	void processOFEchoReply(ControllerChannelHandler h, OFEchoReply m)
@@ -487,40 +517,53 @@ public class ControllerChannelHandler extends OFChannelHandler {
 	    @SuppressWarnings("unchecked")
 	    List<OFMessage> msglist = (List<OFMessage>) e.getMessage();
 
-	    for (OFMessage ofm : msglist) {
-
-		try {
-		    switch (ofm.getType()) {
-			case PACKET_OUT:
-			    /*
-			     * Is this packet a packet out? If yes is it an lldp?
-			     * then send it to the PhysicalTopoHandler.
-			     */
-			    byte[] data = ((OFPacketOut) ofm).getPacketData();
-			    if (data.length > 14) {
-				if ((data[12] == (byte) 0x88)
-					&& (data[13] == (byte) 0xcc)) {
-				    int tenantId = ((OVXSwitch) this.sw).getTenantId();
-				    OVXMap.getInstance().getVirtualNetwork(tenantId).handleLLDP(ofm, this.sw);
-				    break;
-				} else if ((data[12] == (byte) 0x89
-					&& (data[13] == (byte) 0x42)))
-				    //TODO: think about how to solve this.
-				    // probably treat it like a normal LLDP for now.
-				    break;
-			    }
-			default:
-			    // Process all non-packet-ins
-			    state.processOFMessage(this, ofm);
-			    break;
+	    /*
+	     * Messages produced while handling this batch are coalesced per
+	     * channel and written out once the whole batch has been processed.
+	     */
+	    ChannelWriteQueue.beginBatch();
+	    try {
+		for (OFMessage ofm : msglist) {
+
+		    try {
+			switch (ofm.getType()) {
+			    case PACKET_OUT:
+				/*
+				 * Is this packet a packet out? If yes is it an lldp?
+				 * then send it to the PhysicalTopoHandler.
+				 */
+				byte[] data = ((OFPacketOut) ofm).getPacketData();
+				if (data.length > 14) {
+				    if ((data[12] == (byte) 0x88)
+					    && (data[13] == (byte) 0xcc)) {
+					int tenantId = ((OVXSwitch) this.sw).getTenantId();
+					OVXMap.getInstance().getVirtualNetwork(tenantId).handleLLDP(ofm, this.sw);
+					break;
+				    } else if ((data[12] == (byte) 0x89
+					    && (data[13] == (byte) 0x42)))
+					//TODO: think about how to solve this.
+					// probably treat it like a normal LLDP for now.
+					break;
+				}
+			    default:
+				// Process all non-packet-ins
+				if (ofm instanceof OVXRawMessage)
+				    state.processRawMessage(this, (OVXRawMessage) ofm);
+				else
+				    state.processOFMessage(this, ofm);
+				break;
+			}
+
+		    } catch (Exception ex) {
+			// We are the last handler in the stream, so run the
+			// exception through the channel again by passing in
+			// ctx.getChannel().
+			Channels.fireExceptionCaught(ctx.getChannel(), ex);
 		    }
-
-		} catch (Exception ex) {
-		    // We are the last handler in the stream, so run the
-		    // exception through the channel again by passing in
-		    // ctx.getChannel().
-		    Channels.fireExceptionCaught(ctx.getChannel(), ex);
+		    ChannelWriteQueue.flushDue();
 		}
+	    } finally {
+		ChannelWriteQueue.endBatch();
 	    }
 
 	} else {
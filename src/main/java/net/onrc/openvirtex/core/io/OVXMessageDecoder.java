@@ -22,35 +22,103 @@
 
 package net.onrc.openvirtex.core.io;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import net.onrc.openvirtex.messages.OVXMessageFactory;
 
 import org.jboss.netty.buffer.ChannelBuffer;
-import org.jboss.netty.channel.Channel;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.ChannelHandlerContext;
-import org.jboss.netty.handler.codec.frame.FrameDecoder;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
 import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.factory.MessageParseException;
 
 /**
  * Decode an openflow message from a netty Channel.
  * 
+ * Messages relayed as raw frames keep a slice of the buffer they were read
+ * from (see OVXRawMessage), and may still be queued behind the pipeline
+ * executor when the next bytes arrive. So unlike FrameDecoder, a buffer that
+ * messages were parsed from is never compacted or written over: the bytes of
+ * a frame that is not complete yet are copied to a buffer of their own, the
+ * only copy made.
+ * 
  * @author alshabib
  */
-public class OVXMessageDecoder extends FrameDecoder {
+public class OVXMessageDecoder extends SimpleChannelUpstreamHandler {
 
 	OVXMessageFactory factory = OVXMessageFactory.getInstance();
 
+	/* the start of a frame whose end has not been received yet */
+	private ChannelBuffer partial = null;
+
 	@Override
-	protected Object decode(ChannelHandlerContext ctx, Channel channel,
-			ChannelBuffer buffer) throws Exception {
-		if (!channel.isConnected()) {
+	public void messageReceived(ChannelHandlerContext ctx, MessageEvent e)
+			throws Exception {
+		if (!(e.getMessage() instanceof ChannelBuffer)) {
+			ctx.sendUpstream(e);
+			return;
+		}
+		if (!e.getChannel().isConnected()) {
 			// if the channel is closed, there will be nothing to read.
-			return null;
+			return;
+		}
+		ChannelBuffer input = (ChannelBuffer) e.getMessage();
+		ChannelBuffer buffer = input;
+		if (this.partial != null) {
+			this.partial.writeBytes(input);
+			buffer = this.partial;
+		}
+		int start = buffer.readerIndex();
+		List<OFMessage> messages = this.parse(buffer);
+		if (!buffer.readable()) {
+			this.partial = null;
+		} else if (buffer != this.partial || buffer.readerIndex() != start) {
+			this.partial = ChannelBuffers.dynamicBuffer(buffer
+					.readableBytes());
+			this.partial.writeBytes(buffer);
 		}
+		if (!messages.isEmpty())
+			Channels.fireMessageReceived(ctx, messages, e.getRemoteAddress());
+	}
+
+	/*
+	 * Parses the complete frames at the start of buffer, skipping those
+	 * admit() refuses.
+	 */
+	private List<OFMessage> parse(ChannelBuffer buffer)
+			throws MessageParseException {
+		List<OFMessage> messages = new ArrayList<OFMessage>();
+		while (buffer.readableBytes() >= OFMessage.MINIMUM_LENGTH) {
+			int start = buffer.readerIndex();
+			int length = buffer.getUnsignedShort(start + 2);
+			if (length >= OFMessage.MINIMUM_LENGTH
+					&& length <= buffer.readableBytes()
+					&& !this.admit(buffer, start, length)) {
+				buffer.skipBytes(length);
+				continue;
+			}
+			OFMessage msg = factory.parseMessageOne(buffer);
+			if (msg == null) {
+				buffer.readerIndex(start);
+				break;
+			}
+			messages.add(msg);
+		}
+		return messages;
+	}
 
-		List<OFMessage> message = factory.parseMessage(buffer);
-		return message;
+	/**
+	 * Decides whether the complete frame of length bytes at start in buffer
+	 * is parsed, before anything is read from it. Every frame is by default.
+	 * 
+	 * @return false to drop the frame
+	 */
+	protected boolean admit(ChannelBuffer buffer, int start, int length) {
+		return true;
 	}
 
 }
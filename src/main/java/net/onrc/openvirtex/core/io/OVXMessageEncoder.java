@@ -25,7 +25,8 @@ package net.onrc.openvirtex.core.io;
 import java.util.List;
 
 import org.jboss.netty.buffer.ChannelBuffer;
-import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.buffer.ChannelBufferFactory;
+import org.jboss.netty.buffer.DirectChannelBufferFactory;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
@@ -38,6 +39,12 @@ import org.openflow.protocol.OFMessage;
  */
 public class OVXMessageEncoder extends OneToOneEncoder {
 
+	/*
+	 * Outbound batches are carved out of preallocated direct memory, which
+	 * also saves the NIO worker from copying them before the write.
+	 */
+	private static final ChannelBufferFactory bufferFactory = new DirectChannelBufferFactory();
+
 	@Override
 	protected Object encode(ChannelHandlerContext ctx, Channel channel,
 			Object msg) throws Exception {
@@ -51,7 +58,7 @@ public class OVXMessageEncoder extends OneToOneEncoder {
 			size += ofm.getLengthU();
 		}
 
-		ChannelBuffer buf = ChannelBuffers.buffer(size);
+		ChannelBuffer buf = bufferFactory.getBuffer(size);
 		
 		for (OFMessage ofm : msglist) {
 		    
@@ -22,11 +22,10 @@
 
 package net.onrc.openvirtex.core.io;
 
-import java.util.concurrent.ThreadPoolExecutor;
-
 import net.onrc.openvirtex.core.OpenVirteXController;
 
 import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.handler.execution.ExecutionHandler;
 import org.jboss.netty.handler.timeout.IdleStateHandler;
 import org.jboss.netty.handler.timeout.ReadTimeoutHandler;
 import org.jboss.netty.util.ExternalResourceReleasable;
@@ -35,13 +34,18 @@ import org.jboss.netty.util.Timer;
 public abstract class OpenflowChannelPipeline implements
 		ChannelPipelineFactory, ExternalResourceReleasable {
 	protected OpenVirteXController ctrl;
-	protected ThreadPoolExecutor pipelineExecutor;
+	/* null when handlers run directly on the channel's I/O worker */
+	protected ExecutionHandler pipelineExecutor;
 	protected Timer timer;
 	protected IdleStateHandler idleHandler;
 	protected ReadTimeoutHandler readTimeoutHandler;
 
+	/**
+	 * The timer and the pipeline executor are shared by all the channels
+	 * and owned by the OpenVirteXController, which releases them on
+	 * shutdown. Nothing is owned by the pipeline factory itself.
+	 */
 	@Override
 	public void releaseExternalResources() {
-		timer.stop();
 	}
 }
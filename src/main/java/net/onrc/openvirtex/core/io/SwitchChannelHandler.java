@@ -40,6 +40,7 @@ import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
 import net.onrc.openvirtex.elements.network.PhysicalNetwork;
 import net.onrc.openvirtex.exceptions.HandshakeTimeoutException;
 import net.onrc.openvirtex.exceptions.SwitchStateException;
+import net.onrc.openvirtex.messages.OVXRawMessage;
 import net.onrc.openvirtex.messages.statistics.OVXDescriptionStatistics;
 
 import org.apache.logging.log4j.LogManager;
@@ -230,6 +231,17 @@ public class SwitchChannelHandler extends OFChannelHandler {
 	},
 	ACTIVE(true) {
 
+	    /*
+	     * Once active, barrier replies go back to the virtual switch that asked.
+	     */
+	    @Override
+	    void processRawMessage(SwitchChannelHandler h, OVXRawMessage m) {
+		if (m.getType() == OFType.BARRIER_REPLY)
+		    h.sw.handleIO(m);
+		else
+		    super.processRawMessage(h, m);
+	    }
+
 	    @Override
 	    void processOFMessage(SwitchChannelHandler h, OFMessage m)
 		    throws IOException {
@@ -479,6 +491,27 @@ public class SwitchChannelHandler extends OFChannelHandler {
 	 * that are only valid in a single state (e.g., HELLO, GET_CONFIG_REPLY
 		     -----------------------------------------------------------------*/
 
+	/**
+	 * Handles a message that was left as a raw frame by the decoder. Echo
+	 * requests are answered by turning the frame itself into the reply.
+	 */
+	void processRawMessage(SwitchChannelHandler h, OVXRawMessage m) {
+	    switch (m.getType()) {
+		case ECHO_REQUEST:
+		    m.setType(OFType.ECHO_REPLY);
+		    ChannelWriteQueue.forChannel(h.channel).write(m);
+		    break;
+		case ECHO_REPLY:
+		    break;
+		case BARRIER_REPLY:
+		    // Silently ignore.
+		    break;
+		default:
+		    illegalMessageReceived(h, m);
+		    break;
+	    }
+	}
+
 	void processOFHello(SwitchChannelHandler h, OFHello m)
 		throws IOException {
 	    // we only expect hello in the WAIT_HELLO state
@@ -497,7 +530,7 @@ public class SwitchChannelHandler extends OFChannelHandler {
 	    reply.setXid(m.getXid());
 	    reply.setPayload(m.getPayload());
 	    reply.setLengthU(m.getLengthU());
-	    h.channel.write(Collections.singletonList(reply));
+	    ChannelWriteQueue.forChannel(h.channel).write(reply);
 	}
 
 	void processOFEchoReply(SwitchChannelHandler h, OFEchoReply m)
@@ -693,40 +726,53 @@ public class SwitchChannelHandler extends OFChannelHandler {
 	    @SuppressWarnings("unchecked")
 	    List<OFMessage> msglist = (List<OFMessage>) e.getMessage();
 
-	    for (OFMessage ofm : msglist) {
-
-		try {
-
-		    switch (ofm.getType()) {
-			case PACKET_IN:
-			    /*
-			     * Is this packet a packet in? If yes is it an lldp?
-			     * then send it to the PhysicalTopoHandler.
-			     */
-			    byte[] data = ((OFPacketIn) ofm).getPacketData();
-			    if (data.length > 14) {
-				if ((data[12] == (byte) 0x88)
-					&& (data[13] == (byte) 0xcc)) {
-				    if (sw != null)  	
-					PhysicalNetwork.getInstance().handleLLDP(ofm, sw);
-				    else
-					log.warn("Switch has not connected yet; dropping LLDP for now.");
-				    break;
-
+	    /*
+	     * Messages produced while handling this batch are coalesced per
+	     * channel and written out once the whole batch has been processed.
+	     */
+	    ChannelWriteQueue.beginBatch();
+	    try {
+		for (OFMessage ofm : msglist) {
+
+		    try {
+
+			switch (ofm.getType()) {
+			    case PACKET_IN:
+				/*
+				 * Is this packet a packet in? If yes is it an lldp?
+				 * then send it to the PhysicalTopoHandler.
+				 */
+				byte[] data = ((OFPacketIn) ofm).getPacketData();
+				if (data.length > 14) {
+				    if ((data[12] == (byte) 0x88)
+					    && (data[13] == (byte) 0xcc)) {
+					if (sw != null)  	
+					    PhysicalNetwork.getInstance().handleLLDP(ofm, sw);
+					else
+					    log.warn("Switch has not connected yet; dropping LLDP for now.");
+					break;
+
+				    }
 				}
-			    }
-			default:
-			    // Process all non-packet-ins
-			    state.processOFMessage(this, ofm);
-			    break;
+			    default:
+				// Process all non-packet-ins
+				if (ofm instanceof OVXRawMessage)
+				    state.processRawMessage(this, (OVXRawMessage) ofm);
+				else
+				    state.processOFMessage(this, ofm);
+				break;
+			}
+
+		    } catch (Exception ex) {
+			// We are the last handler in the stream, so run the
+			// exception through the channel again by passing in
+			// ctx.getChannel().
+			Channels.fireExceptionCaught(ctx.getChannel(), ex);
 		    }
-
-		} catch (Exception ex) {
-		    // We are the last handler in the stream, so run the
-		    // exception through the channel again by passing in
-		    // ctx.getChannel().
-		    Channels.fireExceptionCaught(ctx.getChannel(), ex);
+		    ChannelWriteQueue.flushDue();
 		}
+	    } finally {
+		ChannelWriteQueue.endBatch();
 	    }
 
 	} else {
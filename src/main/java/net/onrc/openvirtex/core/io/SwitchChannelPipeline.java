@@ -22,26 +22,23 @@
 
 package net.onrc.openvirtex.core.io;
 
-import java.util.concurrent.ThreadPoolExecutor;
-
 import net.onrc.openvirtex.core.OpenVirteXController;
 
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.Channels;
 import org.jboss.netty.handler.execution.ExecutionHandler;
-import org.jboss.netty.handler.execution.OrderedMemoryAwareThreadPoolExecutor;
 import org.jboss.netty.handler.timeout.IdleStateHandler;
 import org.jboss.netty.handler.timeout.ReadTimeoutHandler;
-import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timer;
 
 public class SwitchChannelPipeline extends OpenflowChannelPipeline {
 
     public SwitchChannelPipeline(OpenVirteXController openVirteXController,
-	    ThreadPoolExecutor pipelineExecutor) {
+	    ExecutionHandler pipelineExecutor, Timer timer) {
 	super();
 	this.ctrl = openVirteXController;
 	this.pipelineExecutor = pipelineExecutor;
-	this.timer = new HashedWheelTimer();
+	this.timer = timer;
 	this.idleHandler = new IdleStateHandler(timer, 20, 25, 0);
 	this.readTimeoutHandler = new ReadTimeoutHandler(timer, 30);
     }
@@ -51,16 +48,14 @@ public class SwitchChannelPipeline extends OpenflowChannelPipeline {
 	SwitchChannelHandler handler = new SwitchChannelHandler(ctrl);
 
 	ChannelPipeline pipeline = Channels.pipeline();
-	pipeline.addLast("ofmessagedecoder", new OVXMessageDecoder());
+	pipeline.addLast("ofmessagedecoder", new SwitchMessageDecoder(handler));
 	pipeline.addLast("ofmessageencoder", new OVXMessageEncoder());
 	pipeline.addLast("idle", idleHandler);
 	pipeline.addLast("timeout", readTimeoutHandler);
 	pipeline.addLast("handshaketimeout", new HandshakeTimeoutHandler(
 		handler, timer, 15));
-	if (pipelineExecutor == null)
-	    pipelineExecutor = new OrderedMemoryAwareThreadPoolExecutor(16, 1048576, 1048576);
-	pipeline.addLast("pipelineExecutor", new ExecutionHandler(
-		pipelineExecutor));
+	if (pipelineExecutor != null)
+	    pipeline.addLast("pipelineExecutor", pipelineExecutor);
 	pipeline.addLast("handler", handler);
 	return pipeline;
     }
@@ -0,0 +1,72 @@
+/**
+ *  Copyright (c) 2013 Open Networking Laboratory
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE. 
+ * 
+ */
+
+
+package net.onrc.openvirtex.core.io;
+
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.port.PhysicalPort;
+import net.onrc.openvirtex.messages.OVXPacketIn;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.openflow.protocol.OFPacketIn;
+import org.openflow.protocol.OFType;
+
+/**
+ * Decodes the messages of a physical switch. Packet ins are checked against
+ * the limit of the port they came in on before they are parsed, reading the
+ * in port at its fixed offset in the frame, so the packet ins dropped there
+ * cost no more than a look at their header.
+ */
+public class SwitchMessageDecoder extends OVXMessageDecoder {
+
+	/* offsets in a packet in frame */
+	private static final int BUFFER_ID = 8;
+	private static final int IN_PORT = 14;
+
+	private final SwitchChannelHandler handler;
+
+	public SwitchMessageDecoder(SwitchChannelHandler handler) {
+		this.handler = handler;
+	}
+
+	@Override
+	protected boolean admit(ChannelBuffer buffer, int start, int length) {
+		if (buffer.getByte(start + 1) != OFType.PACKET_IN.getTypeValue()
+				|| length < OFPacketIn.MINIMUM_LENGTH
+				|| !(this.handler.sw instanceof PhysicalSwitch))
+			return true;
+		PhysicalSwitch sw = (PhysicalSwitch) this.handler.sw;
+		short inPort = buffer.getShort(start + IN_PORT);
+		PhysicalPort port = sw.getPort(inPort);
+		if (port == null || port.getPacketInBucket().admit())
+			return true;
+		// the drop rule needs the source address of the frame
+		byte[] frame = new byte[Math.min(12, length
+				- OFPacketIn.MINIMUM_LENGTH)];
+		buffer.getBytes(start + OFPacketIn.MINIMUM_LENGTH, frame);
+		OVXPacketIn.suppress(sw, port.getPacketInBucket(), inPort,
+				buffer.getInt(start + BUFFER_ID), frame);
+		return false;
+	}
+
+}
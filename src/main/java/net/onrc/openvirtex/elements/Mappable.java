@@ -22,7 +22,9 @@
 
 package net.onrc.openvirtex.elements;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
 import net.onrc.openvirtex.elements.address.OVXIPAddress;
 import net.onrc.openvirtex.elements.address.PhysicalIPAddress;
@@ -30,6 +32,7 @@ import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
 import net.onrc.openvirtex.elements.link.OVXLink;
 import net.onrc.openvirtex.elements.link.PhysicalLink;
+import net.onrc.openvirtex.elements.link.Resilient;
 import net.onrc.openvirtex.elements.network.OVXNetwork;
 import net.onrc.openvirtex.util.MACAddress;
 
@@ -73,6 +76,34 @@ public interface Mappable {
     public void addLinks(final List<PhysicalLink> physicalLinks,
 	    final OVXLink virtualLink);
 
+    /**
+     * Maps a virtual link to another path of physicalLinks, once its traffic
+     * has moved over to it.
+     * 
+     * @param physicalLinks
+     * @param virtualLink
+     */
+    public void replaceLinks(final List<PhysicalLink> physicalLinks,
+	    final OVXLink virtualLink);
+
+    /**
+     * Indexes a virtual element under a physicalLink it depends on, so it
+     * can be moved off the link when the link fails. Virtual links are
+     * indexed under their physical links by addLinks and replaceLinks.
+     * 
+     * @param physicalLink
+     * @param dependent
+     */
+    public void addDependent(PhysicalLink physicalLink, Resilient dependent);
+
+    /**
+     * Removes a virtual element from the index of a physicalLink.
+     * 
+     * @param physicalLink
+     * @param dependent
+     */
+    public void removeDependent(PhysicalLink physicalLink, Resilient dependent);
+
     /**
      * Maintain a list of all the virtualNetworks in the system
      * indexed by the tenant id mapping to VirtualNetworks
@@ -90,6 +121,24 @@ public interface Mappable {
      * @param tenantId
      */
     public void addMAC(MACAddress mac, Integer tenantId);
+
+    // REMOVE objects from dictionary
+
+    /**
+     * This function removes the map between the PhysicalIP and VirtualIP in
+     * both directions.
+     * 
+     * @param physicalIP
+     * @param virtualIP
+     */
+    public void removeIP(PhysicalIPAddress physicalIP, OVXIPAddress virtualIP);
+
+    /**
+     * This function removes the map between the MAC and its tenantId
+     * 
+     * @param mac
+     */
+    public void removeMAC(MACAddress mac);
     
     // Access objects from dictionary given the key
 
@@ -123,6 +172,19 @@ public interface Mappable {
      */
     public OVXSwitch getVirtualSwitch(PhysicalSwitch physicalSwitch, Integer tenantId);
 
+    /**
+     * get the virtualSwitches of all tenants which the physicalSwitch is
+     * part of
+     * 
+     * @param physicalSwitch
+     *            A PhysicalSwitch object is a single switch in the
+     *            PhysicalNetwork
+     * 
+     * @return virtualSwitches A Collection of OVXSwitch objects, empty if
+     *         the physicalSwitch is not part of any virtual network
+     */
+    public Collection<OVXSwitch> getVirtualSwitches(PhysicalSwitch physicalSwitch);
+
     /**
      * get the virtualLink which has been specified by the physicalLink and
      * the tenantId. This function will return a list of virtualLinks all of
@@ -150,6 +212,19 @@ public interface Mappable {
      */
     public List<PhysicalLink> getPhysicalLinks(OVXLink virtualLink);
 
+    /**
+     * get the virtual elements, of every tenant, that depend on the
+     * physicalLink.
+     * 
+     * @param physicalLink
+     *            A PhysicalLink object which represent a single source and
+     *            destination PhysicalPort and PhysicalSwitch
+     * 
+     * @return dependents A set of the virtual links and big switch routes
+     *         using the physicalLink, empty if there are none
+     */
+    public Set<Resilient> getDependents(PhysicalLink physicalLink);
+
     /**
      * get the physicalSwitches that are contained in the virtualSwitch. for
      * a big switch this will be multiple physicalSwitches
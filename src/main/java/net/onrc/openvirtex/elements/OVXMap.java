@@ -22,9 +22,13 @@
 
 package net.onrc.openvirtex.elements;
 
-import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.logging.log4j.LogManager;
@@ -36,42 +40,57 @@ import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
 import net.onrc.openvirtex.elements.link.OVXLink;
 import net.onrc.openvirtex.elements.link.PhysicalLink;
+import net.onrc.openvirtex.elements.link.Resilient;
 import net.onrc.openvirtex.elements.network.OVXNetwork;
+import net.onrc.openvirtex.util.ConcurrentLongHashMap;
 import net.onrc.openvirtex.util.MACAddress;
 
-import com.googlecode.concurrenttrees.radix.ConcurrentRadixTree;
-import com.googlecode.concurrenttrees.radix.RadixTree;
-import com.googlecode.concurrenttrees.radix.node.concrete.DefaultCharArrayNodeFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 
+/**
+ * The switch and link mappings are read by packet handlers on every message
+ * and written only by the API. Every value stored in them is immutable: a
+ * writer builds a new list or tenant map and swaps it in with a single put,
+ * so readers never lock, never copy and never see a partially updated
+ * entry. Writers are serialized on the map, and each write bumps the version
+ * returned by {@link #getVersion()}.
+ */
 public class OVXMap implements Mappable {
 
     
     Logger log = LogManager.getLogger(OVXMap.class.getName());
     private static AtomicReference<OVXMap>         			     mapInstance = new AtomicReference<>();
 
-    ConcurrentHashMap<OVXSwitch, ArrayList<PhysicalSwitch>>                  virtualSwitchMap;
-    ConcurrentHashMap<PhysicalSwitch, ConcurrentHashMap<Integer, OVXSwitch>> physicalSwitchMap;
-    ConcurrentHashMap<OVXLink, ArrayList<PhysicalLink>>                      virtualLinkMap;
-    ConcurrentHashMap<PhysicalLink, ConcurrentHashMap<Integer, OVXLink>>     physicalLinkMap;
+    ConcurrentHashMap<OVXSwitch, ImmutableList<PhysicalSwitch>>              virtualSwitchMap;
+    ConcurrentHashMap<PhysicalSwitch, ImmutableMap<Integer, OVXSwitch>>      physicalSwitchMap;
+    ConcurrentHashMap<OVXLink, ImmutableList<PhysicalLink>>                  virtualLinkMap;
+    ConcurrentHashMap<PhysicalLink, ImmutableMap<Integer, OVXLink>>          physicalLinkMap;
+    /* an index for failover rather than a mapping, it does not bump the version */
+    ConcurrentHashMap<PhysicalLink, ImmutableSet<Resilient>>                 dependentMap;
     ConcurrentHashMap<Integer, OVXNetwork>                                   networkMap;
-    RadixTree<OVXIPAddress>                                                  physicalIPMap;
-    RadixTree<ConcurrentHashMap<Integer, PhysicalIPAddress>>                 virtualIPMap;
-    RadixTree<Integer>						macMap;
+    /* keyed by physical IP */
+    ConcurrentLongHashMap<OVXIPAddress>                                      physicalIPMap;
+    /* keyed by tenant id << 32 | virtual IP, see ipKey() */
+    ConcurrentLongHashMap<PhysicalIPAddress>                                 virtualIPMap;
+    /* keyed by the 48 bit MAC address */
+    ConcurrentLongHashMap<Integer>                                           macMap;
+    private final AtomicLong                                                 version = new AtomicLong(0);
 
     /**
      * constructor for OVXMap will be an empty constructor
      */
     private OVXMap() {
-	this.virtualSwitchMap = new ConcurrentHashMap<OVXSwitch, ArrayList<PhysicalSwitch>>();
-	this.physicalSwitchMap = new ConcurrentHashMap<PhysicalSwitch, ConcurrentHashMap<Integer, OVXSwitch>>();
-	this.virtualLinkMap = new ConcurrentHashMap<OVXLink, ArrayList<PhysicalLink>>();
-	this.physicalLinkMap = new ConcurrentHashMap<PhysicalLink, ConcurrentHashMap<Integer, OVXLink>>();
+	this.virtualSwitchMap = new ConcurrentHashMap<OVXSwitch, ImmutableList<PhysicalSwitch>>();
+	this.physicalSwitchMap = new ConcurrentHashMap<PhysicalSwitch, ImmutableMap<Integer, OVXSwitch>>();
+	this.virtualLinkMap = new ConcurrentHashMap<OVXLink, ImmutableList<PhysicalLink>>();
+	this.physicalLinkMap = new ConcurrentHashMap<PhysicalLink, ImmutableMap<Integer, OVXLink>>();
+	this.dependentMap = new ConcurrentHashMap<PhysicalLink, ImmutableSet<Resilient>>();
 	this.networkMap = new ConcurrentHashMap<Integer, OVXNetwork>();
-	this.physicalIPMap = new ConcurrentRadixTree<OVXIPAddress>(
-	        new DefaultCharArrayNodeFactory());
-	this.virtualIPMap = new ConcurrentRadixTree<ConcurrentHashMap<Integer, PhysicalIPAddress>>(
-	        new DefaultCharArrayNodeFactory());
-	this.macMap = new ConcurrentRadixTree<Integer>(new DefaultCharArrayNodeFactory());
+	this.physicalIPMap = new ConcurrentLongHashMap<OVXIPAddress>();
+	this.virtualIPMap = new ConcurrentLongHashMap<PhysicalIPAddress>();
+	this.macMap = new ConcurrentLongHashMap<Integer>();
     }
 
     /**
@@ -91,33 +110,18 @@ public class OVXMap implements Mappable {
      * Create the mapping between PhysicalSwithes and a VirtualSwitch. This
      * function takes
      * in a list of physicalSwitches and adds to the OVXMap indexed by the
-     * virtualSwitch.
+     * virtualSwitch. The whole list is published at once.
      * 
      * @param physicalSwitches
      * @param virtualSwitch
      */
-    public void addSwitches(final List<PhysicalSwitch> physicalSwitches,
+    public synchronized void addSwitches(final List<PhysicalSwitch> physicalSwitches,
 	    final OVXSwitch virtualSwitch) {
-	
 	for (final PhysicalSwitch physicalSwitch : physicalSwitches) {
-	    this.addSwitch(physicalSwitch, virtualSwitch);
+	    this.addPhysicalSwitch(physicalSwitch, virtualSwitch);
 	}
-    }
-
-    /**
-     * create the mapping between OVX switch to physical switch and from
-     * physical switch to virtual switch
-     * 
-     * @param physicalSwitch
-     *            Refers to the PhysicalSwitch from the PhysicalNetwork
-     * @param virtualSwitch
-     *            Has type OVXSwitch and this switch is specific to a tenantId
-     * 
-     */
-    private void addSwitch(final PhysicalSwitch physicalSwitch,
-	    final OVXSwitch virtualSwitch) {
-	this.addPhysicalSwitch(physicalSwitch, virtualSwitch);
-	this.addVirtualSwitch(virtualSwitch, physicalSwitch);
+	this.addVirtualSwitch(virtualSwitch, physicalSwitches);
+	this.version.incrementAndGet();
     }
 
     /**
@@ -125,33 +129,89 @@ public class OVXMap implements Mappable {
      * takes in a
      * list of physicalLinks rather than an individual physicalLink and adds the
      * list
-     * to the OVXmap.
+     * to the OVXmap. The whole path is published at once, so readers never
+     * see a partial virtual link.
      * 
      * @param physicalLinks
      * @param virtualLink
      */
-    public void addLinks(final List<PhysicalLink> physicalLinks,
+    public synchronized void addLinks(final List<PhysicalLink> physicalLinks,
 	    final OVXLink virtualLink) {
 	for (final PhysicalLink physicalLink : physicalLinks) {
-	    this.addLink(physicalLink, virtualLink);
+	    this.addPhysicalLink(physicalLink, virtualLink);
+	    this.addDependent(physicalLink, virtualLink);
 	}
+	this.addVirtualLink(virtualLink, physicalLinks);
+	this.version.incrementAndGet();
     }
 
     /**
-     * create the mapping between the virtual link to physical link and physical
-     * link to virtual link
+     * Maps a virtual link to another path of physicalLinks, once its traffic
+     * has moved over to it. The new path replaces the old one at once.
      * 
-     * @param physicalLink
-     *            Refers to the PhysicalLink in the PhysicalNetwork
+     * @param physicalLinks
      * @param virtualLink
-     *            Refers to the OVXLink which consists of many PhysicalLinks and
-     *            specific to a tenantId
+     */
+    @Override
+    public synchronized void replaceLinks(
+	    final List<PhysicalLink> physicalLinks, final OVXLink virtualLink) {
+	final ImmutableList<PhysicalLink> linkList = this.virtualLinkMap
+	        .get(virtualLink);
+	if (linkList != null) {
+	    for (final PhysicalLink physicalLink : linkList) {
+		this.removePhysicalLink(physicalLink, virtualLink);
+		this.removeDependent(physicalLink, virtualLink);
+	    }
+	}
+	for (final PhysicalLink physicalLink : physicalLinks) {
+	    this.addPhysicalLink(physicalLink, virtualLink);
+	    this.addDependent(physicalLink, virtualLink);
+	}
+	this.virtualLinkMap.put(virtualLink,
+	        ImmutableList.copyOf(physicalLinks));
+	this.version.incrementAndGet();
+    }
+
+    /**
+     * Indexes a virtual element under a physicalLink it depends on.
      * 
+     * @param physicalLink
+     * @param dependent
      */
-    private void addLink(final PhysicalLink physicalLink,
-	    final OVXLink virtualLink) {
-	this.addPhysicalLink(physicalLink, virtualLink);
-	this.addVirtualLink(virtualLink, physicalLink);
+    @Override
+    public synchronized void addDependent(final PhysicalLink physicalLink,
+	    final Resilient dependent) {
+	final ImmutableSet<Resilient> dependents = this.dependentMap
+	        .get(physicalLink);
+	final ImmutableSet.Builder<Resilient> builder = ImmutableSet.builder();
+	if (dependents != null)
+	    builder.addAll(dependents);
+	this.dependentMap.put(physicalLink, builder.add(dependent).build());
+    }
+
+    /**
+     * Removes a virtual element from the index of a physicalLink.
+     * 
+     * @param physicalLink
+     * @param dependent
+     */
+    @Override
+    public synchronized void removeDependent(final PhysicalLink physicalLink,
+	    final Resilient dependent) {
+	final ImmutableSet<Resilient> dependents = this.dependentMap
+	        .get(physicalLink);
+	if (dependents == null || !dependents.contains(dependent))
+	    return;
+	final ImmutableSet.Builder<Resilient> builder = ImmutableSet.builder();
+	for (final Resilient other : dependents) {
+	    if (other != dependent)
+		builder.add(other);
+	}
+	final ImmutableSet<Resilient> rest = builder.build();
+	if (rest.isEmpty())
+	    this.dependentMap.remove(physicalLink);
+	else
+	    this.dependentMap.put(physicalLink, rest);
     }
 
     /**
@@ -167,10 +227,11 @@ public class OVXMap implements Mappable {
      *            The IP address used within the VirtualNetwork
      */
     @Override
-    public void addIP(final PhysicalIPAddress physicalIP,
+    public synchronized void addIP(final PhysicalIPAddress physicalIP,
 	    final OVXIPAddress virtualIP) {
 	this.addPhysicalIP(physicalIP, virtualIP);
 	this.addVirtualIP(virtualIP, physicalIP);
+	this.version.incrementAndGet();
     }
 
     /**
@@ -185,13 +246,12 @@ public class OVXMap implements Mappable {
      */
     private void addPhysicalIP(final PhysicalIPAddress physicalIP,
 	    final OVXIPAddress virtualIP) {
-	this.physicalIPMap.put(physicalIP.toString(), virtualIP);
+	this.physicalIPMap.put(ipKey(0, physicalIP.getIp()), virtualIP);
     }
 
     /**
-     * This function will create a map indexed on the key OVXIPAddress with
-     * value
-     * a ConcurrentHashMap mapping the tenant id to the PhysicalIPAddress
+     * This function will create a map indexed on the tenant id and
+     * OVXIPAddress with value the PhysicalIPAddress
      * 
      * @param virtualIP
      *            the IP address used within the VirtualNetwork
@@ -201,13 +261,15 @@ public class OVXMap implements Mappable {
      */
     private void addVirtualIP(final OVXIPAddress virtualIP,
 	    final PhysicalIPAddress physicalIP) {
-	ConcurrentHashMap<Integer, PhysicalIPAddress> ipMap = this.virtualIPMap
-	        .getValueForExactKey(virtualIP.toString());
-	if (ipMap == null) {
-	    ipMap = new ConcurrentHashMap<Integer, PhysicalIPAddress>();
-	    this.virtualIPMap.put(virtualIP.toString(), ipMap);
-	}
-	ipMap.put(virtualIP.getTenantId(), physicalIP);
+	this.virtualIPMap.put(ipKey(virtualIP.getTenantId(), virtualIP.getIp()),
+	        physicalIP);
+    }
+
+    /**
+     * @return the index key of ip in tenant tenantId
+     */
+    private static long ipKey(final int tenantId, final int ip) {
+	return ((long) tenantId << 32) | (ip & 0xffffffffL);
     }
 
     /**
@@ -222,12 +284,9 @@ public class OVXMap implements Mappable {
      */
     private void addPhysicalSwitch(final PhysicalSwitch physicalSwitch,
 	    final OVXSwitch virtualSwitch) {
-	ConcurrentHashMap<Integer, OVXSwitch> switchMap = this.physicalSwitchMap.get(physicalSwitch);
-	if (switchMap == null) {
-	    switchMap = new ConcurrentHashMap<Integer, OVXSwitch>();
-	    this.physicalSwitchMap.put(physicalSwitch, switchMap);
-	}
-	switchMap.put(virtualSwitch.getTenantId(), virtualSwitch);
+	this.physicalSwitchMap.put(physicalSwitch, with(
+	        this.physicalSwitchMap.get(physicalSwitch),
+	        virtualSwitch.getTenantId(), virtualSwitch));
     }
 
     /**
@@ -243,34 +302,71 @@ public class OVXMap implements Mappable {
      */
     private void addPhysicalLink(final PhysicalLink physicalLink,
 	    final OVXLink virtualLink) {
-	ConcurrentHashMap<Integer, OVXLink> linkMap = this.physicalLinkMap.get(physicalLink);
-	if (linkMap == null) {
-	    linkMap = new ConcurrentHashMap<Integer, OVXLink>();
-	    this.physicalLinkMap.put(physicalLink, linkMap);
+	this.physicalLinkMap.put(physicalLink, with(
+	        this.physicalLinkMap.get(physicalLink),
+	        virtualLink.getTenantId(), virtualLink));
+    }
+
+    /**
+     * removes the mapping from the physical link to the OVXLink, if it is
+     * still the one of its tenant
+     */
+    private void removePhysicalLink(final PhysicalLink physicalLink,
+	    final OVXLink virtualLink) {
+	final ImmutableMap<Integer, OVXLink> tenants = this.physicalLinkMap
+	        .get(physicalLink);
+	if (tenants == null
+	        || tenants.get(virtualLink.getTenantId()) != virtualLink)
+	    return;
+	final ImmutableMap.Builder<Integer, OVXLink> builder = ImmutableMap
+	        .builder();
+	for (final Map.Entry<Integer, OVXLink> entry : tenants.entrySet()) {
+	    if (!entry.getKey().equals(virtualLink.getTenantId()))
+		builder.put(entry);
+	}
+	final ImmutableMap<Integer, OVXLink> rest = builder.build();
+	if (rest.isEmpty())
+	    this.physicalLinkMap.remove(physicalLink);
+	else
+	    this.physicalLinkMap.put(physicalLink, rest);
+    }
+
+    /**
+     * @return a copy of tenants, which may be null, with tenantId mapped to
+     *         value
+     */
+    private static <V> ImmutableMap<Integer, V> with(
+	    final ImmutableMap<Integer, V> tenants, final Integer tenantId,
+	    final V value) {
+	final ImmutableMap.Builder<Integer, V> builder = ImmutableMap.builder();
+	if (tenants != null) {
+	    for (final Map.Entry<Integer, V> entry : tenants.entrySet()) {
+		if (!entry.getKey().equals(tenantId))
+		    builder.put(entry);
+	    }
 	}
-	linkMap.put(virtualLink.getTenantId(), virtualLink);
+	return builder.put(tenantId, value).build();
     }
 
     /**
-     * sets up the mapping from the OVXSwitch to the physicalSwitch
-     * which has been specified
+     * sets up the mapping from the OVXSwitch to the physicalSwitches
+     * which have been specified
      * 
      * @param virtualSwitch
      *            A OVXSwitch object which represents a single switch in the
      *            OVXNetwork
-     * @param physicalSwitch
-     *            A PhysicalSwitch object is a single switch in the
+     * @param physicalSwitches
+     *            PhysicalSwitch objects which are single switches in the
      *            PhysicalNetwork
      * 
      */
     private void addVirtualSwitch(final OVXSwitch virtualSwitch,
-	    final PhysicalSwitch physicalSwitch) {
-	ArrayList<PhysicalSwitch> switchList = this.virtualSwitchMap.get(virtualSwitch);
-	if (switchList == null) {
-	    switchList = new ArrayList<PhysicalSwitch>();
-	    this.virtualSwitchMap.put(virtualSwitch, switchList);
-	}
-	switchList.add(physicalSwitch);
+	    final List<PhysicalSwitch> physicalSwitches) {
+	final ImmutableList<PhysicalSwitch> switchList = this.virtualSwitchMap.get(virtualSwitch);
+	final ImmutableList.Builder<PhysicalSwitch> builder = ImmutableList.builder();
+	if (switchList != null)
+	    builder.addAll(switchList);
+	this.virtualSwitchMap.put(virtualSwitch, builder.addAll(physicalSwitches).build());
     }
 
     /**
@@ -279,18 +375,17 @@ public class OVXMap implements Mappable {
      * @param virtualLink
      *            A OVXLink object which represents a single link in the
      *            OVXNetwork
-     * @param physicalLink
-     *            A PhysicalLink object which represent a single source and
+     * @param physicalLinks
+     *            PhysicalLink objects which each represent a single source and
      *            destination PhysicalPort and PhysicalSwitch
      */
     private void addVirtualLink(final OVXLink virtualLink,
-	    final PhysicalLink physicalLink) {
-	ArrayList<PhysicalLink> linkList = this.virtualLinkMap.get(virtualLink);
-	if (linkList == null) {
-	    linkList = new ArrayList<PhysicalLink>();
-	    this.virtualLinkMap.put(virtualLink,  linkList);
-	}
-	linkList.add(physicalLink);
+	    final List<PhysicalLink> physicalLinks) {
+	final ImmutableList<PhysicalLink> linkList = this.virtualLinkMap.get(virtualLink);
+	final ImmutableList.Builder<PhysicalLink> builder = ImmutableList.builder();
+	if (linkList != null)
+	    builder.addAll(linkList);
+	this.virtualLinkMap.put(virtualLink, builder.addAll(physicalLinks).build());
     }
 
     /**
@@ -303,28 +398,49 @@ public class OVXMap implements Mappable {
      * 
      */
     @Override
-    public void addNetwork(final OVXNetwork virtualNetwork) {
+    public synchronized void addNetwork(final OVXNetwork virtualNetwork) {
 	this.networkMap.put(virtualNetwork.getTenantId(), virtualNetwork);
+	this.version.incrementAndGet();
     }
 
 
     @Override
-    public void addMAC(MACAddress mac, Integer tenantId) {
-	this.macMap.put(mac.toStringNoColon(), tenantId);
+    public synchronized void addMAC(MACAddress mac, Integer tenantId) {
+	this.macMap.put(mac.toLong(), tenantId);
+	this.version.incrementAndGet();
     } 
 
+    @Override
+    public synchronized void removeIP(final PhysicalIPAddress physicalIP,
+	    final OVXIPAddress virtualIP) {
+	this.physicalIPMap.remove(ipKey(0, physicalIP.getIp()));
+	this.virtualIPMap.remove(ipKey(virtualIP.getTenantId(), virtualIP.getIp()));
+	this.version.incrementAndGet();
+    }
+
+    @Override
+    public synchronized void removeMAC(final MACAddress mac) {
+	this.macMap.remove(mac.toLong());
+	this.version.incrementAndGet();
+    }
+
+    /**
+     * @return a counter incremented by every change to the mappings, so
+     *         callers can tell whether anything they derived from them is
+     *         still current
+     */
+    public long getVersion() {
+	return this.version.get();
+    }
+
     // Access objects from dictionary given the key
 
     public PhysicalIPAddress getPhysicalIP(OVXIPAddress ip, Integer tenantId) {
-	ConcurrentHashMap<Integer, PhysicalIPAddress> ips = 
-		this.virtualIPMap.getValueForExactKey(ip.toString());
-	if (ips == null)
-	    return null;
-	return ips.get(tenantId);
+	return this.virtualIPMap.get(ipKey(tenantId, ip.getIp()));
     }
     
     public OVXIPAddress getVirtualIP(PhysicalIPAddress ip) {
-	return this.physicalIPMap.getValueForExactKey(ip.toString());
+	return this.physicalIPMap.get(ipKey(0, ip.getIp()));
     }
     
     /**
@@ -341,12 +457,29 @@ public class OVXMap implements Mappable {
     @Override
     public OVXSwitch getVirtualSwitch(final PhysicalSwitch physicalSwitch,
 	    final Integer tenantId) {
-	ConcurrentHashMap<Integer, OVXSwitch> sws = this.physicalSwitchMap.get(physicalSwitch);
-	if (sws == null) {
-	    log.error("No virtual switches for physical switch {}", physicalSwitch);
+	final ImmutableMap<Integer, OVXSwitch> sws = this.physicalSwitchMap.get(physicalSwitch);
+	if (sws == null)
 	    return null;
-	}
-	return this.physicalSwitchMap.get(physicalSwitch).get(tenantId);
+	return sws.get(tenantId);
+    }
+
+    /**
+     * get the OVXSwitches of all tenants which the physicalSwitch is part of
+     * 
+     * @param physicalSwitch
+     *            A PhysicalSwitch object is a single switch in the
+     *            PhysicalNetwork
+     * 
+     * @return virtualSwitches A Collection of OVXSwitch objects, empty if
+     *         the physicalSwitch is not part of any virtual network
+     */
+    @Override
+    public Collection<OVXSwitch> getVirtualSwitches(
+	    final PhysicalSwitch physicalSwitch) {
+	final ImmutableMap<Integer, OVXSwitch> sws = this.physicalSwitchMap.get(physicalSwitch);
+	if (sws == null)
+	    return Collections.emptyList();
+	return sws.values();
     }
 
     /**
@@ -364,10 +497,10 @@ public class OVXMap implements Mappable {
     @Override
     public OVXLink getVirtualLink(final PhysicalLink physicalLink,
 	    final Integer tenantId) {
-	if (this.physicalLinkMap.get(physicalLink) != null) {
-	    return this.physicalLinkMap.get(physicalLink).get(tenantId);
-	}	
-	return null;
+	final ImmutableMap<Integer, OVXLink> links = this.physicalLinkMap.get(physicalLink);
+	if (links == null)
+	    return null;
+	return links.get(tenantId);
     }
 
     /**
@@ -387,6 +520,26 @@ public class OVXMap implements Mappable {
 	return this.virtualLinkMap.get(virtualLink);
     }
 
+    /**
+     * get the virtual elements, of every tenant, that depend on the
+     * physicalLink.
+     * 
+     * @param physicalLink
+     *            A PhysicalLink object which represent a single source and
+     *            destination PhysicalPort and PhysicalSwitch
+     * 
+     * @return dependents A set of the virtual links and big switch routes
+     *         using the physicalLink, empty if there are none
+     */
+    @Override
+    public Set<Resilient> getDependents(final PhysicalLink physicalLink) {
+	final ImmutableSet<Resilient> dependents = this.dependentMap
+	        .get(physicalLink);
+	if (dependents == null)
+	    return ImmutableSet.of();
+	return dependents;
+    }
+
     /**
      * get the physicalSwitches that are contained in the OVXSwitch. for
      * a big switch this will be multiple physicalSwitches
@@ -420,7 +573,7 @@ public class OVXMap implements Mappable {
     }
 
     public Integer getMAC(final MACAddress mac) {
-	return this.macMap.getValueForExactKey(mac.toStringNoColon());
+	return this.macMap.get(mac.toLong());
     }
 
     // Remove objects from dictionary
@@ -0,0 +1,170 @@
+/**
+ *  Copyright (c) 2013 Open Networking Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package net.onrc.openvirtex.elements.address;
+
+import net.onrc.openvirtex.elements.Mappable;
+import net.onrc.openvirtex.elements.OVXMap;
+import net.onrc.openvirtex.elements.network.OVXNetwork;
+import net.onrc.openvirtex.util.ConcurrentLongHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openflow.protocol.action.OFActionNetworkLayerDestination;
+import org.openflow.protocol.action.OFActionNetworkLayerSource;
+
+/**
+ * Translation of the virtual IP addresses of a tenant to the physical ones
+ * standing in for them on the wire, together with the actions rewriting
+ * between the two. Translating an address seen for the first time allocates
+ * it a physical address from the virtual network and records the pair in
+ * the {@link OVXMap}; this happens exactly once per address, however many
+ * messages race for it. Lookups are lock free and do not allocate.
+ */
+public class IPTranslator {
+
+    private static final Logger log = LogManager.getLogger(IPTranslator.class
+	    .getName());
+
+    /**
+     * A virtual address, its physical address and the actions setting one
+     * or the other. The actions are shared by every message the translation
+     * is used in and must not be modified.
+     */
+    public static final class Translation {
+	private final OVXIPAddress virtualIP;
+	private final PhysicalIPAddress physicalIP;
+	private final OFActionNetworkLayerSource rewriteSrc;
+	private final OFActionNetworkLayerDestination rewriteDst;
+	private final OFActionNetworkLayerSource unrewriteSrc;
+	private final OFActionNetworkLayerDestination unrewriteDst;
+
+	Translation(final OVXIPAddress virtualIP,
+		final PhysicalIPAddress physicalIP) {
+	    this.virtualIP = virtualIP;
+	    this.physicalIP = physicalIP;
+	    this.rewriteSrc = new OFActionNetworkLayerSource();
+	    this.rewriteSrc.setNetworkAddress(physicalIP.getIp());
+	    this.rewriteDst = new OFActionNetworkLayerDestination();
+	    this.rewriteDst.setNetworkAddress(physicalIP.getIp());
+	    this.unrewriteSrc = new OFActionNetworkLayerSource();
+	    this.unrewriteSrc.setNetworkAddress(virtualIP.getIp());
+	    this.unrewriteDst = new OFActionNetworkLayerDestination();
+	    this.unrewriteDst.setNetworkAddress(virtualIP.getIp());
+	}
+
+	public OVXIPAddress getVirtualIP() {
+	    return this.virtualIP;
+	}
+
+	public PhysicalIPAddress getPhysicalIP() {
+	    return this.physicalIP;
+	}
+
+	/**
+	 * @return the action setting the source address to the physical one
+	 */
+	public OFActionNetworkLayerSource getRewriteSrcAction() {
+	    return this.rewriteSrc;
+	}
+
+	/**
+	 * @return the action setting the destination address to the physical
+	 *         one
+	 */
+	public OFActionNetworkLayerDestination getRewriteDstAction() {
+	    return this.rewriteDst;
+	}
+
+	/**
+	 * @return the action setting the source address back to the virtual
+	 *         one
+	 */
+	public OFActionNetworkLayerSource getUnrewriteSrcAction() {
+	    return this.unrewriteSrc;
+	}
+
+	/**
+	 * @return the action setting the destination address back to the
+	 *         virtual one
+	 */
+	public OFActionNetworkLayerDestination getUnrewriteDstAction() {
+	    return this.unrewriteDst;
+	}
+    }
+
+    private final OVXNetwork network;
+    private final int tenantId;
+    /* keyed by the unsigned virtual address */
+    private final ConcurrentLongHashMap<Translation> translations = new ConcurrentLongHashMap<Translation>();
+
+    public IPTranslator(final OVXNetwork network) {
+	this.network = network;
+	this.tenantId = network.getTenantId();
+    }
+
+    /**
+     * @return the translation of virtual address ip, allocating a physical
+     *         address for it if it has none yet
+     */
+    public Translation translate(final int ip) {
+	final Translation t = this.translations.get(ip & 0xffffffffL);
+	if (t != null)
+	    return t;
+	return this.allocate(ip);
+    }
+
+    /*
+     * Serialized so a physical address is only ever taken from the network
+     * for the first of several concurrent callers.
+     */
+    private synchronized Translation allocate(final int ip) {
+	Translation t = this.translations.get(ip & 0xffffffffL);
+	if (t != null)
+	    return t;
+	final Mappable map = OVXMap.getInstance();
+	final OVXIPAddress vip = new OVXIPAddress(this.tenantId, ip);
+	PhysicalIPAddress pip = map.getPhysicalIP(vip, this.tenantId);
+	if (pip == null) {
+	    pip = new PhysicalIPAddress(this.network.nextIP());
+	    log.debug("Adding IP mapping {} -> {} for tenant {}", vip, pip,
+		    this.tenantId);
+	    map.addIP(pip, vip);
+	}
+	t = new Translation(vip, pip);
+	this.translations.put(ip & 0xffffffffL, t);
+	return t;
+    }
+
+    /**
+     * Forgets the translation of virtual address ip and its pair in the
+     * {@link OVXMap}. The physical address is not handed back to the
+     * network.
+     */
+    public synchronized void remove(final int ip) {
+	final Translation t = this.translations.remove(ip & 0xffffffffL);
+	if (t != null)
+	    OVXMap.getInstance().removeIP(t.getPhysicalIP(), t.getVirtualIP());
+    }
+
+}
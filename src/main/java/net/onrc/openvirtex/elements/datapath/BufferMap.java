@@ -0,0 +1,178 @@
+/**
+ *  Copyright (c) 2013 Open Networking Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.onrc.openvirtex.messages.OVXPacketIn;
+
+import org.openflow.protocol.OFPacketOut;
+
+/**
+ * Packets handed to a tenant controller, indexed by the virtual buffer id
+ * the controller will refer to them with.
+ *
+ * A virtual buffer id is the sequence number under which the packet was
+ * stored: its low bits select a slot and its high bits are the generation of
+ * that slot, so an id whose slot has been reused is rejected instead of
+ * resolving to another packet. Adding and looking up packets is lock free.
+ *
+ * When the physical switch buffered the packet only its buffer id and the
+ * packet headers are kept, otherwise the whole packet is. The total number
+ * of bytes held is bounded; past that the oldest packets are dropped.
+ */
+public class BufferMap {
+
+    /* enough for Ethernet, VLAN, IP with options and L4 ports */
+    static final int HEADER_DIGEST = 128;
+    static final long MAX_BYTES = 4 * 1024 * 1024;
+
+    /* virtual buffer ids stay positive so they never clash with BUFFER_ID_NONE */
+    private static final int ID_MASK = 0x7fffffff;
+
+    private final int mask;
+    /* sequence number + 1 of the packet in each slot, 0 while written */
+    private final AtomicIntegerArray tags;
+    private final AtomicIntegerArray physicalIds;
+    private final AtomicReferenceArray<byte[]> data;
+
+    private final AtomicInteger head = new AtomicInteger(0);
+    private final AtomicInteger tail = new AtomicInteger(0);
+    private final AtomicLong bytes = new AtomicLong(0);
+
+    /**
+     * @param size the number of slots, rounded up to a power of two
+     */
+    public BufferMap(int size) {
+	int slots = Integer.highestOneBit(Math.max(size - 1, 1)) << 1;
+	this.mask = slots - 1;
+	this.tags = new AtomicIntegerArray(slots);
+	this.physicalIds = new AtomicIntegerArray(slots);
+	this.data = new AtomicReferenceArray<byte[]>(slots);
+    }
+
+    /**
+     * Stores the packet of pktIn.
+     *
+     * @return the virtual buffer id of the packet
+     */
+    public int add(OVXPacketIn pktIn) {
+	int physicalId = pktIn.getBufferId();
+	byte[] pkt = pktIn.getPacketData();
+	if (physicalId != OFPacketOut.BUFFER_ID_NONE
+		&& pkt.length > HEADER_DIGEST)
+	    pkt = Arrays.copyOf(pkt, HEADER_DIGEST);
+
+	int seq = this.head.getAndIncrement() & ID_MASK;
+	int slot = seq & this.mask;
+	this.release(slot, this.tags.get(slot));
+	this.tags.set(slot, 0);
+	this.physicalIds.set(slot, physicalId);
+	this.data.set(slot, pkt);
+	this.tags.set(slot, seq + 1);
+	this.bytes.addAndGet(pkt.length);
+
+	// drop the oldest packets until we are back within budget
+	while (this.bytes.get() > MAX_BYTES) {
+	    int oldest = this.tail.get();
+	    int behind = (seq - oldest) & ID_MASK;
+	    if (behind == 0)
+		break;
+	    // slots older than the ring have been reused already, skip them
+	    int next = behind > this.mask ? (seq - this.mask) & ID_MASK
+		    : (oldest + 1) & ID_MASK;
+	    if (this.tail.compareAndSet(oldest, next) && behind <= this.mask)
+		this.release(oldest & this.mask, oldest + 1);
+	}
+	return seq;
+    }
+
+    /**
+     * @return the buffer id the physical switch knows the packet by, or
+     *         BUFFER_ID_NONE if it did not buffer it. Throws
+     *         IllegalArgumentException if bufferId is unknown or stale.
+     */
+    public int getPhysicalBufferId(int bufferId) {
+	int slot = bufferId & this.mask;
+	int id = this.physicalIds.get(slot);
+	this.check(bufferId, slot);
+	return id;
+    }
+
+    /**
+     * @return the packet, or its headers if it is buffered by the physical
+     *         switch. Throws IllegalArgumentException if bufferId is unknown
+     *         or stale.
+     */
+    public byte[] getPacketData(int bufferId) {
+	int slot = bufferId & this.mask;
+	byte[] pkt = this.data.get(slot);
+	this.check(bufferId, slot);
+	return pkt;
+    }
+
+    /**
+     * @return true if bufferId refers to a packet still held here
+     */
+    public boolean contains(int bufferId) {
+	return bufferId >= 0
+		&& this.tags.get(bufferId & this.mask) == bufferId + 1;
+    }
+
+    /**
+     * Frees the packet with virtual buffer id bufferId, once the controller
+     * has used it up. Does nothing if bufferId is unknown or stale.
+     */
+    public void remove(int bufferId) {
+	if (bufferId >= 0)
+	    this.release(bufferId & this.mask, bufferId + 1);
+    }
+
+    public long getBytes() {
+	return this.bytes.get();
+    }
+
+    private void check(int bufferId, int slot) {
+	if (bufferId < 0 || this.tags.get(slot) != bufferId + 1)
+	    throw new IllegalArgumentException("Unknown or stale buffer id "
+		    + bufferId);
+    }
+
+    /*
+     * Empties slot if it still holds the packet tagged tag.
+     */
+    private void release(int slot, int tag) {
+	if (tag == 0)
+	    return;
+	byte[] pkt = this.data.get(slot);
+	if (pkt != null && this.tags.compareAndSet(slot, tag, 0)) {
+	    this.data.set(slot, null);
+	    this.bytes.addAndGet(-pkt.length);
+	}
+    }
+
+}
@@ -0,0 +1,152 @@
+/**
+ *  Copyright (c) 2013 Open Networking Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.openflow.protocol.OFMatch;
+
+/**
+ * Drop rules recently installed on a physical switch, so that the packet
+ * ins of a flow that arrive before its drop rule lands do not each install
+ * another one.
+ *
+ * Rules are remembered by a digest of their match, in a fixed number of
+ * slots; a digest hashing to a used slot replaces the rule there. A flow
+ * that comes back shortly after its rule expired gets a rule twice as long,
+ * up to MAX_TIMEOUT.
+ */
+public class DropRuleCache {
+
+    static final short MIN_TIMEOUT = 1;
+    static final short MAX_TIMEOUT = 32;
+
+    private static final long NANOS = 1000L * 1000 * 1000;
+
+    private static class Entry {
+	final long digest;
+	final short timeout;
+	/* when the rule expires on the switch */
+	final long expires;
+
+	Entry(long digest, short timeout, long expires) {
+	    this.digest = digest;
+	    this.timeout = timeout;
+	    this.expires = expires;
+	}
+    }
+
+    private final int mask;
+    private final AtomicReferenceArray<Entry> entries;
+
+    private final AtomicLong installed = new AtomicLong(0);
+    private final AtomicLong suppressed = new AtomicLong(0);
+
+    /**
+     * @param size the number of slots, rounded up to a power of two
+     */
+    public DropRuleCache(int size) {
+	int slots = Integer.highestOneBit(Math.max(size - 1, 1)) << 1;
+	this.mask = slots - 1;
+	this.entries = new AtomicReferenceArray<Entry>(slots);
+    }
+
+    /**
+     * Records that a drop rule for match is about to be installed, unless
+     * one is already in place.
+     * 
+     * @return the hard timeout for the rule, or 0 if it need not be
+     *         installed
+     */
+    public short add(OFMatch match) {
+	return this.add(digest(match), System.nanoTime());
+    }
+
+    short add(long digest, long now) {
+	int slot = (int) (digest ^ (digest >>> 32)) & this.mask;
+	Entry entry = this.entries.get(slot);
+	short timeout = MIN_TIMEOUT;
+	if (entry != null && entry.digest == digest) {
+	    if (entry.expires - now > 0) {
+		this.suppressed.incrementAndGet();
+		return 0;
+	    }
+	    // still there within a timeout of its rule expiring: back off
+	    if (now - entry.expires < entry.timeout * NANOS)
+		timeout = (short) Math.min(entry.timeout * 2, MAX_TIMEOUT);
+	}
+	Entry next = new Entry(digest, timeout, now + timeout * NANOS);
+	if (!this.entries.compareAndSet(slot, entry, next)) {
+	    // somebody else got there first
+	    this.suppressed.incrementAndGet();
+	    return 0;
+	}
+	this.installed.incrementAndGet();
+	return timeout;
+    }
+
+    /**
+     * @return the number of drop rules installed through this cache
+     */
+    public long getInstalled() {
+	return this.installed.get();
+    }
+
+    /**
+     * @return the number of drop rules this cache saved installing
+     */
+    public long getSuppressed() {
+	return this.suppressed.get();
+    }
+
+    /*
+     * 64 bit digest of the fields of match, multiplying by an odd constant
+     * between fields so that their order matters.
+     */
+    static long digest(OFMatch match) {
+	long h = match.getWildcards();
+	h = h * 0x9e3779b97f4a7c15L + match.getInputPort();
+	h = h * 0x9e3779b97f4a7c15L + mac(match.getDataLayerSource());
+	h = h * 0x9e3779b97f4a7c15L + mac(match.getDataLayerDestination());
+	h = h * 0x9e3779b97f4a7c15L + match.getDataLayerVirtualLan();
+	h = h * 0x9e3779b97f4a7c15L + match.getDataLayerType();
+	h = h * 0x9e3779b97f4a7c15L + match.getNetworkSource();
+	h = h * 0x9e3779b97f4a7c15L + match.getNetworkDestination();
+	h = h * 0x9e3779b97f4a7c15L + match.getNetworkProtocol();
+	h = h * 0x9e3779b97f4a7c15L + match.getNetworkTypeOfService();
+	h = h * 0x9e3779b97f4a7c15L + match.getTransportSource();
+	h = h * 0x9e3779b97f4a7c15L + match.getTransportDestination();
+	h ^= h >>> 31;
+	return h;
+    }
+
+    private static long mac(byte[] mac) {
+	long value = 0;
+	for (byte b : mac)
+	    value = (value << 8) | (b & 0xff);
+	return value;
+    }
+
+}
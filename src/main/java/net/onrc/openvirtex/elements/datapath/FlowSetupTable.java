@@ -0,0 +1,332 @@
+/**
+ *  Copyright (c) 2013 Open Networking Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.onrc.openvirtex.elements.network.PhysicalNetwork;
+import net.onrc.openvirtex.messages.OVXPacketIn;
+
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+import org.openflow.protocol.OFMatch;
+
+/**
+ * Flow setups of a virtual switch waiting for a decision of its controller.
+ *
+ * Only the first packet in of a flow is sent to the controller. The packet
+ * ins of the same flow that arrive before the controller answers with a flow
+ * mod or packet out for the first one are held here, already virtualized,
+ * and are released through the actions of that answer.
+ *
+ * At most MAX_HELD packet ins are held per flow, later ones go to the
+ * controller as usual. A setup the controller has not answered within
+ * MAX_WAIT is given up: its held packet ins go to the controller, from a
+ * timer or along with the next packet in of the flow, whichever comes
+ * first. A flow mod without a buffer id that covers the flow answers the
+ * setup as well: an exact match flow mod finds it by the addresses and ports
+ * of its flow, any other looks through up to MAX_SCAN open setups.
+ */
+public class FlowSetupTable {
+
+    static final int MAX_HELD = 32;
+    static final long MAX_WAIT = 100L * 1000 * 1000; // ns
+    static final int MAX_SCAN = 64;
+
+    /* the fields of a match that an exact match flow mod fixes */
+    private static final int FIVE_TUPLE = OFMatch.OFPFW_NW_SRC_MASK
+	    | OFMatch.OFPFW_NW_DST_MASK | OFMatch.OFPFW_NW_PROTO
+	    | OFMatch.OFPFW_TP_SRC | OFMatch.OFPFW_TP_DST;
+
+    private static class Setup {
+	final long digest;
+	final OVXPacketIn first;
+	final int bufferId;
+	final long deadline;
+	final long fiveTuple;
+	private List<OVXPacketIn> held = new ArrayList<OVXPacketIn>();
+	/* the virtual match of first, once asked for */
+	private OFMatch match = null;
+
+	Setup(long digest, long fiveTuple, OVXPacketIn first, long deadline) {
+	    this.digest = digest;
+	    this.fiveTuple = fiveTuple;
+	    this.first = first;
+	    this.bufferId = first.getBufferId();
+	    this.deadline = deadline;
+	}
+
+	synchronized boolean hold(OVXPacketIn pktIn, long now) {
+	    if (this.held == null || now - this.deadline >= 0
+		    || this.held.size() >= MAX_HELD)
+		return false;
+	    this.held.add(pktIn);
+	    return true;
+	}
+
+	synchronized boolean isOpen() {
+	    return this.held != null;
+	}
+
+	/* returns the packet ins held and holds no more, or null if closed */
+	synchronized List<OVXPacketIn> close() {
+	    List<OVXPacketIn> pkts = this.held;
+	    this.held = null;
+	    return pkts;
+	}
+
+	synchronized OFMatch getMatch() {
+	    if (this.match == null)
+		this.match = new OFMatch().loadFromPacket(
+			this.first.getPacketData(), this.first.getInPort());
+	    return this.match;
+	}
+    }
+
+    private final int mask;
+    private final AtomicReferenceArray<Setup> byFlow;
+    private final AtomicReferenceArray<Setup> byBuffer;
+    /* by the physical addresses and ports of their flow */
+    private final AtomicReferenceArray<Setup> byFiveTuple;
+    /* the setups not closed yet, to look through */
+    private final Set<Setup> live = Collections
+	    .newSetFromMap(new ConcurrentHashMap<Setup, Boolean>());
+
+    /* setups not closed yet */
+    private final AtomicInteger open = new AtomicInteger(0);
+    private final AtomicLong held = new AtomicLong(0);
+    private final AtomicLong expired = new AtomicLong(0);
+
+    /**
+     * @param size the number of flows tracked at most, rounded up to a power
+     *            of two
+     */
+    public FlowSetupTable(int size) {
+	int slots = Integer.highestOneBit(Math.max(size - 1, 1)) << 1;
+	this.mask = slots - 1;
+	this.byFlow = new AtomicReferenceArray<Setup>(slots);
+	this.byBuffer = new AtomicReferenceArray<Setup>(slots);
+	this.byFiveTuple = new AtomicReferenceArray<Setup>(slots);
+    }
+
+    /**
+     * Holds pktIn if a packet in of its flow is waiting for the controller,
+     * otherwise records pktIn as the packet in the flow waits on.
+     * 
+     * @param match
+     *            the match of pktIn
+     * @param pktIn
+     *            the virtualized packet in, with its virtual buffer id
+     * @return an empty list if pktIn is held; otherwise the packet ins to
+     *         send to the controller, ending with pktIn
+     */
+    public List<OVXPacketIn> hold(OFMatch match, OVXPacketIn pktIn) {
+	return this.hold(DropRuleCache.digest(match), fiveTuple(match), pktIn,
+		System.nanoTime());
+    }
+
+    List<OVXPacketIn> hold(long digest, long fiveTuple, OVXPacketIn pktIn,
+	    long now) {
+	int slot = this.slot(digest);
+	for (;;) {
+	    Setup setup = this.byFlow.get(slot);
+	    if (setup != null && setup.digest == digest) {
+		if (setup.hold(pktIn, now)) {
+		    this.held.incrementAndGet();
+		    return Collections.emptyList();
+		}
+		// too many held: let this one through as before
+		if (setup.isOpen() && now - setup.deadline < 0)
+		    return Collections.singletonList(pktIn);
+	    }
+	    Setup next = new Setup(digest, fiveTuple, pktIn, now + MAX_WAIT);
+	    if (!this.byFlow.compareAndSet(slot, setup, next))
+		continue;
+	    this.open.incrementAndGet();
+	    this.byBuffer.set(pktIn.getBufferId() & this.mask, next);
+	    this.byFiveTuple.set(this.slot(next.fiveTuple), next);
+	    this.live.add(next);
+	    // ended meanwhile, before it could be found this way
+	    if (!next.isOpen())
+		this.forget(next);
+	    if (setup == null)
+		return Collections.singletonList(pktIn);
+	    // the setup we replace was not answered in time, or is another flow
+	    List<OVXPacketIn> pkts = this.close(setup);
+	    if (pkts.isEmpty())
+		return Collections.singletonList(pktIn);
+	    this.expired.addAndGet(pkts.size());
+	    pkts.add(pktIn);
+	    return pkts;
+	}
+    }
+
+    /**
+     * Sends the packet ins held behind the packet in with virtual buffer id
+     * bufferId to the controller of vsw after MAX_WAIT, if it has not
+     * answered that packet in by then.
+     */
+    public void expireLater(final int bufferId, final OVXSwitch vsw,
+	    final PhysicalSwitch sw) {
+	final HashedWheelTimer timer = PhysicalNetwork.getTimer();
+	if (timer == null)
+	    return;
+	timer.newTimeout(new TimerTask() {
+	    @Override
+	    public void run(final Timeout timeout) {
+		for (final OVXPacketIn pktIn : FlowSetupTable.this.expire(bufferId))
+		    vsw.sendMsg(pktIn, sw);
+	    }
+	}, MAX_WAIT, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return true if packet ins may be held behind the packet in with
+     *         virtual buffer id bufferId
+     */
+    public boolean isPending(int bufferId) {
+	Setup setup = this.byBuffer.get(bufferId & this.mask);
+	return setup != null && setup.bufferId == bufferId && setup.isOpen();
+    }
+
+    /**
+     * Ends the setup waiting on the packet in with virtual buffer id
+     * bufferId, now that the controller has answered it.
+     * 
+     * @return the packet ins held behind it, to be sent out like it
+     */
+    public List<OVXPacketIn> release(int bufferId) {
+	int slot = bufferId & this.mask;
+	Setup setup = this.byBuffer.get(slot);
+	if (setup == null || setup.bufferId != bufferId)
+	    return Collections.emptyList();
+	return this.end(setup);
+    }
+
+    /**
+     * Gives up the setup waiting on the packet in with virtual buffer id
+     * bufferId, if the controller has not answered it yet.
+     * 
+     * @return the packet ins held behind it, to be sent to the controller
+     */
+    public List<OVXPacketIn> expire(int bufferId) {
+	List<OVXPacketIn> pkts = this.release(bufferId);
+	this.expired.addAndGet(pkts.size());
+	return pkts;
+    }
+
+    /**
+     * Ends the setups of the flows that rule, the virtual match of a flow
+     * mod without a buffer id, covers. Only the setup of its flow is looked
+     * up if rule fixes the addresses and ports, otherwise at most MAX_SCAN
+     * open setups are. The setups left out expire as usual, as do those of
+     * packet ins whose addresses were rewritten for the tenant, which are
+     * known by their physical addresses.
+     * 
+     * @return the packet ins held behind them, to be sent out through the
+     *         actions of the flow mod
+     */
+    public List<OVXPacketIn> releaseCovered(OFMatch rule) {
+	if (this.open.get() == 0)
+	    return Collections.emptyList();
+	if ((OVXFlowTable.normalize(rule.getWildcards()) & FIVE_TUPLE) == 0) {
+	    Setup setup = this.byFiveTuple.get(this.slot(fiveTuple(rule)));
+	    if (setup != null && setup.isOpen()
+		    && OVXFlowTable.matchesPacket(rule, setup.getMatch()))
+		return this.end(setup);
+	    return Collections.emptyList();
+	}
+	List<OVXPacketIn> pkts = new ArrayList<OVXPacketIn>();
+	int scanned = 0;
+	for (Setup setup : this.live) {
+	    if (scanned++ >= MAX_SCAN)
+		break;
+	    if (setup.isOpen() && OVXFlowTable.matchesPacket(rule, setup.getMatch()))
+		pkts.addAll(this.end(setup));
+	}
+	return pkts;
+    }
+
+    private List<OVXPacketIn> end(Setup setup) {
+	this.byBuffer.compareAndSet(setup.bufferId & this.mask, setup, null);
+	this.byFlow.compareAndSet(this.slot(setup.digest), setup, null);
+	return this.close(setup);
+    }
+
+    private List<OVXPacketIn> close(Setup setup) {
+	List<OVXPacketIn> pkts = setup.close();
+	if (pkts == null)
+	    return Collections.emptyList();
+	this.open.decrementAndGet();
+	this.forget(setup);
+	return pkts;
+    }
+
+    private void forget(Setup setup) {
+	this.byFiveTuple.compareAndSet(this.slot(setup.fiveTuple), setup, null);
+	this.live.remove(setup);
+    }
+
+    private int slot(long digest) {
+	return (int) (digest ^ (digest >>> 32)) & this.mask;
+    }
+
+    /*
+     * @return a digest of the addresses, protocol and ports of match
+     */
+    private static long fiveTuple(OFMatch match) {
+	long h = match.getNetworkSource();
+	h = h * 0x9e3779b97f4a7c15L + match.getNetworkDestination();
+	h = h * 0x9e3779b97f4a7c15L + match.getNetworkProtocol();
+	h = h * 0x9e3779b97f4a7c15L + match.getTransportSource();
+	h = h * 0x9e3779b97f4a7c15L + match.getTransportDestination();
+	h ^= h >>> 31;
+	return h;
+    }
+
+    /**
+     * @return the number of packet ins held back from the controller
+     */
+    public long getHeld() {
+	return this.held.get();
+    }
+
+    /**
+     * @return the number of held packet ins that went to the controller
+     *         after all, because their setup was not answered in time
+     */
+    public long getExpired() {
+	return this.expired.get();
+    }
+
+}
@@ -0,0 +1,213 @@
+/**
+ *  Copyright (c) 2013 Open Networking Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+import org.openflow.protocol.OFMessage;
+
+/**
+ * Orders the installation of a path. Rules sent downstream of the ingress
+ * while a batch is open on the current thread (see {@link #begin()}) are held
+ * until the batch is released, then sent and followed by a barrier on each
+ * switch they went to. A batch closed before it is released sends nothing, so
+ * a message refused halfway through leaves no rule behind. The ingress rule or
+ * packet out given to {@link #release(Runnable)} is only sent once every one
+ * of those barriers has been replied to, so packets never reach a switch
+ * before its rules. Nothing blocks: the ingress is sent from the I/O thread
+ * that handles the last barrier reply.
+ *
+ * A switch that does not reply within MAX_WAIT is given up on and the
+ * ingress is sent anyway.
+ */
+public class InstallBatch {
+
+    static final long MAX_WAIT = 500; // ms
+
+    private static final ThreadLocal<InstallBatch> current = new ThreadLocal<InstallBatch>();
+
+    private static final AtomicLong timedOut = new AtomicLong(0);
+
+    /*
+     * Our own, so a batch never waits on a switch forever, whether the
+     * physical network is up or not.
+     */
+    private static final HashedWheelTimer timer = new HashedWheelTimer(
+	    new ThreadFactory() {
+		@Override
+		public Thread newThread(final Runnable r) {
+		    final Thread thread = new Thread(r, "install-batch-timer");
+		    thread.setDaemon(true);
+		    return thread;
+		}
+	    });
+
+    /* the batch that was open on this thread when this one began */
+    private final InstallBatch outer;
+    private final Set<PhysicalSwitch> downstream = new LinkedHashSet<PhysicalSwitch>();
+    /* the rules held, and the switch each goes to */
+    private final List<OFMessage> rules = new ArrayList<OFMessage>();
+    private final List<PhysicalSwitch> targets = new ArrayList<PhysicalSwitch>();
+    private boolean closed = false;
+
+    private InstallBatch(InstallBatch outer) {
+	this.outer = outer;
+    }
+
+    /**
+     * Opens a batch on the current thread. It must be closed, normally by
+     * {@link #release(Runnable)}, before the thread handles another message.
+     */
+    public static InstallBatch begin() {
+	final InstallBatch batch = new InstallBatch(current.get());
+	current.set(batch);
+	return batch;
+    }
+
+    /**
+     * Sends a rule downstream of the ingress of the batch open on this
+     * thread once the batch is released, or right away if there is none.
+     */
+    public static void sendDownstream(final PhysicalSwitch sw,
+	    final OFMessage msg) {
+	final InstallBatch batch = current.get();
+	if (batch == null) {
+	    sw.sendMsg(msg, sw);
+	    return;
+	}
+	batch.downstream.add(sw);
+	batch.rules.add(msg);
+	batch.targets.add(sw);
+    }
+
+    /**
+     * @return the number of ingress sends that did not wait for all their
+     *         barrier replies
+     */
+    public static long getTimedOutCount() {
+	return InstallBatch.timedOut.get();
+    }
+
+    /**
+     * Closes the batch, sends the rules it holds and runs ingress once the
+     * switches they went to have confirmed them, or right away if there are
+     * none.
+     */
+    public void release(final Runnable ingress) {
+	if (!this.closed) {
+	    this.closed = true;
+	    this.restore();
+	    for (int i = 0; i < this.rules.size(); i++)
+		this.targets.get(i).sendMsg(this.rules.get(i), this.targets.get(i));
+	}
+	if (this.downstream.isEmpty()) {
+	    ingress.run();
+	    return;
+	}
+	final Release pending = new Release(ingress, this.downstream.size());
+	// every barrier is noted down before a reply to it can come in
+	for (final PhysicalSwitch sw : this.downstream)
+	    pending.track(sw, sw.nextBarrierXid());
+	InstallBatch.timer.newTimeout(pending, MAX_WAIT, TimeUnit.MILLISECONDS);
+	pending.send();
+    }
+
+    /**
+     * Closes the batch, dropping the rules it holds if it was not released.
+     * Safe to call after {@link #release(Runnable)}.
+     */
+    public void close() {
+	if (this.closed)
+	    return;
+	this.closed = true;
+	this.restore();
+	this.downstream.clear();
+	this.rules.clear();
+	this.targets.clear();
+    }
+
+    private void restore() {
+	if (this.outer == null)
+	    current.remove();
+	else
+	    current.set(this.outer);
+    }
+
+    private static class Release implements Runnable, TimerTask {
+	private final Runnable ingress;
+	private final AtomicInteger replies;
+	private final AtomicBoolean done = new AtomicBoolean(false);
+	private final PhysicalSwitch[] switches;
+	private final int[] xids;
+	private int waiting = 0;
+
+	Release(final Runnable ingress, final int switches) {
+	    this.ingress = ingress;
+	    this.replies = new AtomicInteger(switches);
+	    this.switches = new PhysicalSwitch[switches];
+	    this.xids = new int[switches];
+	}
+
+	void track(final PhysicalSwitch sw, final int xid) {
+	    this.switches[this.waiting] = sw;
+	    this.xids[this.waiting++] = xid;
+	}
+
+	/* a barrier reply */
+	@Override
+	public void run() {
+	    if (this.replies.decrementAndGet() == 0
+		    && this.done.compareAndSet(false, true))
+		this.ingress.run();
+	}
+
+	/* out of time */
+	@Override
+	public void run(final Timeout timeout) {
+	    if (!this.done.compareAndSet(false, true))
+		return;
+	    InstallBatch.timedOut.incrementAndGet();
+	    for (int i = 0; i < this.waiting; i++)
+		this.switches[i].cancelBarrier(this.xids[i]);
+	    this.ingress.run();
+	}
+
+	void send() {
+	    for (int i = 0; i < this.waiting && !this.done.get(); i++)
+		this.switches[i].sendBarrier(this.xids[i], this);
+	}
+    }
+
+}
@@ -34,8 +34,9 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentHashMap;
 
 import net.onrc.openvirtex.core.io.OVXSendMsg;
 import net.onrc.openvirtex.elements.OVXMap;
@@ -45,11 +46,13 @@ import net.onrc.openvirtex.elements.port.PhysicalPort;
 import net.onrc.openvirtex.messages.Devirtualizable;
 import net.onrc.openvirtex.routing.ManualRoute;
 import net.onrc.openvirtex.routing.Routable;
+import net.onrc.openvirtex.routing.RouteUpdate;
 import net.onrc.openvirtex.routing.RoutingAlgorithms;
 import net.onrc.openvirtex.routing.SwitchRoute;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.openflow.protocol.OFMatch;
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPhysicalPort;
 
@@ -70,14 +73,14 @@ public class OVXBigSwitch extends OVXSwitch {
     /** The routing mechanism */
     private Routable 								routing;
     
-    /**The calculated routes*/
-    private final HashMap<OVXPort, HashMap<OVXPort, SwitchRoute>> 		routeMap;
+    /**The calculated routes, read without locking on the packet path*/
+    private final Map<OVXPort, Map<OVXPort, SwitchRoute>> 			routeMap;
     
     public OVXBigSwitch(final long switchId, final int tenantId) {
 	super(switchId, tenantId);
 	this.alg = RoutingAlgorithms.NONE;
 	this.routing = new ManualRoute();
-	this.routeMap = new HashMap<OVXPort, HashMap<OVXPort, SwitchRoute>>();
+	this.routeMap = new ConcurrentHashMap<OVXPort, Map<OVXPort, SwitchRoute>>();
     }
 
     /**
@@ -98,6 +101,7 @@ public class OVXBigSwitch extends OVXSwitch {
     public void setAlg(final RoutingAlgorithms alg) {
 	this.alg = alg;
 	this.routing = alg.getRoutable();
+	this.routing.computeRoutes(this);
     }
     
     /**
@@ -116,10 +120,33 @@ public class OVXBigSwitch extends OVXSwitch {
 	return this.routing.getRoute(this, srcPort, dstPort);    
     }
     
-    public HashMap<OVXPort, HashMap<OVXPort, SwitchRoute>> getRouteMap() {
+    /**
+     * @param srcPort the ingress port on the Big Switch
+     * @param dstPort the egress port on the Big Switch
+     * @param match the header fields of a flow
+     * @return the route the flow takes, out of the paths the routing policy
+     *         keeps between the ports, or null if there is none
+     */
+    public SwitchRoute getRoute(OVXPort srcPort, OVXPort dstPort, OFMatch match) {
+	return this.routing.getRoute(this, srcPort, dstPort, match);
+    }
+    
+    public Map<OVXPort, Map<OVXPort, SwitchRoute>> getRouteMap() {
 	return this.routeMap;
     }
     
+    /**
+     * Adds the port, and the routes to it if the routing policy computes
+     * them.
+     */
+    @Override
+    public boolean addPort(final OVXPort port) {
+	if (!super.addPort(port))
+	    return false;
+	this.routing.computeRoutes(this);
+	return true;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -144,9 +171,8 @@ public class OVXBigSwitch extends OVXSwitch {
      */
     @Override
     public void sendMsg(final OFMessage msg, final OVXSendMsg from) {
-	// TODO Truncate the message for the ctrl to the missSetLenght value
 	if (this.isConnected) {
-	    this.channel.write(Collections.singletonList(msg));
+	    this.writeQueue.write(msg);
 	}
     }
 
@@ -227,43 +253,149 @@ public class OVXBigSwitch extends OVXSwitch {
      */
     public int createRoute(OVXPort ingress, OVXPort egress, 
 	    final List<PhysicalLink> path, List<PhysicalLink> revpath) {
-	final int routeId = this.map.getVirtualNetwork(this.tenantId).getLinkCounter().getAndIncrement();
+	return this.createRoutes(ingress, egress,
+		Collections.singletonList(path),
+		Collections.singletonList(revpath), null, null);
+    }
+    
+    /**
+     * Adds equal cost paths between two edge ports on the big switch, each
+     * with a route ID of its own. Flows are spread over them by
+     * getRoute(OVXPort, OVXPort, OFMatch).
+     * @param ingress
+     * @param egress
+     * @param paths lists of links, the preferred one first
+     * @param revpaths the corresponding reverse paths from egress to ingress
+     * @param backup a path disjoint from paths to fail over to, or null
+     * @param revbackup the reverse of backup, or null
+     * @return the route ID of the first path, or -1 if there are not enough
+     *         VLAN ids left to tag the paths with
+     */
+    public int createRoutes(OVXPort ingress, OVXPort egress,
+	    final List<List<PhysicalLink>> paths,
+	    final List<List<PhysicalLink>> revpaths,
+	    final List<PhysicalLink> backup, final List<PhysicalLink> revbackup) {
+	int nextId = this.map.getVirtualNetwork(this.tenantId).nextLinkIds(
+		paths.size() + (backup == null ? 0 : 1));
+	if (nextId < 0) {
+	    log.error("No VLAN id left for a route between ports {} and {} of switch {}",
+		    ingress.getPortNumber(), egress.getPortNumber(), this.switchId);
+	    return -1;
+	}
+	final List<SwitchRoute> rtEntries = new ArrayList<SwitchRoute>();
+	final List<SwitchRoute> revRtEntries = new ArrayList<SwitchRoute>();
+	for (int i = 0; i < paths.size(); i++) {
+	    final int routeId = nextId++;
+	    SwitchRoute rtEntry = new SwitchRoute(this.switchId, routeId);
+	    SwitchRoute revRtEntry = new SwitchRoute(this.switchId, routeId);
+	    rtEntry.addRoute(paths.get(i));
+	    revRtEntry.addRoute(revpaths.get(i));
+	    rtEntries.add(rtEntry);
+	    revRtEntries.add(revRtEntry);
+	}
+	SwitchRoute rtEntry = rtEntries.get(0);
+	SwitchRoute revRtEntry = revRtEntries.get(0);
+	if (paths.size() > 1) {
+	    rtEntry.setPaths(rtEntries.subList(1, rtEntries.size()));
+	    revRtEntry.setPaths(revRtEntries.subList(1, revRtEntries.size()));
+	}
+	if (backup != null) {
+	    final int routeId = nextId;
+	    rtEntry.setBackup(new SwitchRoute(this.switchId, routeId));
+	    rtEntry.getBackup().addRoute(backup);
+	    revRtEntry.setBackup(new SwitchRoute(this.switchId, routeId));
+	    revRtEntry.getBackup().addRoute(revbackup);
+	}
+	
+	this.replaceRoute(ingress, egress, rtEntry);
+	//add reverse path dst->src
+	this.replaceRoute(egress, ingress, revRtEntry);
+	
+	log.info("Added route {} over {} paths", rtEntry, paths.size());
+	return rtEntry.getRouteId();
+    }
+    
+    /**
+     * Makes route the path from ingress to egress. A route already there
+     * keeps carrying traffic until the new one is in place, see RouteUpdate.
+     * 
+     * @param route a route with an ID of its own
+     */
+    public void replaceRoute(OVXPort ingress, OVXPort egress, SwitchRoute route) {
+	SwitchRoute old;
+	synchronized(routeMap) {
+	    Map<OVXPort, SwitchRoute> rtmap = this.routeMap.get(ingress);
+	    old = rtmap == null ? null : rtmap.get(egress);
+	    if (old == null)
+		this.addToRouteMap(ingress, egress, route);
+	}
+	new RouteUpdate(this, ingress, egress, old, route).start();
+    }
+    
+    /**
+     * Gives the routes between ingress and egress, both ways, a new backup
+     * path with a route ID of its own, and installs its rules ahead of time.
+     * 
+     * @param backup a path disjoint from the route from ingress to egress
+     * @param revbackup the reverse of backup
+     */
+    public void protectRoute(OVXPort ingress, OVXPort egress,
+	    final List<PhysicalLink> backup, final List<PhysicalLink> revbackup) {
+	final SwitchRoute route = this.getRoute(ingress, egress);
+	final SwitchRoute revRoute = this.getRoute(egress, ingress);
+	if (route == null || revRoute == null)
+	    return;
+	final int routeId = this.map.getVirtualNetwork(this.tenantId).nextLinkIds(1);
+	if (routeId < 0) {
+	    log.error("No VLAN id left for a backup between ports {} and {} of switch {}",
+		    ingress.getPortNumber(), egress.getPortNumber(), this.switchId);
+	    return;
+	}
 	SwitchRoute rtEntry = new SwitchRoute(this.switchId, routeId);
 	SwitchRoute revRtEntry = new SwitchRoute(this.switchId, routeId);
-	rtEntry.addRoute(path);
-	revRtEntry.addRoute(revpath);
-	
+	rtEntry.addRoute(backup);
+	revRtEntry.addRoute(revbackup);
+	RouteUpdate.protect(this, route, rtEntry);
+	RouteUpdate.protect(this, revRoute, revRtEntry);
+	log.info("Added backup {}", rtEntry);
+    }
+    
+    /**
+     * Puts the backup of route, whose rules are installed already, in its
+     * place right away, if route is still the one from ingress to egress.
+     */
+    public void failoverRoute(OVXPort ingress, OVXPort egress, SwitchRoute route) {
+	final SwitchRoute backup = route.getBackup();
 	synchronized(routeMap) {
-	    HashMap<OVXPort, SwitchRoute> rtmap =  this.routeMap.get(ingress);
-	    if (rtmap == null) {
-		rtmap = new HashMap<OVXPort, SwitchRoute>();
-		this.routeMap.put(ingress, rtmap);
-	    }
-	    rtmap.put(egress, rtEntry);
-	    this.map.getVirtualNetwork(this.tenantId).getvLinkMgmt().registerOVXRoute(rtEntry);
+	    Map<OVXPort, SwitchRoute> rtmap = this.routeMap.get(ingress);
+	    if (backup == null || rtmap == null || rtmap.get(egress) != route)
+		return;
 	}
-	//add reverse path dst->src
+	new RouteUpdate(this, ingress, egress, route, backup).failover();
+    }
+    
+    /**
+     * Publishes the route from in to out, replacing the current one, and
+     * indexes it under its links for failover.
+     */
+    public void addToRouteMap(OVXPort in, OVXPort out, SwitchRoute entry) {
 	synchronized(routeMap) {
-	    HashMap<OVXPort, SwitchRoute> rtmap =  this.routeMap.get(egress);
+	    Map<OVXPort, SwitchRoute> rtmap =  this.routeMap.get(in);
 	    if (rtmap == null) {
-		rtmap = new HashMap<OVXPort, SwitchRoute>();
-		this.routeMap.put(egress, rtmap);
+		rtmap = new ConcurrentHashMap<OVXPort, SwitchRoute>();
+		this.routeMap.put(in, rtmap);
+	    }
+	    entry.setEnds(this, in, out);
+	    SwitchRoute old = rtmap.put(out, entry);
+	    if (old != null) {
+		for (SwitchRoute path : old.getPaths())
+		    for (PhysicalLink hop : path.getRoute())
+			this.map.removeDependent(hop, old);
 	    }
-	    rtmap.put(ingress, revRtEntry);
-	    this.map.getVirtualNetwork(this.tenantId).getvLinkMgmt().registerOVXRoute(revRtEntry);
+	    for (SwitchRoute path : entry.getPaths())
+		for (PhysicalLink hop : path.getRoute())
+		    this.map.addDependent(hop, entry);
 	}
-	
-	this.log.info("Added route {}", rtEntry);
-	return routeId;
-    }
-    
-    private void addToRouteMap(OVXPort in, OVXPort out, SwitchRoute entry) {
-        HashMap<OVXPort, SwitchRoute> rtmap =  this.routeMap.get(in);
-        if (rtmap == null) {
-            rtmap = new HashMap<OVXPort, SwitchRoute>();
-            this.routeMap.put(in, rtmap);
-        }
-        rtmap.put(out, entry);
     }
 
     @Override
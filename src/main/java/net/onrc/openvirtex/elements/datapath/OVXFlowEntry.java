@@ -0,0 +1,134 @@
+/**
+ *  Copyright (c) 2013 Open Networking Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.List;
+
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.action.OFActionOutput;
+import org.openflow.util.U16;
+
+/**
+ * A rule of a virtual flow table, as the tenant controller installed it.
+ */
+public class OVXFlowEntry {
+
+    private final OFMatch match;
+    private final int priority;
+    private final long cookie;
+    private final long physicalCookie;
+    private final short idleTimeout;
+    private final short hardTimeout;
+    private final short flags;
+    private final long created;
+    private volatile List<OFAction> actions;
+
+    /* the match fields under the wildcards, see OVXFlowTable.fields() */
+    final OVXFlowTable.Key key;
+
+    /**
+     * @param fm
+     *            a virtual flow mod the entry takes ownership of
+     * @param physicalCookie
+     *            the cookie identifying the rule on the physical switches
+     */
+    OVXFlowEntry(final OFFlowMod fm, final OVXFlowTable.Key key,
+	    final long physicalCookie) {
+	this.match = fm.getMatch();
+	this.priority = U16.f(fm.getPriority());
+	this.cookie = fm.getCookie();
+	this.physicalCookie = physicalCookie;
+	this.idleTimeout = fm.getIdleTimeout();
+	this.hardTimeout = fm.getHardTimeout();
+	this.flags = fm.getFlags();
+	this.actions = fm.getActions();
+	this.created = System.currentTimeMillis();
+	this.key = key;
+    }
+
+    public OFMatch getMatch() {
+	return this.match;
+    }
+
+    /**
+     * @return the priority, unsigned
+     */
+    public int getPriority() {
+	return this.priority;
+    }
+
+    public long getCookie() {
+	return this.cookie;
+    }
+
+    /**
+     * @return the cookie of the physical flow mods implementing this rule,
+     *         the tenant id in the high 32 bits
+     */
+    public long getPhysicalCookie() {
+	return this.physicalCookie;
+    }
+
+    public short getIdleTimeout() {
+	return this.idleTimeout;
+    }
+
+    public short getHardTimeout() {
+	return this.hardTimeout;
+    }
+
+    public short getFlags() {
+	return this.flags;
+    }
+
+    /**
+     * @return the time the entry was added, in milliseconds
+     */
+    public long getCreated() {
+	return this.created;
+    }
+
+    public List<OFAction> getActions() {
+	return this.actions;
+    }
+
+    void setActions(final List<OFAction> actions) {
+	this.actions = actions;
+    }
+
+    /**
+     * @return true if one of the actions outputs to port
+     */
+    public boolean hasOutPort(final short port) {
+	for (final OFAction act : this.actions) {
+	    if (act instanceof OFActionOutput
+		    && ((OFActionOutput) act).getPort() == port)
+		return true;
+	}
+	return false;
+    }
+
+}
@@ -1,31 +1,685 @@
 package net.onrc.openvirtex.elements.datapath;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import net.onrc.openvirtex.messages.OVXFlowMod;
+import net.onrc.openvirtex.messages.OVXFlowRemoved;
+import net.onrc.openvirtex.util.LRUHashMap;
+
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFPort;
+import org.openflow.protocol.OFStatisticsRequest;
+import org.openflow.protocol.statistics.OFFlowStatisticsRequest;
+import org.openflow.util.U16;
 
 /**
- * Virtualized version of the switch flow table. 
- * 
+ * Virtualized version of the switch flow table.
+ *
+ * Holds the rules the tenant controller installed on the virtual switch,
+ * with OpenFlow 1.0 flow mod semantics, so that OVX can answer questions
+ * about them without asking the physical switches.
+ *
+ * Rules are grouped by wildcard pattern into tuples (tuple space search):
+ * within a tuple every rule matches on the same fields, so rules are hashed
+ * on the values of those fields. Classifying a packet or finding a rule by
+ * its exact match and priority costs one hash lookup per tuple instead of
+ * a scan of the table, and tuples are visited by decreasing priority so
+ * classification stops as soon as no remaining tuple can hold a better
+ * rule. Tables typically have a few tuples and many rules.
+ *
+ * Every rule gets a cookie of its own, generated like those of the cookie
+ * map below, which the physical flow mods implementing it carry. Flow
+ * removed messages and flow stats of the physical switches are traced back
+ * to the rule by that cookie.
  */
 public class OVXFlowTable {
-    
+
     /** OVXSwitch tied to this table */
     protected OVXSwitch vswitch;
-    
+
     /** Map of FlowMods to physical cookies for vlinks*/
     protected ConcurrentHashMap<Long, OVXFlowMod> flowmodMap;
-    
+
     /** a temporary solution that should be replaced by something that doesn't fragment */
     private AtomicInteger cookieCounter;
 
+    private static final int NW_ALL = 32;
+    /* flow stats requests remembered for filtering their replies */
+    private static final int STATS_SLOTS = 64;
+    /* overlap indexes kept per tuple, the least recently used goes first */
+    private static final int SHARED_INDEXES = 8;
+
+    /**
+     * The match fields of a rule or packet packed into five words, masked by
+     * the wildcards of its tuple.
+     */
+    static final class Key {
+	final long w0, w1, w2, w3, w4;
+
+	Key(final long[] fields, final long[] mask) {
+	    this.w0 = fields[0] & mask[0];
+	    this.w1 = fields[1] & mask[1];
+	    this.w2 = fields[2] & mask[2];
+	    this.w3 = fields[3] & mask[3];
+	    this.w4 = fields[4] & mask[4];
+	}
+
+	/*
+	 * The words of key under mask, with tag in bits no match field uses.
+	 */
+	Key(final Key key, final long[] mask, final int tag) {
+	    this.w0 = key.w0 & mask[0];
+	    this.w1 = key.w1 & mask[1];
+	    this.w2 = key.w2 & mask[2];
+	    this.w3 = key.w3 & mask[3];
+	    this.w4 = key.w4 & mask[4] | (long) tag << 16;
+	}
+
+	@Override
+	public int hashCode() {
+	    long h = this.w0 * 31 + this.w1;
+	    h = h * 31 + this.w2;
+	    h = h * 31 + this.w3;
+	    h = h * 31 + this.w4;
+	    return (int) (h ^ (h >>> 32));
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+	    if (!(obj instanceof Key))
+		return false;
+	    final Key that = (Key) obj;
+	    return this.w0 == that.w0 && this.w1 == that.w1
+		    && this.w2 == that.w2 && this.w3 == that.w3
+		    && this.w4 == that.w4;
+	}
+
+	/**
+	 * @return true if every field of this key under mask equals that of
+	 *         other
+	 */
+	boolean matches(final long[] mask, final Key other) {
+	    return (this.w0 & mask[0]) == other.w0
+		    && (this.w1 & mask[1]) == other.w1
+		    && (this.w2 & mask[2]) == other.w2
+		    && (this.w3 & mask[3]) == other.w3
+		    && (this.w4 & mask[4]) == other.w4;
+	}
+    }
+
+    /*
+     * The rules sharing a wildcard pattern. Rules with the same match are
+     * kept in one list, by decreasing priority.
+     */
+    private static final class Tuple {
+	final int wildcards;
+	final long[] mask;
+	final HashMap<Key, List<OVXFlowEntry>> rules = new HashMap<Key, List<OVXFlowEntry>>();
+	/* the rules counted by the fewer fields they share with other patterns */
+	final LRUHashMap<Integer, Shared> shared = new LRUHashMap<Integer, Shared>(
+	        SHARED_INDEXES);
+	/* no rule in the tuple has a higher priority; may be stale after removals */
+	int maxPriority = -1;
+	int size = 0;
+
+	Tuple(final int wildcards) {
+	    this.wildcards = wildcards;
+	    this.mask = mask(wildcards);
+	}
+
+	/*
+	 * @return the index of the rules by the fields they match on under
+	 * the wildcards both, built on first use
+	 */
+	Shared shared(final int both) {
+	    Shared index = this.shared.get(both);
+	    if (index == null) {
+		index = new Shared(mask(both));
+		for (final List<OVXFlowEntry> same : this.rules.values()) {
+		    for (final OVXFlowEntry entry : same)
+			index.count(entry, 1);
+		}
+		this.shared.put(both, index);
+	    }
+	    return index;
+	}
+
+	void count(final OVXFlowEntry entry, final int delta) {
+	    for (final Shared index : this.shared.values())
+		index.count(entry, delta);
+	}
+    }
+
+    /*
+     * How many rules of a tuple have each value of some of its fields, and
+     * each priority.
+     */
+    private static final class Shared {
+	final long[] mask;
+	final HashMap<Key, Integer> counts = new HashMap<Key, Integer>();
+
+	Shared(final long[] mask) {
+	    this.mask = mask;
+	}
+
+	boolean contains(final Key key, final int priority) {
+	    return this.counts.containsKey(new Key(key, this.mask, priority));
+	}
+
+	void count(final OVXFlowEntry entry, final int delta) {
+	    final Key key = new Key(entry.key, this.mask, entry.getPriority());
+	    final Integer count = this.counts.get(key);
+	    final int n = (count == null ? 0 : count) + delta;
+	    if (n == 0)
+		this.counts.remove(key);
+	    else
+		this.counts.put(key, n);
+	}
+    }
+
+    /*
+     * A flow stats request of the tenant, and how many physical switches
+     * have not sent their last reply to it yet.
+     */
+    private static final class StatsRequest {
+	final OFStatisticsRequest msg;
+	final AtomicInteger pending;
+
+	StatsRequest(final OFStatisticsRequest msg, final int switches) {
+	    this.msg = msg;
+	    this.pending = new AtomicInteger(switches);
+	}
+    }
+
+    private static final Comparator<Tuple> BY_PRIORITY = new Comparator<Tuple>() {
+	@Override
+	public int compare(final Tuple a, final Tuple b) {
+	    return b.maxPriority - a.maxPriority;
+	}
+    };
+
+    private final HashMap<Integer, Tuple> tuples = new HashMap<Integer, Tuple>();
+    /* the tuples by decreasing maximum priority, when sorted is set */
+    private final List<Tuple> ordered = new ArrayList<Tuple>();
+    private boolean sorted = true;
+    private int size = 0;
+    /* the rules by the cookie of their physical flow mods */
+    private final HashMap<Long, OVXFlowEntry> byCookie = new HashMap<Long, OVXFlowEntry>();
+    /* indexed by xid; a request is forgotten when its slot is reused */
+    private final AtomicReferenceArray<StatsRequest> statsRequests = new AtomicReferenceArray<StatsRequest>(
+	    STATS_SLOTS);
+
     public OVXFlowTable(OVXSwitch vsw) {
 	this.flowmodMap = new ConcurrentHashMap<Long, OVXFlowMod>();
 	this.cookieCounter = new AtomicInteger(1);
 	this.vswitch = vsw;
     }
-    
+
+    /**
+     * Applies a virtual flow mod to the table, as an OpenFlow 1.0 switch
+     * would. The table takes ownership of fm, its match and its actions.
+     * The rules a delete removes that were installed with
+     * OFPFF_SEND_FLOW_REM are reported to the tenant, once the table is
+     * unlocked.
+     *
+     * @return false if fm is an add asking to check for overlaps and it
+     *         overlaps a rule of the same priority; the table is unchanged.
+     *         true otherwise.
+     */
+    public boolean handleFlowMod(final OFFlowMod fm) {
+	final List<OVXFlowEntry> removed;
+	synchronized (this) {
+	    switch (fm.getCommand()) {
+	    case OFFlowMod.OFPFC_ADD:
+		return this.add(fm);
+	    case OFFlowMod.OFPFC_MODIFY:
+		return this.modify(fm, false);
+	    case OFFlowMod.OFPFC_MODIFY_STRICT:
+		return this.modify(fm, true);
+	    case OFFlowMod.OFPFC_DELETE:
+		removed = this.delete(fm.getMatch(), fm.getPriority(),
+		        fm.getOutPort(), false);
+		break;
+	    case OFFlowMod.OFPFC_DELETE_STRICT:
+		removed = this.delete(fm.getMatch(), fm.getPriority(),
+		        fm.getOutPort(), true);
+		break;
+	    default:
+		return true;
+	    }
+	}
+	final long now = System.currentTimeMillis();
+	for (final OVXFlowEntry entry : removed) {
+	    if ((entry.getFlags() & OFFlowMod.OFPFF_SEND_FLOW_REM) != 0)
+		this.vswitch.sendMsg(OVXFlowRemoved.deleted(entry, now),
+		        this.vswitch);
+	}
+	return true;
+    }
+
+    /**
+     * @return the highest priority rule matching the packet described by
+     *         match, whose fields must all be set, or null
+     */
+    public synchronized OVXFlowEntry lookup(final OFMatch match) {
+	if (!this.sorted) {
+	    Collections.sort(this.ordered, BY_PRIORITY);
+	    this.sorted = true;
+	}
+	final long[] fields = fields(match);
+	OVXFlowEntry best = null;
+	for (final Tuple tuple : this.ordered) {
+	    if (best != null && tuple.maxPriority <= best.getPriority())
+		break;
+	    final List<OVXFlowEntry> rules = tuple.rules.get(new Key(fields,
+		    tuple.mask));
+	    if (rules != null
+		    && (best == null || rules.get(0).getPriority() > best
+		            .getPriority()))
+		best = rules.get(0);
+	}
+	return best;
+    }
+
+    /**
+     * @return the rule with exactly this match and priority, or null
+     */
+    public synchronized OVXFlowEntry getEntry(final OFMatch match,
+	    final short priority) {
+	final Tuple tuple = this.tuples.get(normalize(match.getWildcards()));
+	if (tuple == null)
+	    return null;
+	final List<OVXFlowEntry> rules = tuple.rules.get(new Key(fields(match),
+	        tuple.mask));
+	return rules == null ? null : find(rules, U16.f(priority));
+    }
+
+    /**
+     * @return the rules at least as specific as match that output to
+     *         outPort, as selected by flow stats requests and non-strict
+     *         deletes. outPort OFPP_NONE selects every rule.
+     */
+    public synchronized List<OVXFlowEntry> getEntries(final OFMatch match,
+	    final short outPort) {
+	final List<OVXFlowEntry> found = new ArrayList<OVXFlowEntry>();
+	final int wildcards = normalize(match.getWildcards());
+	final long[] mask = mask(wildcards);
+	final Key key = new Key(fields(match), mask);
+	for (final Tuple tuple : this.tuples.values()) {
+	    if (!covers(mask, tuple.mask))
+		continue;
+	    if (tuple.wildcards == wildcards) {
+		final List<OVXFlowEntry> rules = tuple.rules.get(key);
+		if (rules != null)
+		    addWithOutPort(found, rules, outPort);
+		continue;
+	    }
+	    for (final List<OVXFlowEntry> rules : tuple.rules.values()) {
+		if (rules.get(0).key.matches(mask, key))
+		    addWithOutPort(found, rules, outPort);
+	    }
+	}
+	return found;
+    }
+
+    /**
+     * @return the rule installed on the physical switches with this cookie,
+     *         or null
+     */
+    public synchronized OVXFlowEntry getEntry(final long physicalCookie) {
+	return this.byCookie.get(physicalCookie);
+    }
+
+    /**
+     * Removes the rule installed on the physical switches with this cookie,
+     * once they report it gone.
+     *
+     * @return the rule, or null if there was none
+     */
+    public synchronized OVXFlowEntry removeEntry(final long physicalCookie) {
+	final OVXFlowEntry entry = this.byCookie.get(physicalCookie);
+	if (entry != null)
+	    this.remove(entry);
+	return entry;
+    }
+
+    /**
+     * Remembers the flow stats request msg of the tenant, so that only the
+     * rules it selects are reported in the replies to it.
+     *
+     * @param switches
+     *            the number of physical switches the request was sent to
+     */
+    public void addStatsRequest(final OFStatisticsRequest msg,
+	    final int switches) {
+	this.statsRequests.set(msg.getXid() & (STATS_SLOTS - 1),
+	        new StatsRequest(msg, switches));
+    }
+
+    /**
+     * @return true if the flow stats request of the tenant with this xid
+     *         selects entry; false if the request is not known, or not
+     *         anymore
+     */
+    public boolean isSelected(final int xid, final OVXFlowEntry entry) {
+	final StatsRequest pending = this.statsRequests.get(xid
+	        & (STATS_SLOTS - 1));
+	if (pending == null || pending.msg.getXid() != xid)
+	    return false;
+	final OFFlowStatisticsRequest req = (OFFlowStatisticsRequest) pending.msg
+	        .getFirstStatistics();
+	final long[] mask = mask(normalize(req.getMatch().getWildcards()));
+	if (!covers(mask, mask(normalize(entry.getMatch().getWildcards())))
+	        || !entry.key.matches(mask, new Key(fields(req.getMatch()), mask)))
+	    return false;
+	return req.getOutPort() == OFPort.OFPP_NONE.getValue()
+	        || entry.hasOutPort(req.getOutPort());
+    }
+
+    /**
+     * Accounts for a reply of a physical switch to the flow stats request
+     * of the tenant with this xid, so the tenant gets one last reply however
+     * many switches answer.
+     *
+     * @param more
+     *            whether the physical switch has more replies to send
+     * @return true if more replies to the request are to follow, from this
+     *         switch or others
+     */
+    public boolean expectsMore(final int xid, final boolean more) {
+	final int slot = xid & (STATS_SLOTS - 1);
+	final StatsRequest pending = this.statsRequests.get(slot);
+	if (pending == null || pending.msg.getXid() != xid)
+	    return more;
+	if (more)
+	    return true;
+	if (pending.pending.decrementAndGet() > 0)
+	    return true;
+	this.statsRequests.compareAndSet(slot, pending, null);
+	return false;
+    }
+
+    /**
+     * @return true if fm is an add asking to check for overlaps and it
+     *         overlaps a rule of the same priority, so that
+     *         {@link #handleFlowMod(OFFlowMod)} would reject it
+     */
+    public synchronized boolean rejects(final OFFlowMod fm) {
+	if (fm.getCommand() != OFFlowMod.OFPFC_ADD
+	        || (fm.getFlags() & OFFlowMod.OFPFF_CHECK_OVERLAP) == 0)
+	    return false;
+	final int wildcards = normalize(fm.getMatch().getWildcards());
+	return this.overlaps(new Key(fields(fm.getMatch()), mask(wildcards)),
+	        wildcards, U16.f(fm.getPriority()));
+    }
+
+    public synchronized int size() {
+	return this.size;
+    }
+
+    private boolean add(final OFFlowMod fm) {
+	final int priority = U16.f(fm.getPriority());
+	final int wildcards = normalize(fm.getMatch().getWildcards());
+	Tuple tuple = this.tuples.get(wildcards);
+	final Key key = new Key(fields(fm.getMatch()), tuple == null
+	        ? mask(wildcards) : tuple.mask);
+	if ((fm.getFlags() & OFFlowMod.OFPFF_CHECK_OVERLAP) != 0
+	        && this.overlaps(key, wildcards, priority))
+	    return false;
+
+	if (tuple == null) {
+	    tuple = new Tuple(wildcards);
+	    this.tuples.put(wildcards, tuple);
+	    this.ordered.add(tuple);
+	}
+	List<OVXFlowEntry> rules = tuple.rules.get(key);
+	if (rules == null) {
+	    rules = new ArrayList<OVXFlowEntry>(1);
+	    tuple.rules.put(key, rules);
+	}
+	final OVXFlowEntry entry = new OVXFlowEntry(fm, key,
+	        this.generateCookie());
+	this.byCookie.put(entry.getPhysicalCookie(), entry);
+	// an identical rule is replaced, counters and all
+	int i = 0;
+	while (i < rules.size() && rules.get(i).getPriority() > priority)
+	    i++;
+	if (i < rules.size() && rules.get(i).getPriority() == priority) {
+	    this.byCookie.remove(rules.set(i, entry).getPhysicalCookie());
+	    return true;
+	}
+	rules.add(i, entry);
+	tuple.count(entry, 1);
+	tuple.size++;
+	this.size++;
+	if (priority > tuple.maxPriority) {
+	    tuple.maxPriority = priority;
+	    this.sorted = false;
+	}
+	return true;
+    }
+
+    /*
+     * Modifying no rule adds one; the cookie, timeouts and flags of modified
+     * rules are kept.
+     */
+    private boolean modify(final OFFlowMod fm, final boolean strict) {
+	final List<OVXFlowEntry> targets;
+	if (strict) {
+	    final OVXFlowEntry entry = this.getEntry(fm.getMatch(),
+		    fm.getPriority());
+	    targets = entry == null ? Collections.<OVXFlowEntry> emptyList()
+		    : Collections.singletonList(entry);
+	} else {
+	    targets = this.getEntries(fm.getMatch(), OFPort.OFPP_NONE.getValue());
+	}
+	if (targets.isEmpty())
+	    return this.add(fm);
+	for (final OVXFlowEntry entry : targets)
+	    entry.setActions(fm.getActions());
+	return true;
+    }
+
+    /*
+     * @return the rules removed
+     */
+    private List<OVXFlowEntry> delete(final OFMatch match,
+	    final short priority, final short outPort, final boolean strict) {
+	final List<OVXFlowEntry> targets;
+	if (strict) {
+	    final OVXFlowEntry entry = this.getEntry(match, priority);
+	    if (entry == null || outPort != OFPort.OFPP_NONE.getValue()
+		    && !entry.hasOutPort(outPort))
+		return Collections.emptyList();
+	    targets = Collections.singletonList(entry);
+	} else {
+	    targets = this.getEntries(match, outPort);
+	}
+	for (final OVXFlowEntry entry : targets)
+	    this.remove(entry);
+	return targets;
+    }
+
+    private void remove(final OVXFlowEntry entry) {
+	final int wildcards = normalize(entry.getMatch().getWildcards());
+	final Tuple tuple = this.tuples.get(wildcards);
+	final List<OVXFlowEntry> rules = tuple.rules.get(entry.key);
+	rules.remove(entry);
+	tuple.count(entry, -1);
+	if (rules.isEmpty())
+	    tuple.rules.remove(entry.key);
+	this.byCookie.remove(entry.getPhysicalCookie());
+	tuple.size--;
+	this.size--;
+	if (tuple.size == 0) {
+	    this.tuples.remove(wildcards);
+	    this.ordered.remove(tuple);
+	}
+    }
+
+    /*
+     * Two rules overlap if some packet matches both, i.e. they agree on the
+     * fields both match on. That is one hash probe per tuple: on its rules
+     * if the new rule matches on every field the tuple does, else on the
+     * index of the tuple by the fields both match on. Masks with no field in
+     * common share the index with no field, by priority alone.
+     */
+    private boolean overlaps(final Key key, final int wildcards,
+	    final int priority) {
+	for (final Tuple tuple : this.tuples.values()) {
+	    if (tuple.maxPriority < priority)
+		continue;
+	    final int both = union(wildcards, tuple.wildcards);
+	    if (both == tuple.wildcards) {
+		final List<OVXFlowEntry> rules = tuple.rules.get(new Key(key,
+		        tuple.mask, 0));
+		if (rules != null && find(rules, priority) != null)
+		    return true;
+	    } else if (tuple.shared(both).contains(key, priority)) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    private static OVXFlowEntry find(final List<OVXFlowEntry> rules,
+	    final int priority) {
+	for (final OVXFlowEntry entry : rules) {
+	    if (entry.getPriority() == priority)
+		return entry;
+	}
+	return null;
+    }
+
+    private static void addWithOutPort(final List<OVXFlowEntry> found,
+	    final List<OVXFlowEntry> rules, final short outPort) {
+	if (outPort == OFPort.OFPP_NONE.getValue()) {
+	    found.addAll(rules);
+	    return;
+	}
+	for (final OVXFlowEntry entry : rules) {
+	    if (entry.hasOutPort(outPort))
+		found.add(entry);
+	}
+    }
+
+    /*
+     * @return true if every field matched on under outer is also matched on
+     * under inner
+     */
+    private static boolean covers(final long[] outer, final long[] inner) {
+	for (int i = 0; i < 5; i++) {
+	    if ((outer[i] & ~inner[i]) != 0)
+		return false;
+	}
+	return true;
+    }
+
+    /**
+     * @return true if the packet described by packet, whose fields must all
+     *         be set, matches rule
+     */
+    static boolean matchesPacket(final OFMatch rule, final OFMatch packet) {
+	final long[] mask = mask(normalize(rule.getWildcards()));
+	return new Key(fields(packet), mask).equals(new Key(fields(rule), mask));
+    }
+
+    /*
+     * @return the wildcards of the fields matched on under both a and b
+     */
+    private static int union(final int a, final int b) {
+	final int nw = OFMatch.OFPFW_NW_SRC_MASK | OFMatch.OFPFW_NW_DST_MASK;
+	return (a | b) & ~nw
+	        | Math.max(a & OFMatch.OFPFW_NW_SRC_MASK, b & OFMatch.OFPFW_NW_SRC_MASK)
+	        | Math.max(a & OFMatch.OFPFW_NW_DST_MASK, b & OFMatch.OFPFW_NW_DST_MASK);
+    }
+
+    /**
+     * @return wildcards with the unused bits cleared and the IP prefix
+     *         wildcards capped at 32, so equivalent matches compare equal
+     */
+    static int normalize(int wildcards) {
+	wildcards &= OFMatch.OFPFW_ALL;
+	final int src = (wildcards & OFMatch.OFPFW_NW_SRC_MASK) >> OFMatch.OFPFW_NW_SRC_SHIFT;
+	final int dst = (wildcards & OFMatch.OFPFW_NW_DST_MASK) >> OFMatch.OFPFW_NW_DST_SHIFT;
+	wildcards &= ~(OFMatch.OFPFW_NW_SRC_MASK | OFMatch.OFPFW_NW_DST_MASK);
+	return wildcards | Math.min(src, NW_ALL) << OFMatch.OFPFW_NW_SRC_SHIFT
+	        | Math.min(dst, NW_ALL) << OFMatch.OFPFW_NW_DST_SHIFT;
+    }
+
+    /**
+     * @return the bits of the words returned by fields() that a match with
+     *         these normalized wildcards matches on
+     */
+    static long[] mask(final int wildcards) {
+	final long[] mask = new long[5];
+	if ((wildcards & OFMatch.OFPFW_DL_SRC) == 0)
+	    mask[0] |= 0xffffffffffffL;
+	if ((wildcards & OFMatch.OFPFW_IN_PORT) == 0)
+	    mask[0] |= 0xffffL << 48;
+	if ((wildcards & OFMatch.OFPFW_DL_DST) == 0)
+	    mask[1] |= 0xffffffffffffL;
+	if ((wildcards & OFMatch.OFPFW_DL_TYPE) == 0)
+	    mask[1] |= 0xffffL << 48;
+	final int src = (wildcards & OFMatch.OFPFW_NW_SRC_MASK) >> OFMatch.OFPFW_NW_SRC_SHIFT;
+	final int dst = (wildcards & OFMatch.OFPFW_NW_DST_MASK) >> OFMatch.OFPFW_NW_DST_SHIFT;
+	mask[2] = prefix(src) | prefix(dst) << 32;
+	if ((wildcards & OFMatch.OFPFW_TP_SRC) == 0)
+	    mask[3] |= 0xffffL;
+	if ((wildcards & OFMatch.OFPFW_TP_DST) == 0)
+	    mask[3] |= 0xffffL << 16;
+	if ((wildcards & OFMatch.OFPFW_DL_VLAN) == 0)
+	    mask[3] |= 0xffffL << 32;
+	if ((wildcards & OFMatch.OFPFW_DL_VLAN_PCP) == 0)
+	    mask[3] |= 0xffL << 48;
+	if ((wildcards & OFMatch.OFPFW_NW_TOS) == 0)
+	    mask[3] |= 0xffL << 56;
+	if ((wildcards & OFMatch.OFPFW_NW_PROTO) == 0)
+	    mask[4] = 0xff;
+	return mask;
+    }
+
+    /*
+     * @return the mask of an IP address with its wild low bits cleared
+     */
+    private static long prefix(final int wild) {
+	return wild >= NW_ALL ? 0 : (0xffffffffL << wild) & 0xffffffffL;
+    }
+
+    /**
+     * @return the match fields of match packed into five words
+     */
+    static long[] fields(final OFMatch match) {
+	return new long[] {
+	        mac(match.getDataLayerSource())
+	                | (match.getInputPort() & 0xffffL) << 48,
+	        mac(match.getDataLayerDestination())
+	                | (match.getDataLayerType() & 0xffffL) << 48,
+	        (match.getNetworkSource() & 0xffffffffL)
+	                | (match.getNetworkDestination() & 0xffffffffL) << 32,
+	        (match.getTransportSource() & 0xffffL)
+	                | (match.getTransportDestination() & 0xffffL) << 16
+	                | (match.getDataLayerVirtualLan() & 0xffffL) << 32
+	                | (match.getDataLayerVirtualLanPriorityCodePoint() & 0xffL) << 48
+	                | (match.getNetworkTypeOfService() & 0xffL) << 56,
+	        match.getNetworkProtocol() & 0xffL };
+    }
+
+    private static long mac(final byte[] addr) {
+	long mac = 0;
+	for (int i = 0; i < 6; i++)
+	    mac = (mac << 8) | (addr[i] & 0xffL);
+	return mac;
+    }
+
     /**
      * get a OVXFlowMod out of the map
      * @param cookie the physical cookie
@@ -34,7 +688,7 @@ public class OVXFlowTable {
     public OVXFlowMod getFlowMod(Long cookie) {
 	return this.flowmodMap.get(cookie);
     }
-    
+
     /**
      * Add a FlowMod to the mapping
      * @param flowmod
@@ -45,7 +699,7 @@ public class OVXFlowTable {
 	this.flowmodMap.put(cookie, flowmod);
 	return cookie;
     }
-    
+
     /**
      * Remove an entry in the mapping
      * @param cookie
@@ -54,14 +708,14 @@ public class OVXFlowTable {
     public OVXFlowMod deleteFlowMod(Long cookie) {
 	return this.flowmodMap.remove(cookie);
     }
-    
+
     /**
-     * Generate a new physical cookie from the OVXSwitch tenant ID and 
-     * OVXSwitch-unique cookie counter. 	
+     * Generate a new physical cookie from the OVXSwitch tenant ID and
+     * OVXSwitch-unique cookie counter.
      * @return a physical cookie
      */
     private long generateCookie() {
 	return (((long)this.vswitch.getTenantId() << 32) | (long)this.cookieCounter.getAndIncrement());
     }
-    
+
 }
@@ -4,7 +4,6 @@
 package net.onrc.openvirtex.elements.datapath;
 
 
-import java.util.Collections;
 
 import net.onrc.openvirtex.core.io.OVXSendMsg;
 import net.onrc.openvirtex.elements.port.OVXPort;
@@ -45,7 +44,7 @@ public class OVXSingleSwitch extends OVXSwitch {
     @Override
     public void sendMsg(OFMessage msg, OVXSendMsg from) {
 	if (this.isConnected)
-	    channel.write(Collections.singletonList(msg));
+	    this.writeQueue.write(msg);
     }
 
     /*
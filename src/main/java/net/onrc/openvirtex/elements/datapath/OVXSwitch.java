@@ -37,12 +37,12 @@ import net.onrc.openvirtex.core.OpenVirteXController;
 import net.onrc.openvirtex.elements.port.OVXPort;
 import net.onrc.openvirtex.messages.OVXFlowMod;
 import net.onrc.openvirtex.messages.OVXPacketIn;
+import net.onrc.openvirtex.messages.PacketInBucket;
 
 import org.openflow.protocol.OFFeaturesReply;
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPhysicalPort;
 import org.openflow.protocol.OFPort;
-import org.openflow.util.LRULinkedHashMap;
 
 /**
  * The Class OVXSwitch.
@@ -64,8 +64,11 @@ public abstract class OVXSwitch extends Switch<OVXPort> {
     /** The tenant id. */
     protected Integer tenantId = 0;
 
+    /** The default miss send len of OpenFlow 1.0. */
+    public static final short DEFAULT_MISS_SEND_LEN = 128;
+
     /** The miss send len. */
-    protected Short missSendLen = 0;
+    protected Short missSendLen = DEFAULT_MISS_SEND_LEN;
 
     /** The is active. */
     protected boolean isActive = false;
@@ -79,9 +82,17 @@ public abstract class OVXSwitch extends Switch<OVXPort> {
     /**
      * The buffer map
      */
-    protected LRULinkedHashMap<Integer, OVXPacketIn> bufferMap;
+    protected BufferMap bufferMap;
 
-    private AtomicInteger bufferId = null;
+    /**
+     * The limit on packet ins sent to the controller of this switch
+     */
+    protected PacketInBucket packetInBucket;
+
+    /**
+     * The flow setups waiting for the controller of this switch
+     */
+    protected FlowSetupTable flowSetups;
 
     private AtomicInteger		portCounter;
     
@@ -98,9 +109,10 @@ public abstract class OVXSwitch extends Switch<OVXPort> {
 	this.capabilities = new OVXSwitchCapabilities();
 	this.backOffCounter = new AtomicInteger();
 	this.resetBackOff();
-	this.bufferMap = new LRULinkedHashMap<Integer, OVXPacketIn>(bufferDimension);
+	this.bufferMap = new BufferMap(bufferDimension);
+	this.packetInBucket = PacketInBucket.forController();
+	this.flowSetups = new FlowSetupTable(bufferDimension);
 	this.portCounter = new AtomicInteger(1);
-	this.bufferId = new AtomicInteger(1);
 	this.flowTable = new OVXFlowTable(this);
     }
 
@@ -116,7 +128,7 @@ public abstract class OVXSwitch extends Switch<OVXPort> {
 	this();
 	this.switchId = switchId;
 	this.tenantId = tenantId;
-	this.missSendLen = 0;
+	this.missSendLen = DEFAULT_MISS_SEND_LEN;
 	this.isActive = false;
 	this.switchName = "OpenVirteX Virtual Switch 1.0";
     }
@@ -240,6 +252,9 @@ public abstract class OVXSwitch extends Switch<OVXPort> {
 
     public void register(List<PhysicalSwitch> physicalSwitches) {
 	this.map.addSwitches(physicalSwitches, this);
+	// the physical switches now send up as much as this switch asks for
+	for (final PhysicalSwitch psw : physicalSwitches)
+	    psw.updateMissSendLen();
     }
 
     /**
@@ -312,15 +327,25 @@ public abstract class OVXSwitch extends Switch<OVXPort> {
 		+ this.capabilities.getOVXSwitchCapabilities();
     }	
 
-    public synchronized int addToBufferMap(OVXPacketIn pktIn) {
-	//TODO: this isn't thread safe... fix it
-	bufferId.compareAndSet(OVXSwitch.bufferDimension, 0);
-	this.bufferMap.put(bufferId.get(), new OVXPacketIn(pktIn));
-	return bufferId.getAndIncrement();
+    /**
+     * Stores the packet of a packet in sent to the controller of this switch.
+     * 
+     * @return the buffer id the controller should use for the packet
+     */
+    public int addToBufferMap(OVXPacketIn pktIn) {
+	return this.bufferMap.add(pktIn);
+    }
+
+    public BufferMap getBufferMap() {
+	return this.bufferMap;
+    }
+
+    public PacketInBucket getPacketInBucket() {
+	return this.packetInBucket;
     }
 
-    public OVXPacketIn getFromBufferMap(Integer bufId) {
-	return this.bufferMap.get(bufId);
+    public FlowSetupTable getFlowSetups() {
+	return this.flowSetups;
     }
 
     
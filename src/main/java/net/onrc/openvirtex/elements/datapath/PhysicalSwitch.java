@@ -29,17 +29,32 @@
 
 package net.onrc.openvirtex.elements.datapath;
 
+
 import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.onrc.openvirtex.core.io.OVXSendMsg;
 import net.onrc.openvirtex.elements.network.PhysicalNetwork;
 import net.onrc.openvirtex.elements.port.PhysicalPort;
+import net.onrc.openvirtex.messages.OVXBarrierRequest;
+import net.onrc.openvirtex.messages.OVXStatisticsRequest;
 import net.onrc.openvirtex.messages.Virtualizable;
+import net.onrc.openvirtex.messages.lldp.LLDPUtil;
+import net.onrc.openvirtex.messages.statistics.OVXPortStatisticsRequest;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPhysicalPort;
+import org.openflow.protocol.OFPort;
+import org.openflow.protocol.OFSetConfig;
+import org.openflow.protocol.OFStatisticsReply;
+import org.openflow.protocol.OFSwitchConfig;
+import org.openflow.protocol.statistics.OFPortStatisticsReply;
+import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
+import org.openflow.util.U16;
 
 /**
  * The Class PhysicalSwitch.
@@ -52,6 +67,23 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
     /** The Xid mapper */
     private XidTranslator translator;
 
+    /** The drop rules recently installed on this switch */
+    private final DropRuleCache dropRules = new DropRuleCache(1024);
+
+    /** The miss send len configured on the switch, full packets at handshake */
+    private final AtomicInteger missSendLen = new AtomicInteger(0xffff);
+
+    /*
+     * Barriers we sent ourselves take XIDs above the range of the translator
+     * so their replies are never mistaken for a tenant's.
+     */
+    static final int BARRIER_XID = 0x60000000;
+    private final AtomicInteger nextBarrier = new AtomicInteger(0);
+    private final ConcurrentHashMap<Integer, Runnable> barriers = new ConcurrentHashMap<Integer, Runnable>();
+
+    /* likewise for the port statistics OVX polls the load of links with */
+    static final int PORT_STATS_XID = 0x50000000;
+
     /**
      * Instantiates a new physical switch.
      * 
@@ -146,10 +178,33 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
     @Override
     public void sendMsg(final OFMessage msg, final OVXSendMsg from) {
 	if (this.isConnected) {
-	    this.channel.write(Collections.singletonList(msg));
+	    this.writeQueue.write(msg);
 	}
     }
 
+    /**
+     * Sets the miss send len of the switch to the largest one asked for by
+     * the virtual switches this switch is part of, but never below the
+     * length of the LLDP probes OVX discovers links with.
+     */
+    public void updateMissSendLen() {
+	int len = LLDPUtil.LLDPLen;
+	for (final OVXSwitch vsw : this.map.getVirtualSwitches(this))
+	    len = Math.max(len, U16.f(vsw.getMissSendLen()));
+	if (this.missSendLen.getAndSet(len) == len)
+	    return;
+	final OFSetConfig config = new OFSetConfig();
+	config.setMissSendLength(U16.t(len)).setLengthU(
+		OFSwitchConfig.MINIMUM_LENGTH);
+	this.sendMsg(config, this);
+	this.log.info("Setting miss send length to {} for switch {}", len,
+		this.getSwitchId());
+    }
+
+    public int getMissSendLen() {
+	return this.missSendLen.get();
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -188,6 +243,102 @@ public class PhysicalSwitch extends Switch<PhysicalPort> {
         return this.translator.translate(ofm.getXid(), sw);
     }
 
+    public XidTranslator getXidTranslator() {
+        return this.translator;
+    }
+
+    public DropRuleCache getDropRuleCache() {
+        return this.dropRules;
+    }
+
+    /**
+     * Sends a barrier request to the switch, onReply is run from the I/O
+     * thread once its reply comes back.
+     *
+     * @return the xid of the barrier
+     */
+    public int sendBarrier(final Runnable onReply) {
+	final int xid = this.nextBarrierXid();
+	this.sendBarrier(xid, onReply);
+	return xid;
+    }
+
+    /**
+     * @return the xid of a barrier not sent yet, so the caller can note it
+     *         down before a reply can come back (see sendBarrier(int,
+     *         Runnable))
+     */
+    public int nextBarrierXid() {
+	return BARRIER_XID | (this.nextBarrier.getAndIncrement() & 0x1fffffff);
+    }
+
+    /**
+     * Sends the barrier request with the given xid, taken from
+     * nextBarrierXid().
+     */
+    public void sendBarrier(final int xid, final Runnable onReply) {
+	OVXBarrierRequest barrier = new OVXBarrierRequest();
+	barrier.setXid(xid);
+	this.barriers.put(xid, onReply);
+	this.sendMsg(barrier, this);
+    }
+
+    /**
+     * Runs the callback of a barrier sent with sendBarrier().
+     *
+     * @return false if xid is not one of our barriers
+     */
+    public boolean barrierReplied(int xid) {
+	Runnable onReply = this.barriers.remove(xid);
+	if (onReply == null)
+	    return false;
+	onReply.run();
+	return true;
+    }
+
+    /**
+     * Forgets the barrier with the given xid, once its caller stopped
+     * waiting for it.
+     */
+    public void cancelBarrier(int xid) {
+	this.barriers.remove(xid);
+    }
+
+    /**
+     * Asks the switch for the counters of all its ports, see
+     * portStatsReplied().
+     */
+    public void sendPortStatsRequest() {
+	OVXPortStatisticsRequest all = new OVXPortStatisticsRequest();
+	all.setPortNumber(OFPort.OFPP_NONE.getValue());
+	OVXStatisticsRequest req = new OVXStatisticsRequest();
+	req.setStatisticType(OFStatisticsType.PORT);
+	req.setStatistics(Collections.singletonList(all));
+	req.setLengthU(OVXStatisticsRequest.MINIMUM_LENGTH + all.getLength());
+	req.setXid(PORT_STATS_XID);
+	this.sendMsg(req, this);
+    }
+
+    /**
+     * Updates the load of the ports of the switch from the reply to a
+     * request sent with sendPortStatsRequest().
+     *
+     * @return false if reply does not answer such a request
+     */
+    public boolean portStatsReplied(OFStatisticsReply reply) {
+	if (reply.getXid() != PORT_STATS_XID
+		|| reply.getStatisticType() != OFStatisticsType.PORT)
+	    return false;
+	final long now = System.currentTimeMillis();
+	for (OFStatistics stat : reply.getStatistics()) {
+	    OFPortStatisticsReply counters = (OFPortStatisticsReply) stat;
+	    PhysicalPort port = this.getPort(counters.getPortNumber());
+	    if (port != null)
+		port.updateLoad(counters.getTransmitBytes(), now);
+	}
+	return true;
+    }
+
     public XidPair untranslate(OFMessage ofm) {
         XidPair pair = this.translator.untranslate(ofm.getXid());
         if (pair == null) {
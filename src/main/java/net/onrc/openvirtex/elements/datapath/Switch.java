@@ -26,6 +26,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
+import net.onrc.openvirtex.core.io.ChannelWriteQueue;
 import net.onrc.openvirtex.core.io.OVXEventHandler;
 import net.onrc.openvirtex.core.io.OVXSendMsg;
 import net.onrc.openvirtex.elements.Mappable;
@@ -56,6 +57,8 @@ public abstract class Switch<T extends Port> implements OVXEventHandler,
     /** The channel descriptor */
     protected Channel channel = null;
 
+    protected ChannelWriteQueue writeQueue = null;
+
     /** The description of OXV stats */
     protected OVXDescriptionStatistics desc = null;
 
@@ -225,6 +228,7 @@ public abstract class Switch<T extends Port> implements OVXEventHandler,
      */
     public void setChannel(Channel channel) {
 	this.channel = channel;
+	this.writeQueue = ChannelWriteQueue.forChannel(channel);
 
     }
 
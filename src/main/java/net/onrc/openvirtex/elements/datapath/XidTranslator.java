@@ -1,42 +1,169 @@
 package net.onrc.openvirtex.elements.datapath;
 
-import org.openflow.util.LRULinkedHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * based on Flowvisor XidTranslator by capveg
+ *
+ * Translated XIDs are taken from a sequence starting at MIN_XID. The low
+ * bits of a translated XID select a slot in a ring, the high bits are the
+ * generation of that slot, so a reply whose slot has since been reused is
+ * recognised and dropped instead of being matched to the wrong request.
+ * Slots are written in place and never allocated, and translate() may be
+ * called concurrently from any number of threads.
+ *
+ * The ring starts at INIT_SIZE slots and doubles, up to MAX_SIZE, every time
+ * a reply arrives for a slot that was already reused, i.e. whenever the
+ * number of XIDs in flight outgrows it.
  */
 public class XidTranslator {
-    
+
     static final int MIN_XID = 256;
     static final int INIT_SIZE = (1 << 12);
-    static final int MAX_SIZE = (1 << 14);      // must be larger than the max lifetime of an XID * rate of
-                                                // mesgs/sec
-    int nextID;
-    LRULinkedHashMap<Integer, XidPair> xidMap;
+    static final int MAX_SIZE = (1 << 18);
+
+    /* span of translated XIDs; a multiple of every ring size */
+    static final int XID_RANGE = (1 << 30);
+
+    private static class Ring {
+        final int mask;
+        /* sequence number + 1 of the XID stored in each slot, 0 while written */
+        final AtomicIntegerArray tags;
+        final AtomicIntegerArray xids;
+        final AtomicReferenceArray<OVXSwitch> switches;
+
+        Ring(int size) {
+            this.mask = size - 1;
+            this.tags = new AtomicIntegerArray(size);
+            this.xids = new AtomicIntegerArray(size);
+            this.switches = new AtomicReferenceArray<OVXSwitch>(size);
+        }
+
+        int size() {
+            return this.mask + 1;
+        }
+
+        void put(int seq, int xid, OVXSwitch sw) {
+            int slot = seq & this.mask;
+            this.tags.set(slot, 0);
+            this.xids.set(slot, xid);
+            this.switches.set(slot, sw);
+            this.tags.set(slot, seq + 1);
+        }
+
+        XidPair get(int seq) {
+            int slot = seq & this.mask;
+            if (this.tags.get(slot) != seq + 1)
+                return null;
+            int xid = this.xids.get(slot);
+            OVXSwitch sw = this.switches.get(slot);
+            // the slot was rewritten while we were reading it
+            if (this.tags.get(slot) != seq + 1)
+                return null;
+            return new XidPair(xid, sw);
+        }
+
+        /* the switch stays referenced until the slot is reused */
+        void remove(int seq) {
+            this.tags.compareAndSet(seq & this.mask, seq + 1, 0);
+        }
+    }
+
+    private final AtomicInteger nextSeq = new AtomicInteger(0);
+    private final AtomicReference<Ring> ring = new AtomicReference<Ring>(
+            new Ring(INIT_SIZE));
+    /* the ring before the last resize, still holding XIDs in flight */
+    private volatile Ring previous = null;
+
+    private final AtomicLong evicted = new AtomicLong(0);
+    private final AtomicLong unmatched = new AtomicLong(0);
 
     public XidTranslator() {
-        this.nextID = MIN_XID;
-        this.xidMap = new LRULinkedHashMap<Integer, XidPair>(INIT_SIZE, MAX_SIZE);
     }
 
     /**
-     * Recovers the source of the message transaction by Xid. 
+     * Recovers the source of the message transaction by Xid.
      * @param xid
-     * @return
+     * @return the original Xid and virtual switch, or null if xid was not
+     *         issued by this translator or has been evicted.
      */
     public XidPair untranslate(int xid) {
-        return xidMap.get(Integer.valueOf(xid));
+        if (xid < MIN_XID || xid - MIN_XID >= XID_RANGE) {
+            this.unmatched.incrementAndGet();
+            return null;
+        }
+        int seq = xid - MIN_XID;
+        Ring current = this.ring.get();
+        XidPair pair = current.get(seq);
+        if (pair == null) {
+            Ring old = this.previous;
+            if (old != null)
+                pair = old.get(seq);
+        }
+        if (pair != null)
+            return pair;
+
+        // how many XIDs were issued since this one
+        int age = (this.nextSeq.get() - 1 - seq) & (XID_RANGE - 1);
+        if (age >= current.size() && age < XID_RANGE / 2) {
+            this.evicted.incrementAndGet();
+            this.grow(current);
+        } else {
+            this.unmatched.incrementAndGet();
+        }
+        return null;
     }
 
     /**
-     * @return the new Xid for the message. 
+     * @return the new Xid for the message.
      */
     public int translate(int xid, OVXSwitch sw) {
-        int ret = this.nextID++;
-        if (nextID < MIN_XID)
-            nextID = MIN_XID;
-        xidMap.put(Integer.valueOf(ret), new XidPair(xid, sw));
-        return ret;
+        int seq = this.nextSeq.getAndIncrement() & (XID_RANGE - 1);
+        this.ring.get().put(seq, xid, sw);
+        return MIN_XID + seq;
+    }
+
+    /**
+     * Forgets xid once its transaction is over, so late duplicates of the
+     * reply are not delivered.
+     */
+    public void remove(int xid) {
+        if (xid < MIN_XID || xid - MIN_XID >= XID_RANGE)
+            return;
+        int seq = xid - MIN_XID;
+        this.ring.get().remove(seq);
+        Ring old = this.previous;
+        if (old != null)
+            old.remove(seq);
+    }
+
+    private void grow(Ring current) {
+        if (current.size() >= MAX_SIZE)
+            return;
+        if (this.ring.compareAndSet(current, new Ring(current.size() << 1)))
+            this.previous = current;
+    }
+
+    /**
+     * @return the number of replies that arrived after their XID was evicted
+     */
+    public long getEvictedCount() {
+        return this.evicted.get();
+    }
+
+    /**
+     * @return the number of replies whose XID was never issued here
+     */
+    public long getUnmatchedCount() {
+        return this.unmatched.get();
+    }
+
+    public int getSize() {
+        return this.ring.get().size();
     }
 
 }
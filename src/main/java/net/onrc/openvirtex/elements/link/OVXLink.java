@@ -29,16 +29,28 @@
 
 package net.onrc.openvirtex.elements.link;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
+import net.onrc.openvirtex.elements.Mappable;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.network.PhysicalNetwork;
 import net.onrc.openvirtex.elements.port.OVXPort;
+import net.onrc.openvirtex.routing.ShortestPath;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 /**
  * The Class OVXLink.
  * 
  */
-public class OVXLink extends Link<OVXPort, OVXSwitch> {
+public class OVXLink extends Link<OVXPort, OVXSwitch> implements Resilient {
+
+    private static Logger log = LogManager.getLogger(OVXLink.class.getName());
 
     /** The link id. */
     private final Integer linkId;
@@ -46,6 +58,9 @@ public class OVXLink extends Link<OVXPort, OVXSwitch> {
     /** The tenant id. */
     private final Integer tenantId;
 
+    /** The path to fail over to, null if there is none. */
+    private volatile List<PhysicalLink> backup = null;
+
     /**
      * Instantiates a new virtual link.
      * 
@@ -92,4 +107,80 @@ public class OVXLink extends Link<OVXPort, OVXSwitch> {
 	this.srcPort.getParentSwitch().getMap().addLinks(physicalLinks, this);
     }
 
+    /**
+     * Computes a backup path for the link and installs its rules ahead of
+     * time. The first and last physical links are those of the virtual
+     * ports, so the backup goes around the links in between.
+     */
+    public void protect() {
+	final List<PhysicalLink> path = this.getMap().getPhysicalLinks(this);
+	this.backup = path == null ? null : backupPath(path);
+	if (this.backup != null)
+	    this.getLinkManager().protectOVXLink(this, this.backup);
+    }
+
+    /**
+     * Moves the link to its backup path, or to one computed on the spot if
+     * the backup went down too, and protects it again.
+     * 
+     * @param failed
+     *            a physical link of the path of the link
+     */
+    @Override
+    public void failover(final PhysicalLink failed) {
+	final Mappable map = this.getMap();
+	final List<PhysicalLink> path = map.getPhysicalLinks(this);
+	if (path == null || !path.contains(failed))
+	    return;
+	List<PhysicalLink> next = this.backup;
+	final boolean standby = next != null
+	        && PhysicalNetwork.getInstance().isUp(next);
+	if (!standby)
+	    next = backupPath(path);
+	if (next == null || !PhysicalNetwork.getInstance().isUp(next)) {
+	    log.warn("No path left for virtual link {} of virtual network {} around {}",
+		    this.linkId, this.tenantId, failed);
+	    return;
+	}
+	map.replaceLinks(next, this);
+	this.getLinkManager().failoverOVXLink(this, next, standby);
+	log.info("Moved virtual link {} of virtual network {} off {}",
+	        this.linkId, this.tenantId, failed);
+	this.protect();
+    }
+
+    /*
+     * A path with the same first and last links as path, which takes none of
+     * the links in between and does not go back through the switches at its
+     * ends, null if there is none.
+     */
+    private static List<PhysicalLink> backupPath(final List<PhysicalLink> path) {
+	if (path.size() < 3)
+	    return null;
+	final PhysicalLink first = path.get(0);
+	final PhysicalLink last = path.get(path.size() - 1);
+	final Set<PhysicalSwitch> members = new HashSet<PhysicalSwitch>(
+	        PhysicalNetwork.getInstance().getSwitches());
+	members.remove(first.getSrcSwitch());
+	members.remove(last.getDstSwitch());
+	final List<PhysicalLink> detour = ShortestPath.disjointPath(members,
+	        first.getDstSwitch(), last.getSrcSwitch(),
+	        path.subList(1, path.size() - 1));
+	if (detour == null)
+	    return null;
+	final List<PhysicalLink> backup = new ArrayList<PhysicalLink>();
+	backup.add(first);
+	backup.addAll(detour);
+	backup.add(last);
+	return backup;
+    }
+
+    private Mappable getMap() {
+	return this.srcPort.getParentSwitch().getMap();
+    }
+
+    private OVXLinkManager getLinkManager() {
+	return this.getMap().getVirtualNetwork(this.tenantId).getvLinkMgmt();
+    }
+
 }
@@ -1,8 +1,11 @@
 package net.onrc.openvirtex.elements.link;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import net.onrc.openvirtex.core.OpenVirteXController;
@@ -10,6 +13,7 @@ import net.onrc.openvirtex.core.io.OVXSendMsg;
 import net.onrc.openvirtex.elements.Mappable;
 import net.onrc.openvirtex.elements.OVXMap;
 import net.onrc.openvirtex.elements.address.PhysicalIPAddress;
+import net.onrc.openvirtex.elements.datapath.InstallBatch;
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
 import net.onrc.openvirtex.elements.network.PhysicalNetwork;
 import net.onrc.openvirtex.elements.port.OVXPort;
@@ -51,6 +55,7 @@ public class OVXLinkManager implements OVXSendMsg,
     // send 1 fm every fmRate milliseconds
     private final long                      fmRate = 25000;
     private HashMap<OVXLink,HashMap<PhysicalSwitch,OVXFlowMod>>		flowMap = null;
+    private HashMap<OVXLink,HashMap<PhysicalSwitch,OVXFlowMod>>		backupFlowMap = null;
     private HashMap<OVXPort,HashMap<PhysicalSwitch,OVXFlowMod>>		portFlowMap = null;
     private HashMap<SwitchRoute,HashMap<PhysicalSwitch,OVXFlowMod>>		routeFlowMap = null;
     protected Mappable map = null;
@@ -62,6 +67,7 @@ public class OVXLinkManager implements OVXSendMsg,
     public OVXLinkManager(final Integer tenantId) {
     	this.tenantId = tenantId;
     	this.flowMap = new HashMap<OVXLink, HashMap<PhysicalSwitch,OVXFlowMod>>();
+    	this.backupFlowMap = new HashMap<OVXLink, HashMap<PhysicalSwitch,OVXFlowMod>>();
     	this.portFlowMap = new HashMap<OVXPort,HashMap<PhysicalSwitch,OVXFlowMod>>();
     	this.routeFlowMap = new HashMap<SwitchRoute,HashMap<PhysicalSwitch,OVXFlowMod>>();
     	this.map = OVXMap.getInstance();
@@ -99,7 +105,21 @@ public class OVXLinkManager implements OVXSendMsg,
     }
     
     
-    public boolean registerOVXLink(OVXLink ovxLink) {
+    public synchronized boolean registerOVXLink(OVXLink ovxLink) {
+	HashMap<PhysicalSwitch,OVXFlowMod> linkMap = this.linkFlowMods(ovxLink, this.map.getPhysicalLinks(ovxLink));
+    	if (!linkMap.isEmpty()) {
+    		this.flowMap.put(ovxLink, linkMap);
+			return true;
+    	}
+		else
+			return false;
+    }
+    
+    /**
+     * @return the rules forwarding the packets of the virtual link along
+     *         path, keyed by the switches they go to
+     */
+    private HashMap<PhysicalSwitch,OVXFlowMod> linkFlowMods(OVXLink ovxLink, List<PhysicalLink> path) {
     	Short inPort = 0;
     	HashMap<PhysicalSwitch,OVXFlowMod> linkMap = new HashMap<PhysicalSwitch, OVXFlowMod>();
 	int vNets = OpenVirteXController.getInstance().getNumberVirtualNets();
@@ -119,7 +139,7 @@ public class OVXLinkManager implements OVXSendMsg,
 	match.setNetworkSource(new PhysicalIPAddress(this.tenantId<<(32-vNets)).getIp());
 	match.setNetworkDestination(new PhysicalIPAddress(this.tenantId<<(32-vNets)).getIp());
     	
-	for (PhysicalLink phyLink : this.map.getPhysicalLinks(ovxLink)) {
+	for (PhysicalLink phyLink : path) {
 	    if (inPort != 0) {
 		/*
 		 * generate the flowMod, using the previous physical link dst port id as input port, 
@@ -146,23 +166,79 @@ public class OVXLinkManager implements OVXSendMsg,
 	    }
 	    inPort = phyLink.getDstPort().getPortNumber();
     	}
-    	if (!linkMap.isEmpty()) {
-    		this.flowMap.put(ovxLink, linkMap);
-			return true;
-    	}
-		else
-			return false;
+	return linkMap;
     }
     
-    public boolean registerOVXRoute(SwitchRoute route) {
-    	Short inPort = 0;
-    	HashMap<PhysicalSwitch,OVXFlowMod> linkMap = new HashMap<PhysicalSwitch, OVXFlowMod>();
+    /**
+     * Installs the rules of a backup path of the virtual link ahead of time,
+     * on every switch but the one the backup branches off the current path
+     * at, where the rule of the current path has the same match. They are
+     * refreshed along with the rules of the link until it fails over.
+     * 
+     * @param backup a path with the same first and last links as the
+     *        current one
+     */
+    public synchronized void protectOVXLink(OVXLink ovxLink, List<PhysicalLink> backup) {
+	HashMap<PhysicalSwitch,OVXFlowMod> linkMap = this.linkFlowMods(ovxLink, backup);
+	linkMap.remove(backup.get(0).getDstSwitch());
+	this.backupFlowMap.put(ovxLink, linkMap);
+	for (PhysicalSwitch phySwitch : linkMap.keySet())
+	    phySwitch.sendMsg(linkMap.get(phySwitch), this);
+    }
+    
+    /**
+     * Moves the virtual link over to path, which the map already holds for
+     * it. If path is the backup installed by protectOVXLink, only the rule
+     * of the switch it branches off at changes; otherwise that rule changes
+     * once the switches downstream confirmed theirs. The rules of the old
+     * path that are not on the new one are deleted afterwards.
+     * 
+     * @param standby true if path is the backup installed ahead of time
+     */
+    public synchronized void failoverOVXLink(OVXLink ovxLink, List<PhysicalLink> path, boolean standby) {
+	final HashMap<PhysicalSwitch,OVXFlowMod> old = this.flowMap.get(ovxLink);
+	final HashMap<PhysicalSwitch,OVXFlowMod> linkMap = this.linkFlowMods(ovxLink, path);
+	this.backupFlowMap.remove(ovxLink);
+	this.flowMap.put(ovxLink, linkMap);
+	final PhysicalSwitch branch = path.get(0).getDstSwitch();
+	final Runnable move = new Runnable() {
+	    @Override
+	    public void run() {
+		branch.sendMsg(linkMap.get(branch), OVXLinkManager.this);
+		if (old == null)
+		    return;
+		for (PhysicalSwitch phySwitch : old.keySet()) {
+		    OVXFlowMod fm = old.get(phySwitch);
+		    OVXFlowMod current = linkMap.get(phySwitch);
+		    if (current != null && current.getMatch().equals(fm.getMatch()))
+			continue;
+		    fm.setCommand(OVXFlowMod.OFPFC_DELETE_STRICT);
+		    phySwitch.sendMsg(fm, OVXLinkManager.this);
+		}
+	    }
+	};
+	if (standby) {
+	    move.run();
+	    return;
+	}
+	final InstallBatch batch = InstallBatch.begin();
+	try {
+	    for (PhysicalSwitch phySwitch : linkMap.keySet()) {
+		if (phySwitch != branch)
+		    InstallBatch.sendDownstream(phySwitch, linkMap.get(phySwitch));
+	    }
+	    batch.release(move);
+	} finally {
+	    batch.close();
+	}
+    }
+    
+    /**
+     * @return a match on the packets of this tenant tagged with the route
+     *         id, coming in from inPort
+     */
+    private OFMatch routeMatch(SwitchRoute route, Short inPort) {
 	int vNets = OpenVirteXController.getInstance().getNumberVirtualNets();
-	
-	/*
-	 * generate the flowMod, using the previous physical link dst port id as input port, 
-	 * and this physical link src port as output port
-	 */
 	OFMatch match = new OFMatch();
 	Wildcards wild = match.getWildcardObj();
 	wild = wild.withNwDstMask(vNets).withNwSrcMask(vNets).matchOn(Flag.DL_TYPE).matchOn(Flag.DL_VLAN).matchOn(Flag.IN_PORT);
@@ -173,6 +249,18 @@ public class OVXLinkManager implements OVXSendMsg,
 	//need to check with Ali how the tenantId will be splitted between the addresses
 	match.setNetworkSource(new PhysicalIPAddress(this.tenantId<<(32-vNets)).getIp());
 	match.setNetworkDestination(new PhysicalIPAddress(this.tenantId<<(32-vNets)).getIp());
+	return match;
+    }
+    
+    public synchronized boolean registerOVXRoute(SwitchRoute route) {
+    	Short inPort = 0;
+    	HashMap<PhysicalSwitch,OVXFlowMod> linkMap = new HashMap<PhysicalSwitch, OVXFlowMod>();
+	
+	/*
+	 * generate the flowMod, using the previous physical link dst port id as input port, 
+	 * and this physical link src port as output port
+	 */
+	OFMatch match = this.routeMatch(route, inPort);
     	
 	for (PhysicalLink phyLink : route.getRoute()) {
 	    if (inPort != 0) {
@@ -210,7 +298,53 @@ public class OVXLinkManager implements OVXSendMsg,
     }
     
     
-    public boolean unregisterOVXLink(OVXLink ovxLink) {
+    /**
+     * @return the rules registered for the transit switches of the route,
+     *         empty if there are none
+     */
+    public synchronized Map<PhysicalSwitch, OVXFlowMod> getRouteFlowMods(SwitchRoute route) {
+	HashMap<PhysicalSwitch,OVXFlowMod> linkMap = this.routeFlowMap.get(route);
+	if (linkMap == null)
+	    return Collections.emptyMap();
+	return new HashMap<PhysicalSwitch, OVXFlowMod>(linkMap);
+    }
+    
+    /**
+     * Stops refreshing the rules of the route and deletes them from the
+     * transit switches, along with the rules its egress switch installed
+     * for single flows.
+     */
+    public synchronized void unregisterOVXRoute(SwitchRoute route) {
+	HashMap<PhysicalSwitch,OVXFlowMod> linkMap = this.routeFlowMap.remove(route);
+	if (linkMap != null) {
+	    for (PhysicalSwitch phySwitch : linkMap.keySet()) {
+		OVXFlowMod fm = linkMap.get(phySwitch);
+		fm.setCommand(OVXFlowMod.OFPFC_DELETE_STRICT);
+		phySwitch.sendMsg(fm, this);
+	    }
+	}
+	if (route.getRoute().isEmpty())
+	    return;
+	PhysicalLink last = route.getRoute().get(route.getRoute().size() - 1);
+	OVXFlowMod fm = new OVXFlowMod();
+	fm.setMatch(this.routeMatch(route, last.getDstPort().getPortNumber()));
+	fm.setCommand(OVXFlowMod.OFPFC_DELETE);
+	fm.setBufferId(OFPacketOut.BUFFER_ID_NONE);
+	fm.setOutPort(OFPort.OFPP_NONE.getValue());
+	fm.setActions(Collections.<OFAction>emptyList());
+	fm.setLengthU(OVXFlowMod.MINIMUM_LENGTH);
+	last.getDstPort().getParentSwitch().sendMsg(fm, this);
+    }
+    
+    public synchronized boolean unregisterOVXLink(OVXLink ovxLink) {
+    	HashMap<PhysicalSwitch,OVXFlowMod> backupMap = this.backupFlowMap.remove(ovxLink);
+    	if (backupMap != null) {
+    		for (PhysicalSwitch phySwitch : backupMap.keySet()) {
+    			OVXFlowMod fm = backupMap.get(phySwitch);
+    			fm.setCommand(OVXFlowMod.OFPFC_DELETE_STRICT);
+    			phySwitch.sendMsg(fm, this);
+    		}
+    	}
     	HashMap<PhysicalSwitch,OVXFlowMod> linkMap = this.flowMap.get(ovxLink);
     	if (linkMap.isEmpty())
     		return false;
@@ -255,6 +389,13 @@ public class OVXLinkManager implements OVXSendMsg,
 			}		
 		}
 		
+		for (OVXLink ovxLink : this.backupFlowMap.keySet()) {
+			for (PhysicalSwitch phySwitch : this.backupFlowMap.get(ovxLink).keySet()) {
+			    this.log.trace("Sending backup flow-mod to sw {} , {}", phySwitch.getName(), this.backupFlowMap.get(ovxLink).get(phySwitch).toString());
+			    phySwitch.sendMsg(this.backupFlowMap.get(ovxLink).get(phySwitch), this);
+			}		
+		}
+		
 		for (OVXPort ovxPort : this.portFlowMap.keySet()) {
 			for (PhysicalSwitch phySwitch : this.portFlowMap.get(ovxPort).keySet()) {
 			    this.log.trace("Sending flow-mod to sw {} , {}", phySwitch.getName(), this.portFlowMap.get(ovxPort).get(phySwitch).toString());
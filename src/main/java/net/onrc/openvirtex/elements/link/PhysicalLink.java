@@ -49,4 +49,44 @@ public class PhysicalLink extends Link<PhysicalPort,PhysicalSwitch> {
     public PhysicalLink(final PhysicalPort srcPort, final PhysicalPort dstPort) {
 	super(srcPort, dstPort);
     }
+
+    /**
+     * @return the bandwidth left on the link, in bit/s, going by the load
+     *         measured on its source port
+     */
+    public double getResidualCapacity() {
+	return Math.max(0, this.srcPort.getCapacity() - this.srcPort.getLoad());
+    }
+
+    /**
+     * Links are equal if they join the same port numbers of the same
+     * switches, so a link that comes back after going down, or the reverse
+     * of a link built from its ports, is the same link. Port state is left
+     * out, as it changes over the life of the link.
+     */
+    @Override
+    public boolean equals(final Object obj) {
+	if (this == obj)
+	    return true;
+	if (!(obj instanceof PhysicalLink))
+	    return false;
+	final PhysicalLink other = (PhysicalLink) obj;
+	return sameEnd(this.srcPort, other.srcPort)
+	        && sameEnd(this.dstPort, other.dstPort);
+    }
+
+    @Override
+    public int hashCode() {
+	int result = this.getSrcSwitch().getSwitchId().hashCode();
+	result = 31 * result + this.srcPort.getPortNumber();
+	result = 31 * result + this.getDstSwitch().getSwitchId().hashCode();
+	return 31 * result + this.dstPort.getPortNumber();
+    }
+
+    private static boolean sameEnd(final PhysicalPort port,
+	    final PhysicalPort other) {
+	return port.getPortNumber() == other.getPortNumber()
+	        && port.getParentSwitch().getSwitchId()
+	                .equals(other.getParentSwitch().getSwitchId());
+    }
 }
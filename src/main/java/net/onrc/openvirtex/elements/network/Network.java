@@ -29,10 +29,8 @@
 
 package net.onrc.openvirtex.elements.network;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import net.onrc.openvirtex.core.io.OVXSendMsg;
 import net.onrc.openvirtex.elements.datapath.Switch;
@@ -43,11 +41,19 @@ import net.onrc.openvirtex.linkdiscovery.LLDPEventHandler;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.google.common.collect.ImmutableSet;
+
 /**
  * 
  * Abstract parent class for networks, maintains data structures for the
  * topology graph.
  * 
+ * Links are indexed by their source port, and each switch by its dpid keeps
+ * the set of links leaving it, so lookups take the same time whatever the
+ * size of the network. Queries read concurrent maps and immutable sets
+ * without locking, packet handling threads included; updates are serialized
+ * on the network and replace the sets they change.
+ * 
  * @param <T1>
  *            Generic Switch type
  * @param <T2>
@@ -58,22 +64,49 @@ import org.apache.logging.log4j.Logger;
 public abstract class Network<T1, T2, T3> implements LLDPEventHandler,
         OVXSendMsg {
 
-    private final HashSet<T1>              switchSet;
-    private final HashSet<T3>              linkSet;
-    private final HashMap<Long, T1>        dpidMap;
-    private final HashMap<T2, T2>          neighborPortMap;
-    private final HashMap<T1, HashSet<T1>> neighborMap;
+    /*
+     * A port is known by its switch and number, as its other fields change
+     * over its life.
+     */
+    private static final class PortKey {
+	private final long  dpid;
+	private final short number;
+
+	PortKey(final Port<?> port) {
+	    this.dpid = ((Switch) port.getParentSwitch()).getSwitchId();
+	    this.number = port.getPortNumber();
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+	    if (!(obj instanceof PortKey))
+		return false;
+	    final PortKey other = (PortKey) obj;
+	    return this.dpid == other.dpid && this.number == other.number;
+	}
+
+	@Override
+	public int hashCode() {
+	    return 31 * (int) (this.dpid ^ this.dpid >>> 32) + this.number;
+	}
+    }
+
+    private volatile ImmutableSet<T1>                    switchSet;
+    private final ConcurrentHashMap<Long, T1>            dpidMap;
+    /* the link leaving each port */
+    private final ConcurrentHashMap<PortKey, T3>         linkMap;
+    /* the links leaving each switch, by dpid */
+    private final ConcurrentHashMap<Long, ImmutableSet<T3>> adjacencyMap;
 
     Logger                                 log = LogManager
 	                                               .getLogger(Network.class
 	                                                       .getName());
 
     protected Network() {
-	this.switchSet = new HashSet<T1>();
-	this.linkSet = new HashSet<T3>();
-	this.dpidMap = new HashMap<Long, T1>();
-	this.neighborPortMap = new HashMap<T2, T2>();
-	this.neighborMap = new HashMap<T1, HashSet<T1>>();
+	this.switchSet = ImmutableSet.of();
+	this.dpidMap = new ConcurrentHashMap<Long, T1>();
+	this.linkMap = new ConcurrentHashMap<PortKey, T3>();
+	this.adjacencyMap = new ConcurrentHashMap<Long, ImmutableSet<T3>>();
     }
 
     // Protected methods to update topology (only allowed from subclasses)
@@ -83,20 +116,21 @@ public abstract class Network<T1, T2, T3> implements LLDPEventHandler,
      * 
      * @param link
      */
-    protected void addLink(final T3 link) {
+    protected synchronized void addLink(final T3 link) {
 	// Actual link creation is in child classes, because creation of generic
 	// types sucks
-	this.linkSet.add(link);
-	final T1 srcSwitch = (T1) ((Link) link).getSrcSwitch();
-	final T1 dstSwitch = (T1) ((Link) link).getDstSwitch();
 	final Port srcPort = (Port) ((T2) ((Link) link).getSrcPort());
 	final Port dstPort = (Port) ((T2) ((Link) link).getSrcPort());
 	srcPort.isEdge(false);
 	dstPort.isEdge(false);
-	final HashSet<T1> neighbours = this.neighborMap.get(srcSwitch);
-	neighbours.add(dstSwitch);
-	this.neighborPortMap.put((T2) ((Link) link).getSrcPort(),
-	        (T2) ((Link) link).getDstPort());
+	final T3 old = this.linkMap.put(new PortKey(srcPort), link);
+	final Long dpid = ((Switch) ((Link) link).getSrcSwitch()).getSwitchId();
+	final ImmutableSet.Builder<T3> links = ImmutableSet.builder();
+	for (final T3 other : this.getLinks(dpid)) {
+	    if (other != old)
+		links.add(other);
+	}
+	this.adjacencyMap.put(dpid, links.add(link).build());
 	this.log.info("Adding link " + link.toString());
     }
 
@@ -105,17 +139,22 @@ public abstract class Network<T1, T2, T3> implements LLDPEventHandler,
      * 
      * @param link
      */
-    protected void removeLink(final T3 link) {
-	this.linkSet.remove(link);
-	final T1 srcSwitch = (T1) ((Link) link).getSrcSwitch();
-	final T1 dstSwitch = (T1) ((Link) link).getDstSwitch();
+    protected synchronized void removeLink(final T3 link) {
 	final Port srcPort = (Port) ((T2) ((Link) link).getSrcPort());
 	final Port dstPort = (Port) ((T2) ((Link) link).getDstPort());
 	srcPort.isEdge(true);
 	dstPort.isEdge(true);	
-	final HashSet<T1> neighbours = this.neighborMap.get(srcSwitch);
-	neighbours.remove(dstSwitch);
-	this.neighborPortMap.remove((T2) ((Link) link).getSrcPort());
+	final T3 removed = this.getLink((T2) srcPort, (T2) dstPort);
+	if (removed == null)
+	    return;
+	this.linkMap.remove(new PortKey(srcPort));
+	final Long dpid = ((Switch) ((Link) link).getSrcSwitch()).getSwitchId();
+	final ImmutableSet.Builder<T3> links = ImmutableSet.builder();
+	for (final T3 other : this.getLinks(dpid)) {
+	    if (other != removed)
+		links.add(other);
+	}
+	this.adjacencyMap.put(dpid, links.build());
 	this.log.info("Removing link " + link.toString());
     }
 
@@ -124,11 +163,14 @@ public abstract class Network<T1, T2, T3> implements LLDPEventHandler,
      * 
      * @param sw
      */
-    protected void addSwitch(final T1 sw) {
-	if (this.switchSet.add(sw)) {
-	    this.dpidMap.put(((Switch) sw).getSwitchId(), sw);
-	    this.neighborMap.put(sw, new HashSet());
-	}
+    protected synchronized void addSwitch(final T1 sw) {
+	if (this.switchSet.contains(sw))
+	    return;
+	this.switchSet = ImmutableSet.<T1> builder().addAll(this.switchSet)
+	        .add(sw).build();
+	this.dpidMap.put(((Switch) sw).getSwitchId(), sw);
+	this.adjacencyMap.putIfAbsent(((Switch) sw).getSwitchId(),
+	        ImmutableSet.<T3> of());
     }
 
     // Public methods to query topology information
@@ -138,10 +180,13 @@ public abstract class Network<T1, T2, T3> implements LLDPEventHandler,
      * 
      * @param sw
      * @return
-     *         Unmodifiable set of switch instances
+     *         Immutable set of switch instances
      */
     public Set<T1> getNeighbors(final T1 sw) {
-	return Collections.unmodifiableSet(this.neighborMap.get(sw));
+	final ImmutableSet.Builder<T1> neighbours = ImmutableSet.builder();
+	for (final T3 link : this.getLinks(((Switch) sw).getSwitchId()))
+	    neighbours.add((T1) ((Link) link).getDstSwitch());
+	return neighbours.build();
     }
 
     /**
@@ -151,7 +196,8 @@ public abstract class Network<T1, T2, T3> implements LLDPEventHandler,
      * @return
      */
     public T2 getNeighborPort(final T2 port) {
-	return this.neighborPortMap.get(port);
+	final T3 link = this.linkMap.get(new PortKey((Port<?>) port));
+	return link == null ? null : (T2) ((Link) link).getDstPort();
     }
 
     /**
@@ -164,19 +210,34 @@ public abstract class Network<T1, T2, T3> implements LLDPEventHandler,
 	return this.dpidMap.get(dpid);
     }
 
+    /**
+     * @return the switches of the network as of now, an immutable set
+     */
     public Set<T1> getSwitches() {
-	return Collections.unmodifiableSet(this.switchSet);
+	return this.switchSet;
+    }
+
+    /**
+     * @param dpid
+     * @return the links leaving the switch as of now, an immutable set
+     */
+    public Set<T3> getLinks(final Long dpid) {
+	final ImmutableSet<T3> links = this.adjacencyMap.get(dpid);
+	return links == null ? ImmutableSet.<T3> of() : links;
     }
 
-    // TODO: optimize this because we iterate over all links
+    /**
+     * @param srcPort
+     * @param dstPort
+     * @return the link from srcPort to dstPort, or null if there is none
+     */
     public T3 getLink(final T2 srcPort, final T2 dstPort) {
-	for (final T3 link : this.linkSet) {
-	    if (((Link) link).getSrcPort().equals(srcPort)
-		    && ((Link) link).getDstPort().equals(dstPort)) {
-		return link;
-	    }
-	}
-	return null;
+	final T3 link = this.linkMap.get(new PortKey((Port<?>) srcPort));
+	if (link == null
+	        || !new PortKey((Port<?>) ((Link) link).getDstPort())
+	                .equals(new PortKey((Port<?>) dstPort)))
+	    return null;
+	return link;
     }
 
     public abstract boolean boot();
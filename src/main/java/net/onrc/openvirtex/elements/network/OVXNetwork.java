@@ -40,6 +40,7 @@ import net.onrc.openvirtex.core.OpenVirteXController;
 import net.onrc.openvirtex.core.io.OVXSendMsg;
 import net.onrc.openvirtex.elements.OVXMap;
 import net.onrc.openvirtex.elements.address.IPAddress;
+import net.onrc.openvirtex.elements.address.IPTranslator;
 import net.onrc.openvirtex.elements.datapath.OVXBigSwitch;
 import net.onrc.openvirtex.elements.datapath.OVXSingleSwitch;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
@@ -52,6 +53,7 @@ import net.onrc.openvirtex.elements.port.OVXPort;
 import net.onrc.openvirtex.elements.port.PhysicalPort;
 import net.onrc.openvirtex.messages.OVXPacketIn;
 import net.onrc.openvirtex.messages.OVXPacketOut;
+import net.onrc.openvirtex.messages.PacketInBucket;
 import net.onrc.openvirtex.messages.lldp.LLDPUtil;
 import net.onrc.openvirtex.util.MACAddress;
 
@@ -81,11 +83,15 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> {
     private final short                    mask;
     private HashMap<IPAddress, MACAddress> gwsMap;
     private boolean                        bootState;
+    /* link and route IDs tag traffic as VLAN ids, 4095 is reserved */
+    public static final int                MAX_LINK_ID     = 4094;
     private static AtomicInteger           tenantIdCounter = new AtomicInteger(
 	                                                           1);
     private final AtomicLong               dpidCounter;
     private final AtomicInteger            linkCounter;
     private final AtomicInteger		   ipCounter;
+    private final PacketInBucket           packetInBucket;
+    private final IPTranslator             ipTranslator;
 
     public OVXLinkManager vLinkMgmt;
 
@@ -108,9 +114,25 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> {
 	// TODO: decide which value to start linkId's
 	this.linkCounter = new AtomicInteger(2);
 	this.ipCounter = new AtomicInteger(1);
+	this.packetInBucket = PacketInBucket.forTenant();
+	this.ipTranslator = new IPTranslator(this);
 	this.vLinkMgmt = new OVXLinkManager(this.tenantId);
     }
 
+    /**
+     * @return the translation of the IP addresses of this tenant
+     */
+    public IPTranslator getIPTranslator() {
+	return this.ipTranslator;
+    }
+
+    /**
+     * @return the bucket limiting the packet-ins sent to this tenant
+     */
+    public PacketInBucket getPacketInBucket() {
+	return this.packetInBucket;
+    }
+
     public String getProtocol() {
 	return this.protocol;
     }
@@ -146,6 +168,23 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> {
     public AtomicInteger getLinkCounter() {
         return linkCounter;
     }
+
+    /**
+     * Takes count consecutive IDs for virtual links or big switch routes
+     * from the link counter.
+     * 
+     * @return the first of the IDs, or -1 if fewer than count VLAN ids are
+     *         left
+     */
+    public int nextLinkIds(final int count) {
+	for (;;) {
+	    final int first = this.linkCounter.get();
+	    if (first + count - 1 > OVXNetwork.MAX_LINK_ID)
+		return -1;
+	    if (this.linkCounter.compareAndSet(first, first + count))
+		return first;
+	}
+    }
     
     public OVXLinkManager getvLinkMgmt() {
         return vLinkMgmt;
@@ -186,6 +225,12 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> {
     public synchronized OVXLink createLink(
 	    final List<PhysicalLink> physicalLinks) {
 	// Create and register virtual source and destination ports
+	final int linkId = this.nextLinkIds(1);
+	if (linkId < 0) {
+	    this.log.error("No VLAN id left for a new link in virtual network {}",
+		    this.tenantId);
+	    return null;
+	}
 	final PhysicalPort phySrcPort = physicalLinks.get(0).getSrcPort();
 	final OVXPort srcPort = new OVXPort(this.tenantId, phySrcPort, false);
 	final PhysicalPort phyDstPort = physicalLinks.get(
@@ -193,7 +238,6 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> {
 	final OVXPort dstPort = new OVXPort(this.tenantId, phyDstPort, false);
 	
 	// Create link, add it to the topology, register it in the map
-	final int linkId = this.linkCounter.getAndIncrement();
 	//Set the linkId value inside the src and dst virtual ports
 	srcPort.setLinkId(linkId);
 	dstPort.setLinkId(linkId);
@@ -206,6 +250,8 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> {
 	        srcPort);
 	super.addLink(link);
 	super.addLink(reverseLink);
+	srcPort.updateDescriptor();
+	dstPort.updateDescriptor();
 	link.register(physicalLinks);
 	//create the reverse list of physical links
 	List<PhysicalLink> reversePhysicalLinks = new LinkedList<PhysicalLink>(); 
@@ -217,6 +263,8 @@ public class OVXNetwork extends Network<OVXSwitch, OVXPort, OVXLink> {
 	//register links to the virtual link manager
 	this.vLinkMgmt.registerOVXLink(link);
 	this.vLinkMgmt.registerOVXLink(reverseLink);
+	link.protect();
+	reverseLink.protect();
 	
 	return link;
     }
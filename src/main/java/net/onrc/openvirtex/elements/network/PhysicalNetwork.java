@@ -31,12 +31,22 @@ package net.onrc.openvirtex.elements.network;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import net.onrc.openvirtex.core.io.OVXSendMsg;
+import net.onrc.openvirtex.elements.Mappable;
+import net.onrc.openvirtex.elements.OVXMap;
+import net.onrc.openvirtex.elements.datapath.OVXBigSwitch;
+import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
 import net.onrc.openvirtex.elements.datapath.Switch;
 import net.onrc.openvirtex.elements.link.PhysicalLink;
+import net.onrc.openvirtex.elements.link.Resilient;
 import net.onrc.openvirtex.elements.port.PhysicalPort;
 import net.onrc.openvirtex.linkdiscovery.SwitchDiscoveryManager;
 
@@ -62,6 +72,12 @@ public class PhysicalNetwork extends
     private ArrayList<Uplink>                       uplinkList;
     private final Map<Long, SwitchDiscoveryManager> discoveryManager;
     private static HashedWheelTimer                 timer;
+    /*
+     * Reroutes around links that come and go, one link at a time and in the
+     * order they changed, without holding up discovery.
+     */
+    private final ExecutorService                   rerouter;
+    private final PortStatsPoller                   poller;
     Logger                                          log           = LogManager
 	                                                                  .getLogger(PhysicalNetwork.class
 	                                                                          .getName());
@@ -70,6 +86,15 @@ public class PhysicalNetwork extends
 	this.log.info("Starting network discovery...");
 	PhysicalNetwork.timer = new HashedWheelTimer();
 	this.discoveryManager = new HashMap<Long, SwitchDiscoveryManager>();
+	this.rerouter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+	    @Override
+	    public Thread newThread(final Runnable r) {
+		final Thread thread = new Thread(r, "rerouter");
+		thread.setDaemon(true);
+		return thread;
+	    }
+	});
+	this.poller = new PortStatsPoller(this);
     }
 
     public static PhysicalNetwork getInstance() {
@@ -123,6 +148,7 @@ public class PhysicalNetwork extends
 	if (neighbourPort == null || !neighbourPort.equals(dstPort)) {
 	    final PhysicalLink link = new PhysicalLink(srcPort, dstPort);
 	    super.addLink(link);
+	    this.reroute(link, true);
 	} else {
 	    this.log.debug("Tried to create invalid link");
 	}
@@ -140,11 +166,84 @@ public class PhysicalNetwork extends
 	if (neighbourPort.equals(dstPort)) {
 	    final PhysicalLink link = super.getLink(srcPort, dstPort);
 	    super.removeLink(link);
+	    this.reroute(link, false);
 	} else {
 	    this.log.debug("Tried to remove invalid link");
 	}
     }
 
+    /**
+     * @return true if every link of path is in the topology
+     */
+    public boolean isUp(final List<PhysicalLink> path) {
+	for (final PhysicalLink link : path) {
+	    if (super.getLink(link.getSrcPort(), link.getDstPort()) == null)
+		return false;
+	}
+	return true;
+    }
+
+    /*
+     * Hands the link change to the rerouter, so it runs outside of the lock on
+     * the topology. Links that go down fail over before routes are recomputed.
+     */
+    private void reroute(final PhysicalLink link, final boolean up) {
+	this.rerouter.execute(new Runnable() {
+	    @Override
+	    public void run() {
+		try {
+		    if (!up)
+			PhysicalNetwork.this.failover(link);
+		    PhysicalNetwork.this.updateRoutes(link, up);
+		} catch (final RuntimeException e) {
+		    PhysicalNetwork.this.log.error("Failed to reroute around {}",
+			    link, e);
+		}
+	    }
+	});
+    }
+
+    /**
+     * Waits until every link change made so far has been rerouted around.
+     * 
+     * @throws InterruptedException
+     */
+    public void awaitReroutes() throws InterruptedException {
+	final CountDownLatch done = new CountDownLatch(1);
+	this.rerouter.execute(new Runnable() {
+	    @Override
+	    public void run() {
+		done.countDown();
+	    }
+	});
+	done.await();
+    }
+
+    /*
+     * Moves the virtual links and big switch routes that use the link onto
+     * their backup paths.
+     */
+    private void failover(final PhysicalLink link) {
+	for (final Resilient dependent : OVXMap.getInstance().getDependents(
+	        link))
+	    dependent.failover(link);
+    }
+
+    /*
+     * Lets the big switches the link is inside of route over it, or around it.
+     */
+    private void updateRoutes(final PhysicalLink link, final boolean up) {
+	final Mappable map = OVXMap.getInstance();
+	final PhysicalSwitch dstSwitch = link.getDstPort().getParentSwitch();
+	for (final OVXSwitch vsw : map.getVirtualSwitches(link.getSrcPort()
+	        .getParentSwitch())) {
+	    if (vsw instanceof OVXBigSwitch
+		    && map.getPhysicalSwitches(vsw).contains(dstSwitch))
+		((OVXBigSwitch) vsw).getRoutable().updateRoutes(
+		        (OVXBigSwitch) vsw, link, up);
+	}
+    }
+
     /**
      * Acknowledge reception of discovery probe to sender port
      * 
@@ -182,9 +281,20 @@ public class PhysicalNetwork extends
 	return "Physical network";
     }
 
+    /**
+     * Starts polling the port counters of the switches.
+     */
     @Override
     public boolean boot() {
+	this.poller.start();
 	return true;
     }
 
+    /**
+     * Stops polling the port counters of the switches.
+     */
+    public void shutdown() {
+	this.poller.stop();
+    }
+
 }
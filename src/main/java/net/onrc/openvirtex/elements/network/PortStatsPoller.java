@@ -0,0 +1,81 @@
+/**
+ *  Copyright (c) 2013 Open Networking Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+package net.onrc.openvirtex.elements.network;
+
+import java.util.concurrent.TimeUnit;
+
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+
+/**
+ * Polls the port counters of every physical switch, from which each port
+ * keeps a moving average of its load (see PhysicalPort.updateLoad()). One
+ * request per switch covers all its ports, and the replies are shared by all
+ * the routing policies and tenants that weigh links by their load. Polling
+ * starts when the controller boots the physical network and stops when the
+ * controller shuts down.
+ */
+public class PortStatsPoller implements TimerTask {
+
+    /* ms between two polls */
+    static final long POLL_RATE = 5000;
+
+    private final PhysicalNetwork network;
+    private volatile Timeout next = null;
+    private volatile boolean stopped = false;
+
+    public PortStatsPoller(final PhysicalNetwork network) {
+	this.network = network;
+    }
+
+    /**
+     * Schedules the next poll.
+     */
+    public void start() {
+	if (!this.stopped)
+	    this.next = PhysicalNetwork.getTimer().newTimeout(this, POLL_RATE,
+		    TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancels the next poll, and all those after it.
+     */
+    public void stop() {
+	this.stopped = true;
+	final Timeout timeout = this.next;
+	if (timeout != null)
+	    timeout.cancel();
+    }
+
+    @Override
+    public void run(final Timeout timeout) {
+	if (this.stopped)
+	    return;
+	for (final PhysicalSwitch sw : this.network.getSwitches())
+	    sw.sendPortStatsRequest();
+	this.start();
+    }
+
+}
@@ -31,6 +31,7 @@ package net.onrc.openvirtex.elements.port;
 
 import net.onrc.openvirtex.elements.OVXMap;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.network.OVXNetwork;
 
 public class OVXPort extends Port<OVXSwitch> {
 
@@ -38,6 +39,7 @@ public class OVXPort extends Port<OVXSwitch> {
     private final PhysicalPort physicalPort;
     /** The link id. */
     private Integer linkId;
+    private volatile OVXPortDescriptor descriptor;
 
     public OVXPort(final int tenantId, final PhysicalPort port,
 	    final boolean isEdge) {
@@ -57,6 +59,7 @@ public class OVXPort extends Port<OVXSwitch> {
 	// media type as copper
 	this.supportedFeatures = 383;
 	this.linkId = 0;
+	this.updateDescriptor();
     }
 
     public Integer getTenantId() {
@@ -77,6 +80,36 @@ public class OVXPort extends Port<OVXSwitch> {
 
     public void setLinkId(Integer linkId) {
         this.linkId = linkId;
+        this.updateDescriptor();
+    }
+
+    @Override
+    public void isEdge(final Boolean isEdge) {
+	super.isEdge(isEdge);
+	this.updateDescriptor();
+    }
+
+    /**
+     * @return the translation facts of this port as of the last topology
+     *         change
+     */
+    public OVXPortDescriptor getDescriptor() {
+	return this.descriptor;
+    }
+
+    /**
+     * Compiles a new descriptor from the current state of the port and its
+     * virtual network. Called whenever either changes.
+     */
+    public void updateDescriptor() {
+	OVXPort neighbour = null;
+	if (!this.isEdge) {
+	    final OVXNetwork net = OVXMap.getInstance().getVirtualNetwork(
+		    this.tenantId);
+	    if (net != null)
+		neighbour = net.getNeighborPort(this);
+	}
+	this.descriptor = new OVXPortDescriptor(this, neighbour);
     }
     
     /**
@@ -0,0 +1,106 @@
+/**
+ *  Copyright (c) 2013 Open Networking Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package net.onrc.openvirtex.elements.port;
+
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+
+import org.openflow.protocol.action.OFActionStripVirtualLan;
+import org.openflow.protocol.action.OFActionVirtualLanIdentifier;
+
+/**
+ * What devirtualizing a message needs to know about a virtual port, compiled
+ * from the topology into plain fields. A descriptor never changes; when the
+ * port is linked, unlinked or renumbered its {@link OVXPort} compiles a new
+ * one.
+ *
+ * The action objects are shared by every message built from the descriptor
+ * and must not be modified.
+ */
+public final class OVXPortDescriptor {
+
+    private final short physicalPortNumber;
+    private final PhysicalPort physicalPort;
+    private final PhysicalSwitch physicalSwitch;
+    private final boolean edge;
+    private final short linkVlan;
+    private final OVXPort neighbour;
+    private final OFActionStripVirtualLan stripVlan;
+    private final OFActionVirtualLanIdentifier setVlan;
+
+    OVXPortDescriptor(final OVXPort port, final OVXPort neighbour) {
+	this.physicalPort = port.getPhysicalPort();
+	this.physicalPortNumber = this.physicalPort.getPortNumber();
+	this.physicalSwitch = this.physicalPort.getParentSwitch();
+	this.edge = port.isEdge();
+	this.linkVlan = port.getLinkId().shortValue();
+	this.neighbour = neighbour;
+	this.stripVlan = new OFActionStripVirtualLan();
+	this.setVlan = this.linkVlan == 0 ? null
+		: new OFActionVirtualLanIdentifier(this.linkVlan);
+    }
+
+    public short getPhysicalPortNumber() {
+	return this.physicalPortNumber;
+    }
+
+    public PhysicalPort getPhysicalPort() {
+	return this.physicalPort;
+    }
+
+    public PhysicalSwitch getPhysicalSwitch() {
+	return this.physicalSwitch;
+    }
+
+    public boolean isEdge() {
+	return this.edge;
+    }
+
+    /**
+     * @return the VLAN id tagging traffic on the virtual link of the port,
+     *         or 0 if it is not on a link
+     */
+    public short getLinkVlan() {
+	return this.linkVlan;
+    }
+
+    /**
+     * @return the port at the other end of the virtual link, or null
+     */
+    public OVXPort getNeighbour() {
+	return this.neighbour;
+    }
+
+    public OFActionStripVirtualLan getStripVlanAction() {
+	return this.stripVlan;
+    }
+
+    /**
+     * @return the action tagging packets with the link VLAN, or null if the
+     *         port is not on a link
+     */
+    public OFActionVirtualLanIdentifier getSetVlanAction() {
+	return this.setVlan;
+    }
+
+}
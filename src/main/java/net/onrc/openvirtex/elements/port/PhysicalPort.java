@@ -33,12 +33,24 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.openflow.protocol.OFPhysicalPort;
+import org.openflow.protocol.OFPhysicalPort.OFPortFeatures;
 
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.messages.PacketInBucket;
 
 public class PhysicalPort extends Port<PhysicalSwitch> {
 
     private final Map<Integer, HashMap<Integer, OVXPort>> ovxPortMap;
+    private final PacketInBucket packetInBucket = PacketInBucket.forPort();
+
+    /* weight of the latest sample in the moving average of the load */
+    static final double LOAD_WEIGHT = 0.5;
+    /* speed assumed for ports that do not report one */
+    static final long DEFAULT_CAPACITY = 1000000000L; // bit/s
+
+    private volatile double load = 0;
+    private long txBytes = -1;
+    private long sampled = 0;
 
     private PhysicalPort(OFPhysicalPort port) {
 	super(port);
@@ -56,6 +68,60 @@ public class PhysicalPort extends Port<PhysicalSwitch> {
 	this.isEdge = isEdge;
     }
     
+    /**
+     * @return the bucket limiting the packet-ins received on this port
+     */
+    public PacketInBucket getPacketInBucket() {
+	return this.packetInBucket;
+    }
+
+    /**
+     * Folds the transmit counter of the port, as read from its statistics at
+     * time now, into the moving average of its load. The first sample, and
+     * any taken after the counter was reset, only sets the baseline.
+     * 
+     * @param txBytes
+     *            the bytes sent out of the port so far
+     * @param now
+     *            the time of the sample, in ms
+     */
+    public synchronized void updateLoad(final long txBytes, final long now) {
+	if (this.txBytes >= 0 && txBytes >= this.txBytes && now > this.sampled) {
+	    final double rate = (txBytes - this.txBytes) * 8000.0
+		    / (now - this.sampled);
+	    this.load = LOAD_WEIGHT * rate + (1 - LOAD_WEIGHT) * this.load;
+	}
+	this.txBytes = txBytes;
+	this.sampled = now;
+    }
+
+    /**
+     * @return the moving average of the traffic sent out of the port, in
+     *         bit/s
+     */
+    public double getLoad() {
+	return this.load;
+    }
+
+    /**
+     * @return the speed of the port, in bit/s, from the features it reports
+     */
+    public long getCapacity() {
+	final int features = this.currentFeatures;
+	if ((features & OFPortFeatures.OFPPF_10GB_FD.getValue()) != 0)
+	    return 10000000000L;
+	if ((features & (OFPortFeatures.OFPPF_1GB_FD.getValue() | OFPortFeatures.OFPPF_1GB_HD
+	        .getValue())) != 0)
+	    return 1000000000L;
+	if ((features & (OFPortFeatures.OFPPF_100MB_FD.getValue() | OFPortFeatures.OFPPF_100MB_HD
+	        .getValue())) != 0)
+	    return 100000000L;
+	if ((features & (OFPortFeatures.OFPPF_10MB_FD.getValue() | OFPortFeatures.OFPPF_10MB_HD
+	        .getValue())) != 0)
+	    return 10000000L;
+	return DEFAULT_CAPACITY;
+    }
+
     public OVXPort getOVXPort(final Integer tenantId, final Integer vLinkId) {
 	if (this.ovxPortMap.get(tenantId) == null)
 	    return null;
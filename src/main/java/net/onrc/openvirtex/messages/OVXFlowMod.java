@@ -29,31 +29,33 @@
 
 package net.onrc.openvirtex.messages;
 
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
-import net.onrc.openvirtex.elements.Mappable;
-import net.onrc.openvirtex.elements.address.OVXIPAddress;
-import net.onrc.openvirtex.elements.address.PhysicalIPAddress;
+import net.onrc.openvirtex.elements.address.IPTranslator;
+import net.onrc.openvirtex.elements.datapath.InstallBatch;
 import net.onrc.openvirtex.elements.datapath.OVXBigSwitch;
+import net.onrc.openvirtex.elements.datapath.OVXFlowEntry;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 import net.onrc.openvirtex.elements.port.OVXPort;
+import net.onrc.openvirtex.elements.port.OVXPortDescriptor;
 import net.onrc.openvirtex.exceptions.ActionVirtualizationDenied;
 import net.onrc.openvirtex.exceptions.DroppedMessageException;
-import net.onrc.openvirtex.messages.actions.OVXActionNetworkLayerDestination;
-import net.onrc.openvirtex.messages.actions.OVXActionNetworkLayerSource;
 import net.onrc.openvirtex.messages.actions.VirtualizableAction;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.openflow.protocol.OFError.OFFlowModFailedCode;
 import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFPort;
 import org.openflow.protocol.Wildcards.Flag;
 import org.openflow.protocol.action.OFAction;
+import org.openflow.util.U16;
 
 public class OVXFlowMod extends OFFlowMod implements Devirtualizable {
 
-    private final Logger         log  = LogManager.getLogger(OVXFlowMod.class
+    private static final Logger log = LogManager.getLogger(OVXFlowMod.class
 	                                      .getName());
 
     private OVXSwitch            sw   = null;
@@ -64,58 +66,152 @@ public class OVXFlowMod extends OFFlowMod implements Devirtualizable {
 	
 	this.sw = sw;
 	
-	int bufferId = OVXPacketOut.BUFFER_ID_NONE;
-	if (sw.getFromBufferMap(this.bufferId)  != null) {
-	    bufferId = sw.getFromBufferMap(this.bufferId).getBufferId();
+	// packet ins of the same flow may be waiting for this answer
+	final int virtualBufferId = this.bufferId;
+	final List<OFAction> heldActions = sw.getFlowSetups().isPending(virtualBufferId)
+		? OVXPacketOut.copyActions(this.getActions()) : null;
+	// the rule as the tenant sees it, for the virtual flow table
+	final OFFlowMod virtualFm;
+	try {
+	    virtualFm = this.clone();
+	} catch (CloneNotSupportedException e) {
+	    throw new AssertionError(e);
 	}
+	
 	final short inport = this.getMatch().getInputPort();
+	final OVXPort ovxInPort = sw.getPort(inport);
+
+	// refuse the flow mod before any downstream rule goes out for it
+	if (ovxInPort == null) {
+	    log.error("Unknown virtual port id {}; dropping flowmod {}", inport, this);
+	    sw.sendMsg(OVXMessageUtil.makeErrorMsg(OFFlowModFailedCode.OFPFMFC_EPERM, this), sw);
+	    return;
+	}
+	if (sw.getFlowTable().rejects(virtualFm)) {
+	    log.debug("Flowmod {} overlaps an existing rule; rejecting", this);
+	    sw.sendMsg(OVXMessageUtil.makeErrorMsg(OFFlowModFailedCode.OFPFMFC_OVERLAP, this), sw);
+	    return;
+	}
 
-	for (final OFAction act : this.getActions()) {
+	int bufferId = OVXPacketOut.BUFFER_ID_NONE;
+	if (sw.getBufferMap().contains(this.bufferId)) {
 	    try {
-		((VirtualizableAction) act).virtualize(sw, approvedActions, this.match);
-	    } catch (final ActionVirtualizationDenied e) {
-		this.log.warn("Action {} could not be virtualized; error: {}",
-		        act, e.getMessage());
-		sw.sendMsg(OVXMessageUtil.makeError(e.getErrorCode(), this), sw);
-		return;
-	    } catch (DroppedMessageException e) {
-		log.debug("Dropping flowmod {}", this);
-		return;
+		bufferId = sw.getBufferMap().getPhysicalBufferId(this.bufferId);
+		// a buffered packet is sent at most once
+		sw.getBufferMap().remove(this.bufferId);
+	    } catch (IllegalArgumentException e) {
+		// evicted meanwhile, install the rule without the packet
 	    }
 	}
+
+	// the downstream rules of the actions are held until the batch is released
+	final InstallBatch batch = InstallBatch.begin();
+	try {
+	    for (final OFAction act : this.getActions()) {
+		try {
+		    ((VirtualizableAction) act).virtualize(sw, approvedActions, this.match);
+		} catch (final ActionVirtualizationDenied e) {
+		    log.warn("Action {} could not be virtualized; error: {}",
+			    act, e.getMessage());
+		    sw.sendMsg(OVXMessageUtil.makeError(e.getErrorCode(), this), sw);
+		    return;
+		} catch (DroppedMessageException e) {
+		    log.debug("Dropping flowmod {}", this);
+		    return;
+		}
+	    }
 	
 	
 
 
-	final OVXPort ovxInPort = sw.getPort(inport);
-	this.setBufferId(bufferId);
+	    this.setBufferId(bufferId);
 	
-	if (ovxInPort == null) {
-	    log.error("Unknown virtual port id {}; dropping flowmod {}", inport, this);
-	    sw.sendMsg(OVXMessageUtil.makeErrorMsg(OFFlowModFailedCode.OFPFMFC_EPERM, this), sw);
-	    return;
-	} else {
-	    OVXMessageUtil.translateXid(this, ovxInPort);
-	    this.getMatch().setInputPort(ovxInPort.getPhysicalPortNumber());
-	    if (ovxInPort.isEdge()) {
-		this.prependRewriteActions();
-		computeLength();
-		if (sw instanceof OVXBigSwitch)
-		    ((OVXBigSwitch) sw).sendSouthBS(this, ovxInPort);
-		else
-		    sw.sendSouth(this);
+	    if (!sw.getFlowTable().handleFlowMod(virtualFm)) {
+		// a concurrent flow mod got in first since the check above
+		log.debug("Flowmod {} overlaps an existing rule; rejecting", this);
+		sw.sendMsg(OVXMessageUtil.makeErrorMsg(OFFlowModFailedCode.OFPFMFC_OVERLAP, this), sw);
 		return;
 	    } else {
-		this.rewriteMatch();
+		/*
+		 * Tag the physical rule with the cookie of its virtual one, and
+		 * have it reported when it goes so the virtual one goes too.
+		 */
+		final OVXFlowEntry entry = sw.getFlowTable().getEntry(
+			virtualFm.getMatch(), virtualFm.getPriority());
+		if (entry != null) {
+		    this.setCookie(entry.getPhysicalCookie());
+		    this.setFlags((short) (this.getFlags() | OFFlowMod.OFPFF_SEND_FLOW_REM));
+		}
+		OVXMessageUtil.translateXid(this, ovxInPort);
+		final OVXPortDescriptor in = ovxInPort.getDescriptor();
+		this.getMatch().setInputPort(in.getPhysicalPortNumber());
+		if (in.isEdge())
+		    this.prependRewriteActions();
+		else
+		    this.rewriteMatch();
+		computeLength();
 	    }
+	    // a rule installed without a packet may still answer pending setups
+	    final List<OVXPacketIn> covered = heldActions == null
+		    && virtualBufferId == OVXPacketOut.BUFFER_ID_NONE
+		    && virtualFm.getCommand() != OFFlowMod.OFPFC_DELETE
+		    && virtualFm.getCommand() != OFFlowMod.OFPFC_DELETE_STRICT
+		    ? sw.getFlowSetups().releaseCovered(virtualFm.getMatch())
+		    : Collections.<OVXPacketIn> emptyList();
+	    final List<OFAction> coveredActions = covered.isEmpty() ? null
+		    : OVXPacketOut.copyActions(virtualFm.getActions());
+	    final OVXFlowMod fm = this;
+	    batch.release(new Runnable() {
+		@Override
+		public void run() {
+		    if (sw instanceof OVXBigSwitch)
+			((OVXBigSwitch) sw).sendSouthBS(fm, ovxInPort);
+		    else
+			sw.sendSouth(fm);
+		    if (heldActions != null)
+			OVXPacketOut.releaseHeld(sw, virtualBufferId, heldActions);
+		    if (coveredActions != null)
+			OVXPacketOut.sendHeld(sw, covered, coveredActions);
+		}
+	    });
+	} finally {
+	    batch.close();
 	}
-	OVXMessageUtil.translateXid(this, ovxInPort);
-	computeLength();
-	if (sw instanceof OVXBigSwitch)
-	    ((OVXBigSwitch) sw).sendSouthBS(this, ovxInPort);
-	else
-	    sw.sendSouth(this);
+    }
 
+    /**
+     * Rebuilds the flow mod that installs a rule of a virtual flow table, to
+     * install it again when the physical paths under it change. The hard
+     * timeout is what remains of the original one.
+     *
+     * @param now
+     *            the current time, in milliseconds
+     * @return the flow mod, or null if the rule is about to expire
+     */
+    public static OVXFlowMod reinstall(final OVXFlowEntry entry, final long now) {
+	int hardTimeout = U16.f(entry.getHardTimeout());
+	if (hardTimeout != 0) {
+	    hardTimeout -= (now - entry.getCreated()) / 1000;
+	    if (hardTimeout <= 0)
+		return null;
+	}
+	final OVXFlowMod fm = new OVXFlowMod();
+	fm.setXid(0);
+	fm.setCommand(OFFlowMod.OFPFC_ADD);
+	fm.setMatch(entry.getMatch().clone());
+	fm.setPriority((short) entry.getPriority());
+	fm.setCookie(entry.getCookie());
+	fm.setIdleTimeout(entry.getIdleTimeout());
+	fm.setHardTimeout((short) hardTimeout);
+	// the rule replaces itself, which is not an overlap
+	fm.setFlags((short) (entry.getFlags() & ~OFFlowMod.OFPFF_CHECK_OVERLAP));
+	fm.setBufferId(OVXPacketOut.BUFFER_ID_NONE);
+	fm.setOutPort(OFPort.OFPP_NONE.getValue());
+	fm.setActions(OVXPacketOut.copyActions(entry.getActions()));
+	fm.setLengthU(OVXFlowMod.MINIMUM_LENGTH);
+	for (final OFAction act : fm.getActions())
+	    fm.setLengthU(fm.getLengthU() + act.getLengthU());
+	return fm;
     }
     
     
@@ -130,82 +226,30 @@ public class OVXFlowMod extends OFFlowMod implements Devirtualizable {
 
 
     private void prependRewriteActions() {
-	final Mappable map = this.sw.getMap();
-
-	if (!this.match.getWildcardObj().isWildcarded(Flag.NW_SRC)) {
-	    final OVXIPAddress vip = new OVXIPAddress(this.sw.getTenantId(),
-		    this.match.getNetworkSource());
-	    PhysicalIPAddress pip = map.getPhysicalIP(vip,
-		    this.sw.getTenantId());
-	    if (pip == null) {
-		pip = new PhysicalIPAddress(map.getVirtualNetwork(
-		        this.sw.getTenantId()).nextIP());
-		this.log.debug(
-		        "Adding IP mapping {} -> {} for tenant {} at switch {}",
-		        vip, pip, this.sw.getTenantId(), this.sw.getName());
-		map.addIP(pip, vip);
-	    }
-	    final OVXActionNetworkLayerSource srcAct = new OVXActionNetworkLayerSource();
-	    srcAct.setNetworkAddress(pip.getIp());
-	    this.approvedActions.add(0,srcAct);
+	final IPTranslator ips = this.sw.getMap()
+		.getVirtualNetwork(this.sw.getTenantId()).getIPTranslator();
 
-	}
+	if (!this.match.getWildcardObj().isWildcarded(Flag.NW_SRC))
+	    this.approvedActions.add(0, ips.translate(
+		    this.match.getNetworkSource()).getRewriteSrcAction());
 
-	if (!this.match.getWildcardObj().isWildcarded(Flag.NW_DST)) {
-	    final OVXIPAddress vip = new OVXIPAddress(this.sw.getTenantId(),
-		    this.match.getNetworkDestination());
-	    PhysicalIPAddress pip = map.getPhysicalIP(vip,
-		    this.sw.getTenantId());
-	    if (pip == null) {
-		pip = new PhysicalIPAddress(map.getVirtualNetwork(
-		        this.sw.getTenantId()).nextIP());
-		this.log.debug(
-		        "Adding IP mapping {} -> {} for tenant {} at switch {}",
-		        vip, pip, this.sw.getTenantId(), this.sw.getName());
-		map.addIP(pip, vip);
-	    }
-	    final OVXActionNetworkLayerDestination dstAct = new OVXActionNetworkLayerDestination();
-	    dstAct.setNetworkAddress(pip.getIp());
-	    this.approvedActions.add(0,dstAct);
-
-	}
+	if (!this.match.getWildcardObj().isWildcarded(Flag.NW_DST))
+	    this.approvedActions.add(0, ips.translate(
+		    this.match.getNetworkDestination()).getRewriteDstAction());
     }
 
     private void rewriteMatch() {
-	final Mappable map = this.sw.getMap();
+	final IPTranslator ips = this.sw.getMap()
+		.getVirtualNetwork(this.sw.getTenantId()).getIPTranslator();
 
 	// TODO: handle IP ranges
-	if (!this.match.getWildcardObj().isWildcarded(Flag.NW_SRC)) {
-	    final OVXIPAddress vip = new OVXIPAddress(this.sw.getTenantId(),
-		    this.match.getNetworkSource());
-	    PhysicalIPAddress pip = map.getPhysicalIP(vip,
-		    this.sw.getTenantId());
-	    if (pip == null) {
-		pip = new PhysicalIPAddress(map.getVirtualNetwork(
-		        this.sw.getTenantId()).nextIP());
-		this.log.debug(
-		        "Adding IP mapping {} -> {} for tenant {} at switch {}",
-		        vip, pip, this.sw.getTenantId(), this.sw.getName());
-		map.addIP(pip, vip);
-	    }
-	    this.getMatch().setNetworkSource(pip.getIp());
-	}
+	if (!this.match.getWildcardObj().isWildcarded(Flag.NW_SRC))
+	    this.getMatch().setNetworkSource(ips.translate(
+		    this.match.getNetworkSource()).getPhysicalIP().getIp());
 
-	if (!this.match.getWildcardObj().isWildcarded(Flag.NW_DST)) {
-	    final OVXIPAddress vip = new OVXIPAddress(this.sw.getTenantId(),
-		    this.match.getNetworkDestination());
-	    PhysicalIPAddress pip = map.getPhysicalIP(vip,
-		    this.sw.getTenantId());
-	    if (pip == null) {
-		pip = new PhysicalIPAddress(map.getVirtualNetwork(
-		        this.sw.getTenantId()).nextIP());
-		this.log.debug(
-		        "Adding IP mapping {} -> {} for tenant {} at switch {}",
-		        vip, pip, this.sw.getTenantId(), this.sw.getName());
-		map.addIP(pip, vip);
-	    }
-	    this.getMatch().setNetworkDestination(pip.getIp());
-	}
+	if (!this.match.getWildcardObj().isWildcarded(Flag.NW_DST))
+	    this.getMatch().setNetworkDestination(ips.translate(
+		    this.match.getNetworkDestination()).getPhysicalIP().getIp());
 
     }
 
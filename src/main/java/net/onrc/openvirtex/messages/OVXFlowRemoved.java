@@ -22,28 +22,62 @@
 
 package net.onrc.openvirtex.messages;
 
+import net.onrc.openvirtex.elements.datapath.OVXFlowEntry;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
-import net.onrc.openvirtex.elements.port.OVXPort;
 
+import org.openflow.protocol.OFFlowMod;
 import org.openflow.protocol.OFFlowRemoved;
-import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFFlowRemoved.OFFlowRemovedReason;
 
 public class OVXFlowRemoved extends OFFlowRemoved implements Virtualizable {
 
+	/**
+	 * The cookie of a physical rule installed for a tenant carries the
+	 * tenant id, which gives the virtual switch, whose flow table knows the
+	 * virtual rule by the cookie. Rules not installed by a tenant are
+	 * ignored.
+	 */
 	@Override
 	public void virtualize(PhysicalSwitch sw) {
-	    // in response to FlowMod?
-	    OVXSwitch vsw = OVXMessageUtil.untranslateXid(this, sw);
-	    if (vsw == null) {
-		//no-body asked for this
+	    final int tenantId = (int) (this.cookie >>> 32);
+	    final OVXSwitch vsw = sw.getMap().getVirtualSwitch(sw, tenantId);
+	    if (vsw == null)
+		return;
+	    final OVXFlowEntry entry = vsw.getFlowTable().removeEntry(this.cookie);
+	    // not a tenant rule, or already reported from another switch
+	    if (entry == null)
+		return;
+	    // OVX asks for every removal, the tenant may not have
+	    if ((entry.getFlags() & OFFlowMod.OFPFF_SEND_FLOW_REM) == 0)
 		return;
-	    }
-	    
-	    // TODO need to re-write OFMatch 
-	    OFMatch ofm = this.getMatch();
 	    
-	    //vsw.sendMsg(this, sw);
+	    this.setMatch(entry.getMatch());
+	    this.setCookie(entry.getCookie());
+	    this.setPriority((short) entry.getPriority());
+	    this.setIdleTimeout(entry.getIdleTimeout());
+	    this.setXid(0);
+	    vsw.sendMsg(this, sw);
+	}
+
+	/**
+	 * @return the flow removed reporting entry deleted by a flow mod of
+	 *         the tenant. Its physical rules are deleted with it, their
+	 *         own reports find no rule left and are dropped.
+	 */
+	public static OVXFlowRemoved deleted(final OVXFlowEntry entry,
+		final long now) {
+	    final OVXFlowRemoved msg = new OVXFlowRemoved();
+	    msg.setMatch(entry.getMatch());
+	    msg.setCookie(entry.getCookie());
+	    msg.setPriority((short) entry.getPriority());
+	    msg.setReason(OFFlowRemovedReason.OFPRR_DELETE);
+	    final long age = Math.max(0, now - entry.getCreated());
+	    msg.setDurationSeconds((int) (age / 1000));
+	    msg.setDurationNanoseconds((int) (age % 1000) * 1000000);
+	    msg.setIdleTimeout(entry.getIdleTimeout());
+	    msg.setXid(0);
+	    return msg;
 	}
 
 }
@@ -47,11 +47,14 @@ import net.onrc.openvirtex.messages.statistics.OVXQueueStatisticsRequest;
 import net.onrc.openvirtex.messages.statistics.OVXTableStatistics;
 import net.onrc.openvirtex.messages.statistics.OVXVendorStatistics;
 
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.openflow.protocol.Instantiable;
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFType;
 import org.openflow.protocol.action.OFAction;
 import org.openflow.protocol.action.OFActionType;
 import org.openflow.protocol.factory.BasicFactory;
+import org.openflow.protocol.factory.MessageParseException;
 import org.openflow.protocol.factory.OFActionFactoryAware;
 import org.openflow.protocol.factory.OFMessageFactoryAware;
 import org.openflow.protocol.factory.OFStatisticsFactoryAware;
@@ -62,46 +65,325 @@ public class OVXMessageFactory extends BasicFactory {
 
 	private static OVXMessageFactory instance = null;
 
-	// not sure how to deal with this...
-	// HACK to convert OFMessage* to OVXMessage*
-	@SuppressWarnings("rawtypes")
-	static final Class convertMap[] = { OVXHello.class, OVXError.class,
-			OVXEchoRequest.class, OVXEchoReply.class, OVXVendor.class,
-			OVXFeaturesRequest.class, OVXFeaturesReply.class,
-			OVXGetConfigRequest.class, OVXGetConfigReply.class,
-			OVXSetConfig.class, OVXPacketIn.class, OVXFlowRemoved.class,
-			OVXPortStatus.class, OVXPacketOut.class, OVXFlowMod.class,
-			OVXPortMod.class, OVXStatisticsRequest.class,
-			OVXStatisticsReply.class, OVXBarrierRequest.class,
-			OVXBarrierReply.class, OVXQueueGetConfigRequest.class,
-			OVXQueueGetConfigReply.class };
-
-	@SuppressWarnings({ "rawtypes" })
-	static final Class convertActionsMap[] = { OVXActionOutput.class,
-			OVXActionVirtualLanIdentifier.class,
-			OVXActionVirtualLanPriorityCodePoint.class,
-			OVXActionStripVirtualLan.class, OVXActionDataLayerSource.class,
-			OVXActionDataLayerDestination.class,
-			OVXActionNetworkLayerSource.class,
-			OVXActionNetworkLayerDestination.class,
-			OVXActionNetworkTypeOfService.class,
-			OVXActionTransportLayerSource.class,
-			OVXActionTransportLayerDestination.class, OVXActionEnqueue.class,
-			OVXActionVendor.class };
-
-	@SuppressWarnings("rawtypes")
-	static final Class convertStatsRequestMap[] = {
-			OVXDescriptionStatistics.class, OVXFlowStatisticsRequest.class,
-			OVXAggregateStatisticsRequest.class, OVXTableStatistics.class,
-			OVXPortStatisticsRequest.class, OVXQueueStatisticsRequest.class,
-			OVXVendorStatistics.class };
-
-	@SuppressWarnings("rawtypes")
-	static final Class convertStatsReplyMap[] = {
-			OVXDescriptionStatistics.class, OVXFlowStatisticsReply.class,
-			OVXAggregateStatisticsReply.class, OVXTableStatistics.class,
-			OVXPortStatisticsReply.class, OVXQueueStatisticsReply.class,
-			OVXVendorStatistics.class };
+	/*
+	 * Creators for the OVX* counterparts of the OFMessage*, OFAction* and
+	 * OFStatistics* classes, indexed by their wire type value. They are
+	 * resolved once here so the decode path never goes through reflection.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static final Instantiable<OFMessage> convertMap[] = new Instantiable[] {
+			new Instantiable<OFMessage>() {
+				@Override
+				public OFMessage instantiate() {
+					return new OVXHello();
+				}
+			},
+			new Instantiable<OFMessage>() {
+				@Override
+				public OFMessage instantiate() {
+					return new OVXError();
+				}
+			},
+			new Instantiable<OFMessage>() {
+				@Override
+				public OFMessage instantiate() {
+					return new OVXEchoRequest();
+				}
+			},
+			new Instantiable<OFMessage>() {
+				@Override
+				public OFMessage instantiate() {
+					return new OVXEchoReply();
+				}
+			},
+			new Instantiable<OFMessage>() {
+				@Override
+				public OFMessage instantiate() {
+					return new OVXVendor();
+				}
+			},
+			new Instantiable<OFMessage>() {
+				@Override
+				public OFMessage instantiate() {
+					return new OVXFeaturesRequest();
+				}
+			},
+			new Instantiable<OFMessage>() {
+				@Override
+				public OFMessage instantiate() {
+					return new OVXFeaturesReply();
+				}
+			},
+			new Instantiable<OFMessage>() {
+				@Override
+				public OFMessage instantiate() {
+					return new OVXGetConfigRequest();
+				}
+			},
+			new Instantiable<OFMessage>() {
+				@Override
+				public OFMessage instantiate() {
+					return new OVXGetConfigReply();
+				}
+			},
+			new Instantiable<OFMessage>() {
+				@Override
+				public OFMessage instantiate() {
+					return new OVXSetConfig();
+				}
+			},
+			new Instantiable<OFMessage>() {
+				@Override
+				public OFMessage instantiate() {
+					return new OVXPacketIn();
+				}
+			},
+			new Instantiable<OFMessage>() {
+				@Override
+				public OFMessage instantiate() {
+					return new OVXFlowRemoved();
+				}
+			},
+			new Instantiable<OFMessage>() {
+				@Override
+				public OFMessage instantiate() {
+					return new OVXPortStatus();
+				}
+			},
+			new Instantiable<OFMessage>() {
+				@Override
+				public OFMessage instantiate() {
+					return new OVXPacketOut();
+				}
+			},
+			new Instantiable<OFMessage>() {
+				@Override
+				public OFMessage instantiate() {
+					return new OVXFlowMod();
+				}
+			},
+			new Instantiable<OFMessage>() {
+				@Override
+				public OFMessage instantiate() {
+					return new OVXPortMod();
+				}
+			},
+			new Instantiable<OFMessage>() {
+				@Override
+				public OFMessage instantiate() {
+					return new OVXStatisticsRequest();
+				}
+			},
+			new Instantiable<OFMessage>() {
+				@Override
+				public OFMessage instantiate() {
+					return new OVXStatisticsReply();
+				}
+			},
+			new Instantiable<OFMessage>() {
+				@Override
+				public OFMessage instantiate() {
+					return new OVXBarrierRequest();
+				}
+			},
+			new Instantiable<OFMessage>() {
+				@Override
+				public OFMessage instantiate() {
+					return new OVXBarrierReply();
+				}
+			},
+			new Instantiable<OFMessage>() {
+				@Override
+				public OFMessage instantiate() {
+					return new OVXQueueGetConfigRequest();
+				}
+			},
+			new Instantiable<OFMessage>() {
+				@Override
+				public OFMessage instantiate() {
+					return new OVXQueueGetConfigReply();
+				}
+			} };
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static final Instantiable<OFAction> convertActionsMap[] = new Instantiable[] {
+			new Instantiable<OFAction>() {
+				@Override
+				public OFAction instantiate() {
+					return new OVXActionOutput();
+				}
+			},
+			new Instantiable<OFAction>() {
+				@Override
+				public OFAction instantiate() {
+					return new OVXActionVirtualLanIdentifier();
+				}
+			},
+			new Instantiable<OFAction>() {
+				@Override
+				public OFAction instantiate() {
+					return new OVXActionVirtualLanPriorityCodePoint();
+				}
+			},
+			new Instantiable<OFAction>() {
+				@Override
+				public OFAction instantiate() {
+					return new OVXActionStripVirtualLan();
+				}
+			},
+			new Instantiable<OFAction>() {
+				@Override
+				public OFAction instantiate() {
+					return new OVXActionDataLayerSource();
+				}
+			},
+			new Instantiable<OFAction>() {
+				@Override
+				public OFAction instantiate() {
+					return new OVXActionDataLayerDestination();
+				}
+			},
+			new Instantiable<OFAction>() {
+				@Override
+				public OFAction instantiate() {
+					return new OVXActionNetworkLayerSource();
+				}
+			},
+			new Instantiable<OFAction>() {
+				@Override
+				public OFAction instantiate() {
+					return new OVXActionNetworkLayerDestination();
+				}
+			},
+			new Instantiable<OFAction>() {
+				@Override
+				public OFAction instantiate() {
+					return new OVXActionNetworkTypeOfService();
+				}
+			},
+			new Instantiable<OFAction>() {
+				@Override
+				public OFAction instantiate() {
+					return new OVXActionTransportLayerSource();
+				}
+			},
+			new Instantiable<OFAction>() {
+				@Override
+				public OFAction instantiate() {
+					return new OVXActionTransportLayerDestination();
+				}
+			},
+			new Instantiable<OFAction>() {
+				@Override
+				public OFAction instantiate() {
+					return new OVXActionEnqueue();
+				}
+			} };
+
+	static final Instantiable<OFAction> vendorAction = new Instantiable<OFAction>() {
+		@Override
+		public OFAction instantiate() {
+			return new OVXActionVendor();
+		}
+	};
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static final Instantiable<OFStatistics> convertStatsRequestMap[] = new Instantiable[] {
+			new Instantiable<OFStatistics>() {
+				@Override
+				public OFStatistics instantiate() {
+					return new OVXDescriptionStatistics();
+				}
+			},
+			new Instantiable<OFStatistics>() {
+				@Override
+				public OFStatistics instantiate() {
+					return new OVXFlowStatisticsRequest();
+				}
+			},
+			new Instantiable<OFStatistics>() {
+				@Override
+				public OFStatistics instantiate() {
+					return new OVXAggregateStatisticsRequest();
+				}
+			},
+			new Instantiable<OFStatistics>() {
+				@Override
+				public OFStatistics instantiate() {
+					return new OVXTableStatistics();
+				}
+			},
+			new Instantiable<OFStatistics>() {
+				@Override
+				public OFStatistics instantiate() {
+					return new OVXPortStatisticsRequest();
+				}
+			},
+			new Instantiable<OFStatistics>() {
+				@Override
+				public OFStatistics instantiate() {
+					return new OVXQueueStatisticsRequest();
+				}
+			} };
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static final Instantiable<OFStatistics> convertStatsReplyMap[] = new Instantiable[] {
+			new Instantiable<OFStatistics>() {
+				@Override
+				public OFStatistics instantiate() {
+					return new OVXDescriptionStatistics();
+				}
+			},
+			new Instantiable<OFStatistics>() {
+				@Override
+				public OFStatistics instantiate() {
+					return new OVXFlowStatisticsReply();
+				}
+			},
+			new Instantiable<OFStatistics>() {
+				@Override
+				public OFStatistics instantiate() {
+					return new OVXAggregateStatisticsReply();
+				}
+			},
+			new Instantiable<OFStatistics>() {
+				@Override
+				public OFStatistics instantiate() {
+					return new OVXTableStatistics();
+				}
+			},
+			new Instantiable<OFStatistics>() {
+				@Override
+				public OFStatistics instantiate() {
+					return new OVXPortStatisticsReply();
+				}
+			},
+			new Instantiable<OFStatistics>() {
+				@Override
+				public OFStatistics instantiate() {
+					return new OVXQueueStatisticsReply();
+				}
+			} };
+
+	static final Instantiable<OFStatistics> vendorStatistics = new Instantiable<OFStatistics>() {
+		@Override
+		public OFStatistics instantiate() {
+			return new OVXVendorStatistics();
+		}
+	};
+
+	/**
+	 * @return true if messages of the given wire type are relayed as raw
+	 *         frames rather than decoded: echoes, which are answered from
+	 *         the frame itself, and barriers, which only need their XID
+	 *         rewritten.
+	 */
+	public static boolean isRaw(byte type) {
+		return type == OFType.ECHO_REQUEST.getTypeValue()
+				|| type == OFType.ECHO_REPLY.getTypeValue()
+				|| type == OFType.BARRIER_REQUEST.getTypeValue()
+				|| type == OFType.BARRIER_REPLY.getTypeValue();
+	}
 
 	protected OVXMessageFactory() {
 		super();
@@ -113,7 +395,28 @@ public class OVXMessageFactory extends BasicFactory {
 		return instance;
 	}
 
-	@SuppressWarnings("unchecked")
+	/**
+	 * Frames of the types selected by {@link #isRaw(byte)} are copied into an
+	 * {@link OVXRawMessage} without decoding their body; everything else
+	 * goes through the regular parser.
+	 */
+	@Override
+	public OFMessage parseMessageOne(ChannelBuffer data)
+			throws MessageParseException {
+		if (data.readableBytes() < OFMessage.MINIMUM_LENGTH)
+			return null;
+		int start = data.readerIndex();
+		int length = data.getUnsignedShort(start + 2);
+		if (!isRaw(data.getByte(start + 1))
+				|| length < OFMessage.MINIMUM_LENGTH)
+			return super.parseMessageOne(data);
+		if (length > data.readableBytes())
+			return null;
+		OVXRawMessage m = new OVXRawMessage();
+		m.readFrom(data);
+		return m;
+	}
+
 	@Override
 	public OFMessage getMessage(OFType t) {
 		if (t == null)
@@ -122,56 +425,36 @@ public class OVXMessageFactory extends BasicFactory {
 		if (mtype >= convertMap.length)
 			throw new IllegalArgumentException("OFMessage type " + mtype
 					+ " unknown to OVX");
-		Class<? extends OFMessage> c = convertMap[mtype];
-		try {
-			OFMessage m = c.getConstructor(new Class[] {}).newInstance();
-			if (m instanceof OFMessageFactoryAware)
-				((OFMessageFactoryAware) m).setMessageFactory(this);
-			if (m instanceof OFActionFactoryAware) {
-				((OFActionFactoryAware) m).setActionFactory(this);
-			}
-			if (m instanceof OFStatisticsFactoryAware) {
-				((OFStatisticsFactoryAware) m).setStatisticsFactory(this);
-			}
-			return m;
-		} catch (Exception e) {
-			throw new RuntimeException(e);
+		OFMessage m = convertMap[mtype].instantiate();
+		if (m instanceof OFMessageFactoryAware)
+			((OFMessageFactoryAware) m).setMessageFactory(this);
+		if (m instanceof OFActionFactoryAware) {
+			((OFActionFactoryAware) m).setActionFactory(this);
 		}
+		if (m instanceof OFStatisticsFactoryAware) {
+			((OFStatisticsFactoryAware) m).setStatisticsFactory(this);
+		}
+		return m;
 	}
 
-	@SuppressWarnings("unchecked")
 	@Override
 	public OFAction getAction(OFActionType t) {
-		Class<? extends OFAction> c = convertActionsMap[t.getTypeValue()];
-		try {
-			return c.getConstructor(new Class[] {}).newInstance();
-		} catch (Exception e) {
-			throw new RuntimeException(e);
-		}
+		if (t == OFActionType.VENDOR)
+			return vendorAction.instantiate();
+		return convertActionsMap[t.getTypeValue()].instantiate();
 	}
 
-	@SuppressWarnings("unchecked")
-	// big hack; need to fix
 	@Override
 	public OFStatistics getStatistics(OFType t, OFStatisticsType st) {
-		Class<? extends OFStatistics> c;
+		if (st.getTypeValue() == -1 
+				&& (t == OFType.STATS_REPLY || t == OFType.STATS_REQUEST))
+			return vendorStatistics.instantiate();
 		if (t == OFType.STATS_REPLY)
-			if (st.getTypeValue() == -1)
-				c = OVXVendorStatistics.class;
-			else
-				c = convertStatsReplyMap[st.getTypeValue()];
+			return convertStatsReplyMap[st.getTypeValue()].instantiate();
 		else if (t == OFType.STATS_REQUEST)
-			if (st.getTypeValue() == -1)
-				c = OVXVendorStatistics.class;
-			else
-				c = convertStatsRequestMap[st.getTypeValue()];
+			return convertStatsRequestMap[st.getTypeValue()].instantiate();
 		else
 			throw new RuntimeException("non-stats type in stats factory: " + t);
-		try {
-			return c.getConstructor(new Class[] {}).newInstance();
-		} catch (Exception e) {
-			throw new RuntimeException(e);
-		}
 	}
 
 }
@@ -14,6 +14,7 @@ import org.openflow.protocol.OFError.OFErrorType;
 import org.openflow.protocol.OFError.OFFlowModFailedCode;
 import org.openflow.protocol.OFError.OFPortModFailedCode;
 import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFStatisticsReply;
 
 
 public class OVXMessageUtil {
@@ -118,10 +119,32 @@ public class OVXMessageUtil {
         if (pair == null) {
             return null;
         }
+        if (isLastReply(msg))
+            psw.getXidTranslator().remove(msg.getXid());
         msg.setXid(pair.getXid());
         return (OVXSwitch) pair.getSwitch();
     }
 
+    /*
+     * Whether msg ends the transaction it answers, so its XID can be freed.
+     */
+    private static boolean isLastReply(OFMessage msg) {
+        switch (msg.getType()) {
+        case ERROR:
+        case ECHO_REPLY:
+        case FEATURES_REPLY:
+        case GET_CONFIG_REPLY:
+        case BARRIER_REPLY:
+        case QUEUE_GET_CONFIG_REPLY:
+            return true;
+        case STATS_REPLY:
+            return (((OFStatisticsReply) msg).getFlags() & OFStatisticsReply.OFStatisticsReplyFlags.REPLY_MORE
+                    .getTypeValue()) == 0;
+        default:
+            return false;
+        }
+    }
+
     /**
      * undoes the Xid translation and tries to send the resulting message to 
      * the origin OVXSwitch.
@@ -29,16 +29,19 @@
 
 package net.onrc.openvirtex.messages;
 
+import java.util.Arrays;
+
 import net.onrc.openvirtex.elements.Mappable;
+import net.onrc.openvirtex.elements.address.IPTranslator;
 import net.onrc.openvirtex.elements.address.OVXIPAddress;
 import net.onrc.openvirtex.elements.address.PhysicalIPAddress;
+import net.onrc.openvirtex.elements.datapath.FlowSetupTable;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
 import net.onrc.openvirtex.elements.network.OVXNetwork;
 import net.onrc.openvirtex.elements.port.PhysicalPort;
-import net.onrc.openvirtex.packet.ARP;
 import net.onrc.openvirtex.packet.Ethernet;
-import net.onrc.openvirtex.packet.IPv4;
+import net.onrc.openvirtex.packet.PacketRewriter;
 import net.onrc.openvirtex.util.MACAddress;
 
 import org.apache.logging.log4j.LogManager;
@@ -46,10 +49,11 @@ import org.apache.logging.log4j.Logger;
 import org.openflow.protocol.OFMatch;
 import org.openflow.protocol.OFPacketIn;
 import org.openflow.protocol.Wildcards.Flag;
+import org.openflow.util.U16;
 
 public class OVXPacketIn extends OFPacketIn implements Virtualizable {
 
-    private final Logger log      = LogManager.getLogger(OVXPacketIn.class
+    private static final Logger log = LogManager.getLogger(OVXPacketIn.class
 	                                  .getName());
     private PhysicalPort port     = null;
     private Integer      tenantId = null;
@@ -66,7 +70,6 @@ public class OVXPacketIn extends OFPacketIn implements Virtualizable {
 	short inport = this.getInPort();
 	port = sw.getPort(inport);
 
-
 	Mappable map = sw.getMap();
 
 	final OFMatch match = new OFMatch();
@@ -83,7 +86,7 @@ public class OVXPacketIn extends OFPacketIn implements Virtualizable {
 	if (this.port.isEdge()) {
 	    this.tenantId = this.fetchTenantId(match, map, true);
 	    if (this.tenantId == null) {
-		this.log.warn(
+		log.warn(
 		        "PacketIn {} does not belong to any virtual network; "
 		                + "dropping and intalling a temporary drop rule",
 		        this);
@@ -95,7 +98,7 @@ public class OVXPacketIn extends OFPacketIn implements Virtualizable {
 	    }
 	    this.sendPkt(vSwitch, match, sw);
 	    this.learnAddresses(match, map);
-	    this.log.debug("Edge PacketIn {} sent to virtual network {}", this,
+	    log.debug("Edge PacketIn {} sent to virtual network {}", this,
 		    this.tenantId);
 	    return;
 	}
@@ -108,49 +111,43 @@ public class OVXPacketIn extends OFPacketIn implements Virtualizable {
 	    PhysicalIPAddress srcIP = new PhysicalIPAddress(match.getNetworkSource());
 	    PhysicalIPAddress dstIP = new PhysicalIPAddress(match.getNetworkDestination());
 
-	    Ethernet eth = new Ethernet();
-	    eth.deserialize(this.getPacketData(), 0, this.getPacketData().length);
-	    
-	    //remove vlanId when the packet comes from a virtual link
-	    eth.setVlanID((short)65535);
+	    /*
+	     * Rewrite the addresses in place, and remove the vlanId when the
+	     * packet comes from a virtual link.
+	     */
+	    final byte[] pkt = PacketRewriter.stripVlan(this.getPacketData());
 
 	    if (match.getDataLayerType() == Ethernet.TYPE_ARP) {
 		// ARP packet
-		final ARP arp = (ARP) eth.getPayload();
 		this.tenantId = this.fetchTenantId(match, map, true);
-		if (map.getVirtualIP(srcIP) != null) {
-		    arp.setSenderProtocolAddress(map.getVirtualIP(srcIP)
-			    .getIp());
-		}
-		if (map.getVirtualIP(dstIP) != null) {
-		    arp.setTargetProtocolAddress(map.getVirtualIP(dstIP)
-			    .getIp());
-		}
-	    } else
-		if (match.getDataLayerType() == Ethernet.TYPE_IPv4) {
-		    final IPv4 ip = (IPv4) eth.getPayload();
-		    this.tenantId = map.getVirtualIP(srcIP).getTenantId();
-		    ip.setDestinationAddress(map.getVirtualIP(dstIP).getIp());
-		    ip.setSourceAddress(map.getVirtualIP(srcIP).getIp());
-		} else {
-		    this.log.info("{} handling not yet implemented; dropping",
-			    match.getDataLayerType());
-		    this.installDropRule(sw, match);
-		    return;
-		}
-	    this.setPacketData(eth.serialize());
+		final OVXIPAddress vSrcIP = map.getVirtualIP(srcIP);
+		final OVXIPAddress vDstIP = map.getVirtualIP(dstIP);
+		PacketRewriter.setARPAddresses(pkt,
+			vSrcIP != null ? vSrcIP.getIp() : srcIP.getIp(),
+			vDstIP != null ? vDstIP.getIp() : dstIP.getIp());
+	    } else {
+		// IPv4 packet
+		final OVXIPAddress vSrcIP = map.getVirtualIP(srcIP);
+		this.tenantId = vSrcIP.getTenantId();
+		PacketRewriter.setIPv4Addresses(pkt, vSrcIP.getIp(),
+			map.getVirtualIP(dstIP).getIp());
+	    }
+	    // the frame is shorter by the vlan tag, if there was one
+	    this.setTotalLength(U16.t(U16.f(this.getTotalLength())
+		    - (this.getPacketData().length - pkt.length)));
+	    this.setPacketData(pkt);
 	    if (vSwitch == null)  {
 		vSwitch = map.getVirtualSwitch(sw, this.tenantId);
 	    }
 	    this.sendPkt(vSwitch, match, sw);
-	    this.log.debug("IPv4 PacketIn {} sent to virtual network {}", this,
+	    log.debug("IPv4 PacketIn {} sent to virtual network {}", this,
 		    this.tenantId);
 	    return;
 	}
 
 	this.tenantId = this.fetchTenantId(match, map, true);
 	if (this.tenantId == null) {
-	    this.log.warn(
+	    log.warn(
 		    "PacketIn {} does not belong to any virtual network; "
 		            + "dropping and intalling a temporary drop rule",
 		    this);
@@ -161,58 +158,113 @@ public class OVXPacketIn extends OFPacketIn implements Virtualizable {
 	    vSwitch = map.getVirtualSwitch(sw, this.tenantId);
 	}
 	this.sendPkt(vSwitch, match, sw);
-	this.log.debug("Layer2 PacketIn {} sent to virtual network {}", this,
+	log.debug("Layer2 PacketIn {} sent to virtual network {}", this,
 	        this.tenantId);
     }
 
     private void sendPkt(final OVXSwitch vSwitch, final OFMatch match,
 	    final PhysicalSwitch sw) {
 	if (vSwitch == null || !vSwitch.isActive()) {
-	    this.log.warn(
+	    log.warn(
 		    "Controller for virtual network {} has not yet connected "
 		            + "or is down", this.tenantId);
 	    this.installDropRule(sw, match);
 	    return;
 	}
+	final OVXNetwork vnet = sw.getMap().getVirtualNetwork(this.tenantId);
+	if (vnet != null && !vnet.getPacketInBucket().admit()) {
+	    this.suppress(sw, vnet.getPacketInBucket());
+	    return;
+	}
+	if (!vSwitch.getPacketInBucket().admit()) {
+	    this.suppress(sw, vSwitch.getPacketInBucket());
+	    return;
+	}
 	this.setBufferId(vSwitch.addToBufferMap(this));
+	/*
+	 * The buffer map keeps what it needs of the packet, the controller only
+	 * gets as much as it asked for. totalLength stays that of the frame.
+	 */
+	final int missSendLen = U16.f(vSwitch.getMissSendLen());
+	if (this.packetData.length > missSendLen)
+	    this.setPacketData(Arrays.copyOf(this.packetData, missSendLen));
 	int vLinkId = 0;
 	if (match.getDataLayerVirtualLan() != -1)
 	    vLinkId = match.getDataLayerVirtualLan();
 	if (this.port != null && this.port.getOVXPort(this.tenantId, vLinkId) != null) {
 	    this.setInPort(this.port.getOVXPort(this.tenantId, vLinkId).getPortNumber());
-	    vSwitch.sendMsg(this, sw);
+	    // only the first packet in of a flow goes to the controller
+	    final FlowSetupTable setups = vSwitch.getFlowSetups();
+	    for (final OVXPacketIn pktIn : setups.hold(match, this))
+		vSwitch.sendMsg(pktIn, sw);
+	    if (setups.isPending(this.getBufferId()))
+		setups.expireLater(this.getBufferId(), vSwitch, sw);
 	}
     }
 
     private void learnAddresses(final OFMatch match, final Mappable map) {
 	if (match.getDataLayerType() == 0x800
 	        || match.getDataLayerType() == 0x806) {
-	    final OVXNetwork vnet = map.getVirtualNetwork(this.tenantId);
-
-	    OVXIPAddress vip = new OVXIPAddress(this.tenantId,
-		    match.getNetworkSource());
-	    if (!match.getWildcardObj().isWildcarded(Flag.NW_SRC)
-		    && map.getPhysicalIP(vip, this.tenantId) == null) {
-		final PhysicalIPAddress pip = new PhysicalIPAddress(
-		        vnet.nextIP());
-		map.addIP(pip, vip);
-	    }
-	    vip = new OVXIPAddress(this.tenantId, match.getNetworkDestination());
-	    if (!match.getWildcardObj().isWildcarded(Flag.NW_DST)
-		    && map.getPhysicalIP(vip, this.tenantId) == null) {
-		final PhysicalIPAddress pip = new PhysicalIPAddress(
-		        vnet.nextIP());
-		map.addIP(pip, vip);
-	    }
+	    final IPTranslator ips = map.getVirtualNetwork(this.tenantId)
+		    .getIPTranslator();
+	    if (!match.getWildcardObj().isWildcarded(Flag.NW_SRC))
+		ips.translate(match.getNetworkSource());
+	    if (!match.getWildcardObj().isWildcarded(Flag.NW_DST))
+		ips.translate(match.getNetworkDestination());
 	}
     }
 
+    /**
+     * Installs a temporary rule dropping the flow of this packet in, unless
+     * one has already been sent to the switch.
+     */
     private void installDropRule(final PhysicalSwitch sw, final OFMatch match) {
+	final short timeout = sw.getDropRuleCache().add(match);
+	if (timeout == 0)
+	    return;
 	final OVXFlowMod fm = new OVXFlowMod();
 	fm.setMatch(match);
 	fm.setBufferId(this.getBufferId());
-	fm.setHardTimeout((short) 1);
+	fm.setHardTimeout(timeout);
+	sw.sendMsg(fm, sw);
+    }
+
+    /**
+     * Called when bucket refused this packet in. Installs a low priority
+     * rule dropping the traffic of the sending host on this port for a
+     * while, so the switch stops sending it to us; rules installed by
+     * tenants still take precedence.
+     */
+    private void suppress(final PhysicalSwitch sw, final PacketInBucket bucket) {
+	OVXPacketIn.suppress(sw, bucket, this.getInPort(), this.getBufferId(),
+	        this.getPacketData());
+    }
+
+    /**
+     * Drops the packet in that bucket refused, and for a while the packets
+     * from the same source on the same port, if bucket asks for it.
+     * 
+     * @param frame
+     *            the frame of the packet in, or at least its first 12 bytes
+     */
+    public static void suppress(final PhysicalSwitch sw,
+	    final PacketInBucket bucket, final short inPort, final int bufferId,
+	    final byte[] frame) {
+	if (frame.length < 12 || !bucket.suppress())
+	    return;
+	final OFMatch match = new OFMatch();
+	match.setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_IN_PORT
+	        & ~OFMatch.OFPFW_DL_SRC);
+	match.setInputPort(inPort);
+	match.setDataLayerSource(Arrays.copyOfRange(frame, 6, 12));
+	final OVXFlowMod fm = new OVXFlowMod();
+	fm.setMatch(match);
+	fm.setBufferId(bufferId);
+	fm.setPriority((short) 0);
+	fm.setHardTimeout(PacketInBucket.getSuppressTimeout());
 	sw.sendMsg(fm, sw);
+	log.debug("Suppressing packet ins from {} on port {} of {}",
+	        MACAddress.valueOf(match.getDataLayerSource()), inPort, sw);
     }
 
     private Integer fetchTenantId(final OFMatch match, final Mappable map,
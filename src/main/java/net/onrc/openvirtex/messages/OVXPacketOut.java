@@ -22,20 +22,19 @@
 
 package net.onrc.openvirtex.messages;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
-import net.onrc.openvirtex.elements.Mappable;
-import net.onrc.openvirtex.elements.address.OVXIPAddress;
-import net.onrc.openvirtex.elements.address.PhysicalIPAddress;
+import net.onrc.openvirtex.elements.address.IPTranslator;
+import net.onrc.openvirtex.elements.datapath.BufferMap;
+import net.onrc.openvirtex.elements.datapath.InstallBatch;
 import net.onrc.openvirtex.elements.datapath.OVXBigSwitch;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 import net.onrc.openvirtex.elements.port.OVXPort;
 import net.onrc.openvirtex.exceptions.ActionVirtualizationDenied;
 import net.onrc.openvirtex.exceptions.DroppedMessageException;
-import net.onrc.openvirtex.messages.actions.OVXActionNetworkLayerDestination;
-import net.onrc.openvirtex.messages.actions.OVXActionNetworkLayerSource;
 import net.onrc.openvirtex.messages.actions.VirtualizableAction;
 
 import org.apache.logging.log4j.LogManager;
@@ -51,15 +50,20 @@ import org.openflow.protocol.action.OFActionOutput;
 
 public class OVXPacketOut extends OFPacketOut implements Devirtualizable {
 
-    private Logger log = LogManager.getLogger(OVXPacketOut.class.getName());
+    private static final Logger log = LogManager.getLogger(OVXPacketOut.class.getName());
     private OFMatch match = null;
     private List<OFAction> approvedActions = new LinkedList<OFAction>();
     
     @Override
-    public void devirtualize(OVXSwitch sw) {
+    public void devirtualize(final OVXSwitch sw) {
 
 	
-	OVXPort inport = sw.getPort(this.getInPort());
+	final OVXPort inport = sw.getPort(this.getInPort());
+	
+	// packet ins of the same flow may be waiting for this answer
+	final int virtualBufferId = this.getBufferId();
+	final List<OFAction> heldActions = sw.getFlowSetups().isPending(virtualBufferId)
+		? copyActions(this.getActions()) : null;
 	
 	
 	
@@ -71,88 +75,127 @@ public class OVXPacketOut extends OFPacketOut implements Devirtualizable {
 	    }
 	    match = new OFMatch().loadFromPacket(this.packetData, this.inPort);
 	} else {
-	    OVXPacketIn cause = sw.getFromBufferMap(this.bufferId);
-	    if (cause == null) {
+	    BufferMap buffers = sw.getBufferMap();
+	    int physicalId;
+	    byte[] data;
+	    try {
+		physicalId = buffers.getPhysicalBufferId(this.bufferId);
+		data = buffers.getPacketData(this.bufferId);
+	    } catch (IllegalArgumentException e) {
 		log.error("Unknown buffer id {} for virtual switch {}; dropping", this.bufferId, sw);
 		return;
 	    }
+	    // a buffered packet is sent at most once
+	    buffers.remove(this.bufferId);
 	
-	    match = new OFMatch().loadFromPacket(cause.getPacketData(), this.inPort);
-	    this.setBufferId(cause.getBufferId());
-	    if (cause.getBufferId() == OVXPacketOut.BUFFER_ID_NONE) {
-		this.setPacketData(cause.getPacketData());
+	    match = new OFMatch().loadFromPacket(data, this.inPort);
+	    this.setBufferId(physicalId);
+	    if (physicalId == OVXPacketOut.BUFFER_ID_NONE) {
+		this.setPacketData(data);
 		this.setLengthU(this.getLengthU() + this.packetData.length);
 	    }
 	}
 	
-	for (OFAction act : this.getActions()) {
-	    try {
-		((VirtualizableAction) act).virtualize(sw, approvedActions, match);
+	// the downstream rules of the actions are held until the batch is released
+	final InstallBatch batch = InstallBatch.begin();
+	try {
+	    for (OFAction act : this.getActions()) {
+		try {
+		    ((VirtualizableAction) act).virtualize(sw, approvedActions, match);
 		
-	    } catch (ActionVirtualizationDenied e) {
-		log.warn("Action {} could not be virtualized; error: {}", act, e.getMessage());
-		sw.sendMsg(OVXMessageUtil.makeError(e.getErrorCode(), this), sw);
-		return;
-	    } catch (DroppedMessageException e) {
-		log.debug("Dropping flowmod {}", this);
-		return;
+		} catch (ActionVirtualizationDenied e) {
+		    log.warn("Action {} could not be virtualized; error: {}", act, e.getMessage());
+		    sw.sendMsg(OVXMessageUtil.makeError(e.getErrorCode(), this), sw);
+		    return;
+		} catch (DroppedMessageException e) {
+		    log.debug("Dropping flowmod {}", this);
+		    return;
+		}
 	    }
-	}
 	
-	this.setInPort(inport.getPhysicalPortNumber());
-	this.prependRewriteActions(sw);
-	this.setActions(approvedActions);
-	this.setActionsLength((short)0);
-	this.setLengthU(OVXPacketOut.MINIMUM_LENGTH + this.packetData.length);
-	for (final OFAction act : this.approvedActions) {
-	    this.setLengthU(this.getLengthU() + act.getLengthU());
-	    this.setActionsLength((short) (this.getActionsLength() + act.getLength()));
+	    this.setInPort(inport.getDescriptor().getPhysicalPortNumber());
+	    this.prependRewriteActions(sw);
+	    this.setActions(approvedActions);
+	    this.setActionsLength((short)0);
+	    this.setLengthU(OVXPacketOut.MINIMUM_LENGTH + this.packetData.length);
+	    for (final OFAction act : this.approvedActions) {
+		this.setLengthU(this.getLengthU() + act.getLengthU());
+		this.setActionsLength((short) (this.getActionsLength() + act.getLength()));
+	    }
+
+	    OVXMessageUtil.translateXid(this, inport);
+	    final OVXPacketOut po = this;
+	    batch.release(new Runnable() {
+		@Override
+		public void run() {
+		    if (sw instanceof OVXBigSwitch)
+			((OVXBigSwitch) sw).sendSouthBS(po, inport);
+		    else
+			sw.sendSouth(po);
+		    if (heldActions != null)
+			releaseHeld(sw, virtualBufferId, heldActions);
+		}
+	    });
+	} finally {
+	    batch.close();
 	}
+    }
+    
+    /**
+     * Sends out the packet ins held behind the one with virtual buffer id
+     * bufferId, through the actions the controller chose for that one.
+     * 
+     * @param actions
+     *            copies of the virtual actions of the answer, taken before
+     *            it was devirtualized
+     */
+    static void releaseHeld(final OVXSwitch sw, final int bufferId,
+	    final List<OFAction> actions) {
+	sendHeld(sw, sw.getFlowSetups().release(bufferId), actions);
+    }
 
-	OVXMessageUtil.translateXid(this, inport);
-	if (sw instanceof OVXBigSwitch)
-	    ((OVXBigSwitch) sw).sendSouthBS(this, inport);
-	else
-	    sw.sendSouth(this);
+    /**
+     * Sends out held packet ins through actions, copies of the virtual
+     * actions of the answer that released them.
+     */
+    static void sendHeld(final OVXSwitch sw, final List<OVXPacketIn> held,
+	    final List<OFAction> actions) {
+	for (final OVXPacketIn pktIn : held) {
+	    final OVXPacketOut out = new OVXPacketOut();
+	    out.setBufferId(pktIn.getBufferId());
+	    out.setInPort(pktIn.getInPort());
+	    out.setPacketData(new byte[0]);
+	    out.setActions(copyActions(actions));
+	    out.devirtualize(sw);
+	}
+    }
+    
+    /*
+     * Devirtualizing actions modifies them, so each message sent gets its own.
+     */
+    static List<OFAction> copyActions(final List<OFAction> actions) {
+	final List<OFAction> copies = new ArrayList<OFAction>(actions.size());
+	try {
+	    for (final OFAction act : actions)
+		copies.add(act.clone());
+	} catch (CloneNotSupportedException e) {
+	    throw new AssertionError(e);
+	}
+	return copies;
     }
     
     
     private void prependRewriteActions(OVXSwitch sw) {
-   	Mappable map = sw.getMap();
-   	
-   	if (!match.getWildcardObj().isWildcarded(Flag.NW_SRC)) {
-   	    OVXIPAddress vip = new OVXIPAddress(sw.getTenantId(), 
-   		    match.getNetworkSource());
-   	    PhysicalIPAddress pip = map.getPhysicalIP(vip, sw.getTenantId());
-   	    if (pip == null) {
-   		pip = new PhysicalIPAddress(map.getVirtualNetwork(sw.getTenantId()).nextIP());
-   		log.debug("Adding IP mapping {} -> {} for tenant {} at switch {}", vip, pip, 
-   			sw.getTenantId(), sw.getName());
-   		map.addIP(pip, vip);
-   	    }
-   	    OVXActionNetworkLayerSource srcAct = new OVXActionNetworkLayerSource();
-   	    srcAct.setNetworkAddress(pip.getIp());
-   	    approvedActions.add(0,srcAct);
-   	    
-   	    
-   	}
+	IPTranslator ips = sw.getMap().getVirtualNetwork(sw.getTenantId())
+		.getIPTranslator();
 
-   	if (!match.getWildcardObj().isWildcarded(Flag.NW_DST)) {
-   	    OVXIPAddress vip = new OVXIPAddress(sw.getTenantId(), 
-   		    match.getNetworkDestination());
-   	    PhysicalIPAddress pip = map.getPhysicalIP(vip, sw.getTenantId());
-   	    if (pip == null) {
-   		pip = new PhysicalIPAddress(map.getVirtualNetwork(sw.getTenantId()).nextIP());
-   		log.debug("Adding IP mapping {} -> {} for tenant {} at switch {}", vip, pip, 
-   			sw.getTenantId(), sw.getName());
-   		map.addIP(pip, vip);
-   	    }
-   	    OVXActionNetworkLayerDestination dstAct = new OVXActionNetworkLayerDestination();
-   	    dstAct.setNetworkAddress(pip.getIp());
-   	 approvedActions.add(0, dstAct);
-   	    	
-   	   
-   	}
-       }
+	if (!match.getWildcardObj().isWildcarded(Flag.NW_SRC))
+	    approvedActions.add(0, ips.translate(match.getNetworkSource())
+		    .getRewriteSrcAction());
+
+	if (!match.getWildcardObj().isWildcarded(Flag.NW_DST))
+	    approvedActions.add(0, ips.translate(match.getNetworkDestination())
+		    .getRewriteDstAction());
+    }
     
 }
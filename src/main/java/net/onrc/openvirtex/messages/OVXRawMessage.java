@@ -0,0 +1,110 @@
+/**
+ *  Copyright (c) 2013 Open Networking Laboratory
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE. 
+ * 
+ */
+
+
+package net.onrc.openvirtex.messages;
+
+import net.onrc.openvirtex.elements.datapath.OVXBigSwitch;
+import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFType;
+
+/**
+ * A message that is relayed as the raw frame it was received in. Only the
+ * header is decoded; changing the type or the XID patches the frame in
+ * place, and writing the message copies the frame out unchanged. Used for
+ * the messages OVX never needs to look into (see
+ * {@link OVXMessageFactory#isRaw(byte)}).
+ *
+ * The frame is a slice of the buffer the message was received in, which the
+ * decoder never writes over (see OVXMessageDecoder), so relaying a message
+ * takes no copy until it is encoded.
+ */
+public class OVXRawMessage extends OFMessage implements Virtualizable,
+		Devirtualizable {
+
+	private static final Logger log = LogManager.getLogger(OVXRawMessage.class
+			.getName());
+
+	private ChannelBuffer frame;
+
+	@Override
+	public void readFrom(ChannelBuffer data) {
+		int start = data.readerIndex();
+		super.readFrom(data);
+		data.readerIndex(start);
+		this.frame = data.readSlice(this.getLengthU());
+	}
+
+	@Override
+	public void writeTo(ChannelBuffer data) {
+		data.writeBytes(this.frame, this.frame.readerIndex(),
+				this.frame.readableBytes());
+	}
+
+	@Override
+	public void setType(OFType type) {
+		super.setType(type);
+		this.frame.setByte(1, type.getTypeValue());
+	}
+
+	@Override
+	public void setXid(int xid) {
+		super.setXid(xid);
+		this.frame.setInt(4, xid);
+	}
+
+	/**
+	 * Barrier replies to the barriers OVX sent itself run their callback
+	 * (see {@link PhysicalSwitch#sendBarrier(int, Runnable)}); the others are
+	 * returned to the virtual switch that sent the request.
+	 */
+	@Override
+	public void virtualize(PhysicalSwitch sw) {
+		if (this.type != OFType.BARRIER_REPLY)
+			log.error("Received illegal message : {}", this);
+		else if (!sw.barrierReplied(this.getXid()))
+			OVXMessageUtil.untranslateXidAndSend(this, sw);
+	}
+
+	/**
+	 * Barrier requests are relayed to the physical switch. A big switch
+	 * spans several physical switches, so it answers on their behalf.
+	 */
+	@Override
+	public void devirtualize(OVXSwitch sw) {
+		if (this.type != OFType.BARRIER_REQUEST) {
+			log.error("Received illegal message : {}", this);
+		} else if (sw instanceof OVXBigSwitch) {
+			this.setType(OFType.BARRIER_REPLY);
+			sw.sendMsg(this, sw);
+		} else {
+			OVXMessageUtil.translateXidAndSend(this, sw);
+		}
+	}
+
+}
@@ -22,7 +22,10 @@
 
 package net.onrc.openvirtex.messages;
 
+import java.util.List;
+
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -30,7 +33,7 @@ import org.openflow.protocol.OFSetConfig;
 
 public class OVXSetConfig extends OFSetConfig implements Devirtualizable {
 
-    private Logger log = LogManager.getLogger(OVXSetConfig.class.getName());
+    private static final Logger log = LogManager.getLogger(OVXSetConfig.class.getName());
     @Override
     public void devirtualize(OVXSwitch sw) {
 	
@@ -39,7 +42,16 @@ public class OVXSetConfig extends OFSetConfig implements Devirtualizable {
 		this.missSendLength, sw.getSwitchId());
 	
 	OVXMessageUtil.translateXid(this, sw);
-	//don't send since we always want full pkt?
+	/*
+	 * Not sent as is: the physical switches get the largest miss send
+	 * length of the virtual switches they are part of, and packet ins are
+	 * truncated to the length of each virtual switch as they are sent up.
+	 */
+	final List<PhysicalSwitch> psws = sw.getMap().getPhysicalSwitches(sw);
+	if (psws != null) {
+	    for (final PhysicalSwitch psw : psws)
+		psw.updateMissSendLen();
+	}
     }
 
 }
@@ -23,20 +23,30 @@
 package net.onrc.openvirtex.messages;
 
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.messages.statistics.OVXFlowStatisticsReply;
 import net.onrc.openvirtex.messages.statistics.VirtualizableStatistic;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.openflow.protocol.OFStatisticsReply;
 import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
 
 public class OVXStatisticsReply extends OFStatisticsReply implements
 Virtualizable {
 
-    private Logger log = LogManager.getLogger(OVXStatisticsReply.class.getName());
+    private static final Logger log = LogManager.getLogger(OVXStatisticsReply.class.getName());
 
     @Override
     public void virtualize(PhysicalSwitch sw) {
+	// the counters OVX polls for itself never reach a tenant
+	if (sw.portStatsReplied(this))
+	    return;
+	// flow stats replies hold any number of entries, including none
+	if (this.statisticType == OFStatisticsType.FLOW) {
+	    new OVXFlowStatisticsReply().virtualizeStatistic(sw, this);
+	    return;
+	}
 	try {
 	    OFStatistics stat = this.getFirstStatistics();
 	    ((VirtualizableStatistic)stat).virtualizeStatistic(sw, this);
@@ -36,7 +36,7 @@ import org.openflow.protocol.statistics.OFStatistics;
 public class OVXStatisticsRequest extends OFStatisticsRequest implements
 Devirtualizable {
 
-    private Logger log = LogManager.getLogger(OVXStatisticsRequest.class.getName());
+    private static final Logger log = LogManager.getLogger(OVXStatisticsRequest.class.getName());
 
     @Override
     public void devirtualize(OVXSwitch sw) {
@@ -0,0 +1,161 @@
+/**
+ *  Copyright (c) 2013 Open Networking Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package net.onrc.openvirtex.messages;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket limiting the packet-ins let through at one level: a physical
+ * port, a tenant, or the controller of a virtual switch. Packet-ins refused
+ * by a bucket are dropped and counted, both in the bucket and in the total
+ * of its level.
+ *
+ * The bucket is kept as the time at which it will be full again, so taking
+ * a token is a single compare-and-set. A rate of 0 disables the bucket.
+ * Rates are configured once at startup with {@link #configure}; buckets
+ * created afterwards hold one second's worth of tokens.
+ */
+public class PacketInBucket {
+
+    public enum Level {
+	PORT, TENANT, CONTROLLER
+    }
+
+    private static final long NANOS = 1000L * 1000 * 1000;
+
+    private static volatile long portRate = 0;
+    private static volatile long tenantRate = 0;
+    private static volatile long controllerRate = 0;
+    private static volatile short suppressTimeout = 0;
+
+    private static final AtomicLong[] drops = { new AtomicLong(0),
+	    new AtomicLong(0), new AtomicLong(0) };
+
+    private final Level level;
+    /* nanoseconds per token and for a full bucket, 0 when unlimited */
+    private final long interval;
+    private final long capacity;
+    private final AtomicLong full;
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final AtomicLong suppressed;
+
+    PacketInBucket(final Level level, final long rate, final long burst) {
+	this.level = level;
+	this.interval = rate > 0 ? Math.max(NANOS / rate, 1) : 0;
+	this.capacity = this.interval * Math.max(burst, 1);
+	long now = System.nanoTime();
+	this.full = new AtomicLong(now);
+	this.suppressed = new AtomicLong(now);
+    }
+
+    /**
+     * Sets the packet-in rates, in packets per second, of the buckets
+     * created from now on, and the hard timeout in seconds of the rules
+     * installed to suppress refused traffic. 0 disables a limit or the
+     * suppression rules.
+     */
+    public static void configure(final long portRate, final long tenantRate,
+	    final long controllerRate, final short suppressTimeout) {
+	PacketInBucket.portRate = portRate;
+	PacketInBucket.tenantRate = tenantRate;
+	PacketInBucket.controllerRate = controllerRate;
+	PacketInBucket.suppressTimeout = suppressTimeout;
+    }
+
+    public static PacketInBucket forPort() {
+	return new PacketInBucket(Level.PORT, portRate, portRate);
+    }
+
+    public static PacketInBucket forTenant() {
+	return new PacketInBucket(Level.TENANT, tenantRate, tenantRate);
+    }
+
+    public static PacketInBucket forController() {
+	return new PacketInBucket(Level.CONTROLLER, controllerRate,
+		controllerRate);
+    }
+
+    /**
+     * @return the hard timeout of suppression rules, 0 if none are installed
+     */
+    public static short getSuppressTimeout() {
+	return suppressTimeout;
+    }
+
+    /**
+     * @return the number of packet-ins dropped by all buckets of level
+     */
+    public static long getDropped(final Level level) {
+	return drops[level.ordinal()].get();
+    }
+
+    /**
+     * Takes a token, or counts a drop if there is none left.
+     * 
+     * @return true if the packet-in may go on
+     */
+    public boolean admit() {
+	return this.admit(System.nanoTime());
+    }
+
+    boolean admit(final long now) {
+	if (this.interval == 0)
+	    return true;
+	for (;;) {
+	    long f = this.full.get();
+	    long next = (f - now > 0 ? f : now) + this.interval;
+	    if (next - now > this.capacity) {
+		this.dropped.incrementAndGet();
+		drops[this.level.ordinal()].incrementAndGet();
+		return false;
+	    }
+	    if (this.full.compareAndSet(f, next))
+		return true;
+	}
+    }
+
+    /**
+     * Called after a refused packet-in. Suppression rules time out by
+     * themselves, so at most one is needed per timeout.
+     * 
+     * @return true if the caller should install a suppression rule
+     */
+    public boolean suppress() {
+	return this.suppress(System.nanoTime());
+    }
+
+    boolean suppress(final long now) {
+	short timeout = suppressTimeout;
+	if (timeout <= 0)
+	    return false;
+	long until = this.suppressed.get();
+	return now - until >= 0
+		&& this.suppressed.compareAndSet(until, now + timeout * NANOS);
+    }
+
+    public long getDropped() {
+	return this.dropped.get();
+    }
+
+}
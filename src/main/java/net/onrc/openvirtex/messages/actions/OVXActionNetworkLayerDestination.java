@@ -24,14 +24,9 @@ package net.onrc.openvirtex.messages.actions;
 
 import java.util.List;
 
-import net.onrc.openvirtex.elements.Mappable;
-import net.onrc.openvirtex.elements.address.OVXIPAddress;
-import net.onrc.openvirtex.elements.address.PhysicalIPAddress;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 import net.onrc.openvirtex.exceptions.ActionVirtualizationDenied;
 
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
 import org.openflow.protocol.OFMatch;
 import org.openflow.protocol.action.OFAction;
 import org.openflow.protocol.action.OFActionNetworkLayerDestination;
@@ -39,25 +34,12 @@ import org.openflow.protocol.action.OFActionNetworkLayerDestination;
 public class OVXActionNetworkLayerDestination extends
 OFActionNetworkLayerDestination implements VirtualizableAction {
 
-
-    private Logger log = 
-	    LogManager.getLogger(OVXActionNetworkLayerDestination.class.getName());
-
     @Override
 
     public void virtualize(OVXSwitch sw, List<OFAction> approvedActions, OFMatch match) throws ActionVirtualizationDenied {
-	Mappable map = sw.getMap();
-	OVXIPAddress vip = new OVXIPAddress(sw.getTenantId(), 
-		this.networkAddress);
-	PhysicalIPAddress pip = map.getPhysicalIP(vip, sw.getTenantId());
-	if (pip == null) {
-	    pip = new PhysicalIPAddress(map.getVirtualNetwork(sw.getTenantId()).nextIP());
-	    log.debug("Adding IP mapping {} -> {} for tenant {} at switch {}", vip, pip, 
-		    sw.getTenantId(), sw.getName());
-	    map.addIP(pip, vip);
-	}
-	this.networkAddress = pip.getIp();
-	approvedActions.add(this);
+	approvedActions.add(sw.getMap().getVirtualNetwork(sw.getTenantId())
+		.getIPTranslator().translate(this.networkAddress)
+		.getRewriteDstAction());
     }
 
 }
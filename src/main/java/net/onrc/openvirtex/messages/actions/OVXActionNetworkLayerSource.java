@@ -24,14 +24,9 @@ package net.onrc.openvirtex.messages.actions;
 
 import java.util.List;
 
-import net.onrc.openvirtex.elements.Mappable;
-import net.onrc.openvirtex.elements.address.OVXIPAddress;
-import net.onrc.openvirtex.elements.address.PhysicalIPAddress;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 import net.onrc.openvirtex.exceptions.ActionVirtualizationDenied;
 
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
 import org.openflow.protocol.OFMatch;
 import org.openflow.protocol.action.OFAction;
 import org.openflow.protocol.action.OFActionNetworkLayerSource;
@@ -39,25 +34,14 @@ import org.openflow.protocol.action.OFActionNetworkLayerSource;
 public class OVXActionNetworkLayerSource extends OFActionNetworkLayerSource 
 			implements VirtualizableAction {
 
-    private Logger log = 
-	    LogManager.getLogger(OVXActionNetworkLayerSource.class.getName());
 
     
     @Override
 
     public void virtualize(OVXSwitch sw, List<OFAction> approvedActions, OFMatch match) throws ActionVirtualizationDenied {
-	Mappable map = sw.getMap();
-	OVXIPAddress vip = new OVXIPAddress(sw.getTenantId(), 
-		this.networkAddress);
-	PhysicalIPAddress pip = map.getPhysicalIP(vip, sw.getTenantId());
-	if (pip == null) {
-	    pip = new PhysicalIPAddress(map.getVirtualNetwork(sw.getTenantId()).nextIP());
-	    log.debug("Adding IP mapping {} -> {} for tenant {} at switch {}", vip, pip, 
-		    sw.getTenantId(), sw.getName());
-	    map.addIP(pip, vip);
-	}
-	this.networkAddress = pip.getIp();
-	approvedActions.add(this);
+	approvedActions.add(sw.getMap().getVirtualNetwork(sw.getTenantId())
+		.getIPTranslator().translate(this.networkAddress)
+		.getRewriteSrcAction());
     }
 
 }
@@ -29,11 +29,13 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
-import net.onrc.openvirtex.elements.address.OVXIPAddress;
+import net.onrc.openvirtex.elements.address.IPTranslator;
+import net.onrc.openvirtex.elements.datapath.InstallBatch;
 import net.onrc.openvirtex.elements.datapath.OVXBigSwitch;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
 import net.onrc.openvirtex.elements.port.OVXPort;
+import net.onrc.openvirtex.elements.port.OVXPortDescriptor;
 import net.onrc.openvirtex.elements.port.PhysicalPort;
 import net.onrc.openvirtex.exceptions.ActionVirtualizationDenied;
 import net.onrc.openvirtex.exceptions.DroppedMessageException;
@@ -54,7 +56,6 @@ import org.openflow.protocol.Wildcards;
 import org.openflow.protocol.Wildcards.Flag;
 import org.openflow.protocol.action.OFAction;
 import org.openflow.protocol.action.OFActionOutput;
-import org.openflow.protocol.action.OFActionStripVirtualLan;
 import org.openflow.protocol.action.OFActionVirtualLanIdentifier;
 import org.openflow.util.U16;
 
@@ -66,10 +67,13 @@ public class OVXActionOutput extends OFActionOutput implements VirtualizableActi
 
 		int outport = U16.f(this.getPort());
 
+		final OVXPort inPort = sw.getPort(match.getInputPort());
+		final OVXPortDescriptor in = inPort.getDescriptor();
+
 		//Set the vlanId field if the packet is coming from a link port
 
-		if (!sw.getPort(match.getInputPort()).isEdge() && match.getDataLayerType() != net.onrc.openvirtex.packet.Ethernet.TYPE_ARP)
-			match.setDataLayerVirtualLan(sw.getPort(match.getInputPort()).getLinkId().shortValue());
+		if (!in.isEdge() && match.getDataLayerType() != net.onrc.openvirtex.packet.Ethernet.TYPE_ARP)
+			match.setDataLayerVirtualLan(in.getLinkVlan());
 
 		boolean exceptionThrown = false;
 
@@ -83,13 +87,14 @@ public class OVXActionOutput extends OFActionOutput implements VirtualizableActi
 			Map<Short, OVXPort> ports = sw.getPorts();
 			for (OVXPort port : ports.values()) {
 				if (port.getPortNumber() != match.getInputPort()) {
-					if (port.isEdge()) {
+					final OVXPortDescriptor out = port.getDescriptor();
+					if (out.isEdge()) {
 						if (sw instanceof OVXBigSwitch) {
 							if (match.getDataLayerType() == Ethernet.TYPE_ARP) {
-								PhysicalPort phyPort = port.getPhysicalPort();
+								PhysicalPort phyPort = out.getPhysicalPort();
 								//phyPort.getParentSwitch().sendMsg(createARPPacketOut(match,(short) 2, phyPort.getPortNumber(), match.getNetworkProtocol()), null);
 								OVXBigSwitch bigSwitch = (OVXBigSwitch) port.getParentSwitch();
-								SwitchRoute route = bigSwitch.getRoute(sw.getPort(match.getInputPort()), port);
+								SwitchRoute route = bigSwitch.getRoute(inPort, port);
 								PhysicalPort srcPort = route.getRoute().get(route.getRoute().size()-1).getDstPort();
 								//maybe I can put CONTROLLER as input port for packetOut
 								phyPort.getParentSwitch().sendMsg(createARPPacketOut(match, srcPort.getPortNumber(), phyPort.getPortNumber(), 
@@ -99,7 +104,7 @@ public class OVXActionOutput extends OFActionOutput implements VirtualizableActi
 							}
 							else {
 								OVXBigSwitch bigSwitch = (OVXBigSwitch) port.getParentSwitch();
-								SwitchRoute route = bigSwitch.getRoute(sw.getPort(match.getInputPort()), port);
+								SwitchRoute route = bigSwitch.getRoute(inPort, port, match);
 								PhysicalPort srcPort = route.getRoute().get(0).getSrcPort();
 								approvedActions.add(new OFActionVirtualLanIdentifier((short) route.getRouteId()));
 								this.setPort(srcPort.getPortNumber());
@@ -110,22 +115,22 @@ public class OVXActionOutput extends OFActionOutput implements VirtualizableActi
 								sendFlowMod(match.clone(), dstPort.getParentSwitch(), dstPort, port, (short) route.getRouteId(), bigSwitch.getTenantId());
 							}
 						} else {
-							prependUnRewriteActions(approvedActions, match);
+							prependUnRewriteActions(sw, approvedActions, match);
 							//check if inPort is a vLink port. If yes, remove VLAN tag
-							if (!sw.getPort(match.getInputPort()).isEdge())
-								approvedActions.add(new OFActionStripVirtualLan());
-							approvedActions.add(new OFActionOutput(port.getPhysicalPortNumber()));
+							if (!in.isEdge())
+								approvedActions.add(in.getStripVlanAction());
+							approvedActions.add(new OFActionOutput(out.getPhysicalPortNumber()));
 						}
-					} else if (port.getLinkId() != 0) {
+					} else if (out.getLinkVlan() != 0) {
 						if (match.getDataLayerType() == Ethernet.TYPE_ARP) {	
-							OVXPort dstPort = sw.getMap().getVirtualNetwork(sw.getTenantId()).getNeighborPort(port);
+							OVXPort dstPort = out.getNeighbour();
 							dstPort.getParentSwitch().sendMsg(createARPPacket(match, dstPort.getPortNumber(), match.getNetworkProtocol()), null);
 							//throw new DroppedMessageException();
 						}
 						else {
 							if (sw instanceof OVXBigSwitch) {
 								OVXBigSwitch bigSwitch = (OVXBigSwitch) port.getParentSwitch();
-								SwitchRoute route = bigSwitch.getRoute(sw.getPort(match.getInputPort()), port);
+								SwitchRoute route = bigSwitch.getRoute(inPort, port, match);
 								PhysicalPort srcPort = route.getRoute().get(0).getSrcPort();
 								approvedActions.add(new OFActionVirtualLanIdentifier((short) route.getRouteId()));
 								this.setPort(srcPort.getPortNumber());
@@ -137,9 +142,9 @@ public class OVXActionOutput extends OFActionOutput implements VirtualizableActi
 							}
 							else {
 
-								approvedActions.add(new OFActionVirtualLanIdentifier(port.getLinkId().shortValue()));
-								if (sw.getPort(match.getInputPort()).getPhysicalPortNumber() != port.getPhysicalPortNumber())
-									approvedActions.add(new OFActionOutput(port.getPhysicalPortNumber()));
+								approvedActions.add(out.getSetVlanAction());
+								if (in.getPhysicalPortNumber() != out.getPhysicalPortNumber())
+									approvedActions.add(new OFActionOutput(out.getPhysicalPortNumber()));
 								else
 									approvedActions.add(new OFActionOutput(OFPort.OFPP_IN_PORT.getValue()));
 							}
@@ -157,13 +162,14 @@ public class OVXActionOutput extends OFActionOutput implements VirtualizableActi
 		} else if (outport < U16.f(OFPort.OFPP_MAX.getValue())) {
 			OVXPort ovxPort = sw.getPort(this.getPort());
 			if (ovxPort != null) {
-				if (ovxPort.isEdge()) {
+				final OVXPortDescriptor out = ovxPort.getDescriptor();
+				if (out.isEdge()) {
 					if (sw instanceof OVXBigSwitch) {
 						if (match.getDataLayerType() == Ethernet.TYPE_ARP) {
-							PhysicalPort phyPort = ovxPort.getPhysicalPort();
+							PhysicalPort phyPort = out.getPhysicalPort();
 							//phyPort.getParentSwitch().sendMsg(createARPPacketOut(match,(short) 2, phyPort.getPortNumber(), match.getNetworkProtocol()), sw);
 							OVXBigSwitch bigSwitch = (OVXBigSwitch) ovxPort.getParentSwitch();
-							SwitchRoute route = bigSwitch.getRoute(sw.getPort(match.getInputPort()), ovxPort);
+							SwitchRoute route = bigSwitch.getRoute(inPort, ovxPort);
 							PhysicalPort srcPort = route.getRoute().get(route.getRoute().size()-1).getDstPort();
 							//maybe I can put CONTROLLER as input port for packetOut
 							phyPort.getParentSwitch().sendMsg(createARPPacketOut(match, srcPort.getPortNumber(), phyPort.getPortNumber(), 
@@ -172,7 +178,7 @@ public class OVXActionOutput extends OFActionOutput implements VirtualizableActi
 						}
 						else {
 							OVXBigSwitch bigSwitch = (OVXBigSwitch) ovxPort.getParentSwitch();
-							SwitchRoute route = bigSwitch.getRoute(sw.getPort(match.getInputPort()), ovxPort);
+							SwitchRoute route = bigSwitch.getRoute(inPort, ovxPort, match);
 							PhysicalPort srcPort = route.getRoute().get(0).getSrcPort();
 							approvedActions.add(new OFActionVirtualLanIdentifier((short) route.getRouteId()));
 							this.setPort(srcPort.getPortNumber());
@@ -185,25 +191,25 @@ public class OVXActionOutput extends OFActionOutput implements VirtualizableActi
 						}
 					}
 					else {
-						prependUnRewriteActions(approvedActions, match);
+						prependUnRewriteActions(sw, approvedActions, match);
 						//check if inPort is a vLink port. If yes, remove VLAN tag
-						if (!sw.getPort(match.getInputPort()).isEdge())
-							approvedActions.add(new OFActionStripVirtualLan());
+						if (!in.isEdge())
+							approvedActions.add(in.getStripVlanAction());
 
-						this.setPort(ovxPort.getPhysicalPortNumber());
+						this.setPort(out.getPhysicalPortNumber());
 						approvedActions.add(this);
 					}
 				}
-				else if (ovxPort.getLinkId() != 0) {
+				else if (out.getLinkVlan() != 0) {
 					if (match.getDataLayerType() == Ethernet.TYPE_ARP) {
-						OVXPort dstPort = sw.getMap().getVirtualNetwork(sw.getTenantId()).getNeighborPort(ovxPort);
+						OVXPort dstPort = out.getNeighbour();
 						dstPort.getParentSwitch().sendMsg(createARPPacket(match, dstPort.getPortNumber(), match.getNetworkProtocol()), null);
 						//throw new DroppedMessageException();
 					}
 
 					if (sw instanceof OVXBigSwitch) {
 						OVXBigSwitch bigSwitch = (OVXBigSwitch) ovxPort.getParentSwitch();
-						SwitchRoute route = bigSwitch.getRoute(sw.getPort(match.getInputPort()), ovxPort);
+						SwitchRoute route = bigSwitch.getRoute(inPort, ovxPort, match);
 						PhysicalPort srcPort = route.getRoute().get(0).getSrcPort();
 						approvedActions.add(new OFActionVirtualLanIdentifier((short) route.getRouteId()));
 						this.setPort(srcPort.getPortNumber());
@@ -215,9 +221,9 @@ public class OVXActionOutput extends OFActionOutput implements VirtualizableActi
 
 					}
 					else {
-						approvedActions.add(new OFActionVirtualLanIdentifier(ovxPort.getLinkId().shortValue()));
-						if (sw.getPort(match.getInputPort()).getPhysicalPortNumber() != ovxPort.getPhysicalPortNumber()) {
-							this.setPort(ovxPort.getPhysicalPortNumber());
+						approvedActions.add(out.getSetVlanAction());
+						if (in.getPhysicalPortNumber() != out.getPhysicalPortNumber()) {
+							this.setPort(out.getPhysicalPortNumber());
 							approvedActions.add(this);
 						}
 						else {
@@ -238,17 +244,12 @@ public class OVXActionOutput extends OFActionOutput implements VirtualizableActi
 
 	}
 
-    private void prependUnRewriteActions(List<OFAction> approvedActions, final OFMatch match) {
-	if (!match.getWildcardObj().isWildcarded(Flag.NW_SRC)) {
-	    final OVXActionNetworkLayerSource srcAct = new OVXActionNetworkLayerSource();
-	    srcAct.setNetworkAddress(match.getNetworkSource());
-	    approvedActions.add(srcAct);
-	}
-	if (!match.getWildcardObj().isWildcarded(Flag.NW_DST)) {
-	    final OVXActionNetworkLayerDestination dstAct = new OVXActionNetworkLayerDestination();
-	    dstAct.setNetworkAddress(match.getNetworkDestination());
-	    approvedActions.add(dstAct);
-	}
+    private void prependUnRewriteActions(OVXSwitch sw, List<OFAction> approvedActions, final OFMatch match) {
+	final IPTranslator ips = sw.getMap().getVirtualNetwork(sw.getTenantId()).getIPTranslator();
+	if (!match.getWildcardObj().isWildcarded(Flag.NW_SRC))
+	    approvedActions.add(ips.translate(match.getNetworkSource()).getUnrewriteSrcAction());
+	if (!match.getWildcardObj().isWildcarded(Flag.NW_DST))
+	    approvedActions.add(ips.translate(match.getNetworkDestination()).getUnrewriteDstAction());
     }
     
     private OVXPacketIn createARPPacket(OFMatch match, short portNumber, short opCode) {
@@ -319,23 +320,27 @@ public class OVXActionOutput extends OFActionOutput implements VirtualizableActi
 	fm.setBufferId(OFPacketOut.BUFFER_ID_NONE);
 	fm.setOutPort(OFPort.OFPP_NONE.getValue());
 	LinkedList<OFAction> actionList = new LinkedList<OFAction>();
+	final OVXPortDescriptor out = outPort.getDescriptor();
+	
+	final IPTranslator ips = sw.getMap().getVirtualNetwork(tenantId).getIPTranslator();
+	final Wildcards matchWild = match.getWildcardObj();
+	final IPTranslator.Translation src = matchWild.isWildcarded(Flag.NW_SRC) ? null
+		: ips.translate(match.getNetworkSource());
+	final IPTranslator.Translation dst = matchWild.isWildcarded(Flag.NW_DST) ? null
+		: ips.translate(match.getNetworkDestination());
 	
-	if (outPort.isEdge()) {
-	    final OVXActionNetworkLayerSource srcAct = new OVXActionNetworkLayerSource();
-	    srcAct.setNetworkAddress(match.getNetworkSource());
-	    actionList.add(srcAct);
-	    final OVXActionNetworkLayerDestination dstAct = new OVXActionNetworkLayerDestination();
-	    dstAct.setNetworkAddress(match.getNetworkDestination());
-	    actionList.add(dstAct);
-	    OVXActionStripVirtualLan stripAction = new OVXActionStripVirtualLan();
-	    actionList.add(stripAction);
+	if (out.isEdge()) {
+	    if (src != null)
+		actionList.add(src.getUnrewriteSrcAction());
+	    if (dst != null)
+		actionList.add(dst.getUnrewriteDstAction());
+	    actionList.add(out.getStripVlanAction());
 	}
-	else {
-	    OFActionVirtualLanIdentifier vlanAction = new OFActionVirtualLanIdentifier(outPort.getLinkId().shortValue());
-	    actionList.add(vlanAction);
+	else if (out.getSetVlanAction() != null) {
+	    actionList.add(out.getSetVlanAction());
 	}
 	    
-	OFActionOutput outAction = new OFActionOutput(outPort.getPhysicalPortNumber());
+	OFActionOutput outAction = new OFActionOutput(out.getPhysicalPortNumber());
 	actionList.add(outAction);
 	fm.setActions(actionList);
 	Wildcards wild = match.getWildcardObj();
@@ -343,20 +348,17 @@ public class OVXActionOutput extends OFActionOutput implements VirtualizableActi
 	match.setWildcards(wild.getInt());
 	match.setInputPort(inPort.getPortNumber());
 	match.setDataLayerVirtualLan(linkId);
-	match.setNetworkSource(sw.getMap().getPhysicalIP(new OVXIPAddress(tenantId, match.getNetworkSource()), tenantId).getIp());
-	match.setNetworkDestination(sw.getMap().getPhysicalIP(new OVXIPAddress(tenantId, match.getNetworkDestination()), tenantId).getIp());
+	if (src != null)
+	    match.setNetworkSource(src.getPhysicalIP().getIp());
+	if (dst != null)
+	    match.setNetworkDestination(dst.getPhysicalIP().getIp());
 	fm.setMatch(match);
 	fm.setLengthU(OVXFlowMod.MINIMUM_LENGTH);
 	for (OFAction act : actionList) {
 	    fm.setLengthU(fm.getLengthU() + act.getLengthU());
 	}
-	sw.sendMsg(fm, sw);
-	try {
-	    Thread.sleep(5);
-        } catch (InterruptedException e) {
-	    // TODO Auto-generated catch block
-	    e.printStackTrace();
-        }
+	// confirmed before the ingress rule goes out, see InstallBatch
+	InstallBatch.sendDownstream(sw, fm);
     }
     
 }
\ No newline at end of file
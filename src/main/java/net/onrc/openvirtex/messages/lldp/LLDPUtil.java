@@ -16,7 +16,7 @@ import net.onrc.openvirtex.elements.port.Port;
  * 
  */
 public class LLDPUtil {
-    final private static int   LLDPLen          = 128;
+    final public static int    LLDPLen          = 128;
     final static byte          lldpSysD[]       = { 0x0c, 0x08 }; // Type 6,
 	                                                          // length 8
     final public static short  ETHER_LLDP       = (short) 0x88cc;
@@ -22,23 +22,66 @@
 
 package net.onrc.openvirtex.messages.statistics;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import net.onrc.openvirtex.elements.datapath.OVXFlowEntry;
+import net.onrc.openvirtex.elements.datapath.OVXFlowTable;
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
 import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
 import net.onrc.openvirtex.messages.OVXMessageUtil;
 import net.onrc.openvirtex.messages.OVXStatisticsReply;
 
+import org.openflow.protocol.OFStatisticsReply.OFStatisticsReplyFlags;
+import org.openflow.protocol.action.OFAction;
 import org.openflow.protocol.statistics.OFFlowStatisticsReply;
+import org.openflow.protocol.statistics.OFStatistics;
 
 public class OVXFlowStatisticsReply extends OFFlowStatisticsReply
 	implements VirtualizableStatistic {
 
+    /**
+     * Reports the rules of the physical switch that implement rules of the
+     * virtual switch asking, recognised by their cookie, as the tenant
+     * installed them. Only those selected by the request of the tenant are
+     * kept. Every physical switch answers the request, only the last of
+     * all their replies goes to the tenant without the more flag.
+     */
     @Override
     public void virtualizeStatistic(PhysicalSwitch sw, OVXStatisticsReply msg) {
-	// TODO Auto-generated method stub
 	OVXSwitch vsw = OVXMessageUtil.untranslateXid(msg, sw);
-	if (vsw == null) {
-	    
+	if (vsw == null)
+	    return;
+	OVXFlowTable table = vsw.getFlowTable();
+	List<OFStatistics> stats = new ArrayList<OFStatistics>();
+	int length = OVXStatisticsReply.MINIMUM_LENGTH;
+	for (OFStatistics stat : msg.getStatistics()) {
+	    OFFlowStatisticsReply reply = (OFFlowStatisticsReply) stat;
+	    OVXFlowEntry entry = table.getEntry(reply.getCookie());
+	    if (entry == null || !table.isSelected(msg.getXid(), entry))
+		continue;
+	    reply.setTableId((byte) 0);
+	    reply.setMatch(entry.getMatch().clone());
+	    reply.setCookie(entry.getCookie());
+	    reply.setPriority((short) entry.getPriority());
+	    reply.setIdleTimeout(entry.getIdleTimeout());
+	    reply.setHardTimeout(entry.getHardTimeout());
+	    reply.setActions(entry.getActions());
+	    int replyLength = OFFlowStatisticsReply.MINIMUM_LENGTH;
+	    for (OFAction act : entry.getActions())
+		replyLength += act.getLengthU();
+	    reply.setLength((short) replyLength);
+	    stats.add(reply);
+	    length += replyLength;
 	}
+	msg.setStatistics(stats);
+	msg.setLengthU(length);
+	final short more = OFStatisticsReplyFlags.REPLY_MORE.getTypeValue();
+	if (table.expectsMore(msg.getXid(), (msg.getFlags() & more) != 0))
+	    msg.setFlags((short) (msg.getFlags() | more));
+	else
+	    msg.setFlags((short) (msg.getFlags() & ~more));
+	vsw.sendMsg(msg, sw);
     }
 
 }
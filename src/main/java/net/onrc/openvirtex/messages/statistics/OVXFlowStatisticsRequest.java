@@ -22,27 +22,42 @@
 
 package net.onrc.openvirtex.messages.statistics;
 
+import java.util.Collections;
+import java.util.List;
+
 import net.onrc.openvirtex.elements.datapath.OVXSwitch;
-import net.onrc.openvirtex.elements.port.OVXPort;
-import net.onrc.openvirtex.messages.OVXMessageUtil;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
 import net.onrc.openvirtex.messages.OVXStatisticsRequest;
 
-import org.openflow.protocol.OFError.OFBadRequestCode;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFPort;
 import org.openflow.protocol.statistics.OFFlowStatisticsRequest;
+import org.openflow.protocol.statistics.OFStatisticsType;
 
 public class OVXFlowStatisticsRequest extends OFFlowStatisticsRequest
 	implements DevirtualizableStatistic {
 
+    /**
+     * The match of the tenant is virtual, so every rule of the physical
+     * switches is asked for and the replies are filtered on the way back,
+     * see {@link OVXFlowStatisticsReply}.
+     */
     @Override
     public void devirtualizeStatistic(OVXSwitch sw, OVXStatisticsRequest msg) {
-	// TODO Auto-generated method stub
-	OVXPort p = sw.getPort(this.getMatch().getInputPort());
-	if (p == null) {
-	    sw.sendMsg(OVXMessageUtil.makeErrorMsg(
-		    OFBadRequestCode.OFPBRC_EPERM, msg), sw);
-	    return;
+	List<PhysicalSwitch> switches = sw.getMap().getPhysicalSwitches(sw);
+	sw.getFlowTable().addStatsRequest(msg, switches.size());
+	for (PhysicalSwitch psw : switches) {
+	    OVXFlowStatisticsRequest all = new OVXFlowStatisticsRequest();
+	    all.setMatch(new OFMatch());
+	    all.setTableId((byte) 0xff);
+	    all.setOutPort(OFPort.OFPP_NONE.getValue());
+	    OVXStatisticsRequest req = new OVXStatisticsRequest();
+	    req.setStatisticType(OFStatisticsType.FLOW);
+	    req.setStatistics(Collections.singletonList(all));
+	    req.setLengthU(OVXStatisticsRequest.MINIMUM_LENGTH + all.getLength());
+	    req.setXid(psw.translate(msg, sw));
+	    psw.sendMsg(req, sw);
 	}
-	OVXMessageUtil.translateXid(msg, p);
     }
 
 }
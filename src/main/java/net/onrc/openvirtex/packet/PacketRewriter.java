@@ -0,0 +1,134 @@
+/**
+ *  Copyright (c) 2013 Open Networking Laboratory
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS
+ * FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR
+ * COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+
+
+package net.onrc.openvirtex.packet;
+
+/**
+ * Rewrites headers of Ethernet frames in place, without parsing them into
+ * packet objects. Offsets are those of the untagged frame: call
+ * {@link #stripVlan(byte[])} first when the frame may carry a VLAN tag.
+ *
+ * Frames too short to hold the header being rewritten are left untouched.
+ */
+public final class PacketRewriter {
+
+	public static final int ETH_HEADER_LENGTH = 14;
+	private static final int VLAN_TAG_LENGTH = 4;
+	private static final int ETHERTYPE_OFFSET = 12;
+
+	/* from the start of the IPv4 header */
+	private static final int IPV4_MIN_HEADER = 20;
+	private static final int IPV4_CHECKSUM = 10;
+	private static final int IPV4_SRC = 12;
+	private static final int IPV4_DST = 16;
+
+	/* from the start of the ARP header, for Ethernet/IPv4 ARP only */
+	private static final int ARP_LENGTH = 28;
+	private static final int ARP_SPA = 14;
+	private static final int ARP_TPA = 24;
+
+	private PacketRewriter() {
+	}
+
+	/**
+	 * @return pkt without its 802.1Q tag, or pkt itself if it is untagged
+	 */
+	public static byte[] stripVlan(final byte[] pkt) {
+		if (pkt.length < ETH_HEADER_LENGTH + VLAN_TAG_LENGTH
+				|| getShort(pkt, ETHERTYPE_OFFSET) != (short) 0x8100) {
+			return pkt;
+		}
+		final byte[] untagged = new byte[pkt.length - VLAN_TAG_LENGTH];
+		System.arraycopy(pkt, 0, untagged, 0, ETHERTYPE_OFFSET);
+		System.arraycopy(pkt, ETHERTYPE_OFFSET + VLAN_TAG_LENGTH, untagged,
+				ETHERTYPE_OFFSET, untagged.length - ETHERTYPE_OFFSET);
+		return untagged;
+	}
+
+	/**
+	 * Sets the source and destination addresses of the IPv4 header of an
+	 * untagged frame, and updates its header checksum incrementally as
+	 * described in RFC 1624. Transport checksums are not touched.
+	 */
+	public static void setIPv4Addresses(final byte[] pkt, final int src,
+			final int dst) {
+		final int ip = ETH_HEADER_LENGTH;
+		if (pkt.length < ip + IPV4_MIN_HEADER) {
+			return;
+		}
+		final int oldSrc = getInt(pkt, ip + IPV4_SRC);
+		final int oldDst = getInt(pkt, ip + IPV4_DST);
+		// HC' = ~(~HC + ~m + m') over every 16 bit word that changed
+		int sum = ~getShort(pkt, ip + IPV4_CHECKSUM) & 0xffff;
+		sum += words(~oldSrc) + words(src) + words(~oldDst) + words(dst);
+		sum = (sum >>> 16) + (sum & 0xffff);
+		sum += sum >>> 16;
+		putShort(pkt, ip + IPV4_CHECKSUM, (short) ~sum);
+		putInt(pkt, ip + IPV4_SRC, src);
+		putInt(pkt, ip + IPV4_DST, dst);
+	}
+
+	/**
+	 * Sets the sender and target protocol addresses of an untagged
+	 * Ethernet/IPv4 ARP frame. Other ARP frames are left untouched.
+	 */
+	public static void setARPAddresses(final byte[] pkt, final int sender,
+			final int target) {
+		final int arp = ETH_HEADER_LENGTH;
+		if (pkt.length < arp + ARP_LENGTH
+				|| getShort(pkt, arp + 2) != ARP.PROTO_TYPE_IP
+				|| pkt[arp + 4] != 6 || pkt[arp + 5] != 4) {
+			return;
+		}
+		putInt(pkt, arp + ARP_SPA, sender);
+		putInt(pkt, arp + ARP_TPA, target);
+	}
+
+	private static int words(final int value) {
+		return (value >>> 16) + (value & 0xffff);
+	}
+
+	private static short getShort(final byte[] pkt, final int offset) {
+		return (short) ((pkt[offset] & 0xff) << 8 | pkt[offset + 1] & 0xff);
+	}
+
+	private static void putShort(final byte[] pkt, final int offset,
+			final short value) {
+		pkt[offset] = (byte) (value >>> 8);
+		pkt[offset + 1] = (byte) value;
+	}
+
+	private static int getInt(final byte[] pkt, final int offset) {
+		return (pkt[offset] & 0xff) << 24 | (pkt[offset + 1] & 0xff) << 16
+				| (pkt[offset + 2] & 0xff) << 8 | pkt[offset + 3] & 0xff;
+	}
+
+	private static void putInt(final byte[] pkt, final int offset,
+			final int value) {
+		pkt[offset] = (byte) (value >>> 24);
+		pkt[offset + 1] = (byte) (value >>> 16);
+		pkt[offset + 2] = (byte) (value >>> 8);
+		pkt[offset + 3] = (byte) value;
+	}
+
+}
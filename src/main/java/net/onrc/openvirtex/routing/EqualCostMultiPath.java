@@ -0,0 +1,62 @@
+package net.onrc.openvirtex.routing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.link.PhysicalLink;
+
+/**
+ * Routes each pair of ports of a big switch over all its shortest paths, up
+ * to MAX_PATHS of them, each under a route ID of its own. A flow is hashed
+ * to one of the paths by its header fields (see SwitchRoute.select), so the
+ * load of the tenant spreads over the fabric while the packets of a flow
+ * stay in order.
+ */
+public class EqualCostMultiPath extends ShortestPath {
+
+    /* every path takes a route ID, the VLAN tag of its packets */
+    static final int MAX_PATHS = 16;
+
+    @Override
+    protected List<LinkedList<PhysicalLink>> paths(
+	    final Map<PhysicalSwitch, List<PhysicalLink>> tree,
+	    final PhysicalSwitch src, final PhysicalSwitch dst) {
+	if (!tree.containsKey(dst))
+	    return Collections.emptyList();
+	final List<LinkedList<PhysicalLink>> paths = new ArrayList<LinkedList<PhysicalLink>>();
+	collect(tree, src, dst, new LinkedList<PhysicalLink>(), paths);
+	return paths;
+    }
+
+    /*
+     * Adds the paths from src to sw, followed by suffix, walking back the
+     * links sw is reached over in tree. The first path found is the one
+     * ShortestPath would take.
+     */
+    private static void collect(
+	    final Map<PhysicalSwitch, List<PhysicalLink>> tree,
+	    final PhysicalSwitch src, final PhysicalSwitch sw,
+	    final LinkedList<PhysicalLink> suffix,
+	    final List<LinkedList<PhysicalLink>> paths) {
+	if (sw == src) {
+	    paths.add(new LinkedList<PhysicalLink>(suffix));
+	    return;
+	}
+	for (final PhysicalLink hop : tree.get(sw)) {
+	    if (paths.size() == MAX_PATHS)
+		return;
+	    suffix.addFirst(hop);
+	    collect(tree, src, hop.getSrcSwitch(), suffix, paths);
+	    suffix.removeFirst();
+	}
+    }
+
+    @Override
+    public String getName() {
+	return "equal cost multipath";
+    }
+}
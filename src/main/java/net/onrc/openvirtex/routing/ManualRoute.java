@@ -6,6 +6,8 @@ import net.onrc.openvirtex.elements.datapath.OVXBigSwitch;
 import net.onrc.openvirtex.elements.link.PhysicalLink;
 import net.onrc.openvirtex.elements.port.OVXPort;
 
+import org.openflow.protocol.OFMatch;
+
 public class ManualRoute implements Routable {
 
     @Override
@@ -21,6 +23,23 @@ public class ManualRoute implements Routable {
 	return vSwitch.getRouteMap().get(srcPort).get(dstPort);
     }
 
+    @Override
+    public SwitchRoute getRoute(OVXBigSwitch vSwitch,
+	    OVXPort srcPort, OVXPort dstPort, OFMatch match) {
+	final SwitchRoute route = this.getRoute(vSwitch, srcPort, dstPort);
+	return route == null ? null : route.select(match);
+    }
+
+    @Override
+    public void computeRoutes(OVXBigSwitch vSwitch) {
+	//routes are set manually
+    }
+
+    @Override
+    public void updateRoutes(OVXBigSwitch vSwitch, PhysicalLink link, boolean up) {
+	//routes are set manually
+    }
+
     public String getName() {
 	return "manual";
     }
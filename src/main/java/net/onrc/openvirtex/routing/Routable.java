@@ -6,6 +6,8 @@ import net.onrc.openvirtex.elements.datapath.OVXBigSwitch;
 import net.onrc.openvirtex.elements.link.PhysicalLink;
 import net.onrc.openvirtex.elements.port.OVXPort;
 
+import org.openflow.protocol.OFMatch;
+
 public interface Routable {
     
     public LinkedList<PhysicalLink> computePath(OVXPort srcPort,
@@ -20,6 +22,36 @@ public interface Routable {
     public SwitchRoute getRoute(OVXBigSwitch vSwitch, 
 	    OVXPort srcPort, OVXPort dstPort);
     
+    /**
+     * @param vSwitch The virtual big switch
+     * @param srcPort The ingress port on the big switch
+     * @param dstPort The egress port on the big switch
+     * @param match The header fields of a flow
+     * @return The path of the route between the ports the flow takes, or
+     *         null if there is no route
+     */
+    public SwitchRoute getRoute(OVXBigSwitch vSwitch, 
+	    OVXPort srcPort, OVXPort dstPort, OFMatch match);
+    
+    /**
+     * Sets up the routes between the ports of the big switch, for policies
+     * that compute them. Called when the policy is chosen and when a port is
+     * added.
+     * 
+     * @param vSwitch The virtual big switch
+     */
+    public void computeRoutes(OVXBigSwitch vSwitch);
+    
+    /**
+     * Updates the routes of the big switch that a physical link inside it
+     * changes, for policies that compute them.
+     * 
+     * @param vSwitch The virtual big switch
+     * @param link The link that came up or went down
+     * @param up true if the link came up
+     */
+    public void updateRoutes(OVXBigSwitch vSwitch, PhysicalLink link, boolean up);
+    
     /**
      * @return The name of the routing policy
      */
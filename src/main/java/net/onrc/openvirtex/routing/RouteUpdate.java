@@ -0,0 +1,191 @@
+package net.onrc.openvirtex.routing;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.onrc.openvirtex.elements.datapath.InstallBatch;
+import net.onrc.openvirtex.elements.datapath.OVXBigSwitch;
+import net.onrc.openvirtex.elements.datapath.OVXFlowEntry;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.link.OVXLinkManager;
+import net.onrc.openvirtex.elements.network.PhysicalNetwork;
+import net.onrc.openvirtex.elements.port.OVXPort;
+import net.onrc.openvirtex.messages.OVXFlowMod;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFPort;
+
+/**
+ * Puts a route of a big switch in place, replacing the one between the same
+ * ports, if any, without disturbing the traffic on it:
+ *
+ * 1. the rules of the transit switches of the new route are installed under
+ * its own route id, the VLAN tag of its packets, next to those of the old one.
+ * A route spread over equal cost paths installs each of them, under the route
+ * id of the path.
+ *
+ * 2. once the switches confirmed them, the route is published and the rules
+ * of the tenant that send traffic over it are installed again, which installs
+ * their egress rules for the new tag and then moves their ingress rules over
+ * to it, each after its egress (see InstallBatch).
+ *
+ * 3. when the packets tagged for the old route have drained, its rules are
+ * deleted.
+ *
+ * The backup of a route, if it has one, is installed along with it, so when
+ * a link of the route fails the update starts at step 2 (see failover()).
+ */
+public class RouteUpdate implements TimerTask {
+
+    private static Logger log = LogManager.getLogger(RouteUpdate.class
+	    .getName());
+
+    /* longer than InstallBatch waits for barriers, plus the time in flight */
+    static final long DRAIN_TIME = 2000; // ms
+
+    private final OVXBigSwitch sw;
+    private final OVXPort ingress;
+    private final OVXPort egress;
+    private final SwitchRoute old;
+    private final SwitchRoute route;
+
+    /**
+     * @param old
+     *            the route being replaced, null if there is none
+     */
+    public RouteUpdate(OVXBigSwitch sw, OVXPort ingress, OVXPort egress,
+	    SwitchRoute old, SwitchRoute route) {
+	this.sw = sw;
+	this.ingress = ingress;
+	this.egress = egress;
+	this.old = old;
+	this.route = route;
+    }
+
+    /**
+     * Sends the rules of the new route, the rest of the update happens as the
+     * switches confirm them.
+     */
+    public void start() {
+	final OVXLinkManager links = this.getLinkManager();
+	final InstallBatch batch = InstallBatch.begin();
+	try {
+	    for (final SwitchRoute path : this.route.getPaths())
+		install(links, path);
+	    if (this.route.getBackup() != null)
+		install(links, this.route.getBackup());
+	    batch.release(new Runnable() {
+		@Override
+		public void run() {
+		    RouteUpdate.this.flip();
+		}
+	    });
+	} finally {
+	    batch.close();
+	}
+    }
+
+    /**
+     * Puts the new route, the backup of the old one whose rules are already
+     * in place, in use right away.
+     */
+    public void failover() {
+	log.info("Failing route {} of switch {} over to route {}",
+		this.old.getRouteId(), this.sw.getSwitchId(),
+		this.route.getRouteId());
+	this.flip();
+    }
+
+    /**
+     * Makes backup the route route fails over to, and installs its rules,
+     * replacing the backup it had.
+     */
+    public static void protect(OVXBigSwitch sw, SwitchRoute route,
+	    SwitchRoute backup) {
+	final OVXLinkManager links = sw.getMap()
+		.getVirtualNetwork(sw.getTenantId()).getvLinkMgmt();
+	install(links, backup);
+	final SwitchRoute old = route.getBackup();
+	route.setBackup(backup);
+	if (old != null)
+	    links.unregisterOVXRoute(old);
+    }
+
+    /*
+     * Registers the route to be refreshed and sends its transit rules, as
+     * part of the open InstallBatch if there is one.
+     */
+    private static void install(OVXLinkManager links, SwitchRoute route) {
+	links.registerOVXRoute(route);
+	for (Map.Entry<PhysicalSwitch, OVXFlowMod> transit : links
+		.getRouteFlowMods(route).entrySet())
+	    InstallBatch.sendDownstream(transit.getKey(), transit.getValue());
+    }
+
+    private void flip() {
+	// a new route is published right away, there is no traffic on it yet
+	if (this.old == null)
+	    return;
+	this.sw.addToRouteMap(this.ingress, this.egress, this.route);
+
+	int moved = 0;
+	final long now = System.currentTimeMillis();
+	for (final OVXFlowEntry entry : this.sw.getFlowTable().getEntries(
+		new OFMatch(), OFPort.OFPP_NONE.getValue())) {
+	    if (!usesRoute(entry, this.ingress.getPortNumber(),
+		    this.egress.getPortNumber()))
+		continue;
+	    final OVXFlowMod fm = OVXFlowMod.reinstall(entry, now);
+	    if (fm != null) {
+		fm.devirtualize(this.sw);
+		moved++;
+	    }
+	}
+	log.info("Moved {} rules of switch {} from route {} to route {}",
+		moved, this.sw.getSwitchId(), this.old.getRouteId(),
+		this.route.getRouteId());
+
+	final HashedWheelTimer timer = PhysicalNetwork.getTimer();
+	if (timer != null)
+	    timer.newTimeout(this, DRAIN_TIME, TimeUnit.MILLISECONDS);
+	else
+	    this.run(null);
+    }
+
+    /*
+     * Deletes the rules of the old route.
+     */
+    @Override
+    public void run(Timeout timeout) {
+	for (final SwitchRoute path : this.old.getPaths())
+	    this.getLinkManager().unregisterOVXRoute(path);
+	final SwitchRoute backup = this.old.getBackup();
+	if (backup != null && backup != this.route)
+	    this.getLinkManager().unregisterOVXRoute(backup);
+	log.debug("Removed route {} of switch {}", this.old.getRouteId(),
+		this.sw.getSwitchId());
+    }
+
+    /**
+     * @return true if the rule sends packets coming in from port in out of
+     *         port out
+     */
+    static boolean usesRoute(OVXFlowEntry entry, short in, short out) {
+	if (entry.getMatch().getInputPort() != in)
+	    return false;
+	return entry.hasOutPort(out)
+		|| entry.hasOutPort(OFPort.OFPP_FLOOD.getValue())
+		|| entry.hasOutPort(OFPort.OFPP_ALL.getValue());
+    }
+
+    private OVXLinkManager getLinkManager() {
+	return this.sw.getMap().getVirtualNetwork(this.sw.getTenantId())
+		.getvLinkMgmt();
+    }
+
+}
@@ -8,7 +8,7 @@ package net.onrc.openvirtex.routing;
  * 
  */
 public enum RoutingAlgorithms {
-	NONE((short) 0), SFP((short) 1);
+	NONE((short) 0), SFP((short) 1), ECMP((short) 2), WCMP((short) 3);
 
 	protected short value;
 	/** the routable */
@@ -24,9 +24,11 @@ public enum RoutingAlgorithms {
 
 	private static void setRoutable(Short value, RoutingAlgorithms algo) {
 	    if (routingmap == null) {
-		routingmap = new Routable[2];
+		routingmap = new Routable[4];
 		routingmap[0] = new ManualRoute();
 		routingmap[1] = new ShortestPath();		
+		routingmap[2] = new EqualCostMultiPath();
+		routingmap[3] = new WeightedCostMultiPath();
 	    }
 	    algo.routing = routingmap[value];
         }
@@ -1,32 +1,364 @@
 /**
- * 
+ *
  */
 package net.onrc.openvirtex.routing;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import net.onrc.openvirtex.elements.datapath.OVXBigSwitch;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
 import net.onrc.openvirtex.elements.link.PhysicalLink;
+import net.onrc.openvirtex.elements.network.PhysicalNetwork;
 import net.onrc.openvirtex.elements.port.OVXPort;
+import net.onrc.openvirtex.elements.port.PhysicalPort;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openflow.protocol.OFMatch;
 
 /**
+ * Routes each pair of ports of a big switch over the fewest physical links
+ * inside it. Routes are computed ahead of time, when the policy is chosen,
+ * when ports are added and when links inside the big switch come up or go
+ * down, and kept in the route map of the big switch, so looking one up is a
+ * pair of hash lookups.
+ *
  * @author gerola
- * 
+ *
  */
 public class ShortestPath implements Routable {
 
+	private static Logger log = LogManager.getLogger(ShortestPath.class
+	        .getName());
+
+	private static final Set<PhysicalLink> NO_LINKS = Collections.emptySet();
+
 	@Override
 	public LinkedList<PhysicalLink> computePath(final OVXPort srcPort,
 			final OVXPort dstPort) {
-		return null;
+		final OVXBigSwitch vSwitch = (OVXBigSwitch) srcPort.getParentSwitch();
+		final PhysicalNetwork net = PhysicalNetwork.getInstance();
+		final PhysicalSwitch src = srcPort.getPhysicalPort().getParentSwitch();
+		final Map<PhysicalSwitch, Set<PhysicalLink>> links = snapshot(net,
+		        members(vSwitch));
+		final List<LinkedList<PhysicalLink>> paths = this.paths(
+		        tree(links, src, NO_LINKS), src, dstPort.getPhysicalPort()
+		                .getParentSwitch());
+		return paths.isEmpty() ? null : paths.get(0);
 	}
 
 	@Override
         public SwitchRoute getRoute(OVXBigSwitch vSwitch,
                 OVXPort srcPort, OVXPort dstPort) {
-	    return null;
+		final Map<OVXPort, SwitchRoute> routes = vSwitch.getRouteMap().get(
+		        srcPort);
+		return routes == null ? null : routes.get(dstPort);
         }
-	
+
+	@Override
+	public SwitchRoute getRoute(final OVXBigSwitch vSwitch,
+	        final OVXPort srcPort, final OVXPort dstPort, final OFMatch match) {
+		final SwitchRoute route = this.getRoute(vSwitch, srcPort, dstPort);
+		return route == null ? null : route.select(match);
+	}
+
+	@Override
+	public void computeRoutes(final OVXBigSwitch vSwitch) {
+		this.update(vSwitch, null);
+	}
+
+	@Override
+	public void updateRoutes(final OVXBigSwitch vSwitch,
+			final PhysicalLink link, final boolean up) {
+		this.update(vSwitch, up ? null : link);
+	}
+
+	/*
+	 * Routes again the pairs of ports of vSwitch whose route goes over the
+	 * link down or, if it is null, that have no route, one longer than
+	 * their shortest path or fewer paths than paths() now finds. Both
+	 * directions of a path share a route ID and take the same links.
+	 *
+	 * Each route also gets a backup disjoint from its paths, if there is
+	 * one, which the route fails over to when one of its links goes down
+	 * (see SwitchRoute.failover()); pairs whose backup is missing or went
+	 * over down get a new one.
+	 *
+	 * Routes are computed from a snapshot of the links between the members,
+	 * so the topology is not locked while their rules are installed; a link
+	 * that changes meanwhile is routed around by its own update.
+	 */
+	private void update(final OVXBigSwitch vSwitch, final PhysicalLink down) {
+		final Map<PhysicalSwitch, Set<PhysicalLink>> links = snapshot(
+		        PhysicalNetwork.getInstance(), members(vSwitch));
+		final Map<PhysicalSwitch, Map<PhysicalSwitch, List<PhysicalLink>>> trees =
+		        new HashMap<PhysicalSwitch, Map<PhysicalSwitch, List<PhysicalLink>>>();
+		final List<OVXPort> ports = new ArrayList<OVXPort>(vSwitch
+		        .getPorts().values());
+		for (int i = 0; i < ports.size(); i++) {
+			for (int j = i + 1; j < ports.size(); j++) {
+				final OVXPort a = ports.get(i);
+				final OVXPort b = ports.get(j);
+				final PhysicalSwitch swA = a.getPhysicalPort()
+				        .getParentSwitch();
+				final PhysicalSwitch swB = b.getPhysicalPort()
+				        .getParentSwitch();
+				if (swA == swB)
+					continue;
+				final SwitchRoute fwd = this.getRoute(vSwitch, a, b);
+				final SwitchRoute rev = this.getRoute(vSwitch, b, a);
+				final boolean broken = uses(fwd, down) || uses(rev, down);
+				final boolean exposed = fwd != null && rev != null
+				        && (fwd.getBackup() == null || rev.getBackup() == null
+				        || uses(fwd.getBackup(), down)
+				        || uses(rev.getBackup(), down));
+				if (down != null && !broken && !exposed)
+					continue;
+				if (down != null && !broken) {
+					final List<List<PhysicalLink>> backup = backup(
+					        links, swA, swB, links(fwd));
+					if (backup != null)
+						vSwitch.protectRoute(a, b, backup.get(0),
+						        backup.get(1));
+					continue;
+				}
+
+				Map<PhysicalSwitch, List<PhysicalLink>> tree = trees.get(swA);
+				if (tree == null) {
+					tree = tree(links, swA, NO_LINKS);
+					trees.put(swA, tree);
+				}
+				final List<List<PhysicalLink>> paths = new ArrayList<List<PhysicalLink>>();
+				final List<List<PhysicalLink>> revpaths = new ArrayList<List<PhysicalLink>>();
+				for (final List<PhysicalLink> path : this.paths(tree, swA, swB)) {
+					final List<PhysicalLink> revpath = reverse(links, path);
+					// the other direction may not be discovered yet
+					if (revpath != null) {
+						paths.add(path);
+						revpaths.add(revpath);
+					}
+				}
+				if (paths.isEmpty()) {
+					if (down != null)
+						log.warn("No route left between ports {} and {} of switch {}",
+						        a.getPortNumber(), b.getPortNumber(),
+						        vSwitch.getSwitchId());
+					continue;
+				}
+				if (down == null && fwd != null && rev != null
+				        && (fwd.getRoute().size() < paths.get(0).size()
+				        || fwd.getRoute().size() == paths.get(0).size()
+				        && fwd.getPaths().size() >= paths.size())) {
+					if (exposed) {
+						final List<List<PhysicalLink>> backup = backup(
+						        links, swA, swB, links(fwd));
+						if (backup != null)
+							vSwitch.protectRoute(a, b, backup.get(0),
+							        backup.get(1));
+					}
+					continue;
+				}
+				final List<List<PhysicalLink>> backup = backup(
+				        links, swA, swB, paths);
+				if (backup == null)
+					vSwitch.createRoutes(a, b, paths, revpaths, null, null);
+				else
+					vSwitch.createRoutes(a, b, paths, revpaths,
+					        backup.get(0), backup.get(1));
+			}
+		}
+	}
+
+	private static Set<PhysicalSwitch> members(final OVXBigSwitch vSwitch) {
+		return new HashSet<PhysicalSwitch>(vSwitch.getMap()
+		        .getPhysicalSwitches(vSwitch));
+	}
+
+	/*
+	 * The links out of each of the members, as they are at one point in
+	 * time. The link sets of the network are immutable, so only taking them
+	 * needs the lock on the network.
+	 */
+	private static Map<PhysicalSwitch, Set<PhysicalLink>> snapshot(
+	        final PhysicalNetwork net, final Set<PhysicalSwitch> members) {
+		final Map<PhysicalSwitch, Set<PhysicalLink>> links = new HashMap<PhysicalSwitch, Set<PhysicalLink>>();
+		synchronized (net) {
+			for (final PhysicalSwitch sw : members)
+				links.put(sw, net.getLinks(sw.getSwitchId()));
+		}
+		return links;
+	}
+
+	/**
+	 * @return a path from src to dst over the members, as short as
+	 *         possible, that takes none of the links to avoid in either
+	 *         direction, or null if there is none
+	 */
+	public static LinkedList<PhysicalLink> disjointPath(
+	        final Set<PhysicalSwitch> members, final PhysicalSwitch src,
+	        final PhysicalSwitch dst, final Collection<PhysicalLink> avoid) {
+		return disjointPath(snapshot(PhysicalNetwork.getInstance(), members),
+		        src, dst, avoid);
+	}
+
+	private static LinkedList<PhysicalLink> disjointPath(
+	        final Map<PhysicalSwitch, Set<PhysicalLink>> links,
+	        final PhysicalSwitch src, final PhysicalSwitch dst,
+	        final Collection<PhysicalLink> avoid) {
+		final Set<PhysicalLink> excluded = new HashSet<PhysicalLink>();
+		for (final PhysicalLink link : avoid) {
+			excluded.add(link);
+			excluded.add(new PhysicalLink(link.getDstPort(), link.getSrcPort()));
+		}
+		return first(tree(links, src, excluded), src, dst);
+	}
+
+	/*
+	 * A path from src to dst disjoint from the given ones, and its reverse,
+	 * or null if there is none.
+	 */
+	private static List<List<PhysicalLink>> backup(
+	        final Map<PhysicalSwitch, Set<PhysicalLink>> links,
+	        final PhysicalSwitch src,
+	        final PhysicalSwitch dst, final List<? extends List<PhysicalLink>> paths) {
+		final List<PhysicalLink> avoid = new ArrayList<PhysicalLink>();
+		for (final List<PhysicalLink> path : paths)
+			avoid.addAll(path);
+		final List<PhysicalLink> backup = disjointPath(links, src, dst, avoid);
+		if (backup == null)
+			return null;
+		final List<PhysicalLink> revbackup = reverse(links, backup);
+		if (revbackup == null)
+			return null;
+		return Arrays.asList(backup, revbackup);
+	}
+
+	/*
+	 * Breadth first search from root over the links between the switches of
+	 * the snapshot, but the excluded ones. Maps every switch reached to the links it is
+	 * reached over on a shortest path, in the order they were found, root
+	 * to an empty list.
+	 */
+	private static Map<PhysicalSwitch, List<PhysicalLink>> tree(
+	        final Map<PhysicalSwitch, Set<PhysicalLink>> links,
+	        final PhysicalSwitch root, final Set<PhysicalLink> excluded) {
+		final Map<PhysicalSwitch, List<PhysicalLink>> tree = new HashMap<PhysicalSwitch, List<PhysicalLink>>();
+		final Map<PhysicalSwitch, Integer> dist = new HashMap<PhysicalSwitch, Integer>();
+		final LinkedList<PhysicalSwitch> queue = new LinkedList<PhysicalSwitch>();
+		tree.put(root, new ArrayList<PhysicalLink>());
+		dist.put(root, 0);
+		queue.add(root);
+		while (!queue.isEmpty()) {
+			final PhysicalSwitch sw = queue.remove();
+			final int hops = dist.get(sw) + 1;
+			for (final PhysicalLink link : links.get(sw)) {
+				final PhysicalSwitch next = link.getDstSwitch();
+				if (!links.containsKey(next))
+					continue;
+				if (excluded.contains(link))
+					continue;
+				final Integer known = dist.get(next);
+				if (known == null) {
+					dist.put(next, hops);
+					tree.put(next, new ArrayList<PhysicalLink>());
+					queue.add(next);
+				} else if (known != hops)
+					continue;
+				tree.get(next).add(link);
+			}
+		}
+		return tree;
+	}
+
+	/**
+	 * @param tree the result of a breadth first search from src
+	 * @return the paths from src to dst to route over, the preferred one
+	 *         first, none if dst cannot be reached. The shortest path policy
+	 *         returns a single one.
+	 */
+	protected List<LinkedList<PhysicalLink>> paths(
+	        final Map<PhysicalSwitch, List<PhysicalLink>> tree,
+	        final PhysicalSwitch src, final PhysicalSwitch dst) {
+		final LinkedList<PhysicalLink> path = first(tree, src, dst);
+		if (path == null)
+			return Collections.emptyList();
+		return Collections.singletonList(path);
+	}
+
+	/*
+	 * The path from src to dst over the first link each switch is reached
+	 * over, null if dst is not reached.
+	 */
+	private static LinkedList<PhysicalLink> first(
+	        final Map<PhysicalSwitch, List<PhysicalLink>> tree,
+	        final PhysicalSwitch src, final PhysicalSwitch dst) {
+		if (!tree.containsKey(dst))
+			return null;
+		final LinkedList<PhysicalLink> path = new LinkedList<PhysicalLink>();
+		for (PhysicalSwitch sw = dst; sw != src; sw = path.getFirst()
+		        .getSrcSwitch())
+			path.addFirst(tree.get(sw).get(0));
+		return path;
+	}
+
+	/*
+	 * The links of path in the opposite direction, null if one is missing
+	 * from the snapshot.
+	 */
+	private static List<PhysicalLink> reverse(
+	        final Map<PhysicalSwitch, Set<PhysicalLink>> links,
+	        final List<PhysicalLink> path) {
+		final LinkedList<PhysicalLink> revpath = new LinkedList<PhysicalLink>();
+		for (final PhysicalLink hop : path) {
+			final PhysicalLink revhop = find(links.get(hop.getDstSwitch()),
+			        hop.getDstPort(), hop.getSrcPort());
+			if (revhop == null)
+				return null;
+			revpath.addFirst(revhop);
+		}
+		return revpath;
+	}
+
+	private static PhysicalLink find(final Set<PhysicalLink> links,
+	        final PhysicalPort src, final PhysicalPort dst) {
+		if (links == null)
+			return null;
+		for (final PhysicalLink link : links) {
+			if (link.getSrcPort().equals(src) && link.getDstPort().equals(dst))
+				return link;
+		}
+		return null;
+	}
+
+	/*
+	 * The links of the paths of route.
+	 */
+	private static List<List<PhysicalLink>> links(final SwitchRoute route) {
+		final List<List<PhysicalLink>> paths = new ArrayList<List<PhysicalLink>>();
+		for (final SwitchRoute path : route.getPaths())
+			paths.add(path.getRoute());
+		return paths;
+	}
+
+	private static boolean uses(final SwitchRoute route, final PhysicalLink link) {
+		if (route == null || link == null)
+			return false;
+		for (final SwitchRoute path : route.getPaths()) {
+			if (path.getRoute().contains(link))
+				return true;
+		}
+		return false;
+	}
+
 	public String getName() {
 		return "shortest path";
 	}
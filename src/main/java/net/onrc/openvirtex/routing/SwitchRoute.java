@@ -1,15 +1,23 @@
 package net.onrc.openvirtex.routing;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
+import net.onrc.openvirtex.elements.datapath.OVXBigSwitch;
 import net.onrc.openvirtex.elements.link.PhysicalLink;
+import net.onrc.openvirtex.elements.link.Resilient;
+import net.onrc.openvirtex.elements.network.PhysicalNetwork;
+import net.onrc.openvirtex.elements.port.OVXPort;
+
+import org.openflow.protocol.OFMatch;
 
 /**
  * Route within a Big Switch abstraction
  * 
  */
-public class SwitchRoute {
+public class SwitchRoute implements Resilient {
     
     /** unique route identifier*/
     int routeId;
@@ -20,6 +28,17 @@ public class SwitchRoute {
     /** list of links making up route */
     ArrayList<PhysicalLink> routeList;
     
+    /** the equal cost routes between the same ports, this one first */
+    List<SwitchRoute> paths;
+    
+    /** route disjoint from the paths of this one, installed ahead of time */
+    volatile SwitchRoute backup;
+    
+    /** where this route is published */
+    OVXBigSwitch sw;
+    OVXPort ingress;
+    OVXPort egress;
+    
     public SwitchRoute(long dpid, int routeid) {
 	this.dpid = dpid;
 	this.routeId = routeid;
@@ -65,6 +84,98 @@ public class SwitchRoute {
 	return this.routeList;
     }
     
+    /**
+     * Makes routes, each with an ID of its own, the paths traffic between
+     * the ports of this route is spread over. This route stands for all of
+     * them in the route map of the big switch.
+     * 
+     * @param routes the routes of the other paths
+     */
+    public void setPaths(List<SwitchRoute> routes) {
+	final List<SwitchRoute> group = new ArrayList<SwitchRoute>();
+	group.add(this);
+	group.addAll(routes);
+	this.paths = Collections.unmodifiableList(group);
+	for (final SwitchRoute route : routes)
+	    route.paths = this.paths;
+    }
+    
+    /**
+     * @return the routes traffic between the ports of this route is spread
+     *         over, just this one if there is a single path
+     */
+    public List<SwitchRoute> getPaths() {
+	return this.paths == null ? Collections.singletonList(this) : this.paths;
+    }
+    
+    /**
+     * Picks the path of a flow by hashing its addresses, protocol and
+     * transport ports, so all packets of the flow take the same path and
+     * arrive in order.
+     * 
+     * @param match the header fields of the flow
+     * @return the route the flow takes
+     */
+    public SwitchRoute select(OFMatch match) {
+	final List<SwitchRoute> group = this.paths;
+	if (group == null)
+	    return this;
+	return group.get((flowHash(match) & 0x7fffffff) % group.size());
+    }
+    
+    /**
+     * @param match the header fields of a flow
+     * @return a hash of the addresses, protocol and transport ports of the
+     *         flow, whose low bits are as well mixed as the high ones
+     */
+    public static int flowHash(OFMatch match) {
+	int hash = Arrays.hashCode(match.getDataLayerSource());
+	hash = 31 * hash + Arrays.hashCode(match.getDataLayerDestination());
+	hash = 31 * hash + match.getNetworkSource();
+	hash = 31 * hash + match.getNetworkDestination();
+	hash = 31 * hash + match.getNetworkProtocol();
+	hash = 31 * hash + (match.getTransportSource() << 16
+		| match.getTransportDestination() & 0xffff);
+	// the low bits pick the path, fold the high ones into them
+	hash ^= (hash >>> 20) ^ (hash >>> 12);
+	return hash ^ (hash >>> 7) ^ (hash >>> 4);
+    }
+    
+    /**
+     * @return the route this one fails over to, with a route ID of its own
+     *         and its rules already installed, or null if there is none
+     */
+    public SwitchRoute getBackup() {
+	return this.backup;
+    }
+    
+    public void setBackup(SwitchRoute backup) {
+	this.backup = backup;
+    }
+    
+    /**
+     * Records where the route is published, for failover.
+     */
+    public void setEnds(OVXBigSwitch sw, OVXPort ingress, OVXPort egress) {
+	this.sw = sw;
+	this.ingress = ingress;
+	this.egress = egress;
+    }
+    
+    /**
+     * Puts the backup in place of this route, if it has one whose links are
+     * all up. Otherwise the routing policy of the big switch reroutes it,
+     * see Routable.updateRoutes().
+     */
+    @Override
+    public void failover(PhysicalLink failed) {
+	final SwitchRoute backup = this.backup;
+	if (this.sw == null || backup == null
+		|| !PhysicalNetwork.getInstance().isUp(backup.getRoute()))
+	    return;
+	this.sw.failoverRoute(this.ingress, this.egress, this);
+    }
+    
     @Override
     public String toString() {
 	String sroute = "routeId: "+ this.routeId
@@ -0,0 +1,87 @@
+package net.onrc.openvirtex.routing;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import net.onrc.openvirtex.elements.datapath.OVXBigSwitch;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.link.PhysicalLink;
+import net.onrc.openvirtex.elements.port.OVXPort;
+
+import org.openflow.protocol.OFMatch;
+
+/**
+ * Routes each pair of ports of a big switch over all its shortest paths, like
+ * EqualCostMultiPath, but weighs them by the bandwidth they have left, as
+ * measured by the port statistics OVX polls (see PortStatsPoller). The path
+ * with the most room is preferred when routes are computed, and a new flow
+ * picks a path with a probability in proportion to its room, so new traffic
+ * steers away from hot links. A flow keeps its path as long as the loads do
+ * not change much, the flow hash picking a point on the weights.
+ */
+public class WeightedCostMultiPath extends EqualCostMultiPath {
+
+    private static final Comparator<List<PhysicalLink>> MOST_ROOM_FIRST = new Comparator<List<PhysicalLink>>() {
+	@Override
+	public int compare(List<PhysicalLink> a, List<PhysicalLink> b) {
+	    return Double.compare(residualCapacity(b), residualCapacity(a));
+	}
+    };
+
+    @Override
+    protected List<LinkedList<PhysicalLink>> paths(
+	    final Map<PhysicalSwitch, List<PhysicalLink>> tree,
+	    final PhysicalSwitch src, final PhysicalSwitch dst) {
+	final List<LinkedList<PhysicalLink>> paths = super.paths(tree, src,
+		dst);
+	// stable, so paths with as much room keep their order
+	Collections.sort(paths, MOST_ROOM_FIRST);
+	return paths;
+    }
+
+    @Override
+    public SwitchRoute getRoute(final OVXBigSwitch vSwitch,
+	    final OVXPort srcPort, final OVXPort dstPort, final OFMatch match) {
+	final SwitchRoute route = this.getRoute(vSwitch, srcPort, dstPort);
+	if (route == null)
+	    return null;
+	final List<SwitchRoute> group = route.getPaths();
+	if (group.size() == 1)
+	    return route;
+	final double[] room = new double[group.size()];
+	double total = 0;
+	for (int i = 0; i < room.length; i++) {
+	    room[i] = residualCapacity(group.get(i).getRoute());
+	    total += room[i];
+	}
+	// every path is full, spread the flows evenly
+	if (total == 0)
+	    return route.select(match);
+	// the low bits of the hash are the well mixed ones
+	double point = (SwitchRoute.flowHash(match) & 0xffff) / 65536.0 * total;
+	for (int i = 0; i < room.length; i++) {
+	    point -= room[i];
+	    if (point < 0)
+		return group.get(i);
+	}
+	return group.get(room.length - 1);
+    }
+
+    /**
+     * @return the bandwidth left on the most loaded link of path, in bit/s
+     */
+    static double residualCapacity(final List<PhysicalLink> path) {
+	double room = Double.MAX_VALUE;
+	for (final PhysicalLink link : path)
+	    room = Math.min(room, link.getResidualCapacity());
+	return room;
+    }
+
+    @Override
+    public String getName() {
+	return "weighted cost multipath";
+    }
+}
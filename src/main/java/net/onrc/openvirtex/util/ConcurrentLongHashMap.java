@@ -0,0 +1,173 @@
+package net.onrc.openvirtex.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Hash map from primitive long keys to values, for indexes that are read on
+ * every packet and written rarely. Lookups are lock free and do not
+ * allocate; updates are serialized. Keys are stored in an open addressed
+ * table with linear probing, which is replaced by a larger copy when it
+ * becomes half full. Null values are not supported.
+ *
+ * A removed key keeps its slot with a null value, so probes for other keys
+ * still pass over it, until the table is next rebuilt. Only the same key
+ * can take such a slot again.
+ */
+public class ConcurrentLongHashMap<V> {
+
+    private static final int INIT_SIZE = 64;
+    /* marks a free slot; the key 0 itself is kept aside in zeroValue */
+    private static final long FREE = 0;
+
+    private static class Table<V> {
+	final int mask;
+	final AtomicLongArray keys;
+	final AtomicReferenceArray<V> values;
+
+	Table(int size) {
+	    this.mask = size - 1;
+	    this.keys = new AtomicLongArray(size);
+	    this.values = new AtomicReferenceArray<V>(size);
+	}
+    }
+
+    private volatile Table<V> table = new Table<V>(INIT_SIZE);
+    private volatile V zeroValue = null;
+    /* keys with a value */
+    private int size = 0;
+    /* slots holding a key, with or without a value */
+    private int used = 0;
+
+    /**
+     * @return the value stored for key, or null
+     */
+    public V get(long key) {
+	if (key == FREE)
+	    return this.zeroValue;
+	Table<V> t = this.table;
+	for (int i = hash(key) & t.mask;; i = (i + 1) & t.mask) {
+	    long k = t.keys.get(i);
+	    if (k == key)
+		return t.values.get(i);
+	    if (k == FREE)
+		return null;
+	}
+    }
+
+    /**
+     * Stores value under key, replacing any previous value.
+     */
+    public synchronized void put(long key, V value) {
+	if (value == null)
+	    throw new NullPointerException("null values are not supported");
+	if (key == FREE) {
+	    this.zeroValue = value;
+	    return;
+	}
+	Table<V> t = this.table;
+	int slot = insert(t, key, value);
+	if (slot < 0) {
+	    this.size++;
+	    this.used++;
+	} else if (slot > 0) {
+	    this.size++;
+	}
+	if (this.used * 2 > t.mask)
+	    this.table = this.resize(t);
+    }
+
+    /**
+     * @return the value that was stored under key, or null if there was none
+     */
+    public synchronized V remove(long key) {
+	if (key == FREE) {
+	    V old = this.zeroValue;
+	    this.zeroValue = null;
+	    return old;
+	}
+	Table<V> t = this.table;
+	for (int i = hash(key) & t.mask;; i = (i + 1) & t.mask) {
+	    long k = t.keys.get(i);
+	    if (k == key) {
+		V old = t.values.getAndSet(i, null);
+		if (old != null)
+		    this.size--;
+		return old;
+	    }
+	    if (k == FREE)
+		return null;
+	}
+    }
+
+    /**
+     * @return the number of keys with a value
+     */
+    public synchronized int size() {
+	return this.size + (this.zeroValue == null ? 0 : 1);
+    }
+
+    /**
+     * @return the number of slots of the current table
+     */
+    synchronized int capacity() {
+	return this.table.mask + 1;
+    }
+
+    /**
+     * @return the value stored under key, or null if there is none
+     */
+    public synchronized V putIfAbsent(long key, V value) {
+	V current = this.get(key);
+	if (current == null)
+	    this.put(key, value);
+	return current;
+    }
+
+    /*
+     * Copies the live keys into a new table, which is twice as large unless
+     * it is mostly removed keys that fill the old one.
+     */
+    private Table<V> resize(Table<V> t) {
+	int length = t.mask + 1;
+	if (this.size * 4 > length)
+	    length <<= 1;
+	Table<V> copy = new Table<V>(length);
+	for (int i = 0; i <= t.mask; i++) {
+	    long k = t.keys.get(i);
+	    V v = t.values.get(i);
+	    if (k != FREE && v != null)
+		insert(copy, k, v);
+	}
+	this.used = this.size;
+	return copy;
+    }
+
+    /*
+     * The value is written before the key so a reader that finds the key
+     * always sees its value.
+     *
+     * Returns -1 if the key took a free slot, 1 if it took back the slot it
+     * was removed from and 0 if it replaced a value.
+     */
+    private static <V> int insert(Table<V> t, long key, V value) {
+	for (int i = hash(key) & t.mask;; i = (i + 1) & t.mask) {
+	    long k = t.keys.get(i);
+	    if (k == key)
+		return t.values.getAndSet(i, value) == null ? 1 : 0;
+	    if (k == FREE) {
+		t.values.set(i, value);
+		t.keys.set(i, key);
+		return -1;
+	    }
+	}
+    }
+
+    private static int hash(long key) {
+	key ^= key >>> 33;
+	key *= 0xff51afd7ed558ccdL;
+	key ^= key >>> 33;
+	return (int) key;
+    }
+
+}
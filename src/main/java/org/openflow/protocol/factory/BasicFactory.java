@@ -101,20 +101,20 @@ public class BasicFactory implements OFMessageFactory, OFActionFactory,
 	public OFMessage parseMessageOne(ChannelBuffer data)
 			throws MessageParseException {
 		try {
-			OFMessage demux = new OFMessage();
 			OFMessage ofm = null;
 
 			if (data.readableBytes() < OFMessage.MINIMUM_LENGTH)
 				return ofm;
 
-			data.markReaderIndex();
-			demux.readFrom(data);
-			data.resetReaderIndex();
-
-			if (demux.getLengthU() > data.readableBytes())
+			/*
+			 * Peek at the type and length of the header in place rather than
+			 * decoding it into a throwaway OFMessage.
+			 */
+			int start = data.readerIndex();
+			if (data.getUnsignedShort(start + 2) > data.readableBytes())
 				return ofm;
 
-			ofm = getMessage(demux.getType());
+			ofm = getMessage(OFType.valueOf(data.getByte(start + 1)));
 			if (ofm == null)
 				return null;
 
@@ -166,7 +166,6 @@ public class BasicFactory implements OFMessageFactory, OFActionFactory,
 	@Override
 	public List<OFAction> parseActions(ChannelBuffer data, int length, int limit) {
 		List<OFAction> results = new ArrayList<OFAction>();
-		OFAction demux = new OFAction();
 		OFAction ofa;
 		int end = data.readerIndex() + length;
 
@@ -175,15 +174,13 @@ public class BasicFactory implements OFMessageFactory, OFActionFactory,
 					.readerIndex() + OFAction.MINIMUM_LENGTH) > end))
 				return results;
 
-			data.markReaderIndex();
-			demux.readFrom(data);
-			data.resetReaderIndex();
-
-			if ((demux.getLengthU() > data.readableBytes() || (data
-					.readerIndex() + demux.getLengthU()) > end))
+			int start = data.readerIndex();
+			int actionLength = data.getUnsignedShort(start + 2);
+			if ((actionLength > data.readableBytes() || (start + actionLength) > end))
 				return results;
 
-			ofa = parseActionOne(demux.getType(), data);
+			ofa = parseActionOne(OFActionType.valueOf(data.getShort(start)),
+					data);
 			results.add(ofa);
 		}
 
@@ -4,6 +4,11 @@ import net.onrc.openvirtex.core.BaseCtrlTests;
 import net.onrc.openvirtex.elements.BaseMapTests;
 import net.onrc.openvirtex.elements.address.BaseIPTests;
 import net.onrc.openvirtex.elements.datapath.BaseTranslatorTests;
+import net.onrc.openvirtex.elements.network.BaseNetworkTests;
+import net.onrc.openvirtex.messages.BaseMessageTests;
+import net.onrc.openvirtex.packet.BasePacketTests;
+import net.onrc.openvirtex.routing.BaseRoutingTests;
+import net.onrc.openvirtex.util.BaseUtilTests;
 import junit.framework.Test;
 import junit.framework.TestSuite;
 
@@ -16,6 +21,11 @@ public class AllTests {
 	suite.addTest(BaseMapTests.suite());
 	suite.addTest(BaseIPTests.suite());
 	suite.addTest(BaseTranslatorTests.suite());
+	suite.addTest(BaseNetworkTests.suite());
+	suite.addTest(BasePacketTests.suite());
+	suite.addTest(BaseMessageTests.suite());
+	suite.addTest(BaseRoutingTests.suite());
+	suite.addTest(BaseUtilTests.suite());
 	//$JUnit-END$
 	return suite;
     }
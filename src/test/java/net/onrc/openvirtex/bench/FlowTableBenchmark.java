@@ -0,0 +1,120 @@
+package net.onrc.openvirtex.bench;
+
+import java.util.Collections;
+import java.util.Random;
+
+import net.onrc.openvirtex.elements.datapath.OVXFlowTable;
+import net.onrc.openvirtex.elements.datapath.OVXSingleSwitch;
+
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFPort;
+import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.action.OFActionOutput;
+
+/**
+ * Packet lookup cost of OVXFlowTable holding 100k rules spread over four
+ * wildcard patterns. Not part of the test suites; run it by hand:
+ *
+ * java -cp ... net.onrc.openvirtex.bench.FlowTableBenchmark
+ */
+public class FlowTableBenchmark {
+
+    private static final int RULES = 100000;
+    private static final int PACKETS = 4096;
+    private static final int ROUNDS = 500;
+
+    private static byte[] mac(long value) {
+	byte[] mac = new byte[6];
+	for (int i = 0; i < 6; i++)
+	    mac[i] = (byte) (value >>> (40 - 8 * i));
+	return mac;
+    }
+
+    /* rule i of the table, in one of four patterns */
+    private static OFMatch rule(int i) {
+	OFMatch match = new OFMatch();
+	switch (i & 3) {
+	case 0:
+	    match.setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_DL_DST);
+	    match.setDataLayerDestination(mac(i));
+	    break;
+	case 1:
+	    match.setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_DL_TYPE
+		    & ~OFMatch.OFPFW_NW_DST_MASK);
+	    match.setDataLayerType((short) 0x800);
+	    match.setNetworkDestination(0x0a000000 | i);
+	    break;
+	case 2:
+	    match.setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_DL_TYPE
+		    & ~OFMatch.OFPFW_NW_DST_MASK | 8 << OFMatch.OFPFW_NW_DST_SHIFT);
+	    match.setDataLayerType((short) 0x800);
+	    match.setNetworkDestination(0x14000000 | i << 8);
+	    break;
+	default:
+	    match.setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_IN_PORT
+		    & ~OFMatch.OFPFW_DL_SRC);
+	    match.setInputPort((short) (i & 0xff));
+	    match.setDataLayerSource(mac(i));
+	}
+	return match;
+    }
+
+    /* a packet hitting rule i, or no rule if i is past the table */
+    private static OFMatch packet(int i) {
+	OFMatch match = new OFMatch();
+	match.setWildcards(0);
+	match.setInputPort((short) (i & 0xff));
+	match.setDataLayerSource(mac(i));
+	match.setDataLayerDestination(mac(i));
+	match.setDataLayerType((short) 0x800);
+	int nw;
+	switch (i & 3) {
+	case 1:
+	    nw = 0x0a000000 | i;
+	    break;
+	case 2:
+	    nw = 0x14000000 | i << 8 | 0x42;
+	    break;
+	default:
+	    nw = 0x1e000000 | i;
+	}
+	match.setNetworkDestination(nw);
+	return match;
+    }
+
+    public static void main(String[] args) {
+	OVXFlowTable table = new OVXSingleSwitch(1, 1).getFlowTable();
+	for (int i = 0; i < RULES; i++) {
+	    OFFlowMod fm = new OFFlowMod();
+	    fm.setCommand(OFFlowMod.OFPFC_ADD);
+	    fm.setMatch(rule(i));
+	    fm.setPriority((short) (100 + (i & 3) * 100));
+	    fm.setOutPort(OFPort.OFPP_NONE);
+	    fm.setActions(Collections.<OFAction> singletonList(
+		    new OFActionOutput((short) 1)));
+	    table.handleFlowMod(fm);
+	}
+
+	// nine in ten packets hit a rule
+	Random random = new Random(1);
+	OFMatch[] packets = new OFMatch[PACKETS];
+	for (int i = 0; i < PACKETS; i++)
+	    packets[i] = packet(random.nextInt(RULES + RULES / 9));
+
+	int hits = 0;
+	for (int r = 0; r < ROUNDS / 5; r++)
+	    for (OFMatch pkt : packets)
+		hits += table.lookup(pkt) == null ? 0 : 1;
+	hits = 0;
+	long start = System.nanoTime();
+	for (int r = 0; r < ROUNDS; r++)
+	    for (OFMatch pkt : packets)
+		hits += table.lookup(pkt) == null ? 0 : 1;
+	long elapsed = System.nanoTime() - start;
+	System.out.printf("%d rules, %d%% hits: %.1f ns/lookup%n", table.size(),
+		100L * hits / (ROUNDS * PACKETS),
+		(double) elapsed / (ROUNDS * PACKETS));
+    }
+
+}
@@ -0,0 +1,112 @@
+package net.onrc.openvirtex.bench;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.onrc.openvirtex.util.ConcurrentLongHashMap;
+
+/**
+ * Cost of ConcurrentLongHashMap against a ConcurrentHashMap of boxed keys,
+ * for lookups of present and absent keys and for a put and remove churn
+ * that keeps the number of keys constant. Not part of the test suites; run
+ * it by hand:
+ *
+ * java -cp ... net.onrc.openvirtex.bench.LongHashMapBenchmark
+ */
+public class LongHashMapBenchmark {
+
+    private static final int KEYS = 4096;
+    private static final int ROUNDS = 2000;
+    private static final Object VALUE = new Object();
+
+    /* spread out like the tenant << 32 | ip keys of OVXMap */
+    private static long key(int i) {
+	return ((long) (i & 7) << 32) | (0x0a000000 + i);
+    }
+
+    /* ns per operation */
+    private static double getLong(ConcurrentLongHashMap<Object> map, int offset) {
+	int found = 0;
+	long start = System.nanoTime();
+	for (int r = 0; r < ROUNDS; r++)
+	    for (int i = 0; i < KEYS; i++)
+		found += map.get(key(i + offset)) == null ? 0 : 1;
+	long elapsed = System.nanoTime() - start;
+	if (found != (offset == 0 ? KEYS * ROUNDS : 0))
+	    throw new IllegalStateException("found " + found);
+	return (double) elapsed / (KEYS * ROUNDS);
+    }
+
+    private static double getBoxed(ConcurrentHashMap<Long, Object> map, int offset) {
+	int found = 0;
+	long start = System.nanoTime();
+	for (int r = 0; r < ROUNDS; r++)
+	    for (int i = 0; i < KEYS; i++)
+		found += map.get(key(i + offset)) == null ? 0 : 1;
+	long elapsed = System.nanoTime() - start;
+	if (found != (offset == 0 ? KEYS * ROUNDS : 0))
+	    throw new IllegalStateException("found " + found);
+	return (double) elapsed / (KEYS * ROUNDS);
+    }
+
+    /* ns per put and remove pair */
+    private static double churnLong(ConcurrentLongHashMap<Object> map) {
+	long start = System.nanoTime();
+	for (int r = 0; r < ROUNDS; r++)
+	    for (int i = 0; i < KEYS; i++) {
+		int k = KEYS * (r + 1) + i;
+		map.put(key(k), VALUE);
+		map.remove(key(k - KEYS));
+	    }
+	long elapsed = System.nanoTime() - start;
+	if (map.size() != KEYS)
+	    throw new IllegalStateException("size " + map.size());
+	return (double) elapsed / (KEYS * ROUNDS);
+    }
+
+    private static double churnBoxed(ConcurrentHashMap<Long, Object> map) {
+	long start = System.nanoTime();
+	for (int r = 0; r < ROUNDS; r++)
+	    for (int i = 0; i < KEYS; i++) {
+		int k = KEYS * (r + 1) + i;
+		map.put(key(k), VALUE);
+		map.remove(key(k - KEYS));
+	    }
+	long elapsed = System.nanoTime() - start;
+	if (map.size() != KEYS)
+	    throw new IllegalStateException("size " + map.size());
+	return (double) elapsed / (KEYS * ROUNDS);
+    }
+
+    public static void main(String[] args) {
+	ConcurrentLongHashMap<Object> primitive = new ConcurrentLongHashMap<Object>();
+	ConcurrentHashMap<Long, Object> boxed = new ConcurrentHashMap<Long, Object>();
+	for (int i = 0; i < KEYS; i++) {
+	    primitive.put(key(i), VALUE);
+	    boxed.put(key(i), VALUE);
+	}
+	// warm up both maps before measuring
+	for (int i = 0; i < 5; i++) {
+	    getLong(primitive, 0);
+	    getBoxed(boxed, 0);
+	}
+	System.out.printf("get, present   long %.1f ns  boxed %.1f ns%n",
+		getLong(primitive, 0), getBoxed(boxed, 0));
+	System.out.printf("get, absent    long %.1f ns  boxed %.1f ns%n",
+		getLong(primitive, KEYS), getBoxed(boxed, KEYS));
+
+	ConcurrentLongHashMap<Object> churned = new ConcurrentLongHashMap<Object>();
+	ConcurrentHashMap<Long, Object> churnedBoxed = new ConcurrentHashMap<Long, Object>();
+	for (int i = 0; i < KEYS; i++) {
+	    churned.put(key(i), VALUE);
+	    churnedBoxed.put(key(i), VALUE);
+	}
+	churnLong(churned);
+	churnBoxed(churnedBoxed);
+	System.out.printf("put + remove   long %.1f ns  boxed %.1f ns%n",
+		churnLong(churned), churnBoxed(churnedBoxed));
+	// the churn must not have left the table any larger
+	System.out.printf("get, absent, after churn  long %.1f ns%n", getLong(churned,
+		KEYS * (2 * ROUNDS)));
+    }
+
+}
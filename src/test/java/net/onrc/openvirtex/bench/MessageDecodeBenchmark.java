@@ -0,0 +1,80 @@
+package net.onrc.openvirtex.bench;
+
+import java.util.Collections;
+
+import net.onrc.openvirtex.messages.OVXMessageFactory;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPacketIn;
+import org.openflow.protocol.OFPacketIn.OFPacketInReason;
+import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.action.OFActionOutput;
+import org.openflow.protocol.factory.BasicFactory;
+import org.openflow.protocol.factory.OFMessageFactory;
+
+/**
+ * Decode throughput of OVXMessageFactory against the reflective
+ * BasicFactory it replaced, over a stream of packet ins and flow mods. Not
+ * part of the test suites; run it by hand:
+ *
+ * java -cp ... net.onrc.openvirtex.bench.MessageDecodeBenchmark
+ */
+public class MessageDecodeBenchmark {
+
+    private static final int MESSAGES = 1000;
+    private static final int ROUNDS = 2000;
+
+    private static ChannelBuffer stream() {
+	ChannelBuffer buf = ChannelBuffers.dynamicBuffer();
+	for (int i = 0; i < MESSAGES / 2; i++) {
+	    OFPacketIn pi = new OFPacketIn();
+	    pi.setBufferId(i).setInPort((short) 1)
+		    .setReason(OFPacketInReason.NO_MATCH)
+		    .setPacketData(new byte[64]).setTotalLength((short) 64);
+	    pi.writeTo(buf);
+
+	    OFFlowMod fm = new OFFlowMod();
+	    fm.setMatch(new OFMatch());
+	    fm.setActions(Collections.<OFAction> singletonList(new OFActionOutput(
+		    (short) 2, (short) 0xffff)));
+	    fm.setLengthU(OFFlowMod.MINIMUM_LENGTH
+		    + OFActionOutput.MINIMUM_LENGTH);
+	    fm.writeTo(buf);
+	}
+	return buf;
+    }
+
+    /* ns per message */
+    private static double run(OFMessageFactory factory, ChannelBuffer stream)
+	    throws Exception {
+	int decoded = 0;
+	long start = System.nanoTime();
+	for (int r = 0; r < ROUNDS; r++) {
+	    stream.readerIndex(0);
+	    for (OFMessage m : factory.parseMessage(stream))
+		decoded += m.getLength() > 0 ? 1 : 0;
+	}
+	long elapsed = System.nanoTime() - start;
+	if (decoded != MESSAGES * ROUNDS)
+	    throw new IllegalStateException("decoded " + decoded);
+	return (double) elapsed / decoded;
+    }
+
+    public static void main(String[] args) throws Exception {
+	ChannelBuffer stream = stream();
+	OFMessageFactory basic = BasicFactory.getInstance();
+	OFMessageFactory ovx = OVXMessageFactory.getInstance();
+	// warm up both paths before measuring
+	for (int i = 0; i < 5; i++) {
+	    run(basic, stream);
+	    run(ovx, stream);
+	}
+	System.out.printf("BasicFactory      %.1f ns/message%n", run(basic, stream));
+	System.out.printf("OVXMessageFactory %.1f ns/message%n", run(ovx, stream));
+    }
+
+}
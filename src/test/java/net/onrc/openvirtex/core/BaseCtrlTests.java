@@ -2,6 +2,8 @@ package net.onrc.openvirtex.core;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
+import net.onrc.openvirtex.core.io.OVXMessageDecoderTest;
+import net.onrc.openvirtex.core.io.SwitchMessageDecoderTest;
 
 public class BaseCtrlTests {
 
@@ -9,6 +11,8 @@ public class BaseCtrlTests {
 	TestSuite suite = new TestSuite(BaseCtrlTests.class.getName());
 	//$JUnit-BEGIN$
 	suite.addTest(OpenVirteXControllerTest.suite());
+	suite.addTest(OVXMessageDecoderTest.suite());
+	suite.addTest(SwitchMessageDecoderTest.suite());
 	//$JUnit-END$
 	return suite;
     }
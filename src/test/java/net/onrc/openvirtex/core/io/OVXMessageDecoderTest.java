@@ -0,0 +1,91 @@
+package net.onrc.openvirtex.core.io;
+
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.onrc.openvirtex.messages.OVXRawMessage;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFType;
+
+public class OVXMessageDecoderTest extends TestCase {
+
+    private static final byte[] PAYLOAD = "hello".getBytes();
+
+    private DecoderEmbedder<List<OFMessage>> decoder = null;
+
+    public OVXMessageDecoderTest(String name) {
+	super(name);
+    }
+
+    public static Test suite() {
+	return new TestSuite( OVXMessageDecoderTest.class );
+    }
+
+    private static ChannelBuffer frame(OFType type, int xid) {
+	ChannelBuffer buf = ChannelBuffers.dynamicBuffer();
+	buf.writeByte(OFMessage.OFP_VERSION);
+	buf.writeByte(type.getTypeValue());
+	buf.writeShort(OFMessage.MINIMUM_LENGTH + PAYLOAD.length);
+	buf.writeInt(xid);
+	buf.writeBytes(PAYLOAD);
+	return buf;
+    }
+
+    public void testFrameSplitAcrossReads() {
+	ChannelBuffer first = frame(OFType.ECHO_REQUEST, 42);
+	ChannelBuffer second = frame(OFType.ECHO_REPLY, 43);
+	this.decoder.offer(first.readSlice(6));
+	assertNull(this.decoder.poll());
+
+	// the first frame is completed in the buffer kept between reads
+	ChannelBuffer read = ChannelBuffers.dynamicBuffer();
+	read.writeBytes(first);
+	read.writeBytes(second, 6);
+	this.decoder.offer(read);
+	List<OFMessage> msgs = this.decoder.poll();
+	assertEquals(1, msgs.size());
+	OVXRawMessage echo = (OVXRawMessage) msgs.get(0);
+
+	read = ChannelBuffers.dynamicBuffer();
+	read.writeBytes(second);
+	read.writeBytes(frame(OFType.ECHO_REQUEST, 44));
+	this.decoder.offer(read);
+	msgs = this.decoder.poll();
+	assertEquals(2, msgs.size());
+	assertEquals(43, msgs.get(0).getXid());
+	assertEquals(OFType.ECHO_REPLY, msgs.get(0).getType());
+	assertEquals(44, msgs.get(1).getXid());
+	assertNull(this.decoder.poll());
+
+	// the frame of the first message was not written over by the rest
+	ChannelBuffer out = ChannelBuffers.dynamicBuffer();
+	echo.writeTo(out);
+	assertTrue(ChannelBuffers.equals(frame(OFType.ECHO_REQUEST, 42), out));
+    }
+
+    public void testIncompleteHeader() {
+	ChannelBuffer whole = frame(OFType.ECHO_REQUEST, 42);
+	this.decoder.offer(whole.readSlice(3));
+	assertNull(this.decoder.poll());
+	this.decoder.offer(whole.readSlice(whole.readableBytes()));
+	List<OFMessage> msgs = this.decoder.poll();
+	assertEquals(1, msgs.size());
+	assertEquals(42, msgs.get(0).getXid());
+    }
+
+    protected void setUp() throws Exception {
+	super.setUp();
+	this.decoder = new DecoderEmbedder<List<OFMessage>>(new OVXMessageDecoder());
+    }
+
+    protected void tearDown() throws Exception {
+	super.tearDown();
+    }
+
+}
@@ -0,0 +1,81 @@
+package net.onrc.openvirtex.core.io;
+
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.network.PhysicalNetwork;
+import net.onrc.openvirtex.elements.network.TestTopology;
+import net.onrc.openvirtex.messages.OVXPacketOut;
+import net.onrc.openvirtex.messages.PacketInBucket;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.embedder.DecoderEmbedder;
+import org.openflow.protocol.OFEchoRequest;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPacketIn;
+import org.openflow.protocol.OFType;
+
+public class SwitchMessageDecoderTest extends TestCase {
+
+    private DecoderEmbedder<List<OFMessage>> decoder = null;
+
+    public SwitchMessageDecoderTest(String name) {
+	super(name);
+    }
+
+    public static Test suite() {
+	return new TestSuite( SwitchMessageDecoderTest.class );
+    }
+
+    private static void packetIn(ChannelBuffer buf, short inPort, int xid) {
+	OFPacketIn pi = new OFPacketIn();
+	pi.setXid(xid);
+	pi.setInPort(inPort);
+	pi.setBufferId(OVXPacketOut.BUFFER_ID_NONE);
+	pi.setReason(OFPacketIn.OFPacketInReason.NO_MATCH);
+	pi.setPacketData(new byte[60]);
+	pi.writeTo(buf);
+    }
+
+    public void testPortLimit() {
+	ChannelBuffer read = ChannelBuffers.dynamicBuffer();
+	packetIn(read, (short) 1, 1);
+	packetIn(read, (short) 1, 2);
+	packetIn(read, (short) 2, 3);
+	OFEchoRequest echo = new OFEchoRequest();
+	echo.setXid(4);
+	echo.writeTo(read);
+	this.decoder.offer(read);
+
+	// the second packet in of port 1 is over its limit, the rest goes on
+	List<OFMessage> msgs = this.decoder.poll();
+	assertEquals(3, msgs.size());
+	assertEquals(1, msgs.get(0).getXid());
+	assertEquals(3, msgs.get(1).getXid());
+	assertEquals(OFType.ECHO_REQUEST, msgs.get(2).getType());
+    }
+
+    protected void setUp() throws Exception {
+	super.setUp();
+	// one packet in per second and port
+	PacketInBucket.configure(1, 0, 0, (short) 0);
+	new OpenVirteXController(null, "localhost", 16633, 8, true);
+	PhysicalSwitch sw = new TestTopology(PhysicalNetwork.getInstance())
+		.physicalSwitch();
+	SwitchChannelHandler handler = new SwitchChannelHandler(null);
+	handler.sw = sw;
+	this.decoder = new DecoderEmbedder<List<OFMessage>>(
+		new SwitchMessageDecoder(handler));
+    }
+
+    protected void tearDown() throws Exception {
+	PacketInBucket.configure(0, 0, 0, (short) 0);
+	super.tearDown();
+    }
+
+}
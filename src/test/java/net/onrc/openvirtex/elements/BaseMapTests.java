@@ -9,6 +9,7 @@ public class BaseMapTests {
 	TestSuite suite = new TestSuite(BaseMapTests.class.getName());
 	//$JUnit-BEGIN$
 	suite.addTest(MapAddTest.suite());
+	suite.addTest(PortDescriptorTest.suite());
 	//$JUnit-END$
 	return suite;
     }
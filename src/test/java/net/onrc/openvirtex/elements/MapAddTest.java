@@ -47,6 +47,20 @@ public class MapAddTest extends TestCase {
     }
     
     
+    public void testGetPhysicalIP() {
+	for (int i = 0 ; i < MAXIPS ; i++)
+	    for (int j = 0 ; j < MAXTIDS ; j++)
+		map.addIP(new PhysicalIPAddress(i * MAXTIDS + j), new OVXIPAddress(j, i));
+	
+	for (int i = 0 ; i < MAXIPS ; i++)
+	    for (int j = 0 ; j < MAXTIDS ; j++)
+		assertEquals(map.getPhysicalIP(new OVXIPAddress(j, i), j), 
+			new PhysicalIPAddress(i * MAXTIDS + j));
+	
+	assertNull(map.getPhysicalIP(new OVXIPAddress(MAXTIDS, 0), MAXTIDS));
+    }
+    
+    
     public void testAddSwitches() {
 	ArrayList<PhysicalSwitch> p_sw = new ArrayList<>();
 	ArrayList<OVXSwitch> v_sw = new ArrayList<>();
@@ -67,10 +81,31 @@ public class MapAddTest extends TestCase {
 		assertEquals(map.getVirtualSwitch(p_sw.get(i), j), v_sw.remove(0));
 	    }
 	}
+	assertEquals(MAXTIDS, map.getVirtualSwitches(p_sw.get(0)).size());
+	assertTrue(map.getVirtualSwitches(new PhysicalSwitch(-1)).isEmpty());
 	
 	
     }
     
+    public void testAddBigSwitch() {
+	ArrayList<PhysicalSwitch> p_sw = new ArrayList<>();
+	for (int i = 0 ; i < 3 ; i++)
+	    p_sw.add(new PhysicalSwitch(MAXPSW + i));
+	OVXSwitch vsw = new OVXSingleSwitch(MAXPSW, 0);
+	long version = ((OVXMap) map).getVersion();
+	map.addSwitches(p_sw, vsw);
+	
+	assertTrue(((OVXMap) map).getVersion() > version);
+	assertEquals(map.getPhysicalSwitches(vsw), p_sw);
+	for (PhysicalSwitch sw : p_sw)
+	    assertEquals(map.getVirtualSwitch(sw, 0), vsw);
+	try {
+	    map.getPhysicalSwitches(vsw).clear();
+	    fail("published switch lists must be immutable");
+	} catch (UnsupportedOperationException e) {
+	}
+    }
+    
     public void testAddMacs() {
 	for (int i = 0 ; i < MAXPSW ; i++) 
 	    map.addMAC(MACAddress.valueOf(i), i % MAXTIDS);
@@ -0,0 +1,73 @@
+package net.onrc.openvirtex.elements;
+
+import java.util.Collections;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.onrc.openvirtex.elements.datapath.OVXSingleSwitch;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.port.OVXPort;
+import net.onrc.openvirtex.elements.port.OVXPortDescriptor;
+import net.onrc.openvirtex.elements.port.PhysicalPort;
+
+import org.openflow.protocol.OFPhysicalPort;
+
+public class PortDescriptorTest extends TestCase {
+
+    private static final int TENANT = 20;
+
+    private PhysicalSwitch psw = null;
+    private OVXPort port = null;
+
+    public PortDescriptorTest(String name) {
+	super(name);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static TestSuite suite() {
+	return new TestSuite(PortDescriptorTest.class);
+    }
+
+    public void testEdgePort() {
+	OVXPortDescriptor desc = this.port.getDescriptor();
+	assertTrue(desc.isEdge());
+	assertEquals(3, desc.getPhysicalPortNumber());
+	assertSame(this.psw, desc.getPhysicalSwitch());
+	assertEquals(0, desc.getLinkVlan());
+	assertNull(desc.getSetVlanAction());
+	assertNull(desc.getNeighbour());
+	assertNotNull(desc.getStripVlanAction());
+    }
+
+    public void testRecompiledOnChange() {
+	OVXPortDescriptor edge = this.port.getDescriptor();
+	this.port.setLinkId(5);
+	this.port.isEdge(false);
+
+	OVXPortDescriptor link = this.port.getDescriptor();
+	assertNotSame(edge, link);
+	assertFalse(link.isEdge());
+	assertEquals(5, link.getLinkVlan());
+	assertEquals(5, link.getSetVlanAction().getVirtualLanIdentifier());
+	assertEquals(3, link.getPhysicalPortNumber());
+	// the old descriptor is left as it was
+	assertTrue(edge.isEdge());
+	assertEquals(0, edge.getLinkVlan());
+	assertSame(link, this.port.getDescriptor());
+    }
+
+    protected void setUp() throws Exception {
+	super.setUp();
+	this.psw = new PhysicalSwitch(5000);
+	OVXMap.getInstance().addSwitches(Collections.singletonList(this.psw),
+		new OVXSingleSwitch(5000, TENANT));
+	OFPhysicalPort ofPort = new OFPhysicalPort();
+	ofPort.setPortNumber((short) 3);
+	ofPort.setHardwareAddress(new byte[6]);
+	this.port = new OVXPort(TENANT, new PhysicalPort(ofPort, this.psw,
+		true), true);
+    }
+
+}
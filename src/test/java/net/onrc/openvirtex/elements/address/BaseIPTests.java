@@ -9,6 +9,7 @@ public class BaseIPTests {
 	TestSuite suite = new TestSuite(BaseIPTests.class.getName());
 	//$JUnit-BEGIN$
 	suite.addTest(IPTest.suite());
+	suite.addTest(IPTranslatorTest.suite());
 	//$JUnit-END$
 	return suite;
     }
@@ -0,0 +1,83 @@
+package net.onrc.openvirtex.elements.address;
+
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.elements.OVXMap;
+import net.onrc.openvirtex.elements.network.OVXNetwork;
+
+public class IPTranslatorTest extends TestCase {
+
+    private static int VIP = 0x0a000001;
+    private static int THREADS = 8;
+
+    private OVXNetwork net = null;
+
+    public IPTranslatorTest(String name) {
+	super(name);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static TestSuite suite()
+    {
+        return new TestSuite( IPTranslatorTest.class );
+    }
+
+    public void testTranslate() {
+	IPTranslator.Translation t = net.getIPTranslator().translate(VIP);
+	
+	assertEquals(VIP, t.getVirtualIP().getIp());
+	assertEquals(t.getPhysicalIP(), OVXMap.getInstance().getPhysicalIP(
+		t.getVirtualIP(), net.getTenantId()));
+	assertEquals(t.getPhysicalIP().getIp(), t.getRewriteSrcAction().getNetworkAddress());
+	assertEquals(t.getPhysicalIP().getIp(), t.getRewriteDstAction().getNetworkAddress());
+	assertEquals(VIP, t.getUnrewriteSrcAction().getNetworkAddress());
+	assertEquals(VIP, t.getUnrewriteDstAction().getNetworkAddress());
+	assertSame(t, net.getIPTranslator().translate(VIP));
+    }
+    
+    public void testConcurrentTranslate() throws InterruptedException {
+	final IPTranslator ips = net.getIPTranslator();
+	final IPTranslator.Translation[] seen = new IPTranslator.Translation[THREADS];
+	final CountDownLatch start = new CountDownLatch(1);
+	Thread[] threads = new Thread[THREADS];
+	for (int i = 0 ; i < THREADS ; i++) {
+	    final int n = i;
+	    threads[i] = new Thread() {
+		public void run() {
+		    try {
+			start.await();
+		    } catch (InterruptedException e) {
+			return;
+		    }
+		    seen[n] = ips.translate(VIP + 1);
+		}
+	    };
+	    threads[i].start();
+	}
+	start.countDown();
+	for (Thread t : threads)
+	    t.join();
+	
+	for (IPTranslator.Translation t : seen)
+	    assertSame(seen[0], t);
+	// only one physical address was taken from the network
+	assertEquals(seen[0].getPhysicalIP().getIp() + 1, (int) net.nextIP());
+    }
+    
+    protected void setUp() throws Exception {
+	super.setUp();
+	new OpenVirteXController(null, "localhost", 16633, 8, true);
+	net = new OVXNetwork("tcp", "localhost", 6633, 
+		new PhysicalIPAddress("10.0.0.0"), (short) 24);
+    }
+
+    protected void tearDown() throws Exception {
+	super.tearDown();
+    }
+
+}
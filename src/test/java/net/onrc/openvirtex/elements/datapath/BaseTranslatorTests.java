@@ -9,6 +9,11 @@ public class BaseTranslatorTests {
 	TestSuite suite = new TestSuite(BaseTranslatorTests.class.getName());
 	//$JUnit-BEGIN$
 	suite.addTest(TranslatorTest.suite());
+	suite.addTest(BufferMapTest.suite());
+	suite.addTest(DropRuleCacheTest.suite());
+	suite.addTest(FlowSetupTableTest.suite());
+	suite.addTest(OVXFlowTableTest.suite());
+	suite.addTest(InstallBatchTest.suite());
 	//$JUnit-END$
 	return suite;
     }
@@ -0,0 +1,97 @@
+package net.onrc.openvirtex.elements.datapath;
+
+import net.onrc.openvirtex.messages.OVXPacketIn;
+
+import org.openflow.protocol.OFPacketOut;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class BufferMapTest extends TestCase {
+
+    private BufferMap buffers;
+    
+    public BufferMapTest(String name) {
+	super(name);
+    }
+    
+    public static Test suite() {
+	return new TestSuite( BufferMapTest.class );
+    }
+    
+    private OVXPacketIn packetIn(int bufferId, int length) {
+	OVXPacketIn pi = new OVXPacketIn();
+	pi.setBufferId(bufferId);
+	pi.setPacketData(new byte[length]);
+	return pi;
+    }
+    
+    public void testBuffered() {
+	int id = this.buffers.add(this.packetIn(42, 1500));
+	
+	assertEquals(42, this.buffers.getPhysicalBufferId(id));
+	// only the headers of a packet buffered by the switch are kept
+	assertEquals(BufferMap.HEADER_DIGEST, this.buffers.getPacketData(id).length);
+    }
+    
+    public void testUnbuffered() {
+	int id = this.buffers.add(this.packetIn(OFPacketOut.BUFFER_ID_NONE, 1500));
+	
+	assertEquals(OFPacketOut.BUFFER_ID_NONE, this.buffers.getPhysicalBufferId(id));
+	assertEquals(1500, this.buffers.getPacketData(id).length);
+	assertEquals(1500, this.buffers.getBytes());
+    }
+    
+    public void testStale() {
+	int id = this.buffers.add(this.packetIn(1, 64));
+	for (int i = 0; i < 16; i++)
+	    this.buffers.add(this.packetIn(2, 64));
+	
+	// the slot of id has been reused by a later packet
+	assertFalse(this.buffers.contains(id));
+	try {
+	    this.buffers.getPhysicalBufferId(id);
+	    fail("stale buffer id accepted");
+	} catch (IllegalArgumentException e) {
+	}
+	assertEquals(16 * 64, this.buffers.getBytes());
+    }
+    
+    public void testRemove() {
+	int id = this.buffers.add(this.packetIn(OFPacketOut.BUFFER_ID_NONE, 1500));
+	int other = this.buffers.add(this.packetIn(7, 64));
+	this.buffers.remove(id);
+	
+	assertFalse(this.buffers.contains(id));
+	assertTrue(this.buffers.contains(other));
+	assertEquals(64, this.buffers.getBytes());
+	
+	// removing twice, or a stale id, changes nothing
+	this.buffers.remove(id);
+	this.buffers.remove(other + 16);
+	assertEquals(64, this.buffers.getBytes());
+	assertEquals(7, this.buffers.getPhysicalBufferId(other));
+    }
+    
+    public void testByteBound() {
+	this.buffers = new BufferMap(8192);
+	int packets = (int) (BufferMap.MAX_BYTES / 1500) + 10;
+	int first = this.buffers.add(this.packetIn(OFPacketOut.BUFFER_ID_NONE, 1500));
+	for (int i = 1; i < packets; i++)
+	    this.buffers.add(this.packetIn(OFPacketOut.BUFFER_ID_NONE, 1500));
+	
+	assertTrue(this.buffers.getBytes() <= BufferMap.MAX_BYTES);
+	assertFalse(this.buffers.contains(first));
+    }
+        
+    protected void setUp() throws Exception {
+	this.buffers = new BufferMap(16);
+	super.setUp();
+    }
+
+    protected void tearDown() throws Exception {
+	super.tearDown();
+    }
+
+}
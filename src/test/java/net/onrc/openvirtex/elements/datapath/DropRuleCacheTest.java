@@ -0,0 +1,72 @@
+package net.onrc.openvirtex.elements.datapath;
+
+import org.openflow.protocol.OFMatch;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class DropRuleCacheTest extends TestCase {
+
+    private static final long SEC = 1000L * 1000 * 1000;
+
+    private DropRuleCache cache;
+
+    public DropRuleCacheTest(String name) {
+	super(name);
+    }
+
+    public static Test suite() {
+	return new TestSuite( DropRuleCacheTest.class );
+    }
+
+    private OFMatch match(int nwSrc) {
+	OFMatch match = new OFMatch();
+	match.setInputPort((short) 1);
+	match.setNetworkSource(nwSrc);
+	return match;
+    }
+
+    public void testDigest() {
+	assertEquals(DropRuleCache.digest(this.match(1)),
+		DropRuleCache.digest(this.match(1)));
+	assertFalse(DropRuleCache.digest(this.match(1))
+		== DropRuleCache.digest(this.match(2)));
+    }
+
+    public void testSuppress() {
+	long digest = DropRuleCache.digest(this.match(1));
+	assertEquals(DropRuleCache.MIN_TIMEOUT, this.cache.add(digest, 0));
+	// packet ins that arrive before the rule lands or while it is in place
+	for (int i = 0 ; i < 10 ; i++)
+	    assertEquals(0, this.cache.add(digest, i * SEC / 10));
+	// another flow
+	assertEquals(DropRuleCache.MIN_TIMEOUT,
+		this.cache.add(DropRuleCache.digest(this.match(2)), 0));
+	
+	assertEquals(2, this.cache.getInstalled());
+	assertEquals(10, this.cache.getSuppressed());
+    }
+
+    public void testBackoff() {
+	long digest = DropRuleCache.digest(this.match(1));
+	long now = 0;
+	short timeout = this.cache.add(digest, now);
+	// the flow keeps coming back as soon as its rule expires
+	for (int i = 0 ; i < 10 ; i++) {
+	    now += timeout * SEC;
+	    short next = this.cache.add(digest, now);
+	    assertEquals(Math.min(timeout * 2, DropRuleCache.MAX_TIMEOUT), next);
+	    timeout = next;
+	}
+	// and is forgiven once it stays away
+	now += 3 * timeout * SEC;
+	assertEquals(DropRuleCache.MIN_TIMEOUT, this.cache.add(digest, now));
+    }
+
+    protected void setUp() throws Exception {
+	super.setUp();
+	this.cache = new DropRuleCache(1024);
+    }
+
+}
@@ -0,0 +1,220 @@
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.onrc.openvirtex.core.io.OVXSendMsg;
+import net.onrc.openvirtex.elements.network.PhysicalNetwork;
+import net.onrc.openvirtex.messages.OVXPacketIn;
+import net.onrc.openvirtex.packet.Data;
+import net.onrc.openvirtex.packet.Ethernet;
+import net.onrc.openvirtex.packet.IPv4;
+
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFMessage;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class FlowSetupTableTest extends TestCase {
+
+    private static final long FLOW = 42;
+
+    private FlowSetupTable setups;
+    private int nextBufferId = 0;
+
+    public FlowSetupTableTest(String name) {
+	super(name);
+    }
+
+    public static Test suite() {
+	return new TestSuite( FlowSetupTableTest.class );
+    }
+
+    private OVXPacketIn packetIn() {
+	OVXPacketIn pi = new OVXPacketIn();
+	pi.setBufferId(this.nextBufferId++);
+	return pi;
+    }
+
+    /* a packet in of an IPv4 frame to dst, on virtual port 1 */
+    private OVXPacketIn packetIn(int dst) {
+	IPv4 ip = new IPv4();
+	ip.setVersion((byte) 4);
+	ip.setTtl((byte) 64);
+	ip.setProtocol(IPv4.PROTOCOL_UDP);
+	ip.setSourceAddress(IPv4.toIPv4Address("10.0.0.1"));
+	ip.setDestinationAddress(dst);
+	ip.setPayload(new Data(new byte[8]));
+	Ethernet eth = new Ethernet();
+	eth.setSourceMACAddress("00:00:00:00:00:01");
+	eth.setDestinationMACAddress("00:00:00:00:00:02");
+	eth.setEtherType(Ethernet.TYPE_IPv4);
+	eth.setPayload(ip);
+	OVXPacketIn pi = this.packetIn();
+	pi.setInPort((short) 1);
+	pi.setPacketData(eth.serialize());
+	return pi;
+    }
+
+    public void testCoalesce() {
+	OVXPacketIn first = this.packetIn();
+	List<OVXPacketIn> sent = this.setups.hold(FLOW, FLOW, first, 0);
+	assertEquals(1, sent.size());
+	assertSame(first, sent.get(0));
+	assertTrue(this.setups.isPending(first.getBufferId()));
+	
+	for (int i = 0 ; i < 5 ; i++)
+	    assertTrue(this.setups.hold(FLOW, FLOW, this.packetIn(), i).isEmpty());
+	// another flow is not held
+	assertEquals(1, this.setups.hold(FLOW + 1, FLOW + 1, this.packetIn(), 0).size());
+	
+	assertEquals(5, this.setups.release(first.getBufferId()).size());
+	assertFalse(this.setups.isPending(first.getBufferId()));
+	assertTrue(this.setups.release(first.getBufferId()).isEmpty());
+	assertEquals(5, this.setups.getHeld());
+	// the flow starts over
+	assertEquals(1, this.setups.hold(FLOW, FLOW, this.packetIn(), 10).size());
+    }
+
+    public void testMaxHeld() {
+	OVXPacketIn first = this.packetIn();
+	this.setups.hold(FLOW, FLOW, first, 0);
+	for (int i = 0 ; i < FlowSetupTable.MAX_HELD ; i++)
+	    assertTrue(this.setups.hold(FLOW, FLOW, this.packetIn(), 0).isEmpty());
+	// past the queue depth packet ins go to the controller
+	assertEquals(1, this.setups.hold(FLOW, FLOW, this.packetIn(), 0).size());
+	assertEquals(FlowSetupTable.MAX_HELD,
+		this.setups.release(first.getBufferId()).size());
+    }
+
+    public void testExpiry() {
+	OVXPacketIn first = this.packetIn();
+	this.setups.hold(FLOW, FLOW, first, 0);
+	this.setups.hold(FLOW, FLOW, this.packetIn(), 0);
+	this.setups.hold(FLOW, FLOW, this.packetIn(), 0);
+	
+	// the controller did not answer in time: everything goes to it
+	OVXPacketIn late = this.packetIn();
+	List<OVXPacketIn> sent = this.setups.hold(FLOW, FLOW, late,
+		FlowSetupTable.MAX_WAIT);
+	assertEquals(3, sent.size());
+	assertSame(late, sent.get(2));
+	assertEquals(2, this.setups.getExpired());
+	assertFalse(this.setups.isPending(first.getBufferId()));
+	assertTrue(this.setups.isPending(late.getBufferId()));
+    }
+
+    public void testExpire() {
+	OVXPacketIn first = this.packetIn();
+	this.setups.hold(FLOW, FLOW, first, 0);
+	this.setups.hold(FLOW, FLOW, this.packetIn(), 0);
+	this.setups.hold(FLOW, FLOW, this.packetIn(), 0);
+	
+	assertEquals(2, this.setups.expire(first.getBufferId()).size());
+	assertEquals(2, this.setups.getExpired());
+	assertFalse(this.setups.isPending(first.getBufferId()));
+	// an answer arriving afterwards finds nothing held
+	assertTrue(this.setups.release(first.getBufferId()).isEmpty());
+	
+	// nor does the timer of a setup that was answered in time
+	OVXPacketIn next = this.packetIn();
+	this.setups.hold(FLOW, FLOW, next, 0);
+	this.setups.hold(FLOW, FLOW, this.packetIn(), 0);
+	assertEquals(1, this.setups.release(next.getBufferId()).size());
+	assertTrue(this.setups.expire(next.getBufferId()).isEmpty());
+	assertEquals(2, this.setups.getExpired());
+    }
+
+    public void testTimeout() throws InterruptedException {
+	PhysicalNetwork.getInstance();
+	final List<OFMessage> sent = new ArrayList<OFMessage>();
+	final CountDownLatch done = new CountDownLatch(2);
+	OVXSwitch vsw = new OVXSingleSwitch(1, 1) {
+	    @Override
+	    public void sendMsg(OFMessage msg, OVXSendMsg from) {
+		synchronized (sent) {
+		    sent.add(msg);
+		}
+		done.countDown();
+	    }
+	};
+	OVXPacketIn first = this.packetIn();
+	this.setups.hold(FLOW, FLOW, first, System.nanoTime());
+	OVXPacketIn second = this.packetIn();
+	OVXPacketIn third = this.packetIn();
+	this.setups.hold(FLOW, FLOW, second, System.nanoTime());
+	this.setups.hold(FLOW, FLOW, third, System.nanoTime());
+	
+	// the controller never answers: the timer hands it the held packet ins
+	this.setups.expireLater(first.getBufferId(), vsw, null);
+	assertTrue(done.await(5, TimeUnit.SECONDS));
+	synchronized (sent) {
+	    assertEquals(2, sent.size());
+	    assertSame(second, sent.get(0));
+	    assertSame(third, sent.get(1));
+	}
+	assertEquals(2, this.setups.getExpired());
+	assertFalse(this.setups.isPending(first.getBufferId()));
+    }
+
+    public void testReleaseCovered() {
+	int dst = IPv4.toIPv4Address("10.0.0.2");
+	int other = IPv4.toIPv4Address("10.0.0.3");
+	OVXPacketIn first = this.packetIn(dst);
+	this.setups.hold(FLOW, FLOW, first, 0);
+	this.setups.hold(FLOW, FLOW, this.packetIn(dst), 0);
+	OVXPacketIn otherFirst = this.packetIn(other);
+	this.setups.hold(FLOW + 1, FLOW + 1, otherFirst, 0);
+	this.setups.hold(FLOW + 1, FLOW + 1, this.packetIn(other), 0);
+	
+	OFMatch rule = new OFMatch();
+	rule.setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_NW_DST_MASK);
+	rule.setNetworkDestination(dst);
+	assertEquals(1, this.setups.releaseCovered(rule).size());
+	assertFalse(this.setups.isPending(first.getBufferId()));
+	// the flow to the other address is not covered
+	assertTrue(this.setups.isPending(otherFirst.getBufferId()));
+	
+	// a rule on another in port covers nothing
+	rule = new OFMatch();
+	rule.setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_IN_PORT);
+	rule.setInputPort((short) 2);
+	assertTrue(this.setups.releaseCovered(rule).isEmpty());
+	rule.setInputPort((short) 1);
+	assertEquals(1, this.setups.releaseCovered(rule).size());
+	assertFalse(this.setups.isPending(otherFirst.getBufferId()));
+    }
+
+    public void testReleaseExact() {
+	OVXPacketIn first = this.packetIn(IPv4.toIPv4Address("10.0.0.2"));
+	OFMatch match = new OFMatch().loadFromPacket(first.getPacketData(), (short) 1);
+	this.setups.hold(match, first);
+	this.setups.hold(match, this.packetIn(IPv4.toIPv4Address("10.0.0.2")));
+	OVXPacketIn otherFirst = this.packetIn(IPv4.toIPv4Address("10.0.0.3"));
+	this.setups.hold(new OFMatch().loadFromPacket(otherFirst.getPacketData(),
+		(short) 1), otherFirst);
+	
+	// the flow mod fixes the addresses and ports of the flow
+	OFMatch rule = match.clone();
+	rule.setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_NW_SRC_MASK
+		& ~OFMatch.OFPFW_NW_DST_MASK & ~OFMatch.OFPFW_NW_PROTO
+		& ~OFMatch.OFPFW_TP_SRC & ~OFMatch.OFPFW_TP_DST
+		& ~OFMatch.OFPFW_IN_PORT);
+	rule.setInputPort((short) 2);
+	assertTrue(this.setups.releaseCovered(rule).isEmpty());
+	rule.setInputPort((short) 1);
+	assertEquals(1, this.setups.releaseCovered(rule).size());
+	assertFalse(this.setups.isPending(first.getBufferId()));
+	assertTrue(this.setups.isPending(otherFirst.getBufferId()));
+    }
+
+    protected void setUp() throws Exception {
+	super.setUp();
+	this.setups = new FlowSetupTable(1024);
+    }
+
+}
@@ -0,0 +1,187 @@
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.onrc.openvirtex.core.io.OVXSendMsg;
+import net.onrc.openvirtex.messages.OVXMessageFactory;
+import net.onrc.openvirtex.messages.OVXRawMessage;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.openflow.protocol.OFBarrierReply;
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFType;
+import org.openflow.protocol.factory.MessageParseException;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class InstallBatchTest extends TestCase {
+
+    private AtomicInteger sent;
+    private Runnable ingress;
+    private long timedOut;
+
+    public InstallBatchTest(String name) {
+	super(name);
+    }
+
+    public static Test suite() {
+	return new TestSuite( InstallBatchTest.class );
+    }
+
+    public void testNoDownstream() {
+	InstallBatch batch = InstallBatch.begin();
+	batch.release(this.ingress);
+	assertEquals(1, this.sent.get());
+    }
+
+    public void testWaitForBarriers() {
+	PhysicalSwitch sw1 = new PhysicalSwitch(1);
+	PhysicalSwitch sw2 = new PhysicalSwitch(2);
+	InstallBatch batch = InstallBatch.begin();
+	InstallBatch.sendDownstream(sw1, new OFFlowMod());
+	InstallBatch.sendDownstream(sw2, new OFFlowMod());
+	// one barrier per switch, however many rules it got
+	InstallBatch.sendDownstream(sw1, new OFFlowMod());
+	batch.release(this.ingress);
+	assertEquals(0, this.sent.get());
+
+	assertTrue(sw1.barrierReplied(PhysicalSwitch.BARRIER_XID));
+	assertFalse(sw1.barrierReplied(PhysicalSwitch.BARRIER_XID + 1));
+	assertEquals(0, this.sent.get());
+	// a reply only counts once
+	assertFalse(sw1.barrierReplied(PhysicalSwitch.BARRIER_XID));
+	assertEquals(0, this.sent.get());
+
+	assertTrue(sw2.barrierReplied(PhysicalSwitch.BARRIER_XID));
+	assertEquals(1, this.sent.get());
+    }
+
+    /*
+     * Hands the switch a barrier reply as it comes off the wire.
+     */
+    private void receiveBarrierReply(PhysicalSwitch sw, int xid)
+	    throws MessageParseException {
+	OFBarrierReply reply = new OFBarrierReply();
+	reply.setXid(xid);
+	ChannelBuffer frame = ChannelBuffers.buffer(reply.getLengthU());
+	reply.writeTo(frame);
+	for (OFMessage msg : OVXMessageFactory.getInstance().parseMessage(frame)) {
+	    assertTrue(msg instanceof OVXRawMessage);
+	    sw.handleIO(msg);
+	}
+    }
+
+    public void testBarrierReplyFrame() throws MessageParseException {
+	PhysicalSwitch sw1 = new PhysicalSwitch(1);
+	PhysicalSwitch sw2 = new PhysicalSwitch(2);
+	InstallBatch batch = InstallBatch.begin();
+	InstallBatch.sendDownstream(sw1, new OFFlowMod());
+	InstallBatch.sendDownstream(sw2, new OFFlowMod());
+	batch.release(this.ingress);
+
+	this.receiveBarrierReply(sw1, PhysicalSwitch.BARRIER_XID);
+	assertEquals(0, this.sent.get());
+	// the reply was taken by the barrier, not left for a tenant
+	assertFalse(sw1.barrierReplied(PhysicalSwitch.BARRIER_XID));
+	this.receiveBarrierReply(sw2, PhysicalSwitch.BARRIER_XID);
+	assertEquals(1, this.sent.get());
+	assertEquals(0, InstallBatch.getTimedOutCount() - this.timedOut);
+    }
+
+    public void testOutsideBatch() {
+	PhysicalSwitch sw = new PhysicalSwitch(1);
+	InstallBatch.sendDownstream(sw, new OFFlowMod());
+	assertFalse(sw.barrierReplied(PhysicalSwitch.BARRIER_XID));
+
+	// a closed batch no longer collects switches
+	InstallBatch batch = InstallBatch.begin();
+	batch.close();
+	InstallBatch.sendDownstream(sw, new OFFlowMod());
+	batch.release(this.ingress);
+	assertEquals(1, this.sent.get());
+	assertFalse(sw.barrierReplied(PhysicalSwitch.BARRIER_XID));
+    }
+
+    public void testClosedBeforeRelease() {
+	final List<OFMessage> received = new ArrayList<OFMessage>();
+	PhysicalSwitch sw = new PhysicalSwitch(1) {
+	    @Override
+	    public void sendMsg(OFMessage msg, OVXSendMsg from) {
+		received.add(msg);
+	    }
+	};
+	InstallBatch batch = InstallBatch.begin();
+	InstallBatch.sendDownstream(sw, new OFFlowMod());
+	// nothing goes out before the batch is released
+	assertTrue(received.isEmpty());
+	batch.close();
+	// and nothing once it was refused
+	batch.release(this.ingress);
+	assertTrue(received.isEmpty());
+	assertFalse(sw.barrierReplied(PhysicalSwitch.BARRIER_XID));
+
+	batch = InstallBatch.begin();
+	InstallBatch.sendDownstream(sw, new OFFlowMod());
+	batch.release(this.ingress);
+	assertEquals(OFType.FLOW_MOD, received.get(0).getType());
+    }
+
+    public void testNested() {
+	PhysicalSwitch sw1 = new PhysicalSwitch(1);
+	PhysicalSwitch sw2 = new PhysicalSwitch(2);
+	InstallBatch outer = InstallBatch.begin();
+	InstallBatch inner = InstallBatch.begin();
+	InstallBatch.sendDownstream(sw1, new OFFlowMod());
+	inner.release(this.ingress);
+	InstallBatch.sendDownstream(sw2, new OFFlowMod());
+	outer.release(this.ingress);
+
+	assertTrue(sw2.barrierReplied(PhysicalSwitch.BARRIER_XID));
+	assertEquals(1, this.sent.get());
+	assertTrue(sw1.barrierReplied(PhysicalSwitch.BARRIER_XID));
+	assertEquals(2, this.sent.get());
+    }
+
+    public void testTimeout() throws InterruptedException {
+	PhysicalSwitch sw = new PhysicalSwitch(1);
+	final CountDownLatch done = new CountDownLatch(1);
+	InstallBatch batch = InstallBatch.begin();
+	InstallBatch.sendDownstream(sw, new OFFlowMod());
+	batch.release(new Runnable() {
+	    @Override
+	    public void run() {
+		done.countDown();
+	    }
+	});
+	// the switch never replies: the ingress goes out anyway
+	assertTrue(done.await(5, TimeUnit.SECONDS));
+	assertEquals(1, InstallBatch.getTimedOutCount() - this.timedOut);
+	// and the barrier is forgotten
+	assertFalse(sw.barrierReplied(PhysicalSwitch.BARRIER_XID));
+    }
+
+    protected void setUp() throws Exception {
+	super.setUp();
+	this.sent = new AtomicInteger(0);
+	this.timedOut = InstallBatch.getTimedOutCount();
+	this.ingress = new Runnable() {
+	    @Override
+	    public void run() {
+		InstallBatchTest.this.sent.incrementAndGet();
+	    }
+	};
+    }
+
+    protected void tearDown() throws Exception {
+	super.tearDown();
+    }
+
+}
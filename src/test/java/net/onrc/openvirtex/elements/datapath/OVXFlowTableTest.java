@@ -0,0 +1,342 @@
+package net.onrc.openvirtex.elements.datapath;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.onrc.openvirtex.core.io.OVXSendMsg;
+import net.onrc.openvirtex.messages.OVXFlowMod;
+
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFFlowRemoved;
+import org.openflow.protocol.OFFlowRemoved.OFFlowRemovedReason;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPort;
+import org.openflow.protocol.OFStatisticsRequest;
+import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.action.OFActionOutput;
+import org.openflow.protocol.statistics.OFFlowStatisticsRequest;
+import org.openflow.protocol.statistics.OFStatisticsType;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class OVXFlowTableTest extends TestCase {
+
+    private static final byte[] MAC_A = { 0, 0, 0, 0, 0, 1 };
+    private static final byte[] MAC_B = { 0, 0, 0, 0, 0, 2 };
+    private static final int TENANT = 3;
+
+    private OVXFlowTable table;
+
+    public OVXFlowTableTest(String name) {
+	super(name);
+    }
+
+    public static Test suite() {
+	return new TestSuite( OVXFlowTableTest.class );
+    }
+
+    private OFMatch dlDst(byte[] mac) {
+	OFMatch match = new OFMatch();
+	match.setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_DL_DST);
+	match.setDataLayerDestination(mac);
+	return match;
+    }
+
+    private OFMatch packet(byte[] dlDst, int nwDst) {
+	OFMatch match = new OFMatch();
+	match.setWildcards(0);
+	match.setInputPort((short) 1);
+	match.setDataLayerDestination(dlDst);
+	match.setDataLayerType((short) 0x800);
+	match.setNetworkDestination(nwDst);
+	return match;
+    }
+
+    private OFFlowMod flowMod(short command, OFMatch match, int priority, int outPort) {
+	OFFlowMod fm = new OFFlowMod();
+	fm.setCommand(command);
+	fm.setMatch(match);
+	fm.setPriority((short) priority);
+	fm.setCookie(priority);
+	fm.setOutPort(OFPort.OFPP_NONE);
+	fm.setActions(Collections.<OFAction> singletonList(
+		new OFActionOutput((short) outPort)));
+	return fm;
+    }
+
+    private short outPort(OVXFlowEntry entry) {
+	return ((OFActionOutput) entry.getActions().get(0)).getPort();
+    }
+
+    public void testLookupByPriority() {
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_ADD, new OFMatch(), 1, 1));
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_ADD, this.dlDst(MAC_A), 100, 2));
+	OFMatch net = new OFMatch();
+	net.setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_DL_TYPE
+		& ~OFMatch.OFPFW_NW_DST_MASK | 8 << OFMatch.OFPFW_NW_DST_SHIFT);
+	net.setDataLayerType((short) 0x800);
+	net.setNetworkDestination(0x0a000000);
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_ADD, net, 200, 3));
+	
+	assertEquals(3, this.table.size());
+	assertEquals(2, this.outPort(this.table.lookup(this.packet(MAC_A, 0x0b000001))));
+	assertEquals(1, this.outPort(this.table.lookup(this.packet(MAC_B, 0x0b000001))));
+	// the /24 rule wins whatever the MAC
+	assertEquals(3, this.outPort(this.table.lookup(this.packet(MAC_A, 0x0a0000ff))));
+	assertEquals(3, this.outPort(this.table.lookup(this.packet(MAC_B, 0x0a000001))));
+    }
+
+    public void testAddReplacesIdentical() {
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_ADD, this.dlDst(MAC_A), 10, 1));
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_ADD, this.dlDst(MAC_A), 10, 2));
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_ADD, this.dlDst(MAC_A), 20, 3));
+	
+	assertEquals(2, this.table.size());
+	assertEquals(2, this.outPort(this.table.getEntry(this.dlDst(MAC_A), (short) 10)));
+	assertEquals(3, this.outPort(this.table.lookup(this.packet(MAC_A, 0))));
+    }
+
+    public void testCheckOverlap() {
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_ADD, this.dlDst(MAC_A), 10, 1));
+	OFFlowMod fm = this.flowMod(OFFlowMod.OFPFC_ADD, new OFMatch(), 10, 2);
+	fm.setFlags(OFFlowMod.OFPFF_CHECK_OVERLAP);
+	assertTrue(this.table.rejects(fm));
+	assertFalse(this.table.handleFlowMod(fm));
+	
+	fm = this.flowMod(OFFlowMod.OFPFC_ADD, this.dlDst(MAC_B), 10, 2);
+	fm.setFlags(OFFlowMod.OFPFF_CHECK_OVERLAP);
+	// the check alone leaves the table as it is
+	assertFalse(this.table.rejects(fm));
+	assertEquals(1, this.table.size());
+	assertTrue(this.table.handleFlowMod(fm));
+	fm = this.flowMod(OFFlowMod.OFPFC_ADD, new OFMatch(), 11, 2);
+	fm.setFlags(OFFlowMod.OFPFF_CHECK_OVERLAP);
+	assertTrue(this.table.handleFlowMod(fm));
+	assertEquals(3, this.table.size());
+    }
+
+    public void testModify() {
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_ADD, this.dlDst(MAC_A), 10, 1));
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_ADD, this.dlDst(MAC_B), 20, 1));
+	
+	// non strict modifies every rule at least as specific, keeping cookies
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_MODIFY, new OFMatch(), 0, 5));
+	assertEquals(2, this.table.size());
+	OVXFlowEntry entry = this.table.getEntry(this.dlDst(MAC_B), (short) 20);
+	assertEquals(5, this.outPort(entry));
+	assertEquals(20, entry.getCookie());
+	
+	// strict needs the exact priority, and adds when nothing matches
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_MODIFY_STRICT, this.dlDst(MAC_A), 10, 6));
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_MODIFY_STRICT, this.dlDst(MAC_A), 11, 7));
+	assertEquals(6, this.outPort(this.table.getEntry(this.dlDst(MAC_A), (short) 10)));
+	assertEquals(7, this.outPort(this.table.getEntry(this.dlDst(MAC_A), (short) 11)));
+	assertEquals(3, this.table.size());
+    }
+
+    public void testDelete() {
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_ADD, this.dlDst(MAC_A), 10, 1));
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_ADD, this.dlDst(MAC_A), 20, 2));
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_ADD, this.dlDst(MAC_B), 10, 2));
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_ADD, new OFMatch(), 0, 1));
+	
+	// strict delete of a single rule
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_DELETE_STRICT, this.dlDst(MAC_A), 20, 0));
+	assertNull(this.table.getEntry(this.dlDst(MAC_A), (short) 20));
+	assertEquals(3, this.table.size());
+	
+	// the match all delete does not select more specific rules by out port 1
+	OFFlowMod fm = this.flowMod(OFFlowMod.OFPFC_DELETE, new OFMatch(), 0, 0);
+	fm.setOutPort((short) 1);
+	this.table.handleFlowMod(fm);
+	assertEquals(1, this.table.size());
+	assertEquals(2, this.outPort(this.table.lookup(this.packet(MAC_B, 0))));
+	assertNull(this.table.lookup(this.packet(MAC_A, 0)));
+	
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_DELETE, new OFMatch(), 0, 0));
+	assertEquals(0, this.table.size());
+	assertTrue(this.table.getEntries(new OFMatch(), OFPort.OFPP_NONE.getValue()).isEmpty());
+    }
+
+    private OFFlowMod checked(byte[] dlDst, int priority) {
+	OFMatch match = new OFMatch();
+	match.setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_DL_DST
+		& ~OFMatch.OFPFW_DL_TYPE);
+	match.setDataLayerDestination(dlDst);
+	match.setDataLayerType((short) 0x800);
+	OFFlowMod fm = this.flowMod(OFFlowMod.OFPFC_ADD, match, priority, 2);
+	fm.setFlags(OFFlowMod.OFPFF_CHECK_OVERLAP);
+	return fm;
+    }
+
+    public void testCheckOverlapSharedFields() {
+	OFMatch match = this.dlDst(MAC_A);
+	match.setWildcards(match.getWildcards() & ~OFMatch.OFPFW_IN_PORT);
+	match.setInputPort((short) 1);
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_ADD, match, 10, 1));
+	OFMatch other = match.clone();
+	other.setDataLayerDestination(MAC_B);
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_ADD, other, 20, 1));
+	
+	// the rules only share the destination, and the priority counts
+	assertTrue(this.table.rejects(this.checked(MAC_A, 10)));
+	assertFalse(this.table.rejects(this.checked(MAC_B, 10)));
+	assertFalse(this.table.rejects(this.checked(MAC_A, 11)));
+	
+	// the index follows the rules
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_DELETE_STRICT, match.clone(), 10, 0));
+	assertFalse(this.table.rejects(this.checked(MAC_A, 10)));
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_ADD, match.clone(), 10, 1));
+	assertTrue(this.table.rejects(this.checked(MAC_A, 10)));
+	
+	// nothing in common with a rule on the in port alone
+	OFMatch port = new OFMatch();
+	port.setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_IN_PORT);
+	port.setInputPort((short) 2);
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_ADD, port, 12, 1));
+	assertTrue(this.table.rejects(this.checked(MAC_B, 12)));
+    }
+
+    public void testDeleteReported() {
+	final List<OFMessage> sent = new ArrayList<OFMessage>();
+	this.table = new OVXSingleSwitch(1, TENANT) {
+	    @Override
+	    public void sendMsg(OFMessage msg, OVXSendMsg from) {
+		sent.add(msg);
+	    }
+	}.getFlowTable();
+	OFFlowMod fm = this.flowMod(OFFlowMod.OFPFC_ADD, this.dlDst(MAC_A), 10, 1);
+	fm.setFlags(OFFlowMod.OFPFF_SEND_FLOW_REM);
+	this.table.handleFlowMod(fm);
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_ADD, this.dlDst(MAC_B), 10, 2));
+	
+	// only the rule that asked for it is reported
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_DELETE, new OFMatch(), 0, 0));
+	assertEquals(0, this.table.size());
+	assertEquals(1, sent.size());
+	OFFlowRemoved removed = (OFFlowRemoved) sent.get(0);
+	assertEquals(OFFlowRemovedReason.OFPRR_DELETE, removed.getReason());
+	assertEquals(10, removed.getCookie());
+	assertEquals(10, removed.getPriority());
+	assertEquals(this.dlDst(MAC_A), removed.getMatch());
+    }
+
+    public void testGetEntries() {
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_ADD, this.dlDst(MAC_A), 10, 1));
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_ADD, this.dlDst(MAC_B), 10, 2));
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_ADD, new OFMatch(), 0, 1));
+	
+	assertEquals(3, this.table.getEntries(new OFMatch(), OFPort.OFPP_NONE.getValue()).size());
+	assertEquals(2, this.table.getEntries(new OFMatch(), (short) 1).size());
+	assertEquals(1, this.table.getEntries(this.dlDst(MAC_B), OFPort.OFPP_NONE.getValue()).size());
+    }
+
+    public void testPhysicalCookie() {
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_ADD, this.dlDst(MAC_A), 10, 1));
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_ADD, this.dlDst(MAC_B), 10, 2));
+	OVXFlowEntry a = this.table.getEntry(this.dlDst(MAC_A), (short) 10);
+	OVXFlowEntry b = this.table.getEntry(this.dlDst(MAC_B), (short) 10);
+	
+	assertEquals(TENANT, (int) (a.getPhysicalCookie() >>> 32));
+	assertFalse(a.getPhysicalCookie() == b.getPhysicalCookie());
+	assertEquals(10, a.getCookie());
+	assertSame(a, this.table.getEntry(a.getPhysicalCookie()));
+	
+	// a replaced rule gets a new cookie, the old one is forgotten
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_ADD, this.dlDst(MAC_A), 10, 3));
+	assertNull(this.table.getEntry(a.getPhysicalCookie()));
+	
+	assertSame(b, this.table.removeEntry(b.getPhysicalCookie()));
+	assertNull(this.table.removeEntry(b.getPhysicalCookie()));
+	assertNull(this.table.lookup(this.packet(MAC_B, 0)));
+	assertEquals(1, this.table.size());
+    }
+
+    public void testStatsFilter() {
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_ADD, this.dlDst(MAC_A), 10, 1));
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_ADD, this.dlDst(MAC_B), 10, 2));
+	OVXFlowEntry a = this.table.getEntry(this.dlDst(MAC_A), (short) 10);
+	OVXFlowEntry b = this.table.getEntry(this.dlDst(MAC_B), (short) 10);
+	
+	OFFlowStatisticsRequest stat = new OFFlowStatisticsRequest();
+	stat.setMatch(this.dlDst(MAC_A));
+	stat.setOutPort(OFPort.OFPP_NONE.getValue());
+	OFStatisticsRequest msg = new OFStatisticsRequest();
+	msg.setXid(42);
+	msg.setStatisticType(OFStatisticsType.FLOW);
+	msg.setStatistics(Collections.singletonList(stat));
+	this.table.addStatsRequest(msg, 1);
+	
+	assertTrue(this.table.isSelected(42, a));
+	assertFalse(this.table.isSelected(42, b));
+	// unknown requests select nothing
+	assertFalse(this.table.isSelected(43, a));
+	
+	// nor do requests evicted by a later one in their slot
+	OFStatisticsRequest later = new OFStatisticsRequest();
+	later.setXid(42 + 64);
+	later.setStatisticType(OFStatisticsType.FLOW);
+	later.setStatistics(Collections.singletonList(stat));
+	this.table.addStatsRequest(later, 1);
+	assertFalse(this.table.isSelected(42, a));
+	assertTrue(this.table.isSelected(42 + 64, a));
+    }
+
+    public void testStatsReplies() {
+	this.table.handleFlowMod(this.flowMod(OFFlowMod.OFPFC_ADD, this.dlDst(MAC_A), 10, 1));
+	OVXFlowEntry a = this.table.getEntry(this.dlDst(MAC_A), (short) 10);
+	OFFlowStatisticsRequest stat = new OFFlowStatisticsRequest();
+	stat.setMatch(new OFMatch());
+	stat.setOutPort(OFPort.OFPP_NONE.getValue());
+	OFStatisticsRequest msg = new OFStatisticsRequest();
+	msg.setXid(7);
+	msg.setStatisticType(OFStatisticsType.FLOW);
+	msg.setStatistics(Collections.singletonList(stat));
+	// a big switch asks its three physical switches
+	this.table.addStatsRequest(msg, 3);
+	
+	assertTrue(this.table.expectsMore(7, true));
+	assertTrue(this.table.expectsMore(7, false));
+	assertTrue(this.table.expectsMore(7, false));
+	assertTrue(this.table.isSelected(7, a));
+	// the last reply of the last switch ends the request
+	assertFalse(this.table.expectsMore(7, false));
+	assertFalse(this.table.isSelected(7, a));
+	// replies to unknown requests keep their flag
+	assertFalse(this.table.expectsMore(7, false));
+	assertTrue(this.table.expectsMore(8, true));
+    }
+
+    public void testReinstall() {
+	OFFlowMod fm = this.flowMod(OFFlowMod.OFPFC_ADD, this.dlDst(MAC_A), 10, 2);
+	fm.setHardTimeout((short) 10);
+	fm.setFlags((short) (OFFlowMod.OFPFF_SEND_FLOW_REM | OFFlowMod.OFPFF_CHECK_OVERLAP));
+	this.table.handleFlowMod(fm);
+	OVXFlowEntry entry = this.table.getEntry(this.dlDst(MAC_A), (short) 10);
+	
+	OVXFlowMod again = OVXFlowMod.reinstall(entry, entry.getCreated() + 4000);
+	assertEquals(6, again.getHardTimeout());
+	assertEquals(OFFlowMod.OFPFF_SEND_FLOW_REM, again.getFlags());
+	assertEquals(entry.getMatch(), again.getMatch());
+	assertEquals(OVXFlowMod.MINIMUM_LENGTH + OFActionOutput.MINIMUM_LENGTH, again.getLengthU());
+	// its actions are its own
+	assertNotSame(entry.getActions().get(0), again.getActions().get(0));
+	assertEquals(entry.getActions(), again.getActions());
+	// installed again as it is, it does not overlap itself
+	assertTrue(this.table.handleFlowMod(again));
+	assertEquals(1, this.table.size());
+	
+	assertNull(OVXFlowMod.reinstall(entry, entry.getCreated() + 10000));
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+	super.setUp();
+	this.table = new OVXSingleSwitch(1, TENANT).getFlowTable();
+    }
+
+}
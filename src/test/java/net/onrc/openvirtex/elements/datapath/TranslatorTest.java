@@ -41,6 +41,45 @@ public class TranslatorTest extends TestCase {
 	assertEquals(pair.getXid(), ofh.getXid());
     }
         
+    public void testEviction() {
+	OVXSwitch vsw = new OVXSingleSwitch(1, 1);
+	
+	int first = this.translator.translate(1, vsw);
+	for (int i = 0; i < XidTranslator.INIT_SIZE; i++)
+	    this.translator.translate(0, vsw);
+	
+	// the slot of the first xid has been reused by now
+	assertNull(this.translator.untranslate(first));
+	assertEquals(1, this.translator.getEvictedCount());
+	assertEquals(XidTranslator.INIT_SIZE * 2, this.translator.getSize());
+	
+	// xids issued before the ring grew are still found
+	int last = XidTranslator.MIN_XID + XidTranslator.INIT_SIZE;
+	assertNotNull(this.translator.untranslate(last));
+	int next = this.translator.translate(2, vsw);
+	assertEquals(2, this.translator.untranslate(next).getXid());
+    }
+    
+    public void testRemove() {
+	OVXSwitch vsw = new OVXSingleSwitch(1, 1);
+	
+	int xid = this.translator.translate(7, vsw);
+	int other = this.translator.translate(8, vsw);
+	this.translator.remove(xid);
+	
+	// a duplicate reply is not delivered, and counts as unmatched
+	assertNull(this.translator.untranslate(xid));
+	assertEquals(1, this.translator.getUnmatchedCount());
+	assertEquals(8, this.translator.untranslate(other).getXid());
+    }
+    
+    public void testUnmatched() {
+	assertNull(this.translator.untranslate(0));
+	assertNull(this.translator.untranslate(XidTranslator.MIN_XID + 10));
+	assertEquals(2, this.translator.getUnmatchedCount());
+	assertEquals(0, this.translator.getEvictedCount());
+    }
+        
     protected void setUp() throws Exception {
 	this.translator = new XidTranslator();
 	super.setUp();
@@ -0,0 +1,16 @@
+package net.onrc.openvirtex.elements.network;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+public class BaseNetworkTests {
+
+    public static Test suite() {
+	TestSuite suite = new TestSuite(BaseNetworkTests.class.getName());
+	//$JUnit-BEGIN$
+	suite.addTest(PhysicalNetworkTest.suite());
+	//$JUnit-END$
+	return suite;
+    }
+
+}
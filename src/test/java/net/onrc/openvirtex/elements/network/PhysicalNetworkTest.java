@@ -0,0 +1,96 @@
+package net.onrc.openvirtex.elements.network;
+
+import java.util.Set;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.link.PhysicalLink;
+import net.onrc.openvirtex.elements.port.PhysicalPort;
+
+public class PhysicalNetworkTest extends TestCase {
+
+    private PhysicalNetwork phy = null;
+    private TestTopology topology = null;
+    private PhysicalSwitch a, b;
+
+    public PhysicalNetworkTest(String name) {
+	super(name);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static TestSuite suite() {
+	return new TestSuite(PhysicalNetworkTest.class);
+    }
+
+    public void testLinkIndexed() {
+	PhysicalPort src = this.a.getPort((short) 1);
+	PhysicalPort dst = this.b.getPort((short) 1);
+	this.phy.createLink(src, dst);
+	PhysicalLink link = this.phy.getLink(src, dst);
+	assertNotNull(link);
+	assertSame(dst, this.phy.getNeighborPort(src));
+	assertNull(this.phy.getLink(dst, src));
+	assertNull(this.phy.getLink(src, this.b.getPort((short) 2)));
+	// the port is still found once its state changed
+	src.setState(1);
+	assertSame(link, this.phy.getLink(src, dst));
+	assertSame(dst, this.phy.getNeighborPort(src));
+
+	this.phy.removeLink(src, dst);
+	assertNull(this.phy.getLink(src, dst));
+	assertNull(this.phy.getNeighborPort(src));
+	assertTrue(this.phy.getLinks(this.a.getSwitchId()).isEmpty());
+    }
+
+    public void testAdjacency() {
+	// two links from a to b
+	this.phy.createLink(this.a.getPort((short) 1), this.b.getPort((short) 1));
+	this.phy.createLink(this.a.getPort((short) 2), this.b.getPort((short) 2));
+	assertEquals(2, this.phy.getLinks(this.a.getSwitchId()).size());
+	assertTrue(this.phy.getNeighbors(this.a).contains(this.b));
+	assertTrue(this.phy.getNeighbors(this.b).isEmpty());
+
+	// b stays a neighbor over the link left
+	this.phy.removeLink(this.a.getPort((short) 1), this.b.getPort((short) 1));
+	Set<PhysicalLink> links = this.phy.getLinks(this.a.getSwitchId());
+	assertEquals(1, links.size());
+	assertSame(this.b.getPort((short) 2), links.iterator().next().getDstPort());
+	assertTrue(this.phy.getNeighbors(this.a).contains(this.b));
+	try {
+	    links.clear();
+	    fail("published link sets must be immutable");
+	} catch (UnsupportedOperationException e) {
+	}
+    }
+
+    public void testSwitchesSnapshot() {
+	Set<PhysicalSwitch> before = this.phy.getSwitches();
+	assertTrue(before.contains(this.a));
+	PhysicalSwitch c = this.topology.physicalSwitch();
+	// a snapshot does not change under its reader
+	assertFalse(before.contains(c));
+	assertTrue(this.phy.getSwitches().contains(c));
+	assertSame(c, this.phy.getSwitch(c.getSwitchId()));
+	try {
+	    before.clear();
+	    fail("published switch sets must be immutable");
+	} catch (UnsupportedOperationException e) {
+	}
+    }
+
+    protected void setUp() throws Exception {
+	super.setUp();
+	this.phy = PhysicalNetwork.getInstance();
+	this.topology = new TestTopology(this.phy);
+	this.a = this.topology.physicalSwitch();
+	this.b = this.topology.physicalSwitch();
+    }
+
+    protected void tearDown() throws Exception {
+	super.tearDown();
+    }
+
+}
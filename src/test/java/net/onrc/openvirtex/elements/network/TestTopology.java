@@ -0,0 +1,191 @@
+package net.onrc.openvirtex.elements.network;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.onrc.openvirtex.core.io.OVXSendMsg;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.link.PhysicalLink;
+import net.onrc.openvirtex.elements.port.PhysicalPort;
+import net.onrc.openvirtex.messages.OVXMessageFactory;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.openflow.protocol.OFBarrierReply;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPhysicalPort;
+import org.openflow.protocol.OFType;
+import org.openflow.protocol.factory.MessageParseException;
+
+/**
+ * Builds physical topologies for the tests, out of switches that answer
+ * barriers the way a real switch does, so the updates that wait for them
+ * complete without any wall clock wait. The switches keep what they are
+ * sent, and the topology can hold their barrier replies back, to check what
+ * happens before and after a switch confirms its rules.
+ */
+public class TestTopology {
+
+    /* shared by all the tests, so the switches they build never clash */
+    private static long nextDpid = 7000;
+
+    private final PhysicalNetwork phy;
+    private final List<BarrierSwitch> switches = new ArrayList<BarrierSwitch>();
+    private volatile boolean holding = false;
+
+    public TestTopology(PhysicalNetwork phy) {
+	this.phy = phy;
+    }
+
+    /**
+     * @return a new switch with ports 1 to 3, added to the network
+     */
+    public PhysicalSwitch physicalSwitch() {
+	BarrierSwitch sw = new BarrierSwitch(nextDpid++);
+	synchronized (this.switches) {
+	    this.switches.add(sw);
+	}
+	this.phy.addSwitch(sw);
+	long dpid = sw.getSwitchId();
+	for (short i = 1 ; i <= 3 ; i++) {
+	    OFPhysicalPort ofPort = new OFPhysicalPort();
+	    ofPort.setPortNumber(i);
+	    // ports are told apart by their address
+	    ofPort.setHardwareAddress(new byte[] { 0, 0, 0,
+		    (byte) (dpid >> 8), (byte) dpid, (byte) i });
+	    sw.addPort(new PhysicalPort(ofPort, sw, true));
+	}
+	return sw;
+    }
+
+    /**
+     * Links the two ports both ways, and waits for the network to route over
+     * the links.
+     *
+     * @return the link from src to dst
+     */
+    public PhysicalLink connect(PhysicalSwitch src, short srcPort,
+	    PhysicalSwitch dst, short dstPort) throws InterruptedException {
+	this.phy.createLink(src.getPort(srcPort), dst.getPort(dstPort));
+	this.phy.createLink(dst.getPort(dstPort), src.getPort(srcPort));
+	this.settle();
+	return this.phy.getLink(src.getPort(srcPort), dst.getPort(dstPort));
+    }
+
+    /**
+     * Waits until the network rerouted around every link change so far.
+     * Barriers are answered as they are sent, so the routes replaced are
+     * published by then.
+     */
+    public void settle() throws InterruptedException {
+	this.phy.awaitReroutes();
+    }
+
+    /**
+     * Keeps the barriers sent from now on unanswered, until
+     * {@link #answerBarriers(boolean)}.
+     */
+    public void holdBarriers() {
+	this.holding = true;
+    }
+
+    /**
+     * Answers the barriers held so far. Those sent meanwhile are held in
+     * turn, unless the topology stopped holding them.
+     *
+     * @param holding
+     *            whether to hold the barriers sent from now on
+     * @return the number of barriers answered
+     */
+    public int answerBarriers(boolean holding) {
+	this.holding = holding;
+	List<BarrierSwitch> all;
+	synchronized (this.switches) {
+	    all = new ArrayList<BarrierSwitch>(this.switches);
+	}
+	List<List<Integer>> held = new ArrayList<List<Integer>>();
+	for (BarrierSwitch sw : all)
+	    held.add(sw.takeHeld());
+	int answered = 0;
+	for (int i = 0 ; i < all.size() ; i++) {
+	    for (int xid : held.get(i))
+		all.get(i).reply(xid);
+	    answered += held.get(i).size();
+	}
+	return answered;
+    }
+
+    /**
+     * @return the messages sent to sw so far, barriers aside
+     */
+    public List<OFMessage> getSent(PhysicalSwitch sw) {
+	BarrierSwitch bsw = (BarrierSwitch) sw;
+	synchronized (bsw) {
+	    return new ArrayList<OFMessage>(bsw.sent);
+	}
+    }
+
+    /**
+     * Forgets the messages sent to the switches so far.
+     */
+    public void clearSent() {
+	synchronized (this.switches) {
+	    for (BarrierSwitch sw : this.switches) {
+		synchronized (sw) {
+		    sw.sent.clear();
+		}
+	    }
+	}
+    }
+
+    /*
+     * Answers each barrier it is sent with a reply frame, handled as if it
+     * came in from the channel, right away or once the topology answers the
+     * barriers it held. The other messages are kept, as the switch is not
+     * connected.
+     */
+    private class BarrierSwitch extends PhysicalSwitch {
+
+	private final List<OFMessage> sent = new ArrayList<OFMessage>();
+	private final List<Integer> held = new ArrayList<Integer>();
+
+	BarrierSwitch(long switchId) {
+	    super(switchId);
+	}
+
+	@Override
+	public void sendMsg(OFMessage msg, OVXSendMsg from) {
+	    if (msg.getType() != OFType.BARRIER_REQUEST) {
+		synchronized (this) {
+		    this.sent.add(msg);
+		}
+		super.sendMsg(msg, from);
+	    } else if (TestTopology.this.holding) {
+		synchronized (this) {
+		    this.held.add(msg.getXid());
+		}
+	    } else {
+		this.reply(msg.getXid());
+	    }
+	}
+
+	synchronized List<Integer> takeHeld() {
+	    List<Integer> xids = new ArrayList<Integer>(this.held);
+	    this.held.clear();
+	    return xids;
+	}
+
+	void reply(int xid) {
+	    OFBarrierReply reply = new OFBarrierReply();
+	    reply.setXid(xid);
+	    ChannelBuffer frame = ChannelBuffers.buffer(reply.getLengthU());
+	    reply.writeTo(frame);
+	    try {
+		this.handleIO(OVXMessageFactory.getInstance().parseMessageOne(frame));
+	    } catch (MessageParseException e) {
+		throw new IllegalStateException(e);
+	    }
+	}
+    }
+
+}
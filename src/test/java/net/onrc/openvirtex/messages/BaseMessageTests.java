@@ -0,0 +1,18 @@
+package net.onrc.openvirtex.messages;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+public class BaseMessageTests {
+
+    public static Test suite() {
+	TestSuite suite = new TestSuite(BaseMessageTests.class.getName());
+	//$JUnit-BEGIN$
+	suite.addTest(PacketInBucketTest.suite());
+	suite.addTest(OVXRawMessageTest.suite());
+	suite.addTest(OVXPacketInTest.suite());
+	//$JUnit-END$
+	return suite;
+    }
+
+}
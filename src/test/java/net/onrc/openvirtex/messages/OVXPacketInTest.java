@@ -0,0 +1,129 @@
+package net.onrc.openvirtex.messages;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.core.io.OVXSendMsg;
+import net.onrc.openvirtex.elements.OVXMap;
+import net.onrc.openvirtex.elements.address.PhysicalIPAddress;
+import net.onrc.openvirtex.elements.datapath.OVXSingleSwitch;
+import net.onrc.openvirtex.elements.datapath.OVXSwitch;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.network.OVXNetwork;
+import net.onrc.openvirtex.elements.network.PhysicalNetwork;
+import net.onrc.openvirtex.elements.network.TestTopology;
+import net.onrc.openvirtex.elements.port.OVXPort;
+import net.onrc.openvirtex.packet.Data;
+import net.onrc.openvirtex.packet.Ethernet;
+import net.onrc.openvirtex.util.MACAddress;
+
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPacketIn;
+import org.openflow.util.U16;
+
+public class OVXPacketInTest extends TestCase {
+
+    private static final String HOST = "00:00:00:00:0a:01";
+    private static final int FRAME = 200;
+
+    private PhysicalSwitch sw = null;
+    private OVXSwitch vsw = null;
+    private OVXPort port = null;
+    private final List<OFMessage> sent = new ArrayList<OFMessage>();
+
+    public OVXPacketInTest(String name) {
+	super(name);
+    }
+
+    public static Test suite() {
+	return new TestSuite( OVXPacketInTest.class );
+    }
+
+    /* a packet in of a FRAME bytes long frame from HOST, on port 1 */
+    private OVXPacketIn packetIn() {
+	Ethernet eth = new Ethernet();
+	eth.setSourceMACAddress(HOST);
+	eth.setDestinationMACAddress("00:00:00:00:0a:02");
+	eth.setEtherType((short) 0x88b5);
+	eth.setPayload(new Data(new byte[FRAME - 14]));
+	byte[] frame = eth.serialize();
+	frame[frame.length - 1] = 0x7f;
+	OVXPacketIn pi = new OVXPacketIn();
+	pi.setInPort((short) 1);
+	pi.setBufferId(OVXPacketOut.BUFFER_ID_NONE);
+	pi.setReason(OFPacketIn.OFPacketInReason.NO_MATCH);
+	pi.setPacketData(frame);
+	pi.setTotalLength(U16.t(frame.length));
+	return pi;
+    }
+
+    /* the packet in the controller got for pi */
+    private OVXPacketIn virtualize(OVXPacketIn pi) {
+	pi.virtualize(this.sw);
+	assertEquals(1, this.sent.size());
+	return (OVXPacketIn) this.sent.get(0);
+    }
+
+    public void testTruncated() {
+	assertEquals(128, this.vsw.getMissSendLen());
+	OVXPacketIn pi = this.virtualize(this.packetIn());
+	assertEquals(128, pi.getPacketData().length);
+	// the controller is told how long the frame was
+	assertEquals(FRAME, U16.f(pi.getTotalLength()));
+	assertEquals(this.port.getPortNumber(), pi.getInPort());
+	// the buffer keeps all of it, for the packet out
+	byte[] buffered = this.vsw.getBufferMap().getPacketData(pi.getBufferId());
+	assertEquals(FRAME, buffered.length);
+	assertEquals(0x7f, buffered[FRAME - 1]);
+    }
+
+    public void testMappedMissSendLen() {
+	// the physical switch sends up as much as its virtual switch asks for
+	assertEquals(128, this.sw.getMissSendLen());
+    }
+
+    public void testMissSendLen() {
+	this.vsw.setMissSendLen((short) 64);
+	OVXPacketIn pi = this.virtualize(this.packetIn());
+	assertEquals(64, pi.getPacketData().length);
+	assertEquals(FRAME, U16.f(pi.getTotalLength()));
+    }
+
+    public void testWholeFrame() {
+	this.vsw.setMissSendLen(U16.t(0xffff));
+	OVXPacketIn pi = this.virtualize(this.packetIn());
+	assertEquals(FRAME, pi.getPacketData().length);
+	assertEquals(0x7f, pi.getPacketData()[FRAME - 1]);
+	assertEquals(FRAME, U16.f(pi.getTotalLength()));
+    }
+
+    protected void setUp() throws Exception {
+	super.setUp();
+	new OpenVirteXController(null, "localhost", 16633, 8, true);
+	OVXNetwork net = new OVXNetwork("tcp", "localhost", 6633,
+		new PhysicalIPAddress("10.0.0.0"), (short) 24);
+	net.register();
+	this.sw = new TestTopology(PhysicalNetwork.getInstance()).physicalSwitch();
+	this.vsw = new OVXSingleSwitch(this.sw.getSwitchId(), net.getTenantId()) {
+	    @Override
+	    public void sendMsg(OFMessage msg, OVXSendMsg from) {
+		OVXPacketInTest.this.sent.add(msg);
+	    }
+	};
+	this.vsw.register(Collections.singletonList(this.sw));
+	this.vsw.setActive(true);
+	this.port = new OVXPort(net.getTenantId(), this.sw.getPort((short) 1), true);
+	this.port.register();
+	OVXMap.getInstance().addMAC(MACAddress.valueOf(HOST), net.getTenantId());
+    }
+
+    protected void tearDown() throws Exception {
+	super.tearDown();
+    }
+
+}
@@ -0,0 +1,96 @@
+package net.onrc.openvirtex.messages;
+
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFType;
+import org.openflow.protocol.factory.MessageParseException;
+
+public class OVXRawMessageTest extends TestCase {
+
+    private static final byte[] PAYLOAD = "hello".getBytes();
+
+    public OVXRawMessageTest(String name) {
+	super(name);
+    }
+
+    public static Test suite() {
+	return new TestSuite( OVXRawMessageTest.class );
+    }
+
+    /*
+     * An OpenFlow 1.0 header followed by the payload.
+     */
+    private static ChannelBuffer frame(ChannelBuffer buf, OFType type, int xid, byte[] payload) {
+	buf.writeByte(OFMessage.OFP_VERSION);
+	buf.writeByte(type.getTypeValue());
+	buf.writeShort(OFMessage.MINIMUM_LENGTH + payload.length);
+	buf.writeInt(xid);
+	buf.writeBytes(payload);
+	return buf;
+    }
+
+    public void testDecodePatchEncode() throws MessageParseException {
+	ChannelBuffer in = ChannelBuffers.dynamicBuffer();
+	frame(in, OFType.ECHO_REQUEST, 42, PAYLOAD);
+	frame(in, OFType.BARRIER_REPLY, 43, new byte[0]);
+	List<OFMessage> msgs = OVXMessageFactory.getInstance().parseMessage(in);
+	assertEquals(2, msgs.size());
+	assertFalse(in.readable());
+
+	OVXRawMessage echo = (OVXRawMessage) msgs.get(0);
+	assertEquals(OFType.ECHO_REQUEST, echo.getType());
+	assertEquals(42, echo.getXid());
+	assertEquals(OFMessage.MINIMUM_LENGTH + PAYLOAD.length, echo.getLengthU());
+	OVXRawMessage barrier = (OVXRawMessage) msgs.get(1);
+	assertEquals(OFType.BARRIER_REPLY, barrier.getType());
+	assertEquals(43, barrier.getXid());
+
+	// the header is patched in the received buffer itself
+	echo.setType(OFType.ECHO_REPLY);
+	echo.setXid(7);
+	assertEquals(OFType.ECHO_REPLY.getTypeValue(), in.getByte(1));
+	assertEquals(7, in.getInt(4));
+	// and only in the frame of the message
+	assertEquals(43, in.getInt(OFMessage.MINIMUM_LENGTH + PAYLOAD.length + 4));
+
+	ChannelBuffer out = ChannelBuffers.dynamicBuffer();
+	echo.writeTo(out);
+	ChannelBuffer expected = frame(ChannelBuffers.dynamicBuffer(),
+		OFType.ECHO_REPLY, 7, PAYLOAD);
+	assertTrue(ChannelBuffers.equals(expected, out));
+    }
+
+    public void testOnlyRawTypes() throws MessageParseException {
+	ChannelBuffer in = frame(ChannelBuffers.dynamicBuffer(), OFType.HELLO,
+		1, new byte[0]);
+	List<OFMessage> msgs = OVXMessageFactory.getInstance().parseMessage(in);
+	assertEquals(1, msgs.size());
+	assertFalse(msgs.get(0) instanceof OVXRawMessage);
+	assertEquals(OFType.HELLO, msgs.get(0).getType());
+    }
+
+    public void testIncompleteFrame() throws MessageParseException {
+	ChannelBuffer whole = frame(ChannelBuffers.dynamicBuffer(),
+		OFType.ECHO_REQUEST, 42, PAYLOAD);
+	ChannelBuffer in = whole.copy(0, whole.readableBytes() - 1);
+	// the frame is left for the rest of it to arrive
+	assertNull(OVXMessageFactory.getInstance().parseMessage(in));
+	assertEquals(0, in.readerIndex());
+    }
+
+    protected void setUp() throws Exception {
+	super.setUp();
+    }
+
+    protected void tearDown() throws Exception {
+	super.tearDown();
+    }
+
+}
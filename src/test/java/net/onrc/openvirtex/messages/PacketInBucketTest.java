@@ -0,0 +1,69 @@
+package net.onrc.openvirtex.messages;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class PacketInBucketTest extends TestCase {
+
+    private static final long MS = 1000L * 1000;
+
+    public PacketInBucketTest(String name) {
+	super(name);
+    }
+
+    public static Test suite() {
+	return new TestSuite( PacketInBucketTest.class );
+    }
+
+    public void testBurst() {
+	PacketInBucket bucket = new PacketInBucket(PacketInBucket.Level.PORT, 100, 10);
+	long now = System.nanoTime();
+	long dropped = PacketInBucket.getDropped(PacketInBucket.Level.PORT);
+	
+	for (int i = 0 ; i < 10 ; i++)
+	    assertTrue(bucket.admit(now));
+	assertFalse(bucket.admit(now));
+	assertEquals(1, bucket.getDropped());
+	assertEquals(dropped + 1, PacketInBucket.getDropped(PacketInBucket.Level.PORT));
+    }
+
+    public void testRefill() {
+	PacketInBucket bucket = new PacketInBucket(PacketInBucket.Level.TENANT, 100, 10);
+	long now = System.nanoTime();
+	
+	for (int i = 0 ; i < 10 ; i++)
+	    assertTrue(bucket.admit(now));
+	// one token every 10ms
+	assertFalse(bucket.admit(now + 5 * MS));
+	assertTrue(bucket.admit(now + 10 * MS));
+	assertFalse(bucket.admit(now + 10 * MS));
+	// never more than the burst, however long the bucket was idle
+	now += 1000 * MS;
+	for (int i = 0 ; i < 10 ; i++)
+	    assertTrue(bucket.admit(now));
+	assertFalse(bucket.admit(now));
+    }
+
+    public void testUnlimited() {
+	PacketInBucket bucket = new PacketInBucket(PacketInBucket.Level.CONTROLLER, 0, 0);
+	for (int i = 0 ; i < 100000 ; i++)
+	    assertTrue(bucket.admit());
+	assertEquals(0, bucket.getDropped());
+    }
+
+    public void testSuppress() {
+	PacketInBucket.configure(0, 0, 0, (short) 0);
+	PacketInBucket bucket = PacketInBucket.forPort();
+	long now = System.nanoTime();
+	assertFalse(bucket.suppress(now));
+	
+	PacketInBucket.configure(0, 0, 0, (short) 1);
+	assertTrue(bucket.suppress(now));
+	// once per timeout
+	assertFalse(bucket.suppress(now + 500 * MS));
+	assertTrue(bucket.suppress(now + 1000 * MS));
+	PacketInBucket.configure(0, 0, 0, (short) 0);
+    }
+
+}
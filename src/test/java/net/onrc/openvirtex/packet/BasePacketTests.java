@@ -0,0 +1,16 @@
+package net.onrc.openvirtex.packet;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+public class BasePacketTests {
+
+    public static Test suite() {
+	TestSuite suite = new TestSuite(BasePacketTests.class.getName());
+	//$JUnit-BEGIN$
+	suite.addTest(PacketRewriterTest.suite());
+	//$JUnit-END$
+	return suite;
+    }
+
+}
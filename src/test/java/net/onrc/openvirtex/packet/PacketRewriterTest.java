@@ -0,0 +1,166 @@
+package net.onrc.openvirtex.packet;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Checks the in-place rewriter against rewriting the same frames through
+ * the packet classes, as OVXPacketIn used to.
+ */
+public class PacketRewriterTest extends TestCase {
+
+    private static final int SRC = IPv4.toIPv4Address("10.0.0.1");
+    private static final int DST = IPv4.toIPv4Address("10.0.0.2");
+    private static final int VSRC = IPv4.toIPv4Address("192.168.1.10");
+    private static final int VDST = IPv4.toIPv4Address("192.168.1.20");
+
+    public PacketRewriterTest(String name) {
+	super(name);
+    }
+
+    public static Test suite() {
+	return new TestSuite( PacketRewriterTest.class );
+    }
+
+    private Ethernet ethernet(short vlan, short etherType, IPacket payload) {
+	Ethernet eth = new Ethernet();
+	eth.setSourceMACAddress("00:00:00:00:00:01");
+	eth.setDestinationMACAddress("00:00:00:00:00:02");
+	eth.setVlanID(vlan);
+	eth.setEtherType(etherType);
+	eth.setPayload(payload);
+	return eth;
+    }
+
+    private byte[] ipv4(short vlan, byte protocol, IPacket payload, byte[] options) {
+	IPv4 ip = new IPv4();
+	ip.setVersion((byte) 4);
+	ip.setTtl((byte) 64);
+	ip.setIdentification((short) 0x1234);
+	ip.setProtocol(protocol);
+	ip.setSourceAddress(SRC);
+	ip.setDestinationAddress(DST);
+	ip.setOptions(options);
+	ip.setPayload(payload);
+	return this.ethernet(vlan, Ethernet.TYPE_IPv4, ip).serialize();
+    }
+
+    private byte[] arp(short vlan, short protocolType) {
+	ARP arp = new ARP();
+	arp.setHardwareType(ARP.HW_TYPE_ETHERNET);
+	arp.setProtocolType(protocolType);
+	arp.setHardwareAddressLength((byte) 6);
+	arp.setProtocolAddressLength((byte) 4);
+	arp.setOpCode(ARP.OP_REQUEST);
+	arp.setSenderHardwareAddress(new byte[] {0, 0, 0, 0, 0, 1});
+	arp.setTargetHardwareAddress(new byte[6]);
+	arp.setSenderProtocolAddress(SRC);
+	arp.setTargetProtocolAddress(DST);
+	return this.ethernet(vlan, Ethernet.TYPE_ARP, arp).serialize();
+    }
+
+    /*
+     * The rewrite OVXPacketIn used to do, plus the IPv4 checksum update it
+     * used to miss.
+     */
+    private byte[] expected(byte[] pkt, int src, int dst) {
+	Ethernet eth = new Ethernet();
+	eth.deserialize(pkt, 0, pkt.length);
+	eth.setVlanID(Ethernet.VLAN_UNTAGGED);
+	if (eth.getPayload() instanceof ARP) {
+	    ((ARP) eth.getPayload()).setSenderProtocolAddress(src);
+	    ((ARP) eth.getPayload()).setTargetProtocolAddress(dst);
+	} else {
+	    IPv4 ip = (IPv4) eth.getPayload();
+	    ip.setSourceAddress(src);
+	    ip.setDestinationAddress(dst);
+	    ip.resetChecksum();
+	}
+	return eth.serialize();
+    }
+
+    private byte[] rewriteIPv4(byte[] pkt, int src, int dst) {
+	byte[] rewritten = PacketRewriter.stripVlan(pkt.clone());
+	PacketRewriter.setIPv4Addresses(rewritten, src, dst);
+	return rewritten;
+    }
+
+    private byte[] rewriteARP(byte[] pkt, int src, int dst) {
+	byte[] rewritten = PacketRewriter.stripVlan(pkt.clone());
+	PacketRewriter.setARPAddresses(rewritten, src, dst);
+	return rewritten;
+    }
+
+    /* ones' complement sum of the IPv4 header, 0xffff when it is valid */
+    private int headerSum(byte[] pkt) {
+	int length = (pkt[14] & 0xf) * 4;
+	int sum = 0;
+	for (int i = 14 ; i < 14 + length ; i += 2)
+	    sum += (pkt[i] & 0xff) << 8 | pkt[i + 1] & 0xff;
+	while (sum > 0xffff)
+	    sum = (sum >>> 16) + (sum & 0xffff);
+	return sum;
+    }
+
+    public void testTCP() {
+	TCP tcp = new TCP();
+	tcp.setSourcePort((short) 1234);
+	tcp.setDestinationPort((short) 80);
+	tcp.setPayload(new Data(new byte[] {1, 2, 3, 4}));
+	for (short vlan : new short[] {Ethernet.VLAN_UNTAGGED, 42}) {
+	    byte[] pkt = this.ipv4(vlan, IPv4.PROTOCOL_TCP, tcp, null);
+	    assertTrue(Arrays.equals(this.expected(pkt, VSRC, VDST),
+		    this.rewriteIPv4(pkt, VSRC, VDST)));
+	}
+    }
+
+    public void testUDPWithOptions() {
+	UDP udp = new UDP();
+	udp.setSourcePort((short) 5000);
+	udp.setDestinationPort((short) 53);
+	udp.setPayload(new Data(new byte[] {5, 6, 7}));
+	byte[] pkt = this.ipv4((short) 7, IPv4.PROTOCOL_UDP, udp,
+		new byte[] {1, 1, 1, 0});
+	byte[] rewritten = this.rewriteIPv4(pkt, VSRC, VDST);
+	assertTrue(Arrays.equals(this.expected(pkt, VSRC, VDST), rewritten));
+	assertEquals(0xffff, this.headerSum(rewritten));
+    }
+
+    public void testChecksum() {
+	Random random = new Random(1);
+	byte[] pkt = this.ipv4(Ethernet.VLAN_UNTAGGED, IPv4.PROTOCOL_ICMP,
+		new ICMP(), null);
+	for (int i = 0 ; i < 10000 ; i++) {
+	    PacketRewriter.setIPv4Addresses(pkt, random.nextInt(), random.nextInt());
+	    assertEquals(0xffff, this.headerSum(pkt));
+	}
+	// and back to the original addresses
+	PacketRewriter.setIPv4Addresses(pkt, SRC, DST);
+	assertTrue(Arrays.equals(this.ipv4(Ethernet.VLAN_UNTAGGED,
+		IPv4.PROTOCOL_ICMP, new ICMP(), null), pkt));
+    }
+
+    public void testARP() {
+	for (short vlan : new short[] {Ethernet.VLAN_UNTAGGED, 42}) {
+	    byte[] pkt = this.arp(vlan, ARP.PROTO_TYPE_IP);
+	    assertTrue(Arrays.equals(this.expected(pkt, VSRC, VDST),
+		    this.rewriteARP(pkt, VSRC, VDST)));
+	}
+    }
+
+    public void testNonIPARP() {
+	byte[] pkt = this.arp(Ethernet.VLAN_UNTAGGED, (short) 0x86dd);
+	assertTrue(Arrays.equals(pkt, this.rewriteARP(pkt, VSRC, VDST)));
+    }
+
+    public void testShortFrame() {
+	byte[] pkt = Arrays.copyOf(this.ipv4(Ethernet.VLAN_UNTAGGED,
+		IPv4.PROTOCOL_ICMP, new ICMP(), null), 30);
+	assertTrue(Arrays.equals(pkt, this.rewriteIPv4(pkt, VSRC, VDST)));
+    }
+
+}
@@ -0,0 +1,20 @@
+package net.onrc.openvirtex.routing;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+public class BaseRoutingTests {
+
+    public static Test suite() {
+	TestSuite suite = new TestSuite(BaseRoutingTests.class.getName());
+	//$JUnit-BEGIN$
+	suite.addTest(ShortestPathTest.suite());
+	suite.addTest(EqualCostMultiPathTest.suite());
+	suite.addTest(WeightedCostMultiPathTest.suite());
+	suite.addTest(FailoverTest.suite());
+	suite.addTest(RouteUpdateTest.suite());
+	//$JUnit-END$
+	return suite;
+    }
+
+}
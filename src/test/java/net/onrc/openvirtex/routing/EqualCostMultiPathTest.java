@@ -0,0 +1,130 @@
+package net.onrc.openvirtex.routing;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.elements.address.PhysicalIPAddress;
+import net.onrc.openvirtex.elements.datapath.OVXBigSwitch;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.network.OVXNetwork;
+import net.onrc.openvirtex.elements.network.PhysicalNetwork;
+import net.onrc.openvirtex.elements.network.TestTopology;
+import net.onrc.openvirtex.elements.port.OVXPort;
+
+import org.openflow.protocol.OFMatch;
+
+public class EqualCostMultiPathTest extends TestCase {
+
+    private PhysicalNetwork phy = null;
+    private TestTopology topology = null;
+    private PhysicalSwitch a, b, c, d;
+    private OVXBigSwitch bigSwitch = null;
+    private OVXPort portA, portC;
+
+    public EqualCostMultiPathTest(String name) {
+	super(name);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static TestSuite suite() {
+	return new TestSuite(EqualCostMultiPathTest.class);
+    }
+
+    private OFMatch flow(int nwSrc, short tpSrc) {
+	OFMatch match = new OFMatch();
+	match.setNetworkSource(nwSrc);
+	match.setNetworkDestination(0x0a000002);
+	match.setNetworkProtocol((byte) 6);
+	match.setTransportSource(tpSrc);
+	match.setTransportDestination((short) 80);
+	return match;
+    }
+
+    public void testPathsPrecomputed() {
+	List<SwitchRoute> fwd = this.bigSwitch.getRoute(this.portA, this.portC).getPaths();
+	List<SwitchRoute> rev = this.bigSwitch.getRoute(this.portC, this.portA).getPaths();
+	assertEquals(2, fwd.size());
+	assertEquals(2, rev.size());
+	Set<PhysicalSwitch> spines = new HashSet<PhysicalSwitch>();
+	for (int i = 0 ; i < fwd.size() ; i++) {
+	    assertEquals(2, fwd.get(i).getRoute().size());
+	    spines.add(fwd.get(i).getRoute().get(0).getDstSwitch());
+	    // each path has its own id, shared with the way back over it
+	    assertEquals(fwd.get(i).getRouteId(), rev.get(i).getRouteId());
+	    assertSame(fwd.get(i).getRoute().get(0).getDstSwitch(),
+		    rev.get(i).getRoute().get(0).getDstSwitch());
+	}
+	assertFalse(fwd.get(0).getRouteId() == fwd.get(1).getRouteId());
+	assertEquals(new HashSet<PhysicalSwitch>(Arrays.asList(this.b, this.d)), spines);
+	// the first path is the one a shortest path route takes
+	assertEquals(fwd.get(0).getRoute(), this.bigSwitch.getRoutable()
+		.computePath(this.portA, this.portC));
+    }
+
+    public void testFlowsSpread() {
+	Set<Integer> used = new HashSet<Integer>();
+	for (int i = 0 ; i < 64 ; i++) {
+	    SwitchRoute route = this.bigSwitch.getRoute(this.portA, this.portC,
+		    this.flow(0x0a000001 + i, (short) (1024 + i)));
+	    // a flow always takes the same path
+	    assertSame(route, this.bigSwitch.getRoute(this.portA, this.portC,
+		    this.flow(0x0a000001 + i, (short) (1024 + i))));
+	    used.add(route.getRouteId());
+	}
+	assertEquals(2, used.size());
+    }
+
+    public void testLinkDown() throws InterruptedException {
+	SwitchRoute before = this.bigSwitch.getRoute(this.portA, this.portC);
+	this.phy.removeLink(this.a.getPort((short) 2), this.b.getPort((short) 1));
+	this.topology.settle();
+	assertEquals(1, this.bigSwitch.getRoute(this.portA, this.portC).getPaths().size());
+	assertEquals(1, this.bigSwitch.getRoute(this.portC, this.portA).getPaths().size());
+	SwitchRoute after = this.bigSwitch.getRoute(this.portA, this.portC);
+	assertSame(this.d, after.getRoute().get(0).getDstSwitch());
+	assertFalse(before.getRouteId() == after.getRouteId());
+	// every flow now takes the path left
+	assertSame(after, this.bigSwitch.getRoute(this.portA, this.portC,
+		this.flow(0x0a000001, (short) 1024)));
+    }
+
+    protected void setUp() throws Exception {
+	super.setUp();
+	new OpenVirteXController(null, "localhost", 16633, 8, true);
+	OVXNetwork net = new OVXNetwork("tcp", "localhost", 6633,
+		new PhysicalIPAddress("10.0.0.0"), (short) 24);
+	net.register();
+	this.phy = PhysicalNetwork.getInstance();
+	this.topology = new TestTopology(this.phy);
+
+	// a diamond: a reaches c over b or d
+	this.a = this.topology.physicalSwitch();
+	this.b = this.topology.physicalSwitch();
+	this.c = this.topology.physicalSwitch();
+	this.d = this.topology.physicalSwitch();
+	this.topology.connect(this.a, (short) 2, this.b, (short) 1);
+	this.topology.connect(this.b, (short) 2, this.c, (short) 1);
+	this.topology.connect(this.a, (short) 3, this.d, (short) 1);
+	this.topology.connect(this.d, (short) 2, this.c, (short) 3);
+
+	this.bigSwitch = new OVXBigSwitch(this.a.getSwitchId(), net.getTenantId());
+	this.bigSwitch.register(Arrays.asList(this.a, this.b, this.c, this.d));
+	this.portA = new OVXPort(net.getTenantId(), this.a.getPort((short) 1), true);
+	this.portA.register();
+	this.portC = new OVXPort(net.getTenantId(), this.c.getPort((short) 2), true);
+	this.portC.register();
+	this.bigSwitch.setAlg(RoutingAlgorithms.ECMP);
+    }
+
+    protected void tearDown() throws Exception {
+	super.tearDown();
+    }
+
+}
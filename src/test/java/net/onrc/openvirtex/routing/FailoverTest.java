@@ -0,0 +1,139 @@
+package net.onrc.openvirtex.routing;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.elements.OVXMap;
+import net.onrc.openvirtex.elements.address.PhysicalIPAddress;
+import net.onrc.openvirtex.elements.datapath.OVXBigSwitch;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.link.OVXLink;
+import net.onrc.openvirtex.elements.link.PhysicalLink;
+import net.onrc.openvirtex.elements.network.OVXNetwork;
+import net.onrc.openvirtex.elements.network.PhysicalNetwork;
+import net.onrc.openvirtex.elements.network.TestTopology;
+import net.onrc.openvirtex.elements.port.OVXPort;
+
+public class FailoverTest extends TestCase {
+
+    private PhysicalNetwork phy = null;
+    private TestTopology topology = null;
+    private OVXMap map = null;
+    private OVXNetwork net = null;
+
+    public FailoverTest(String name) {
+	super(name);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static TestSuite suite() {
+	return new TestSuite(FailoverTest.class);
+    }
+
+    private static boolean shares(List<PhysicalLink> path, List<PhysicalLink> other) {
+	for (PhysicalLink link : path) {
+	    if (other.contains(link))
+		return true;
+	}
+	return false;
+    }
+
+    public void testPhysicalLinkEquality() throws InterruptedException {
+	PhysicalSwitch a = this.topology.physicalSwitch();
+	PhysicalSwitch b = this.topology.physicalSwitch();
+	PhysicalLink link = this.topology.connect(a, (short) 1, b, (short) 1);
+	PhysicalLink same = new PhysicalLink(a.getPort((short) 1), b.getPort((short) 1));
+	assertEquals(link, same);
+	assertEquals(link.hashCode(), same.hashCode());
+	assertFalse(link.equals(this.phy.getLink(b.getPort((short) 1), a.getPort((short) 1))));
+    }
+
+    public void testRouteFailover() throws InterruptedException {
+	// a diamond: a reaches c over b or d
+	PhysicalSwitch a = this.topology.physicalSwitch();
+	PhysicalSwitch b = this.topology.physicalSwitch();
+	PhysicalSwitch c = this.topology.physicalSwitch();
+	PhysicalSwitch d = this.topology.physicalSwitch();
+	this.topology.connect(a, (short) 2, b, (short) 1);
+	this.topology.connect(b, (short) 2, c, (short) 1);
+	this.topology.connect(a, (short) 3, d, (short) 1);
+	this.topology.connect(d, (short) 2, c, (short) 3);
+	OVXBigSwitch bigSwitch = new OVXBigSwitch(a.getSwitchId(), this.net.getTenantId());
+	bigSwitch.register(Arrays.asList(a, b, c, d));
+	OVXPort portA = new OVXPort(this.net.getTenantId(), a.getPort((short) 1), true);
+	portA.register();
+	OVXPort portC = new OVXPort(this.net.getTenantId(), c.getPort((short) 2), true);
+	portC.register();
+	bigSwitch.setAlg(RoutingAlgorithms.SFP);
+
+	SwitchRoute route = bigSwitch.getRoute(portA, portC);
+	SwitchRoute backup = route.getBackup();
+	assertNotNull(backup);
+	assertFalse(shares(route.getRoute(), backup.getRoute()));
+	assertFalse(route.getRouteId() == backup.getRouteId());
+	assertEquals(backup.getRouteId(), bigSwitch.getRoute(portC, portA).getBackup().getRouteId());
+	// the backup rules are in place before any link fails
+	assertFalse(this.net.getvLinkMgmt().getRouteFlowMods(backup).isEmpty());
+
+	PhysicalLink failed = route.getRoute().get(0);
+	assertTrue(this.map.getDependents(failed).contains(route));
+	this.phy.removeLink(failed.getSrcPort(), failed.getDstPort());
+	this.topology.settle();
+	assertSame(backup, bigSwitch.getRoute(portA, portC));
+	assertFalse(this.map.getDependents(failed).contains(route));
+	assertTrue(this.map.getDependents(backup.getRoute().get(0)).contains(backup));
+    }
+
+    public void testVirtualLinkFailover() throws InterruptedException {
+	// a line x - y - z - w, with a detour y - v - z
+	PhysicalSwitch x = this.topology.physicalSwitch();
+	PhysicalSwitch y = this.topology.physicalSwitch();
+	PhysicalSwitch z = this.topology.physicalSwitch();
+	PhysicalSwitch w = this.topology.physicalSwitch();
+	PhysicalSwitch v = this.topology.physicalSwitch();
+	PhysicalLink xy = this.topology.connect(x, (short) 2, y, (short) 1);
+	PhysicalLink yz = this.topology.connect(y, (short) 2, z, (short) 1);
+	PhysicalLink zw = this.topology.connect(z, (short) 2, w, (short) 1);
+	PhysicalLink yv = this.topology.connect(y, (short) 3, v, (short) 1);
+	PhysicalLink vz = this.topology.connect(v, (short) 2, z, (short) 3);
+	this.net.createSwitch(Collections.singletonList(x.getSwitchId()));
+	this.net.createSwitch(Collections.singletonList(w.getSwitchId()));
+	OVXLink link = this.net.createLink(Arrays.asList(xy, yz, zw));
+	assertTrue(this.map.getDependents(yz).contains(link));
+
+	this.phy.removeLink(y.getPort((short) 2), z.getPort((short) 1));
+	this.topology.settle();
+	assertEquals(Arrays.asList(xy, yv, vz, zw), this.map.getPhysicalLinks(link));
+	assertFalse(this.map.getDependents(yz).contains(link));
+	assertTrue(this.map.getDependents(yv).contains(link));
+	// the ports of the virtual link stay where they are
+	assertSame(x.getPort((short) 2), link.getSrcPort().getPhysicalPort());
+
+	// with the detour down too there is nowhere left to go
+	this.phy.removeLink(y.getPort((short) 3), v.getPort((short) 1));
+	this.topology.settle();
+	assertEquals(Arrays.asList(xy, yv, vz, zw), this.map.getPhysicalLinks(link));
+    }
+
+    protected void setUp() throws Exception {
+	super.setUp();
+	new OpenVirteXController(null, "localhost", 16633, 8, true);
+	this.net = new OVXNetwork("tcp", "localhost", 6633,
+		new PhysicalIPAddress("10.0.0.0"), (short) 24);
+	this.net.register();
+	this.phy = PhysicalNetwork.getInstance();
+	this.topology = new TestTopology(this.phy);
+	this.map = OVXMap.getInstance();
+    }
+
+    protected void tearDown() throws Exception {
+	super.tearDown();
+    }
+
+}
@@ -0,0 +1,153 @@
+package net.onrc.openvirtex.routing;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.elements.address.PhysicalIPAddress;
+import net.onrc.openvirtex.elements.datapath.OVXBigSwitch;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.network.OVXNetwork;
+import net.onrc.openvirtex.elements.network.PhysicalNetwork;
+import net.onrc.openvirtex.elements.network.TestTopology;
+import net.onrc.openvirtex.elements.port.OVXPort;
+import net.onrc.openvirtex.messages.OVXFlowMod;
+import net.onrc.openvirtex.messages.OVXPacketOut;
+import net.onrc.openvirtex.messages.actions.OVXActionOutput;
+
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPort;
+import org.openflow.protocol.OFType;
+import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.action.OFActionVirtualLanIdentifier;
+
+public class RouteUpdateTest extends TestCase {
+
+    private PhysicalNetwork phy = null;
+    private TestTopology topology = null;
+    private PhysicalSwitch a, b, c;
+    private OVXBigSwitch bigSwitch = null;
+    private OVXPort portA, portC;
+
+    public RouteUpdateTest(String name) {
+	super(name);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static TestSuite suite() {
+	return new TestSuite(RouteUpdateTest.class);
+    }
+
+    /* the tenant rule sending what comes in from port a out of port c */
+    private void forward() {
+	OVXFlowMod fm = new OVXFlowMod();
+	OFMatch match = new OFMatch();
+	match.setWildcards(OFMatch.OFPFW_ALL & ~OFMatch.OFPFW_IN_PORT);
+	match.setInputPort(this.portA.getPortNumber());
+	fm.setMatch(match);
+	fm.setCommand(OFFlowMod.OFPFC_ADD);
+	fm.setBufferId(OVXPacketOut.BUFFER_ID_NONE);
+	fm.setOutPort(OFPort.OFPP_NONE.getValue());
+	OVXActionOutput out = new OVXActionOutput();
+	out.setPort(this.portC.getPortNumber());
+	out.setMaxLength((short) 0xffff);
+	fm.setActions(Arrays.asList((OFAction) out));
+	fm.setLengthU(OVXFlowMod.MINIMUM_LENGTH + OVXActionOutput.MINIMUM_LENGTH);
+	fm.devirtualize(this.bigSwitch);
+    }
+
+    /* whether sw was sent a rule matching or tagging packets with the route id */
+    private boolean hasRule(PhysicalSwitch sw, int routeId) {
+	for (OFMessage msg : this.topology.getSent(sw)) {
+	    if (msg.getType() != OFType.FLOW_MOD)
+		continue;
+	    OFFlowMod fm = (OFFlowMod) msg;
+	    if (fm.getCommand() != OFFlowMod.OFPFC_DELETE
+		    && fm.getCommand() != OFFlowMod.OFPFC_DELETE_STRICT
+		    && fm.getMatch().getDataLayerVirtualLan() == (short) routeId)
+		return true;
+	    for (OFAction act : fm.getActions()) {
+		if (act instanceof OFActionVirtualLanIdentifier
+			&& ((OFActionVirtualLanIdentifier) act).getVirtualLanIdentifier() == (short) routeId)
+		    return true;
+	    }
+	}
+	return false;
+    }
+
+    public void testMakeBeforeBreak() {
+	SwitchRoute old = this.bigSwitch.getRoute(this.portA, this.portC);
+	SwitchRoute back = this.bigSwitch.getRoute(this.portC, this.portA);
+	this.forward();
+	assertTrue(this.hasRule(this.a, old.getRouteId()));
+	this.topology.clearSent();
+
+	this.topology.holdBarriers();
+	int id = this.bigSwitch.createRoute(this.portA, this.portC,
+		old.getRoute(), back.getRoute());
+	assertFalse(id == old.getRouteId());
+	// 1. the transit rule of the new route goes out, the old one stays in use
+	assertTrue(this.hasRule(this.b, id));
+	assertSame(old, this.bigSwitch.getRoute(this.portA, this.portC));
+	assertFalse(this.hasRule(this.a, id));
+	assertFalse(this.hasRule(this.c, id));
+
+	// 2. once b confirmed it, for both directions, the route is published
+	// and the egress of the tenant rule goes out for it, not its ingress yet
+	assertEquals(2, this.topology.answerBarriers(true));
+	SwitchRoute route = this.bigSwitch.getRoute(this.portA, this.portC);
+	assertEquals(id, route.getRouteId());
+	assertTrue(this.hasRule(this.c, id));
+	assertFalse(this.hasRule(this.a, id));
+
+	// 3. once c confirmed its egress rule, traffic is moved over
+	assertEquals(1, this.topology.answerBarriers(false));
+	assertTrue(this.hasRule(this.a, id));
+    }
+
+    public void testNewRoutePublishedAtOnce() {
+	OVXPort portB = new OVXPort(this.bigSwitch.getTenantId(),
+		this.b.getPort((short) 3), true);
+	this.topology.holdBarriers();
+	portB.register();
+	// nothing runs over a route that did not exist, nothing to wait for
+	assertNotNull(this.bigSwitch.getRoute(portB, this.portA));
+	assertNotNull(this.bigSwitch.getRoute(this.portC, portB));
+	this.topology.answerBarriers(false);
+    }
+
+    protected void setUp() throws Exception {
+	super.setUp();
+	new OpenVirteXController(null, "localhost", 16633, 8, true);
+	OVXNetwork net = new OVXNetwork("tcp", "localhost", 6633,
+		new PhysicalIPAddress("10.0.0.0"), (short) 24);
+	net.register();
+	this.phy = PhysicalNetwork.getInstance();
+	this.topology = new TestTopology(this.phy);
+
+	// a line a - b - c, port 1 of each switch towards a, port 2 towards c
+	this.a = this.topology.physicalSwitch();
+	this.b = this.topology.physicalSwitch();
+	this.c = this.topology.physicalSwitch();
+	this.topology.connect(this.a, (short) 2, this.b, (short) 1);
+	this.topology.connect(this.b, (short) 2, this.c, (short) 1);
+
+	this.bigSwitch = new OVXBigSwitch(this.a.getSwitchId(), net.getTenantId());
+	this.bigSwitch.register(Arrays.asList(this.a, this.b, this.c));
+	this.portA = new OVXPort(net.getTenantId(), this.a.getPort((short) 1), true);
+	this.portA.register();
+	this.portC = new OVXPort(net.getTenantId(), this.c.getPort((short) 2), true);
+	this.portC.register();
+	this.bigSwitch.setAlg(RoutingAlgorithms.SFP);
+    }
+
+    protected void tearDown() throws Exception {
+	super.tearDown();
+    }
+
+}
@@ -0,0 +1,141 @@
+package net.onrc.openvirtex.routing;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.elements.address.PhysicalIPAddress;
+import net.onrc.openvirtex.elements.datapath.OVXBigSwitch;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.link.PhysicalLink;
+import net.onrc.openvirtex.elements.network.OVXNetwork;
+import net.onrc.openvirtex.elements.network.PhysicalNetwork;
+import net.onrc.openvirtex.elements.network.TestTopology;
+import net.onrc.openvirtex.elements.port.OVXPort;
+
+public class ShortestPathTest extends TestCase {
+
+    private PhysicalNetwork phy = null;
+    private TestTopology topology = null;
+    private PhysicalSwitch a, b, c;
+    private OVXBigSwitch bigSwitch = null;
+    private OVXPort portA, portC;
+
+    public ShortestPathTest(String name) {
+	super(name);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static TestSuite suite() {
+	return new TestSuite(ShortestPathTest.class);
+    }
+
+    private int hops(OVXPort src, OVXPort dst) {
+	SwitchRoute route = this.bigSwitch.getRoute(src, dst);
+	return route == null ? -1 : route.getRoute().size();
+    }
+
+    public void testComputePath() {
+	assertEquals(2, this.bigSwitch.getRoutable().computePath(this.portA, this.portC).size());
+	assertNull(new ManualRoute().computePath(this.portA, this.portC));
+    }
+
+    public void testRoutesPrecomputed() {
+	SwitchRoute fwd = this.bigSwitch.getRoute(this.portA, this.portC);
+	SwitchRoute rev = this.bigSwitch.getRoute(this.portC, this.portA);
+	assertEquals(2, fwd.getRoute().size());
+	assertSame(this.a, fwd.getRoute().get(0).getSrcSwitch());
+	assertSame(this.c, fwd.getRoute().get(1).getDstSwitch());
+	// the reverse route takes the same links back, under the same id
+	assertEquals(fwd.getRouteId(), rev.getRouteId());
+	assertSame(this.c, rev.getRoute().get(0).getSrcSwitch());
+	assertSame(this.phy.getLink(fwd.getRoute().get(1).getDstPort(),
+		fwd.getRoute().get(1).getSrcPort()), rev.getRoute().get(0));
+	
+	// adding a port routes it to the others
+	OVXPort portB = new OVXPort(this.bigSwitch.getTenantId(), this.b.getPort((short) 3), true);
+	portB.register();
+	assertEquals(1, this.hops(portB, this.portA));
+	assertEquals(1, this.hops(this.portC, portB));
+    }
+
+    public void testLinkChanges() throws InterruptedException {
+	SwitchRoute before = this.bigSwitch.getRoute(this.portA, this.portC);
+	this.topology.connect(this.a, (short) 3, this.c, (short) 3);
+	assertEquals(1, this.hops(this.portA, this.portC));
+	assertEquals(1, this.hops(this.portC, this.portA));
+	SwitchRoute after = this.bigSwitch.getRoute(this.portA, this.portC);
+	assertFalse(before.getRouteId() == after.getRouteId());
+
+	// routes that do not use a link that goes down stay as they are
+	PhysicalLink direct = after.getRoute().get(0);
+	this.phy.removeLink(this.b.getPort((short) 2), this.c.getPort((short) 1));
+	this.topology.settle();
+	assertSame(after, this.bigSwitch.getRoute(this.portA, this.portC));
+
+	this.phy.removeLink(direct.getSrcPort(), direct.getDstPort());
+	this.topology.settle();
+	assertEquals(1, this.hops(this.portA, this.portC));
+	// with b-c gone too there is no route left, the old one is kept
+	assertSame(after, this.bigSwitch.getRoute(this.portA, this.portC));
+    }
+
+    public void testDetour() throws InterruptedException {
+	this.topology.connect(this.a, (short) 3, this.c, (short) 3);
+	assertEquals(1, this.hops(this.portA, this.portC));
+	this.phy.removeLink(this.a.getPort((short) 3), this.c.getPort((short) 3));
+	this.topology.settle();
+	assertEquals(2, this.hops(this.portA, this.portC));
+    }
+
+    public void testRouteIdsExhausted() {
+	OVXNetwork net = this.bigSwitch.getMap().getVirtualNetwork(this.bigSwitch.getTenantId());
+	SwitchRoute fwd = this.bigSwitch.getRoute(this.portA, this.portC);
+	SwitchRoute rev = this.bigSwitch.getRoute(this.portC, this.portA);
+	// route ids are VLAN ids: only one is left
+	net.getLinkCounter().set(OVXNetwork.MAX_LINK_ID);
+	
+	assertEquals(-1, this.bigSwitch.createRoutes(this.portA, this.portC,
+		Arrays.asList(fwd.getRoute(), fwd.getRoute()),
+		Arrays.asList(rev.getRoute(), rev.getRoute()), null, null));
+	assertSame(fwd, this.bigSwitch.getRoute(this.portA, this.portC));
+	assertEquals(OVXNetwork.MAX_LINK_ID, this.bigSwitch.createRoute(this.portA,
+		this.portC, fwd.getRoute(), rev.getRoute()));
+	assertEquals(-1, this.bigSwitch.createRoute(this.portA, this.portC,
+		fwd.getRoute(), rev.getRoute()));
+	assertEquals(-1, net.nextLinkIds(1));
+    }
+
+    protected void setUp() throws Exception {
+	super.setUp();
+	new OpenVirteXController(null, "localhost", 16633, 8, true);
+	OVXNetwork net = new OVXNetwork("tcp", "localhost", 6633,
+		new PhysicalIPAddress("10.0.0.0"), (short) 24);
+	net.register();
+	this.phy = PhysicalNetwork.getInstance();
+	this.topology = new TestTopology(this.phy);
+	
+	// a line a - b - c, port 1 of each switch towards a, port 2 towards c
+	this.a = this.topology.physicalSwitch();
+	this.b = this.topology.physicalSwitch();
+	this.c = this.topology.physicalSwitch();
+	this.topology.connect(this.a, (short) 2, this.b, (short) 1);
+	this.topology.connect(this.b, (short) 2, this.c, (short) 1);
+	
+	this.bigSwitch = new OVXBigSwitch(this.a.getSwitchId(), net.getTenantId());
+	this.bigSwitch.register(Arrays.asList(this.a, this.b, this.c));
+	this.portA = new OVXPort(net.getTenantId(), this.a.getPort((short) 1), true);
+	this.portA.register();
+	this.portC = new OVXPort(net.getTenantId(), this.c.getPort((short) 2), true);
+	this.portC.register();
+	this.bigSwitch.setAlg(RoutingAlgorithms.SFP);
+    }
+
+    protected void tearDown() throws Exception {
+	super.tearDown();
+    }
+
+}
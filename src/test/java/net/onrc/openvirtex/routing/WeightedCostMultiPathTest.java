@@ -0,0 +1,145 @@
+package net.onrc.openvirtex.routing;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import net.onrc.openvirtex.core.OpenVirteXController;
+import net.onrc.openvirtex.elements.address.PhysicalIPAddress;
+import net.onrc.openvirtex.elements.datapath.OVXBigSwitch;
+import net.onrc.openvirtex.elements.datapath.PhysicalSwitch;
+import net.onrc.openvirtex.elements.link.PhysicalLink;
+import net.onrc.openvirtex.elements.network.OVXNetwork;
+import net.onrc.openvirtex.elements.network.PhysicalNetwork;
+import net.onrc.openvirtex.elements.network.TestTopology;
+import net.onrc.openvirtex.elements.port.OVXPort;
+import net.onrc.openvirtex.elements.port.PhysicalPort;
+
+import org.openflow.protocol.OFMatch;
+
+public class WeightedCostMultiPathTest extends TestCase {
+
+    private PhysicalNetwork phy = null;
+    private TestTopology topology = null;
+    private PhysicalSwitch a, b, c, d;
+    private OVXBigSwitch bigSwitch = null;
+    private OVXPort portA, portC;
+
+    public WeightedCostMultiPathTest(String name) {
+	super(name);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static TestSuite suite() {
+	return new TestSuite(WeightedCostMultiPathTest.class);
+    }
+
+    private OFMatch flow(int nwSrc, short tpSrc) {
+	OFMatch match = new OFMatch();
+	match.setNetworkSource(nwSrc);
+	match.setNetworkDestination(0x0a000002);
+	match.setNetworkProtocol((byte) 6);
+	match.setTransportSource(tpSrc);
+	match.setTransportDestination((short) 80);
+	return match;
+    }
+
+    /*
+     * Feeds the port two counter samples a second apart, as the poller
+     * would, so it shows rate bit/s of traffic.
+     */
+    private void load(PhysicalSwitch sw, short port, long rate) {
+	PhysicalPort p = sw.getPort(port);
+	p.updateLoad(0, 1000);
+	p.updateLoad(rate / 8, 2000);
+    }
+
+    public void testLoadAveraged() {
+	PhysicalPort port = this.a.getPort((short) 2);
+	// ports that report no speed are taken for 1 Gb/s
+	assertEquals(1000000000L, port.getCapacity());
+	port.updateLoad(0, 1000);
+	assertEquals(0.0, port.getLoad());
+	port.updateLoad(100000000, 2000);
+	assertEquals(400000000.0, port.getLoad());
+	// a reset counter only sets a new baseline
+	port.updateLoad(0, 3000);
+	assertEquals(400000000.0, port.getLoad());
+	port.updateLoad(0, 4000);
+	assertEquals(200000000.0, port.getLoad());
+	PhysicalLink link = this.phy.getLink(port, this.b.getPort((short) 1));
+	assertEquals(800000000.0, link.getResidualCapacity());
+    }
+
+    public void testFlowsAvoidHotLink() {
+	// the link from a to b is full, the one from a to d idle
+	this.load(this.a, (short) 2, 2000000000L);
+	for (int i = 0 ; i < 64 ; i++) {
+	    SwitchRoute route = this.bigSwitch.getRoute(this.portA, this.portC,
+		    this.flow(0x0a000001 + i, (short) (1024 + i)));
+	    assertSame(this.d, route.getRoute().get(0).getDstSwitch());
+	}
+	// as the link eases, flows are spread by the room left on the paths
+	this.load(this.a, (short) 2, 500000000L);
+	int overB = 0;
+	for (int i = 0 ; i < 256 ; i++) {
+	    SwitchRoute route = this.bigSwitch.getRoute(this.portA, this.portC,
+		    this.flow(0x0a000001 + i, (short) (1024 + i)));
+	    // a flow takes the same path as long as the loads do not change
+	    assertSame(route, this.bigSwitch.getRoute(this.portA, this.portC,
+		    this.flow(0x0a000001 + i, (short) (1024 + i))));
+	    if (route.getRoute().get(0).getDstSwitch() == this.b)
+		overB++;
+	}
+	assertTrue(overB > 0);
+	assertTrue(overB < 128);
+    }
+
+    public void testPathWithMostRoomPreferred() {
+	assertEquals(2, this.bigSwitch.getRoute(this.portA, this.portC)
+		.getPaths().size());
+	this.load(this.b, (short) 2, 600000000L);
+	LinkedList<PhysicalLink> path = this.bigSwitch.getRoutable()
+		.computePath(this.portA, this.portC);
+	assertSame(this.d, path.get(0).getDstSwitch());
+	this.load(this.d, (short) 2, 900000000L);
+	path = this.bigSwitch.getRoutable().computePath(this.portA, this.portC);
+	assertSame(this.b, path.get(0).getDstSwitch());
+    }
+
+    protected void setUp() throws Exception {
+	super.setUp();
+	new OpenVirteXController(null, "localhost", 16633, 8, true);
+	OVXNetwork net = new OVXNetwork("tcp", "localhost", 6633,
+		new PhysicalIPAddress("10.0.0.0"), (short) 24);
+	net.register();
+	this.phy = PhysicalNetwork.getInstance();
+	this.topology = new TestTopology(this.phy);
+
+	// a diamond: a reaches c over b or d
+	this.a = this.topology.physicalSwitch();
+	this.b = this.topology.physicalSwitch();
+	this.c = this.topology.physicalSwitch();
+	this.d = this.topology.physicalSwitch();
+	this.topology.connect(this.a, (short) 2, this.b, (short) 1);
+	this.topology.connect(this.b, (short) 2, this.c, (short) 1);
+	this.topology.connect(this.a, (short) 3, this.d, (short) 1);
+	this.topology.connect(this.d, (short) 2, this.c, (short) 3);
+
+	this.bigSwitch = new OVXBigSwitch(this.a.getSwitchId(), net.getTenantId());
+	this.bigSwitch.register(Arrays.asList(this.a, this.b, this.c, this.d));
+	this.portA = new OVXPort(net.getTenantId(), this.a.getPort((short) 1), true);
+	this.portA.register();
+	this.portC = new OVXPort(net.getTenantId(), this.c.getPort((short) 2), true);
+	this.portC.register();
+	this.bigSwitch.setAlg(RoutingAlgorithms.WCMP);
+    }
+
+    protected void tearDown() throws Exception {
+	super.tearDown();
+    }
+
+}
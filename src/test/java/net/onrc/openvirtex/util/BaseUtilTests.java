@@ -0,0 +1,16 @@
+package net.onrc.openvirtex.util;
+
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+public class BaseUtilTests {
+
+    public static Test suite() {
+	TestSuite suite = new TestSuite(BaseUtilTests.class.getName());
+	//$JUnit-BEGIN$
+	suite.addTest(ConcurrentLongHashMapTest.suite());
+	//$JUnit-END$
+	return suite;
+    }
+
+}
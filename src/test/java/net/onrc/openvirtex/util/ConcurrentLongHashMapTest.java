@@ -0,0 +1,89 @@
+package net.onrc.openvirtex.util;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class ConcurrentLongHashMapTest extends TestCase {
+
+    private ConcurrentLongHashMap<String> map;
+    
+    public ConcurrentLongHashMapTest(String name) {
+	super(name);
+    }
+    
+    public static Test suite() {
+	return new TestSuite( ConcurrentLongHashMapTest.class );
+    }
+    
+    public void testPutGet() {
+	this.map.put(0, "zero");
+	this.map.put(1, "one");
+	this.map.put(-1L, "minus one");
+	this.map.put(1, "uno");
+	
+	assertEquals("zero", this.map.get(0));
+	assertEquals("uno", this.map.get(1));
+	assertEquals("minus one", this.map.get(-1L));
+	assertNull(this.map.get(2));
+	assertEquals(3, this.map.size());
+	assertEquals("uno", this.map.putIfAbsent(1, "one"));
+    }
+    
+    public void testRemove() {
+	for (long k = 0; k < 20; k++)
+	    this.map.put(k, "v" + k);
+	
+	assertEquals("v0", this.map.remove(0));
+	assertEquals("v7", this.map.remove(7));
+	assertNull(this.map.remove(7));
+	assertNull(this.map.remove(100));
+	assertEquals(18, this.map.size());
+	
+	assertNull(this.map.get(0));
+	assertNull(this.map.get(7));
+	// keys probed past a removed one are still found
+	for (long k = 1; k < 20; k++)
+	    if (k != 7)
+		assertEquals("v" + k, this.map.get(k));
+	
+	this.map.put(7, "again");
+	assertEquals("again", this.map.get(7));
+	assertEquals(19, this.map.size());
+    }
+    
+    public void testChurnDoesNotGrow() {
+	int capacity = this.map.capacity();
+	// far more keys than the table holds, but never more than 8 at once
+	for (long k = 1; k < 10000; k++) {
+	    this.map.put(k, "v");
+	    if (k > 8)
+		assertEquals("v", this.map.remove(k - 8));
+	}
+	assertEquals(8, this.map.size());
+	assertEquals(capacity, this.map.capacity());
+	for (long k = 10000 - 8; k < 10000; k++)
+	    assertEquals("v", this.map.get(k));
+	assertNull(this.map.get(10000 - 9));
+    }
+    
+    public void testGrow() {
+	for (long k = 1; k <= 1000; k++)
+	    this.map.put(k << 20, "v" + k);
+	
+	assertEquals(1000, this.map.size());
+	assertTrue(this.map.capacity() >= 2000);
+	for (long k = 1; k <= 1000; k++)
+	    assertEquals("v" + k, this.map.get(k << 20));
+    }
+    
+    protected void setUp() throws Exception {
+	this.map = new ConcurrentLongHashMap<String>();
+	super.setUp();
+    }
+
+    protected void tearDown() throws Exception {
+	super.tearDown();
+    }
+
+}